@@ -23,6 +23,7 @@ import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.SimpleModificationTracker;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.xmlb.annotations.Property;
 import com.intellij.util.xmlb.annotations.Tag;
@@ -30,10 +31,13 @@ import org.jdom.Element;
 import org.jetbrains.annotations.Nullable;
 
 /**
+ * Modification count is incremented when the state (e.g. mappings) is replaced.
+ *
  * @author vnikolaenko
  */
 @State(name = "CfmlProjectConfiguration", storages = @Storage("cfml.xml"))
-public class CfmlProjectConfiguration implements PersistentStateComponent<CfmlProjectConfiguration.State> {
+public class CfmlProjectConfiguration extends SimpleModificationTracker
+  implements PersistentStateComponent<CfmlProjectConfiguration.State> {
   private State myState = new State();
 
   public static CfmlProjectConfiguration getInstance(Project project) {
@@ -49,6 +53,7 @@ public class CfmlProjectConfiguration implements PersistentStateComponent<CfmlPr
   @Override
   public void loadState(State state) {
     myState = state;
+    incModificationCount();
     if (state == null) {
       return;
     }
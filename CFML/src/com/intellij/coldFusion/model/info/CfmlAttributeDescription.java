@@ -60,6 +60,15 @@ public class CfmlAttributeDescription implements Comparable<CfmlAttributeDescrip
     return myNamePattern.matcher(myNamePattern.pattern()).matches() ? myNamePattern.pattern() : myCompletionExample;
   }
 
+  String getNamePattern() {
+    return myNamePattern.pattern();
+  }
+
+  @Nullable
+  String getCompletionExample() {
+    return myCompletionExample;
+  }
+
   public String getDescription() {
     return myDescription;
   }
@@ -15,7 +15,7 @@
  */
 package com.intellij.coldFusion.model.info;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -25,7 +25,7 @@ public class CfmlFunctionDescription {
   private String myName;
   private String myReturnType;
   private String myDescription;
-  private List<CfmlParameterDescription> myParameters = new LinkedList<>();
+  private List<CfmlParameterDescription> myParameters = new ArrayList<>();
 
   public CfmlFunctionDescription(String name, String returnType) {
     myName = name;
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion.model.info;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compiles the tags and functions descriptions of a language level (<code>tags.xml</code>, <code>cf10_tags.xml</code>, ...)
+ * into a binary dictionary, which is much faster to load than the XML. Each distinct string is stored only once, so loaded
+ * descriptions share the same string instances.
+ * <p>
+ * Compiled dictionaries are cached in the system directory. The first load of a language level parses the XML and saves the
+ * compiled dictionary, later loads, also in later sessions, read it. A compiled dictionary is used only if it has been compiled
+ * from the same XML, otherwise the XML is parsed and compiled again.
+ * <p>
+ * Format: <code>int magic, int version, long XML checksum, string table, tags, functions, predefined variables</code>;
+ * strings are referenced by their index in the table, <code>-1</code> stands for <code>null</code>.
+ */
+public class CfmlLangDictionaryCompiler {
+  private static final Logger LOG = Logger.getInstance(CfmlLangDictionaryCompiler.class.getName());
+
+  private static final int MAGIC = 0x43464D44; // "CFMD"
+  private static final int FORMAT_VERSION = 1;
+
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  static File getCacheDir() {
+    return new File(PathManager.getSystemPath(), "cfml/dictionaries");
+  }
+
+  public static String getCompiledFileName(String tagsFileName) {
+    return StringUtil.trimEnd(tagsFileName, ".xml") + ".dic";
+  }
+
+  /**
+   * Reads the dictionary of the language level compiled to the cache directory, parses the XML and compiles it to the cache
+   * directory if there is no up-to-date compiled dictionary.
+   */
+  public static CfmlLangInfo.CfmlLangDictionary load(String scopesFileName, String tagsFileName, File cacheDir) {
+    long checksum;
+    try {
+      checksum = computeChecksum(tagsFileName);
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to read " + tagsFileName, e);
+      return new CfmlLangInfo.CfmlLangDictionary(scopesFileName, tagsFileName);
+    }
+
+    File file = new File(cacheDir, getCompiledFileName(tagsFileName));
+    CfmlLangInfo.CfmlLangDictionary dictionary = loadCompiled(file, checksum);
+    if (dictionary != null) {
+      dictionary.myVariableScopes = CfmlLangInfo.readStringsFromFile(scopesFileName);
+      return dictionary;
+    }
+
+    dictionary = new CfmlLangInfo.CfmlLangDictionary(scopesFileName, tagsFileName);
+    save(dictionary, checksum, file);
+    return dictionary;
+  }
+
+  /**
+   * @return the dictionary compiled from the XML with the checksum, or null if there is no such one
+   */
+  @Nullable
+  private static CfmlLangInfo.CfmlLangDictionary loadCompiled(File file, long checksum) {
+    if (!file.isFile()) return null;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return read(in, checksum);
+    }
+    catch (IOException e) {
+      LOG.info("Unable to load the compiled dictionary " + file, e);
+      return null;
+    }
+  }
+
+  private static void save(CfmlLangInfo.CfmlLangDictionary dictionary, long checksum, File file) {
+    try {
+      FileUtil.createDirectory(file.getParentFile());
+      // write to temp file first, a partially written dictionary is never read because its file appears only when complete
+      File tempFile = FileUtil.createTempFile(file.getParentFile(), file.getName(), TEMP_FILE_SUFFIX, true, false);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        write(dictionary, checksum, out);
+      }
+      FileUtil.delete(file);
+      if (!tempFile.renameTo(file)) {
+        FileUtil.delete(tempFile);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to save the compiled dictionary " + file, e);
+    }
+  }
+
+  public static long computeChecksum(String tagsFileName) throws IOException {
+    InputStream stream = CfmlLangInfo.class.getResourceAsStream(tagsFileName);
+    if (stream == null) throw new FileNotFoundException(tagsFileName);
+
+    CRC32 crc = new CRC32();
+    try (InputStream in = stream) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+      }
+    }
+    return crc.getValue();
+  }
+
+  public static void write(CfmlLangInfo.CfmlLangDictionary dictionary, long sourceChecksum, DataOutput out) throws IOException {
+    StringTable strings = new StringTable();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream body = new DataOutputStream(bytes);
+
+    body.writeInt(dictionary.myTagAttributes.size());
+    for (CfmlTagDescription tag : dictionary.myTagAttributes.values()) {
+      strings.write(body, tag.getName());
+      strings.write(body, tag.getDescription());
+      body.writeBoolean(tag.isSingle());
+      body.writeBoolean(tag.isEndTagRequired());
+      body.writeInt(tag.getAttributes().size());
+      for (CfmlAttributeDescription attribute : tag.getAttributes()) {
+        strings.write(body, attribute.getNamePattern());
+        body.writeInt(attribute.getType());
+        body.writeBoolean(attribute.isRequired());
+        strings.write(body, attribute.getDescription());
+        strings.write(body, attribute.getCompletionExample());
+        String[] values = attribute.getValues();
+        body.writeInt(values == null ? -1 : values.length);
+        if (values != null) {
+          for (String value : values) {
+            strings.write(body, value);
+          }
+        }
+      }
+    }
+
+    body.writeInt(dictionary.myPredefinedFunctions.length);
+    for (String function : dictionary.myPredefinedFunctions) {
+      strings.write(body, function);
+    }
+    body.writeInt(dictionary.myFunctionParameters.size());
+    for (Map.Entry<String, CfmlFunctionDescription> entry : dictionary.myFunctionParameters.entrySet()) {
+      CfmlFunctionDescription function = entry.getValue();
+      strings.write(body, entry.getKey());
+      strings.write(body, function.getName());
+      strings.write(body, function.getReturnType());
+      strings.write(body, function.getDescription());
+      body.writeInt(function.getParameters().size());
+      for (CfmlFunctionDescription.CfmlParameterDescription parameter : function.getParameters()) {
+        strings.write(body, parameter.getName());
+        strings.write(body, parameter.getType());
+        body.writeBoolean(parameter.isRequired());
+        strings.write(body, parameter.getDescription());
+      }
+    }
+
+    body.writeInt(dictionary.myPredefinedVariables.size());
+    for (Map.Entry<String, Integer> entry : dictionary.myPredefinedVariables.entrySet()) {
+      strings.write(body, entry.getKey());
+      body.writeInt(entry.getValue());
+    }
+    body.flush();
+
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeLong(sourceChecksum);
+    strings.writeTable(out);
+    out.write(bytes.toByteArray());
+  }
+
+  /**
+   * @return null if the dictionary has another format or has been compiled from another XML
+   */
+  @Nullable
+  public static CfmlLangInfo.CfmlLangDictionary read(DataInput in, long sourceChecksum) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != sourceChecksum) {
+      return null;
+    }
+
+    String[] strings = new String[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    CfmlLangInfo.CfmlLangDictionary dictionary = new CfmlLangInfo.CfmlLangDictionary();
+
+    int tagsCount = in.readInt();
+    dictionary.myTagAttributes = new HashMap<>(tagsCount * 4 / 3 + 1);
+    for (int i = 0; i < tagsCount; i++) {
+      String name = readString(in, strings);
+      String description = readString(in, strings);
+      boolean isSingle = in.readBoolean();
+      boolean isEndTagRequired = in.readBoolean();
+      CfmlTagDescription tag = new CfmlTagDescription(name, isSingle, isEndTagRequired);
+      tag.setDescription(description);
+
+      int attributesCount = in.readInt();
+      for (int j = 0; j < attributesCount; j++) {
+        String attributeName = readString(in, strings);
+        int type = in.readInt();
+        boolean required = in.readBoolean();
+        String attributeDescription = readString(in, strings);
+        String completionExample = readString(in, strings);
+        CfmlAttributeDescription attribute =
+          new CfmlAttributeDescription(attributeName, type, required, attributeDescription, completionExample);
+        int valuesCount = in.readInt();
+        for (int k = 0; k < valuesCount; k++) {
+          attribute.addValue(readString(in, strings));
+        }
+        tag.addAttribute(attribute);
+      }
+      dictionary.myTagAttributes.put(name, tag);
+    }
+
+    dictionary.myPredefinedFunctions = new String[in.readInt()];
+    for (int i = 0; i < dictionary.myPredefinedFunctions.length; i++) {
+      dictionary.myPredefinedFunctions[i] = readString(in, strings);
+    }
+    int functionsCount = in.readInt();
+    dictionary.myFunctionParameters = new HashMap<>(functionsCount * 4 / 3 + 1);
+    for (int i = 0; i < functionsCount; i++) {
+      String key = readString(in, strings);
+      CfmlFunctionDescription function = new CfmlFunctionDescription(readString(in, strings), readString(in, strings));
+      function.setDescription(readString(in, strings));
+      int parametersCount = in.readInt();
+      for (int j = 0; j < parametersCount; j++) {
+        CfmlFunctionDescription.CfmlParameterDescription parameter =
+          new CfmlFunctionDescription.CfmlParameterDescription(readString(in, strings), readString(in, strings), in.readBoolean());
+        parameter.setDescription(readString(in, strings));
+        function.addParameter(parameter);
+      }
+      dictionary.myFunctionParameters.put(key, function);
+    }
+    dictionary.myPredefinedFunctionsInLowCase = ArrayUtil.toStringArray(dictionary.myFunctionParameters.keySet());
+
+    int variablesCount = in.readInt();
+    dictionary.myPredefinedVariables = new HashMap<>(variablesCount * 4 / 3 + 1);
+    for (int i = 0; i < variablesCount; i++) {
+      String name = readString(in, strings);
+      dictionary.myPredefinedVariables.put(name, in.readInt());
+    }
+    return dictionary;
+  }
+
+  @Nullable
+  private static String readString(DataInput in, String[] strings) throws IOException {
+    int index = in.readInt();
+    return index == -1 ? null : strings[index];
+  }
+
+  private static class StringTable {
+    private final Map<String, Integer> myIndices = new LinkedHashMap<>();
+
+    void write(DataOutput out, @Nullable String s) throws IOException {
+      if (s == null) {
+        out.writeInt(-1);
+        return;
+      }
+      Integer index = myIndices.get(s);
+      if (index == null) {
+        index = myIndices.size();
+        myIndices.put(s, index);
+      }
+      out.writeInt(index);
+    }
+
+    void writeTable(DataOutput out) throws IOException {
+      out.writeInt(myIndices.size());
+      for (String s : myIndices.keySet()) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+}
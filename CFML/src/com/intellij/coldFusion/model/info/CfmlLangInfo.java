@@ -20,7 +20,6 @@ import com.intellij.coldFusion.model.CfmlLanguage;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.text.LineReader;
@@ -31,6 +30,7 @@ import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.io.InputStream;
 import java.lang.ref.Reference;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -38,9 +38,12 @@ import java.util.Map;
  * @author vnikolaenko
  */
 public class CfmlLangInfo {
+  static final String SCOPES_FILE = "scopes.txt";
+
+  // dictionaries don't depend on a project, so each language level is loaded once for all projects
+  private static final Map<String, Reference<CfmlLangDictionary>> ourDictionaries = new HashMap<>();
+
   private final Project myProject;
-  private Reference<CfmlLangDictionary> myCFDictionary;
-  private String myCFDictionaryLevel;
 
   public static CfmlLangInfo getInstance(Project project) {
     return ServiceManager.getService(project, CfmlLangInfo.class);
@@ -73,6 +76,9 @@ public class CfmlLangInfo {
       myPredefinedVariables = cfmlTagsParser.getPredefinedVariables();
     }
 
+    CfmlLangDictionary() {
+    }
+
     public String[] myPredefinedFunctions;
     public Map<String, Integer> myPredefinedVariables;
     public String[] myPredefinedFunctionsInLowCase;
@@ -81,25 +87,23 @@ public class CfmlLangInfo {
     public Map<String, CfmlFunctionDescription> myFunctionParameters;
   }
 
-  private CfmlLangDictionary getProjectDictionary() {
-    String languageLevel = getLanguageLevel();
-    CfmlLangDictionary dictionary;
-
-    if (Comparing.equal(myCFDictionaryLevel, languageLevel)) {
-      dictionary = SoftReference.dereference(myCFDictionary);
-      if (dictionary != null) return dictionary;
-    }
-
-    synchronized (CfmlLangInfo.class) {
-      dictionary = SoftReference.dereference(myCFDictionary);
-      if (dictionary == null || !Comparing.equal(myCFDictionaryLevel, languageLevel)) {
-        dictionary = new CfmlLangDictionary("scopes.txt", languageLevel);
-        myCFDictionary = new SoftReference<>(dictionary);
-        myCFDictionaryLevel = languageLevel;
+  /**
+   * Loads the dictionary compiled and cached by {@link CfmlLangDictionaryCompiler}, which parses the XML only if there is no
+   * up-to-date one. The dictionary is shared by all projects of the language level until it is collected.
+   */
+  public static CfmlLangDictionary getDictionary(String languageLevel) {
+    synchronized (ourDictionaries) {
+      CfmlLangDictionary dictionary = SoftReference.dereference(ourDictionaries.get(languageLevel));
+      if (dictionary == null) {
+        dictionary = CfmlLangDictionaryCompiler.load(SCOPES_FILE, languageLevel, CfmlLangDictionaryCompiler.getCacheDir());
+        ourDictionaries.put(languageLevel, new SoftReference<>(dictionary));
       }
+      return dictionary;
     }
+  }
 
-    return dictionary;
+  private CfmlLangDictionary getProjectDictionary() {
+    return getDictionary(getLanguageLevel());
   }
 
   public String getLanguageLevel() {
@@ -138,7 +142,7 @@ public class CfmlLangInfo {
   private static final Logger LOG = Logger.getInstance(CfmlLangInfo.class.getName());
 
   @Nullable
-  private static String[] readStringsFromFile(String fileName) {
+  static String[] readStringsFromFile(String fileName) {
     String[] result = null;
     try {
       InputStream predefined = CfmlLangInfo.class.getResourceAsStream(fileName);
@@ -17,8 +17,8 @@ package com.intellij.coldFusion.model.info;
 
 import com.intellij.util.containers.HashSet;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.Set;
 
 /**
@@ -26,7 +26,7 @@ import java.util.Set;
  */
 public class CfmlTagDescription {
   private String myDescription = "";
-  private Collection<CfmlAttributeDescription> myAttributes = new LinkedList<>();
+  private Collection<CfmlAttributeDescription> myAttributes = new ArrayList<>();
   private Set<String> myAttributesNames = new HashSet<>();
   private boolean myIsSingle = false;
   private boolean myIsEndTagRequired = true;
@@ -29,6 +29,7 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Couple;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
@@ -38,6 +39,10 @@ import com.intellij.psi.*;
 import com.intellij.psi.impl.source.resolve.ResolveCache;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.GlobalSearchScopes;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.Function;
 import com.intellij.util.IncorrectOperationException;
@@ -50,13 +55,19 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author vnikolaenko
  */
 // TODO: correctly deal with intersecting mappings (or show error?)
 public class CfmlComponentReference extends CfmlCompositeElement implements CfmlReference, PlatformIcons {
+  private static final Key<CachedValue<ConcurrentMap<String, Collection<CfmlComponent>>>> MAPPED_COMPONENTS_KEY =
+    Key.create("cfml.mapped.components");
+
   private PsiElement myParent = null;
 
   public CfmlComponentReference(@NotNull ASTNode node) {
@@ -161,64 +172,7 @@ public class CfmlComponentReference extends CfmlCompositeElement implements Cfml
     }
 
     if (result.isEmpty()) {
-      String componentName = getComponentName(componentQualifiedName);
-
-      int i = componentQualifiedName.lastIndexOf(".");
-      String directoryName;
-      if (i == -1) {
-        directoryName = "";
-      }
-      else {
-        directoryName = componentQualifiedName.substring(0, i);
-      }
-
-      CfmlProjectConfiguration.State state = CfmlProjectConfiguration.getInstance(project).getState();
-      CfmlMappingsConfig mappings = state != null ? state.getMapps().clone() : new CfmlMappingsConfig();
-      adjustMappingsIfEmpty(mappings, originalFile.getProject());
-      // addFakeMappingsForResolution(mappings);
-      List<String> realPossiblePaths = mappings.mapVirtualToReal(directoryName);
-      // Collections.sort(realPossiblePaths);
-
-      final Collection<CfmlComponent> components = CfmlIndex.getInstance(project).getComponentsByName(
-        componentName);
-      components.addAll(CfmlIndex.getInstance(project).getInterfacesByName(
-        componentName));
-
-      for (CfmlComponent component : components) {
-        PsiDirectory parent = component.getContainingFile().getParent();
-        if (parent == null) {
-          continue;
-        }
-        VirtualFile virtualFile = parent.getVirtualFile();
-        for (String realPath : realPossiblePaths) {
-          if (FileUtil.toSystemIndependentName(realPath).equals(FileUtil.toSystemIndependentName(virtualFile.getPresentableUrl()))) {
-            result.add(component);
-            break;
-          }
-        }
-      }
-
-      for (String realPath : realPossiblePaths) {
-        VirtualFile fileByUrl = LocalFileSystem.getInstance().findFileByPath(realPath);
-        if (fileByUrl != null) {
-          PsiFile file = PsiManager.getInstance(project).findFile(fileByUrl);
-          if (file != null) {
-            PsiDirectory directory = file.getParent();
-            if (directory != null) {
-              GlobalSearchScope searchScope = GlobalSearchScopes.directoryScope(directory, false);
-
-              final Collection<CfmlComponent> componentsFromGlobalScope = CfmlIndex.getInstance(project).getComponentsByNameInScope(
-                componentName, searchScope);
-              componentsFromGlobalScope.addAll(CfmlIndex.getInstance(project).getInterfacesByNameInScope(
-                componentName, searchScope));
-
-              for (CfmlComponent component : componentsFromGlobalScope) {
-                result.add(component);
-              }
-            }
-          }
-        }
-      }
+      result.addAll(resolveFromMappings(componentQualifiedName, project));
     }
 
     if (result.isEmpty()) {
@@ -237,6 +191,87 @@ public class CfmlComponentReference extends CfmlCompositeElement implements Cfml
     return result;
   }
 
+  /**
+   * Components found by the server mappings don't depend on the file the name is resolved from, so they are cached
+   * per project by qualified name until PSI, project roots or mappings are changed.
+   */
+  private static Collection<CfmlComponent> resolveFromMappings(@NotNull String componentQualifiedName, @NotNull Project project) {
+    final ConcurrentMap<String, Collection<CfmlComponent>> cache = CachedValuesManager.getManager(project).getCachedValue(
+      project, MAPPED_COMPONENTS_KEY, () -> CachedValueProvider.Result.create(
+        new ConcurrentHashMap<String, Collection<CfmlComponent>>(), PsiModificationTracker.MODIFICATION_COUNT,
+        ProjectRootManager.getInstance(project), CfmlProjectConfiguration.getInstance(project)), false);
+
+    Collection<CfmlComponent> result = cache.get(componentQualifiedName);
+    if (result == null) {
+      result = Collections.unmodifiableList(doResolveFromMappings(componentQualifiedName, project));
+      cache.put(componentQualifiedName, result);
+    }
+    return result;
+  }
+
+  private static List<CfmlComponent> doResolveFromMappings(@NotNull String componentQualifiedName, @NotNull Project project) {
+    List<CfmlComponent> result = new ArrayList<>();
+    String componentName = getComponentName(componentQualifiedName);
+
+    int i = componentQualifiedName.lastIndexOf(".");
+    String directoryName;
+    if (i == -1) {
+      directoryName = "";
+    }
+    else {
+      directoryName = componentQualifiedName.substring(0, i);
+    }
+
+    CfmlProjectConfiguration.State state = CfmlProjectConfiguration.getInstance(project).getState();
+    CfmlMappingsConfig mappings = state != null ? state.getMapps().clone() : new CfmlMappingsConfig();
+    adjustMappingsIfEmpty(mappings, project);
+    // addFakeMappingsForResolution(mappings);
+    List<String> realPossiblePaths = mappings.mapVirtualToReal(directoryName);
+    // Collections.sort(realPossiblePaths);
+
+    final Collection<CfmlComponent> components = CfmlIndex.getInstance(project).getComponentsByName(
+      componentName);
+    components.addAll(CfmlIndex.getInstance(project).getInterfacesByName(
+      componentName));
+
+    for (CfmlComponent component : components) {
+      PsiDirectory parent = component.getContainingFile().getParent();
+      if (parent == null) {
+        continue;
+      }
+      VirtualFile virtualFile = parent.getVirtualFile();
+      for (String realPath : realPossiblePaths) {
+        if (FileUtil.toSystemIndependentName(realPath).equals(FileUtil.toSystemIndependentName(virtualFile.getPresentableUrl()))) {
+          result.add(component);
+          break;
+        }
+      }
+    }
+
+    for (String realPath : realPossiblePaths) {
+      VirtualFile fileByUrl = LocalFileSystem.getInstance().findFileByPath(realPath);
+      if (fileByUrl != null) {
+        PsiFile file = PsiManager.getInstance(project).findFile(fileByUrl);
+        if (file != null) {
+          PsiDirectory directory = file.getParent();
+          if (directory != null) {
+            GlobalSearchScope searchScope = GlobalSearchScopes.directoryScope(directory, false);
+
+            final Collection<CfmlComponent> componentsFromGlobalScope = CfmlIndex.getInstance(project).getComponentsByNameInScope(
+              componentName, searchScope);
+            componentsFromGlobalScope.addAll(CfmlIndex.getInstance(project).getInterfacesByNameInScope(
+              componentName, searchScope));
+
+            for (CfmlComponent component : componentsFromGlobalScope) {
+              result.add(component);
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
   private final ResolveCache.PolyVariantResolver<CfmlComponentReference> MY_RESOLVER =
     new ResolveCache.PolyVariantResolver<CfmlComponentReference>() {
       @NotNull
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion;
+
+import com.intellij.coldFusion.model.CfmlLanguage;
+import com.intellij.coldFusion.model.info.*;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+
+public class CfmlLangInfoTest extends CfmlCodeInsightFixtureTestCase {
+  private static final String[] LANGUAGE_LEVELS = {
+    CfmlLanguage.CF8, CfmlLanguage.CF9, CfmlLanguage.CF10, CfmlLanguage.CF11, CfmlLanguage.RAILO
+  };
+  private static final String SCOPES_FILE = "scopes.txt";
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 20;
+  private static final int RETAINED_COPIES = 5;
+  private static Object[] ourRetained;
+
+  private File myCacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = FileUtil.createTempDirectory("cfml_dictionaries_", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myCacheDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testDictionaryLoadedFromCacheIsTheSameAsParsed() throws IOException {
+    for (String languageLevel : LANGUAGE_LEVELS) {
+      CfmlLangInfo.CfmlLangDictionary parsed = parse(languageLevel);
+      assertEquals(languageLevel, dump(parsed), dump(load(languageLevel)));
+      File compiled = getCompiledFile(languageLevel);
+      assertTrue(languageLevel, compiled.isFile());
+
+      // a whole number of seconds survives the file system timestamp resolution
+      long timestamp = (compiled.lastModified() / 1000 - 10) * 1000;
+      assertTrue(compiled.setLastModified(timestamp));
+      assertEquals(languageLevel, dump(parsed), dump(load(languageLevel)));
+      assertEquals("the cached dictionary is read, not compiled again", timestamp, compiled.lastModified());
+    }
+  }
+
+  public void testDictionaryCompiledFromAnotherXmlIsCompiledAgain() throws IOException {
+    File compiled = getCompiledFile(CfmlLanguage.CF10);
+    long checksum = CfmlLangDictionaryCompiler.computeChecksum(CfmlLanguage.CF10);
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(compiled))) {
+      // the CF11 dictionary written as if it was compiled from another CF10 XML
+      CfmlLangDictionaryCompiler.write(parse(CfmlLanguage.CF11), checksum + 1, out);
+    }
+
+    assertEquals(dump(parse(CfmlLanguage.CF10)), dump(load(CfmlLanguage.CF10)));
+    assertNotNull(readCompiled(compiled, checksum));
+  }
+
+  public void testDictionaryIsSharedPerLanguageLevel() {
+    CfmlLangInfo langInfo = CfmlLangInfo.getInstance(getProject());
+    CfmlLangInfo.CfmlLangDictionary dictionary = CfmlLangInfo.getDictionary(langInfo.getLanguageLevel());
+    assertSame(dictionary.myTagAttributes, langInfo.getTagAttributes());
+    assertSame(dictionary.myFunctionParameters, langInfo.getFunctionParameters());
+    assertSame(dictionary, CfmlLangInfo.getDictionary(langInfo.getLanguageLevel()));
+  }
+
+  public void testLanguageLevelsHaveOwnDictionaries() {
+    CfmlLangInfo.CfmlLangDictionary cf10 = CfmlLangInfo.getDictionary(CfmlLanguage.CF10);
+    CfmlLangInfo.CfmlLangDictionary cf11 = CfmlLangInfo.getDictionary(CfmlLanguage.CF11);
+    assertNotSame(cf10, cf11);
+    assertFalse(dump(cf10).equals(dump(cf11)));
+    assertSame(cf10, CfmlLangInfo.getDictionary(CfmlLanguage.CF10));
+  }
+
+  /**
+   * Compares parsing the XML with loading the cached dictionary the way {@link CfmlLangInfo#getDictionary} does it,
+   * including the checksum of the XML.
+   */
+  public void testLoadingFromCacheIsFasterThanParsing() throws IOException {
+    for (String languageLevel : LANGUAGE_LEVELS) {
+      load(languageLevel);
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        parse(languageLevel);
+        load(languageLevel);
+      }
+
+      long parseTime = 0;
+      long loadTime = 0;
+      for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+        long start = System.nanoTime();
+        parse(languageLevel);
+        parseTime += System.nanoTime() - start;
+        start = System.nanoTime();
+        load(languageLevel);
+        loadTime += System.nanoTime() - start;
+      }
+      parseTime /= MEASURED_ITERATIONS;
+      loadTime /= MEASURED_ITERATIONS;
+
+      long parsedHeap = retainedHeap(() -> parse(languageLevel));
+      long loadedHeap = retainedHeap(() -> load(languageLevel));
+
+      System.out.println(languageLevel + ": XML parsed in " + parseTime / 1000 + " us, retains " + parsedHeap / 1024 + " KB; " +
+                         "cached dictionary (" + getCompiledFile(languageLevel).length() / 1024 + " KB) loaded in " +
+                         loadTime / 1000 + " us, retains " + loadedHeap / 1024 + " KB");
+      assertTrue(languageLevel + ": loaded in " + loadTime + " ns, parsed in " + parseTime + " ns", loadTime < parseTime);
+    }
+  }
+
+  private static CfmlLangInfo.CfmlLangDictionary parse(String languageLevel) {
+    return new CfmlLangInfo.CfmlLangDictionary(SCOPES_FILE, languageLevel);
+  }
+
+  private CfmlLangInfo.CfmlLangDictionary load(String languageLevel) {
+    return CfmlLangDictionaryCompiler.load(SCOPES_FILE, languageLevel, myCacheDir);
+  }
+
+  private File getCompiledFile(String languageLevel) {
+    return new File(myCacheDir, CfmlLangDictionaryCompiler.getCompiledFileName(languageLevel));
+  }
+
+  private static CfmlLangInfo.CfmlLangDictionary readCompiled(File file, long checksum) throws IOException {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return CfmlLangDictionaryCompiler.read(in, checksum);
+    }
+  }
+
+  /**
+   * Retains several copies to make the result less sensitive to unrelated allocations between the measurements.
+   */
+  private static long retainedHeap(ThrowableComputable<Object, IOException> computable) throws IOException {
+    ourRetained = new Object[RETAINED_COPIES];
+    long before = usedMemory();
+    for (int i = 0; i < RETAINED_COPIES; i++) {
+      ourRetained[i] = computable.compute();
+    }
+    long after = usedMemory();
+    ourRetained = null;
+    return (after - before) / RETAINED_COPIES;
+  }
+
+  private static long usedMemory() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long used = memory.getHeapMemoryUsage().getUsed();
+    // collect until the heap stops shrinking, otherwise garbage of the previous measurement skews the result
+    while (true) {
+      memory.gc();
+      long usedAfterGc = memory.getHeapMemoryUsage().getUsed();
+      if (usedAfterGc >= used) return usedAfterGc;
+      used = usedAfterGc;
+    }
+  }
+
+  private static String dump(CfmlLangInfo.CfmlLangDictionary dictionary) {
+    StringBuilder builder = new StringBuilder();
+    for (CfmlTagDescription tag : new TreeMap<>(dictionary.myTagAttributes).values()) {
+      builder.append(tag.getName()).append(' ').append(tag.isSingle()).append(' ').append(tag.isEndTagRequired())
+        .append(' ').append(tag.getDescription()).append('\n');
+      for (CfmlAttributeDescription attribute : tag.getAttributes()) {
+        builder.append("  ").append(attribute).append(' ').append(attribute.getName()).append(' ')
+          .append(Arrays.toString(attribute.getValues())).append('\n');
+      }
+    }
+    builder.append(Arrays.toString(dictionary.myPredefinedFunctions)).append('\n');
+    String[] lowerCased = dictionary.myPredefinedFunctionsInLowCase.clone();
+    Arrays.sort(lowerCased);
+    builder.append(Arrays.toString(lowerCased)).append('\n');
+    for (Map.Entry<String, CfmlFunctionDescription> entry : new TreeMap<>(dictionary.myFunctionParameters).entrySet()) {
+      builder.append(entry.getKey()).append(' ').append(entry.getValue().getPresentableText()).append(' ')
+        .append(entry.getValue().getDescription()).append('\n');
+    }
+    builder.append(new TreeMap<>(dictionary.myPredefinedVariables)).append('\n');
+    builder.append(Arrays.toString(dictionary.myVariableScopes)).append('\n');
+    return builder.toString();
+  }
+}
@@ -463,6 +463,16 @@ public class CfscriptResolveTest extends JavaCodeInsightFixtureTestCase {
     restoreDefaultState();
   }
 
+  public void testResolveNewWithMappingsChanged() {
+    addComponentsTo(myFixture);
+    final PsiReference reference = myFixture.getReferenceAtCaretPositionWithAssertion(Util.getInputDataFileName(getTestName(true)));
+    assertNull(reference.resolve());
+    setDefaultState();
+    assertEquals(assertInstanceOf(reference.resolve(), CfmlComponent.class).getName(), "ComponentName");
+    restoreDefaultState();
+    assertNull(reference.resolve());
+  }
+
   public void testResolveNewWithImportWithMappings() {
     addComponentsTo(myFixture);
     setDefaultState();
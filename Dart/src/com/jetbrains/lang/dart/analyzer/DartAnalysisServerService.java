@@ -128,7 +128,7 @@ public class DartAnalysisServerService implements Disposable {
   @Nullable private String mySdkHome = null;
 
   private final DartServerRootsHandler myRootsHandler;
-  private final Map<String, Long> myFilePathWithOverlaidContentToTimestamp = new THashMap<>();
+  private final DartOverlaidFiles myOverlaidFiles = new DartOverlaidFiles();
   private final List<String> myVisibleFiles = new ArrayList<>();
   private final Set<Document> myChangedDocuments = new THashSet<>();
   private final Alarm myUpdateFilesAlarm;
@@ -304,6 +304,14 @@ public class DartAnalysisServerService implements Disposable {
       myErrorReporter.report(errorMessage);
     }
 
+    @Override
+    public void requestError(@NotNull final RequestError requestError) {
+      if (RequestErrorCode.INVALID_OVERLAY_CHANGE.equals(requestError.getCode())) {
+        LOG.info("Dart Analysis Server failed to apply overlay change, sending full content: " + requestError.getMessage());
+        onOverlayMismatch();
+      }
+    }
+
     @Override
     public void serverStatus(@Nullable final AnalysisStatus analysisStatus, @Nullable final PubStatus pubStatus) {
       final boolean wasBusy = myAnalysisInProgress || myPubListInProgress;
@@ -386,7 +394,7 @@ public class DartAnalysisServerService implements Disposable {
    */
   public int getConvertedOffset(@Nullable final VirtualFile file, final int originalOffset) {
     if (originalOffset <= 0 || file == null) return originalOffset;
-    return myFilePathWithOverlaidContentToTimestamp.containsKey(file.getPath())
+    return myOverlaidFiles.isOverlaid(file.getPath())
            ? originalOffset
            : FileOffsetsManager.getInstance().getConvertedOffset(file, originalOffset);
   }
@@ -397,28 +405,44 @@ public class DartAnalysisServerService implements Disposable {
   private int getOriginalOffset(@Nullable final VirtualFile file, final int convertedOffset) {
     if (file == null) return convertedOffset;
 
-    return myFilePathWithOverlaidContentToTimestamp.containsKey(file.getPath())
+    return myOverlaidFiles.isOverlaid(file.getPath())
            ? convertedOffset
            : FileOffsetsManager.getInstance().getOriginalOffset(file, convertedOffset);
   }
 
   public int[] getConvertedOffsets(@NotNull final VirtualFile file, final int[] _offsets) {
-    final int[] offsets = new int[_offsets.length];
-    for (int i = 0; i < _offsets.length; i++) {
-      offsets[i] = getConvertedOffset(file, _offsets[i]);
-    }
+    final int[] offsets = _offsets.clone();
+    convertOffsets(file, offsets);
     return offsets;
   }
 
   public int[] getConvertedLengths(@NotNull final VirtualFile file, final int[] _offsets, final int[] _lengths) {
-    final int[] offsets = getConvertedOffsets(file, _offsets);
+    // start and end offsets interleaved, so that the array is sorted if regions do not overlap
+    final int[] startsAndEnds = new int[_offsets.length * 2];
+    for (int i = 0; i < _offsets.length; i++) {
+      startsAndEnds[i * 2] = _offsets[i];
+      startsAndEnds[i * 2 + 1] = _offsets[i] + _lengths[i];
+    }
+    convertOffsets(file, startsAndEnds);
+
     final int[] lengths = new int[_lengths.length];
     for (int i = 0; i < _lengths.length; i++) {
-      lengths[i] = getConvertedOffset(file, _offsets[i] + _lengths[i]) - offsets[i];
+      lengths[i] = startsAndEnds[i * 2 + 1] - startsAndEnds[i * 2];
     }
     return lengths;
   }
 
+  /**
+   * Bulk version of {@link #getConvertedOffset(VirtualFile, int)}, converts offsets in place.
+   * If offsets are sorted then all of them are converted in one pass over the file line table.
+   */
+  public void convertOffsets(@Nullable final VirtualFile file, @NotNull final int[] offsets) {
+    if (file == null || offsets.length == 0) return;
+    if (myOverlaidFiles.isOverlaid(file.getPath())) return;
+
+    FileOffsetsManager.getInstance().convertOffsets(file, offsets);
+  }
+
   public static boolean isDartSdkVersionSufficient(@NotNull final DartSdk sdk) {
     return StringUtil.compareVersionNumbers(sdk.getVersion(), MIN_SDK_VERSION) >= 0;
   }
@@ -628,6 +652,10 @@ public class DartAnalysisServerService implements Disposable {
 
         final VirtualFile file = FileDocumentManager.getInstance().getFile(e.getDocument());
         if (isLocalAnalyzableFile(file)) {
+          synchronized (myLock) {
+            myOverlaidFiles.documentChanged(file.getPath(), e.getOffset(), e.getOldLength(), e.getNewFragment());
+          }
+
           for (VirtualFile fileInEditor : FileEditorManager.getInstance(myProject).getOpenFiles()) {
             if (fileInEditor.equals(file)) {
               synchronized (myLock) {
@@ -761,8 +789,6 @@ public class DartAnalysisServerService implements Disposable {
   }
 
   private void doUpdateFilesContent() {
-    // may be use DocumentListener to collect deltas instead of sending the whole Document.getText() each time?
-
     AnalysisServer server = myServer;
     if (server == null) {
       return;
@@ -773,7 +799,7 @@ public class DartAnalysisServerService implements Disposable {
     final Map<String, Object> filesToUpdate = new THashMap<>();
     ApplicationManager.getApplication().assertReadAccessAllowed();
     synchronized (myLock) {
-      final Set<String> oldTrackedFiles = new THashSet<>(myFilePathWithOverlaidContentToTimestamp.keySet());
+      final Set<String> oldTrackedFiles = myOverlaidFiles.getFilePaths();
 
       final FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
 
@@ -788,18 +814,18 @@ public class DartAnalysisServerService implements Disposable {
         if (isLocalAnalyzableFile(file)) {
           oldTrackedFiles.remove(file.getPath());
 
-          final Long oldTimestamp = myFilePathWithOverlaidContentToTimestamp.get(file.getPath());
-          if (oldTimestamp == null || document.getModificationStamp() != oldTimestamp) {
-            filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), new AddContentOverlay(document.getText()));
-            myFilePathWithOverlaidContentToTimestamp.put(file.getPath(), document.getModificationStamp());
+          final Object overlay = myOverlaidFiles.getOverlayToSend(file.getPath(), document.getModificationStamp(),
+                                                                  document.getImmutableCharSequence(), isIncrementalOverlayEnabled());
+          if (overlay != null) {
+            filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), overlay);
           }
         }
       }
 
       // oldTrackedFiles at this point contains only those files that are not in FileDocumentManager.getUnsavedDocuments() any more
       for (String oldPath : oldTrackedFiles) {
-        final Long removed = myFilePathWithOverlaidContentToTimestamp.remove(oldPath);
-        LOG.assertTrue(removed != null, oldPath);
+        final boolean removed = myOverlaidFiles.remove(oldPath);
+        LOG.assertTrue(removed, oldPath);
         filesToUpdate.put(FileUtil.toSystemDependentName(oldPath), new RemoveContentOverlay());
       }
 
@@ -823,6 +849,23 @@ public class DartAnalysisServerService implements Disposable {
     }
   }
 
+  private static boolean isIncrementalOverlayEnabled() {
+    return Registry.is("dart.server.incremental.overlay", true);
+  }
+
+  /**
+   * Server failed to apply a ChangeContentOverlay, so its idea of the overlaid content differs from ours.
+   * Forget collected edits and resend whole content of all overlaid files.
+   */
+  private void onOverlayMismatch() {
+    synchronized (myLock) {
+      myOverlaidFiles.onOverlayMismatch();
+    }
+
+    myUpdateFilesAlarm.cancelAllRequests();
+    myUpdateFilesAlarm.addRequest(this::updateFilesContent, 0);
+  }
+
   public boolean updateRoots(@NotNull final List<String> includedRoots, @NotNull final List<String> excludedRoots) {
     AnalysisServer server = myServer;
     if (server == null) {
@@ -1806,7 +1849,7 @@ public class DartAnalysisServerService implements Disposable {
       myServerSocket = null;
       myServer = null;
       mySdkHome = null;
-      myFilePathWithOverlaidContentToTimestamp.clear();
+      myOverlaidFiles.clear();
       myVisibleFiles.clear();
       myChangedDocuments.clear();
       myServerData.clearData();
@@ -0,0 +1,85 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.dartlang.analysis.server.protocol.AddContentOverlay;
+import org.dartlang.analysis.server.protocol.ChangeContentOverlay;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Files whose content is overlaid in the Dart Analysis Server: modification stamp of the document text last sent for each file
+ * and the document changes made since then, used to send {@link ChangeContentOverlay} instead of {@link AddContentOverlay}.
+ * Not thread safe, guarded by the lock of {@link DartAnalysisServerService}.
+ */
+class DartOverlaidFiles {
+
+  private static final long UNKNOWN_STAMP = -1;
+
+  private final Map<String, Long> myFilePathToTimestamp = new THashMap<>();
+  private final Map<String, DartOverlayEditsCollector> myFilePathToEdits = new THashMap<>();
+
+  boolean isOverlaid(@NotNull final String filePath) {
+    return myFilePathToTimestamp.containsKey(filePath);
+  }
+
+  @NotNull
+  Set<String> getFilePaths() {
+    return new THashSet<>(myFilePathToTimestamp.keySet());
+  }
+
+  void documentChanged(@NotNull final String filePath, final int offset, final int oldLength, @NotNull final CharSequence newText) {
+    final DartOverlayEditsCollector edits = myFilePathToEdits.get(filePath);
+    if (edits != null) {
+      edits.addEdit(offset, oldLength, newText);
+    }
+  }
+
+  /**
+   * @return {@code null} if the server already has the document text with the given modification stamp, otherwise
+   * a {@link ChangeContentOverlay} with the collected document changes or an {@link AddContentOverlay} with the whole text.
+   * The returned overlay is considered sent.
+   */
+  @Nullable
+  Object getOverlayToSend(@NotNull final String filePath,
+                          final long modificationStamp,
+                          @NotNull final CharSequence text,
+                          final boolean incremental) {
+    final Long oldTimestamp = myFilePathToTimestamp.get(filePath);
+    if (oldTimestamp != null && oldTimestamp == modificationStamp) return null;
+
+    final DartOverlayEditsCollector edits = myFilePathToEdits.remove(filePath);
+    final ChangeContentOverlay changeOverlay = oldTimestamp == null || edits == null ? null : edits.toChangeContentOverlay();
+
+    myFilePathToTimestamp.put(filePath, modificationStamp);
+    if (incremental) {
+      myFilePathToEdits.put(filePath, new DartOverlayEditsCollector());
+    }
+
+    return changeOverlay != null ? changeOverlay : new AddContentOverlay(text.toString());
+  }
+
+  boolean remove(@NotNull final String filePath) {
+    myFilePathToEdits.remove(filePath);
+    return myFilePathToTimestamp.remove(filePath) != null;
+  }
+
+  /**
+   * Server failed to apply a ChangeContentOverlay, so its idea of the overlaid content differs from ours.
+   * Forget collected edits so that the whole content of all overlaid files is sent next time.
+   */
+  void onOverlayMismatch() {
+    myFilePathToEdits.clear();
+    for (Map.Entry<String, Long> entry : myFilePathToTimestamp.entrySet()) {
+      entry.setValue(UNKNOWN_STAMP);
+    }
+  }
+
+  void clear() {
+    myFilePathToTimestamp.clear();
+    myFilePathToEdits.clear();
+  }
+}
@@ -0,0 +1,110 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import org.dartlang.analysis.server.protocol.ChangeContentOverlay;
+import org.dartlang.analysis.server.protocol.SourceEdit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects document changes made since the overlaid content of a file was last sent to the Dart Analysis Server,
+ * so that they can be sent as a {@link ChangeContentOverlay} instead of the whole document text.
+ * Adjacent edits (typing, backspace) are coalesced. If too many changes are collected the collector overflows
+ * and the caller is expected to send the whole document text instead.
+ */
+class DartOverlayEditsCollector {
+
+  static final int MAX_EDITS = 100;
+  static final int MAX_REPLACEMENT_CHARS = 64 * 1024;
+
+  private final List<Edit> myEdits = new ArrayList<>();
+  private int myReplacementChars;
+  private boolean myOverflow;
+
+  void addEdit(final int offset, final int oldLength, @NotNull final CharSequence newText) {
+    if (myOverflow) return;
+
+    myReplacementChars += newText.length();
+    if (myReplacementChars > MAX_REPLACEMENT_CHARS) {
+      overflow();
+      return;
+    }
+
+    final Edit last = myEdits.isEmpty() ? null : myEdits.get(myEdits.size() - 1);
+    if (last != null && tryMerge(last, offset, oldLength, newText)) {
+      return;
+    }
+
+    if (myEdits.size() == MAX_EDITS) {
+      overflow();
+      return;
+    }
+
+    myEdits.add(new Edit(offset, oldLength, newText));
+  }
+
+  private static boolean tryMerge(@NotNull final Edit last, final int offset, final int oldLength, @NotNull final CharSequence newText) {
+    final int lastEnd = last.myOffset + last.myReplacement.length();
+
+    // typing right after the previous edit
+    if (oldLength == 0 && offset == lastEnd) {
+      last.myReplacement.append(newText);
+      return true;
+    }
+
+    if (newText.length() == 0) {
+      // backspace/delete within the text inserted by the previous edit
+      if (offset >= last.myOffset && offset + oldLength == lastEnd) {
+        last.myReplacement.setLength(offset - last.myOffset);
+        return true;
+      }
+
+      // backspace right before the previous edit
+      if (offset + oldLength == last.myOffset) {
+        last.myOffset = offset;
+        last.myLength += oldLength;
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void overflow() {
+    myOverflow = true;
+    myEdits.clear();
+  }
+
+  boolean isOverflow() {
+    return myOverflow;
+  }
+
+  /**
+   * @return {@code null} if the collector has overflowed or there are no collected edits, in this case the whole document text
+   * should be sent to the server
+   */
+  @Nullable
+  ChangeContentOverlay toChangeContentOverlay() {
+    if (myOverflow || myEdits.isEmpty()) return null;
+
+    final List<SourceEdit> edits = new ArrayList<>(myEdits.size());
+    for (Edit edit : myEdits) {
+      edits.add(new SourceEdit(edit.myOffset, edit.myLength, edit.myReplacement.toString(), null));
+    }
+    return new ChangeContentOverlay(edits);
+  }
+
+  private static class Edit {
+    private int myOffset;
+    private int myLength;
+    @NotNull private final StringBuilder myReplacement;
+
+    private Edit(final int offset, final int length, @NotNull final CharSequence replacement) {
+      myOffset = offset;
+      myLength = length;
+      myReplacement = new StringBuilder(replacement);
+    }
+  }
+}
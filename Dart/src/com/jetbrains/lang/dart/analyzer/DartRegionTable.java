@@ -0,0 +1,372 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-file storage of regions received from the Dart Analysis Server. Offsets and lengths are kept in int arrays,
+ * highlighting types are kept as interned type ids.
+ * <p>
+ * Document changes are not applied to the regions immediately, they are recorded in a pending delta list and applied in one pass
+ * over the regions when the regions are read (or when the pending list grows too long), so that typing costs O(1) instead of O(regions).
+ * <p>
+ * Regions are published as immutable snapshots: a table is filled by the server thread before it is published, applying pending deltas
+ * creates a new snapshot instead of modifying the current one, so readers that see no pending deltas never block. Payloads of a published
+ * snapshot are never modified either, moved regions get new payload objects.
+ */
+class DartRegionTable<T> {
+
+  interface PayloadCopier<T> {
+    /**
+     * Called for each region that survived the document changes. Must not modify {@code payload}, it may be in use by readers of the
+     * previous snapshot.
+     *
+     * @param shifter shifts offsets kept in the payload itself by the document changes
+     * @return {@code payload} if nothing has changed, otherwise its copy with the given offset and length
+     */
+    @NotNull
+    T copy(@NotNull T payload, int offset, int length, @NotNull OffsetShifter shifter);
+  }
+
+  interface OffsetShifter {
+    /**
+     * @return the offset moved by all document changes applied in this pass; an offset at or after a change is shifted by its delta
+     */
+    int shift(int offset);
+  }
+
+  private static final int MAX_PENDING_DELTAS = 64;
+  private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+  private static final Map<String, Integer> ourTypeToId = new HashMap<>();
+  private static final List<String> ourIdToType = new ArrayList<>();
+
+  private static class Snapshot {
+    private int mySize; // modified only by add() before the table is published
+    @NotNull private final int[] myOffsets;
+    @NotNull private final int[] myLengths;
+    @Nullable private final int[] myTypeIds;
+    @Nullable private final Object[] myPayloads;
+    @Nullable private List<?> myRegionList; // lazily created, racy but idempotent
+
+    private Snapshot(final int size,
+                     @NotNull final int[] offsets,
+                     @NotNull final int[] lengths,
+                     @Nullable final int[] typeIds,
+                     @Nullable final Object[] payloads) {
+      mySize = size;
+      myOffsets = offsets;
+      myLengths = lengths;
+      myTypeIds = typeIds;
+      myPayloads = payloads;
+    }
+  }
+
+  // if true then regions touched by a document change are updated (highlighting), otherwise they are deleted
+  private final boolean myUpdateTouched;
+  @Nullable private final PayloadCopier<T> myPayloadCopier;
+
+  // arrays of the snapshot are filled by add() before the table is published, and never modified after that
+  @NotNull private volatile Snapshot mySnapshot;
+
+  // triples of (eventOffset, oldLength, newLength), guarded by this
+  @NotNull private int[] myPendingDeltas = EMPTY_INT_ARRAY;
+  private volatile int myPendingDeltasCount;
+
+  // true if some region has been deleted because of the document change
+  private volatile boolean myRegionDeleted;
+
+  private DartRegionTable(final int capacity,
+                          final boolean updateTouched,
+                          final boolean typed,
+                          final boolean withPayloads,
+                          @Nullable final PayloadCopier<T> payloadCopier) {
+    myUpdateTouched = updateTouched;
+    myPayloadCopier = payloadCopier;
+    mySnapshot = new Snapshot(0,
+                              new int[capacity],
+                              new int[capacity],
+                              typed ? new int[capacity] : null,
+                              withPayloads ? new Object[capacity] : null);
+  }
+
+  /**
+   * Table of highlighting regions, regions touched by the document change are updated.
+   */
+  @NotNull
+  static DartRegionTable<Void> createTyped(final int capacity) {
+    return new DartRegionTable<>(capacity, true, true, false, null);
+  }
+
+  /**
+   * Table of regions with arbitrary payloads, regions touched by the document change are deleted.
+   */
+  @NotNull
+  static <T extends DartServerData.DartRegion> DartRegionTable<T> createWithPayloads(final int capacity,
+                                                                                    @NotNull final PayloadCopier<T> payloadCopier) {
+    return new DartRegionTable<>(capacity, false, false, true, payloadCopier);
+  }
+
+  static int getTypeId(@NotNull final String type) {
+    synchronized (ourTypeToId) {
+      Integer id = ourTypeToId.get(type);
+      if (id == null) {
+        id = ourIdToType.size();
+        ourIdToType.add(type.intern());
+        ourTypeToId.put(type, id);
+      }
+      return id;
+    }
+  }
+
+  @NotNull
+  static String getType(final int typeId) {
+    synchronized (ourTypeToId) {
+      return ourIdToType.get(typeId);
+    }
+  }
+
+  /**
+   * Must be called only before the table is published to other threads.
+   */
+  void add(final int offset, final int length, final int typeId) {
+    final Snapshot snapshot = ensureCapacity();
+    assert snapshot.myTypeIds != null;
+    snapshot.myOffsets[snapshot.mySize] = offset;
+    snapshot.myLengths[snapshot.mySize] = length;
+    snapshot.myTypeIds[snapshot.mySize] = typeId;
+    snapshot.mySize++;
+  }
+
+  /**
+   * Must be called only before the table is published to other threads.
+   */
+  void add(@NotNull final T payload) {
+    final Snapshot snapshot = ensureCapacity();
+    assert snapshot.myPayloads != null;
+    final DartServerData.DartRegion region = (DartServerData.DartRegion)payload;
+    snapshot.myOffsets[snapshot.mySize] = region.myOffset;
+    snapshot.myLengths[snapshot.mySize] = region.myLength;
+    snapshot.myPayloads[snapshot.mySize] = payload;
+    snapshot.mySize++;
+  }
+
+  @NotNull
+  private Snapshot ensureCapacity() {
+    final Snapshot snapshot = mySnapshot;
+    final int size = snapshot.mySize;
+    if (size < snapshot.myOffsets.length) return snapshot;
+
+    final int newCapacity = Math.max(8, size * 3 / 2);
+    final Object[] payloads;
+    if (snapshot.myPayloads != null) {
+      payloads = new Object[newCapacity];
+      System.arraycopy(snapshot.myPayloads, 0, payloads, 0, size);
+    }
+    else {
+      payloads = null;
+    }
+    mySnapshot = new Snapshot(size,
+                              copyOf(snapshot.myOffsets, newCapacity),
+                              copyOf(snapshot.myLengths, newCapacity),
+                              snapshot.myTypeIds != null ? copyOf(snapshot.myTypeIds, newCapacity) : null,
+                              payloads);
+    return mySnapshot;
+  }
+
+  @NotNull
+  private static int[] copyOf(@NotNull final int[] array, final int newLength) {
+    final int[] result = new int[newLength];
+    System.arraycopy(array, 0, result, 0, Math.min(array.length, newLength));
+    return result;
+  }
+
+  int size() {
+    return getSnapshot().mySize;
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Records the document change; it is applied to the regions lazily.
+   */
+  synchronized void documentChanged(final int eventOffset, final int oldLength, final int newLength) {
+    if (mySnapshot.mySize == 0 || oldLength == newLength) return;
+
+    if (myPendingDeltasCount == MAX_PENDING_DELTAS) {
+      applyPendingDeltas();
+    }
+
+    final int count = myPendingDeltasCount;
+    if (myPendingDeltas.length == count * 3) {
+      myPendingDeltas = copyOf(myPendingDeltas, Math.max(12, myPendingDeltas.length * 2));
+    }
+
+    myPendingDeltas[count * 3] = eventOffset;
+    myPendingDeltas[count * 3 + 1] = oldLength;
+    myPendingDeltas[count * 3 + 2] = newLength;
+    myPendingDeltasCount = count + 1;
+  }
+
+  /**
+   * @return {@code true} if at least one region has been deleted because of a document change since this table was created
+   */
+  boolean isSomeRegionDeleted() {
+    getSnapshot();
+    return myRegionDeleted;
+  }
+
+  /**
+   * Lock-free if there are no pending deltas.
+   */
+  @NotNull
+  private Snapshot getSnapshot() {
+    if (myPendingDeltasCount == 0) {
+      return mySnapshot;
+    }
+
+    synchronized (this) {
+      applyPendingDeltas();
+      return mySnapshot;
+    }
+  }
+
+  /**
+   * Applies all pending deltas in one pass over the regions and publishes the result as a new snapshot.
+   */
+  private void applyPendingDeltas() {
+    final int deltasCount = myPendingDeltasCount;
+    if (deltasCount == 0) return;
+
+    final Snapshot snapshot = mySnapshot;
+    final int size = snapshot.mySize;
+    final int[] offsets = new int[size];
+    final int[] lengths = new int[size];
+    final int[] typeIds = snapshot.myTypeIds != null ? new int[size] : null;
+    final Object[] payloads = snapshot.myPayloads != null ? new Object[size] : null;
+    final int[] deltas = myPendingDeltas;
+    final OffsetShifter shifter = payloadOffset -> {
+      for (int d = 0; d < deltasCount; d++) {
+        if (payloadOffset >= deltas[d * 3]) {
+          payloadOffset += deltas[d * 3 + 2] - deltas[d * 3 + 1];
+        }
+      }
+      return payloadOffset;
+    };
+
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      int offset = snapshot.myOffsets[i];
+      int length = snapshot.myLengths[i];
+      boolean deleted = false;
+
+      for (int d = 0; d < deltasCount && !deleted; d++) {
+        final int eventOffset = myPendingDeltas[d * 3];
+        final int deltaLength = myPendingDeltas[d * 3 + 2] - myPendingDeltas[d * 3 + 1];
+
+        if (deltaLength > 0) {
+          // Something was typed. Shift untouched regions, update or delete touched.
+          if (eventOffset <= offset) {
+            offset += deltaLength;
+          }
+          else if (offset < eventOffset && eventOffset < offset + length) {
+            if (myUpdateTouched) {
+              length += deltaLength;
+            }
+            else {
+              deleted = true;
+            }
+          }
+        }
+        else if (deltaLength < 0) {
+          // Some text was deleted. Shift untouched regions, update or delete touched.
+          final int eventRightOffset = eventOffset - deltaLength;
+          final int regionRightOffset = offset + length;
+
+          if (eventRightOffset <= offset) {
+            offset += deltaLength;
+          }
+          else if (myUpdateTouched && offset <= eventOffset && eventRightOffset <= regionRightOffset && length != -deltaLength) {
+            length += deltaLength;
+          }
+          else if (eventOffset < regionRightOffset) {
+            deleted = true;
+          }
+        }
+      }
+
+      if (deleted) {
+        myRegionDeleted = true;
+        continue;
+      }
+
+      offsets[newSize] = offset;
+      lengths[newSize] = length;
+      if (typeIds != null) {
+        //noinspection ConstantConditions
+        typeIds[newSize] = snapshot.myTypeIds[i];
+      }
+      if (payloads != null) {
+        //noinspection unchecked,ConstantConditions
+        payloads[newSize] = myPayloadCopier.copy((T)snapshot.myPayloads[i], offset, length, shifter);
+      }
+      newSize++;
+    }
+
+    mySnapshot = new Snapshot(newSize, offsets, lengths, typeIds, payloads);
+    myPendingDeltasCount = 0;
+    if (myPendingDeltas.length > MAX_PENDING_DELTAS * 3) {
+      myPendingDeltas = EMPTY_INT_ARRAY;
+    }
+  }
+
+  /**
+   * @return unmodifiable list of highlighting regions of this (typed) table, shared by all callers until the next document change
+   */
+  @NotNull
+  List<DartServerData.DartHighlightRegion> getHighlightRegions() {
+    final Snapshot snapshot = getSnapshot();
+    assert snapshot.myTypeIds != null;
+
+    List<?> list = snapshot.myRegionList;
+    if (list == null) {
+      final List<DartServerData.DartHighlightRegion> regions = new ArrayList<>(snapshot.mySize);
+      for (int i = 0; i < snapshot.mySize; i++) {
+        regions.add(new DartServerData.DartHighlightRegion(snapshot.myOffsets[i], snapshot.myLengths[i], snapshot.myTypeIds[i]));
+      }
+      list = Collections.unmodifiableList(regions);
+      snapshot.myRegionList = list;
+    }
+    //noinspection unchecked
+    return (List<DartServerData.DartHighlightRegion>)list;
+  }
+
+  /**
+   * @return unmodifiable list, shared by all callers until the next document change
+   */
+  @NotNull
+  List<T> getPayloads() {
+    final Snapshot snapshot = getSnapshot();
+    assert snapshot.myPayloads != null;
+
+    List<?> list = snapshot.myRegionList;
+    if (list == null) {
+      final List<Object> payloads = new ArrayList<>(snapshot.mySize);
+      for (int i = 0; i < snapshot.mySize; i++) {
+        payloads.add(snapshot.myPayloads[i]);
+      }
+      list = Collections.unmodifiableList(payloads);
+      snapshot.myRegionList = list;
+    }
+    //noinspection unchecked
+    return (List<T>)list;
+  }
+}
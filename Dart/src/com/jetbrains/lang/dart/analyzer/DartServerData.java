@@ -14,12 +14,13 @@ import com.intellij.psi.impl.source.resolve.ResolveCache;
 import com.intellij.psi.search.SearchScope;
 import com.intellij.util.EventDispatcher;
 import com.intellij.util.SmartList;
-import gnu.trove.THashMap;
 import org.dartlang.analysis.server.protocol.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
 
 public class DartServerData {
 
@@ -31,13 +32,14 @@ public class DartServerData {
 
   private EventDispatcher<OutlineListener> myEventDispatcher = EventDispatcher.create(OutlineListener.class);
 
-  private final Map<String, List<DartError>> myErrorData = Collections.synchronizedMap(new THashMap<>());
-  private final Map<String, List<DartHighlightRegion>> myHighlightData = Collections.synchronizedMap(new THashMap<>());
-  private final Map<String, List<DartNavigationRegion>> myNavigationData = Collections.synchronizedMap(new THashMap<>());
-  private final Map<String, List<DartOverrideMember>> myOverrideData = Collections.synchronizedMap(new THashMap<>());
-  private final Map<String, List<DartRegion>> myImplementedClassData = Collections.synchronizedMap(new THashMap<>());
-  private final Map<String, List<DartRegion>> myImplementedMemberData = Collections.synchronizedMap(new THashMap<>());
-  private final Map<String, Outline> myOutlineData = Collections.synchronizedMap(new THashMap<>());
+  // Results are published by the server thread as per-file snapshots (see DartRegionTable), readers never block on these maps
+  private final Map<String, DartRegionTable<DartError>> myErrorData = new ConcurrentHashMap<>();
+  private final Map<String, DartRegionTable<Void>> myHighlightData = new ConcurrentHashMap<>();
+  private final Map<String, DartRegionTable<DartNavigationRegion>> myNavigationData = new ConcurrentHashMap<>();
+  private final Map<String, List<DartOverrideMember>> myOverrideData = new ConcurrentHashMap<>();
+  private final Map<String, List<DartRegion>> myImplementedClassData = new ConcurrentHashMap<>();
+  private final Map<String, List<DartRegion>> myImplementedMemberData = new ConcurrentHashMap<>();
+  private final Map<String, Outline> myOutlineData = new ConcurrentHashMap<>();
 
   private final Set<String> myFilePathsWithUnsentChanges = Sets.newConcurrentHashSet();
 
@@ -49,6 +51,10 @@ public class DartServerData {
   }
 
   boolean isErrorInfoLost(@NotNull final String filePath) {
+    final DartRegionTable<DartError> errors = myErrorData.get(filePath);
+    if (errors != null && errors.isSomeRegionDeleted()) {
+      myFilePathsWithLostErrorInfo.add(filePath);
+    }
     return myFilePathsWithLostErrorInfo.contains(filePath);
   }
 
@@ -59,13 +65,15 @@ public class DartServerData {
   boolean computedErrors(@NotNull final String filePath, @NotNull final List<AnalysisError> errors, final boolean restartHighlighting) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return false;
 
-    final List<DartError> newErrors = new ArrayList<>(errors.size());
+    final DartRegionTable<DartError> newErrors =
+      DartRegionTable.createWithPayloads(errors.size(), (error, offset, length, shifter) -> error.moveTo(offset, length));
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
-    for (AnalysisError error : errors) {
-      final int offset = myService.getConvertedOffset(file, error.getLocation().getOffset());
-      final int length = myService.getConvertedOffset(file, error.getLocation().getOffset() + error.getLocation().getLength()) - offset;
-      newErrors.add(new DartError(error, offset, length));
+    final int[] startsAndEnds = getConvertedStartsAndEnds(myService, file, errors,
+                                                          error -> error.getLocation().getOffset(),
+                                                          error -> error.getLocation().getLength());
+    for (int i = 0; i < errors.size(); i++) {
+      newErrors.add(new DartError(errors.get(i), startsAndEnds[i * 2], startsAndEnds[i * 2 + 1] - startsAndEnds[i * 2]));
     }
 
     myFilePathsWithLostErrorInfo.remove(filePath);
@@ -87,14 +95,15 @@ public class DartServerData {
   void computedHighlights(@NotNull final String filePath, @NotNull final List<HighlightRegion> regions) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return;
 
-    final List<DartHighlightRegion> newRegions = new ArrayList<>(regions.size());
+    final DartRegionTable<Void> newRegions = DartRegionTable.createTyped(regions.size());
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
-    for (HighlightRegion region : regions) {
+    final int[] startsAndEnds = getConvertedStartsAndEnds(myService, file, regions, HighlightRegion::getOffset, HighlightRegion::getLength);
+    for (int i = 0; i < regions.size(); i++) {
+      final HighlightRegion region = regions.get(i);
       if (region.getLength() > 0) {
-        final int offset = myService.getConvertedOffset(file, region.getOffset());
-        final int length = myService.getConvertedOffset(file, region.getOffset() + region.getLength()) - offset;
-        newRegions.add(new DartHighlightRegion(offset, length, region.getType()));
+        final int offset = startsAndEnds[i * 2];
+        newRegions.add(offset, startsAndEnds[i * 2 + 1] - offset, DartRegionTable.getTypeId(region.getType()));
       }
     }
 
@@ -105,13 +114,17 @@ public class DartServerData {
   void computedNavigation(@NotNull final String filePath, @NotNull final List<NavigationRegion> regions) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return;
 
-    final List<DartNavigationRegion> newRegions = new ArrayList<>(regions.size());
+    final DartRegionTable<DartNavigationRegion> newRegions =
+      DartRegionTable.createWithPayloads(regions.size(),
+                                         (region, offset, length, shifter) -> region.moveTo(offset, length, filePath, shifter));
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
-    for (NavigationRegion region : regions) {
+    final int[] startsAndEnds = getConvertedStartsAndEnds(myService, file, regions, NavigationRegion::getOffset, NavigationRegion::getLength);
+    for (int i = 0; i < regions.size(); i++) {
+      final NavigationRegion region = regions.get(i);
       if (region.getLength() > 0) {
-        final DartNavigationRegion dartNavigationRegion = createDartNavigationRegion(myService, file, region);
-        newRegions.add(dartNavigationRegion);
+        final int offset = startsAndEnds[i * 2];
+        newRegions.add(createDartNavigationRegion(region, offset, startsAndEnds[i * 2 + 1] - offset));
       }
     }
 
@@ -128,12 +141,42 @@ public class DartServerData {
                                                     myService.getProject().getDisposed());
   }
 
+  /**
+   * Converts offsets of all regions at once; the server sends regions sorted by offset, so interleaved start and end offsets are
+   * (almost) sorted and the conversion is a single pass over the file line table.
+   *
+   * @return converted start and end offsets interleaved: [start0, end0, start1, end1, ...]
+   */
+  @NotNull
+  private static <T> int[] getConvertedStartsAndEnds(@NotNull final DartAnalysisServerService service,
+                                                     @Nullable final VirtualFile file,
+                                                     @NotNull final List<T> regions,
+                                                     @NotNull final ToIntFunction<T> offsetGetter,
+                                                     @NotNull final ToIntFunction<T> lengthGetter) {
+    final int[] startsAndEnds = new int[regions.size() * 2];
+    for (int i = 0; i < regions.size(); i++) {
+      final T region = regions.get(i);
+      final int offset = offsetGetter.applyAsInt(region);
+      startsAndEnds[i * 2] = offset;
+      startsAndEnds[i * 2 + 1] = offset + lengthGetter.applyAsInt(region);
+    }
+    service.convertOffsets(file, startsAndEnds);
+    return startsAndEnds;
+  }
+
   @NotNull
   static DartNavigationRegion createDartNavigationRegion(@NotNull final DartAnalysisServerService service,
                                                          @Nullable final VirtualFile file,
                                                          @NotNull final NavigationRegion region) {
     final int offset = service.getConvertedOffset(file, region.getOffset());
     final int length = service.getConvertedOffset(file, region.getOffset() + region.getLength()) - offset;
+    return createDartNavigationRegion(region, offset, length);
+  }
+
+  @NotNull
+  private static DartNavigationRegion createDartNavigationRegion(@NotNull final NavigationRegion region,
+                                                                 final int offset,
+                                                                 final int length) {
     final SmartList<DartNavigationTarget> targets = new SmartList<>();
     for (NavigationTarget target : region.getTargetObjects()) {
       targets.add(new DartNavigationTarget(target));
@@ -147,10 +190,12 @@ public class DartServerData {
     final List<DartOverrideMember> newOverrides = new ArrayList<>(overrides.size());
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
-    for (OverrideMember override : overrides) {
+    final int[] startsAndEnds = getConvertedStartsAndEnds(myService, file, overrides, OverrideMember::getOffset, OverrideMember::getLength);
+    for (int i = 0; i < overrides.size(); i++) {
+      final OverrideMember override = overrides.get(i);
       if (override.getLength() > 0) {
-        final int offset = myService.getConvertedOffset(file, override.getOffset());
-        final int length = myService.getConvertedOffset(file, override.getOffset() + override.getLength()) - offset;
+        final int offset = startsAndEnds[i * 2];
+        final int length = startsAndEnds[i * 2 + 1] - offset;
         newOverrides.add(new DartOverrideMember(offset, length, override.getSuperclassMember(), override.getInterfaceMembers()));
       }
     }
@@ -166,18 +211,18 @@ public class DartServerData {
 
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
+    final int[] classStartsAndEnds =
+      getConvertedStartsAndEnds(myService, file, implementedClasses, ImplementedClass::getOffset, ImplementedClass::getLength);
     final List<DartRegion> newImplementedClasses = new ArrayList<>(implementedClasses.size());
-    for (ImplementedClass implementedClass : implementedClasses) {
-      final int offset = myService.getConvertedOffset(file, implementedClass.getOffset());
-      final int length = myService.getConvertedOffset(file, implementedClass.getOffset() + implementedClass.getLength()) - offset;
-      newImplementedClasses.add(new DartRegion(offset, length));
+    for (int i = 0; i < implementedClasses.size(); i++) {
+      newImplementedClasses.add(new DartRegion(classStartsAndEnds[i * 2], classStartsAndEnds[i * 2 + 1] - classStartsAndEnds[i * 2]));
     }
 
+    final int[] memberStartsAndEnds =
+      getConvertedStartsAndEnds(myService, file, implementedMembers, ImplementedMember::getOffset, ImplementedMember::getLength);
     final List<DartRegion> newImplementedMembers = new ArrayList<>(implementedMembers.size());
-    for (ImplementedMember implementedMember : implementedMembers) {
-      final int offset = myService.getConvertedOffset(file, implementedMember.getOffset());
-      final int length = myService.getConvertedOffset(file, implementedMember.getOffset() + implementedMember.getLength()) - offset;
-      newImplementedMembers.add(new DartRegion(offset, length));
+    for (int i = 0; i < implementedMembers.size(); i++) {
+      newImplementedMembers.add(new DartRegion(memberStartsAndEnds[i * 2], memberStartsAndEnds[i * 2 + 1] - memberStartsAndEnds[i * 2]));
     }
 
     boolean hasChanges = false;
@@ -202,12 +247,11 @@ public class DartServerData {
   List<DartError> getErrors(@NotNull final SearchScope scope) {
     final List<DartError> errors = new ArrayList<>();
 
-    synchronized (myErrorData) {
-      for (Map.Entry<String, List<DartError>> entry : myErrorData.entrySet()) {
-        final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(entry.getKey());
-        if (file != null && scope.contains(file)) {
-          errors.addAll(entry.getValue());
-        }
+    // weakly consistent iteration, does not block the server thread that publishes new results
+    for (Map.Entry<String, DartRegionTable<DartError>> entry : myErrorData.entrySet()) {
+      final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(entry.getKey());
+      if (file != null && scope.contains(file)) {
+        errors.addAll(entry.getValue().getPayloads());
       }
     }
 
@@ -216,20 +260,20 @@ public class DartServerData {
 
   @NotNull
   List<DartError> getErrors(@NotNull final VirtualFile file) {
-    final List<DartError> errors = myErrorData.get(file.getPath());
-    return errors != null ? errors : Collections.emptyList();
+    final DartRegionTable<DartError> errors = myErrorData.get(file.getPath());
+    return errors != null ? errors.getPayloads() : Collections.emptyList();
   }
 
   @NotNull
   List<DartHighlightRegion> getHighlight(@NotNull final VirtualFile file) {
-    final List<DartHighlightRegion> regions = myHighlightData.get(file.getPath());
-    return regions != null ? regions : Collections.emptyList();
+    final DartRegionTable<Void> regions = myHighlightData.get(file.getPath());
+    return regions != null ? regions.getHighlightRegions() : Collections.emptyList();
   }
 
   @NotNull
   List<DartNavigationRegion> getNavigation(@NotNull final VirtualFile file) {
-    final List<DartNavigationRegion> regions = myNavigationData.get(file.getPath());
-    return regions != null ? regions : Collections.emptyList();
+    final DartRegionTable<DartNavigationRegion> regions = myNavigationData.get(file.getPath());
+    return regions != null ? regions.getPayloads() : Collections.emptyList();
   }
 
   @NotNull
@@ -349,27 +393,24 @@ public class DartServerData {
     final String filePath = file.getPath();
     myFilePathsWithUnsentChanges.add(filePath);
 
-    boolean someRegionDeleted = updateRegionsDeletingTouched(filePath, myErrorData.get(filePath), e);
-    if (someRegionDeleted) {
-      myFilePathsWithLostErrorInfo.add(filePath);
-    }
-    updateRegionsUpdatingTouched(myHighlightData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myNavigationData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myOverrideData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myImplementedClassData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myImplementedMemberData.get(filePath), e);
+    // errors, highlighting and navigation regions are shifted lazily, see DartRegionTable
+    documentChanged(myErrorData.get(filePath), e);
+    documentChanged(myHighlightData.get(filePath), e);
+    documentChanged(myNavigationData.get(filePath), e);
+    updateRegionsDeletingTouched(myOverrideData.get(filePath), e);
+    updateRegionsDeletingTouched(myImplementedClassData.get(filePath), e);
+    updateRegionsDeletingTouched(myImplementedMemberData.get(filePath), e);
     // A bit outdated outline data is not a big problem, updated data will come shortly
   }
 
-  /**
-   * @return {@code true} if at least one region has been deleted, {@code false} if updated only or nothing done at all
-   */
-  private static boolean updateRegionsDeletingTouched(@NotNull final String filePath,
-                                                      @Nullable final List<? extends DartRegion> regions,
-                                                      @NotNull final DocumentEvent e) {
-    if (regions == null) return false;
+  private static void documentChanged(@Nullable final DartRegionTable<?> regions, @NotNull final DocumentEvent e) {
+    if (regions != null) {
+      regions.documentChanged(e.getOffset(), e.getOldLength(), e.getNewLength());
+    }
+  }
 
-    boolean regionDeleted = false;
+  private static void updateRegionsDeletingTouched(@Nullable final List<? extends DartRegion> regions, @NotNull final DocumentEvent e) {
+    if (regions == null) return;
 
     // delete touched regions, shift untouched
     final int eventOffset = e.getOffset();
@@ -379,15 +420,6 @@ public class DartServerData {
     while (iterator.hasNext()) {
       final DartRegion region = iterator.next();
 
-      if (region instanceof DartNavigationRegion) {
-        // may be we'd better delete target touched by editing?
-        for (DartNavigationTarget target : ((DartNavigationRegion)region).getTargets()) {
-          if (target.myFile.equals(filePath) && target.myConvertedOffset >= eventOffset) {
-            target.myConvertedOffset += deltaLength;
-          }
-        }
-      }
-
       if (deltaLength > 0) {
         // Something was typed. Shift untouched regions, delete touched.
         if (eventOffset <= region.myOffset) {
@@ -395,7 +427,6 @@ public class DartServerData {
         }
         else if (region.myOffset < eventOffset && eventOffset < region.myOffset + region.myLength) {
           iterator.remove();
-          regionDeleted = true;
         }
       }
       else if (deltaLength < 0) {
@@ -407,47 +438,6 @@ public class DartServerData {
         }
         else if (eventOffset < region.myOffset + region.myLength) {
           iterator.remove();
-          regionDeleted = true;
-        }
-      }
-    }
-
-    return regionDeleted;
-  }
-
-  private static void updateRegionsUpdatingTouched(@Nullable final List<? extends DartRegion> regions,
-                                                   @NotNull final DocumentEvent e) {
-    if (regions == null) return;
-
-    final int eventOffset = e.getOffset();
-    final int deltaLength = e.getNewLength() - e.getOldLength();
-
-    final Iterator<? extends DartRegion> iterator = regions.iterator();
-    while (iterator.hasNext()) {
-      final DartRegion region = iterator.next();
-
-      if (deltaLength > 0) {
-        // Something was typed. Shift untouched regions, update touched.
-        if (eventOffset <= region.myOffset) {
-          region.myOffset += deltaLength;
-        }
-        else if (region.myOffset < eventOffset && eventOffset < region.myOffset + region.myLength) {
-          region.myLength += deltaLength;
-        }
-      }
-      else if (deltaLength < 0) {
-        // Some text was deleted. Shift untouched regions, delete or update touched.
-        final int eventRightOffset = eventOffset - deltaLength;
-        final int regionRightOffset = region.myOffset + region.myLength;
-
-        if (eventRightOffset <= region.myOffset) {
-          region.myOffset += deltaLength;
-        }
-        else if (region.myOffset <= eventOffset && eventRightOffset <= regionRightOffset && region.myLength != -deltaLength) {
-          region.myLength += deltaLength;
-        }
-        else if (eventOffset < regionRightOffset) {
-          iterator.remove();
         }
       }
     }
@@ -484,9 +474,9 @@ public class DartServerData {
   public static class DartHighlightRegion extends DartRegion {
     private final String type;
 
-    private DartHighlightRegion(final int offset, final int length, @NotNull final String type) {
+    DartHighlightRegion(final int offset, final int length, final int typeId) {
       super(offset, length);
-      this.type = type.intern();
+      this.type = DartRegionTable.getType(typeId);
     }
 
     public String getType() {
@@ -508,6 +498,19 @@ public class DartServerData {
       myMessage = error.getMessage();
     }
 
+    private DartError(@NotNull final DartError error, final int offset, final int length) {
+      super(offset, length);
+      myAnalysisErrorFileSD = error.myAnalysisErrorFileSD;
+      mySeverity = error.mySeverity;
+      myCode = error.myCode;
+      myMessage = error.myMessage;
+    }
+
+    @NotNull
+    private DartError moveTo(final int offset, final int length) {
+      return offset == myOffset && length == myLength ? this : new DartError(this, offset, length);
+    }
+
     public String getAnalysisErrorFileSD() {
       return myAnalysisErrorFileSD;
     }
@@ -538,6 +541,29 @@ public class DartServerData {
       myTargets = targets;
     }
 
+    @NotNull
+    private DartNavigationRegion moveTo(final int offset,
+                                        final int length,
+                                        @NotNull final String filePath,
+                                        @NotNull final DartRegionTable.OffsetShifter shifter) {
+      List<DartNavigationTarget> targets = myTargets;
+      for (int i = 0; i < myTargets.size(); i++) {
+        final DartNavigationTarget target = myTargets.get(i);
+        // may be we'd better delete target touched by editing?
+        if (target.myConvertedOffset == -1 || !target.myFile.equals(filePath)) continue;
+
+        final int convertedOffset = shifter.shift(target.myConvertedOffset);
+        if (convertedOffset != target.myConvertedOffset) {
+          if (targets == myTargets) {
+            targets = new SmartList<>(myTargets);
+          }
+          targets.set(i, new DartNavigationTarget(target, convertedOffset));
+        }
+      }
+
+      return offset == myOffset && length == myLength && targets == myTargets ? this : new DartNavigationRegion(offset, length, targets);
+    }
+
     @Override
     public String toString() {
       return "DartNavigationRegion(" + myOffset + ", " + myLength + ")";
@@ -561,6 +587,13 @@ public class DartServerData {
       myKind = target.getKind().intern();
     }
 
+    private DartNavigationTarget(@NotNull final DartNavigationTarget target, final int convertedOffset) {
+      myFile = target.myFile;
+      myOriginalOffset = target.myOriginalOffset;
+      myKind = target.myKind;
+      myConvertedOffset = convertedOffset;
+    }
+
     public String getFile() {
       return myFile;
     }
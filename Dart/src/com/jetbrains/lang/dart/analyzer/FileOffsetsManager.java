@@ -1,19 +1,22 @@
 package com.jetbrains.lang.dart.analyzer;
 
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.IntArrayList;
 import com.intellij.util.text.CharArrayUtil;
-import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class FileOffsetsManager {
@@ -23,9 +26,20 @@ public class FileOffsetsManager {
     return ServiceManager.getService(FileOffsetsManager.class);
   }
 
-  private final Map<VirtualFile, LineOffsets> myLineOffsetsMap = new THashMap<>();
+  private static final int MAX_CACHED_FILES = 1000;
+
+  // Access-ordered, guarded by itself. Entries are computed outside of the lock; if two threads compute offsets for the same file
+  // at the same time, one of the results wins, that's fine as both are equal.
+  private final Map<VirtualFile, LineOffsets> myLineOffsetsMap = new LinkedHashMap<VirtualFile, LineOffsets>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<VirtualFile, LineOffsets> eldest) {
+      return size() > MAX_CACHED_FILES;
+    }
+  };
 
   private static class LineOffsets {
+    private static final int[] FIRST_LINE_ONLY = {0};
+
     private final long myFileModificationStamp; // todo stamp outside of this class
     private final int[] myOriginalLineOffsets;
     private final int[] myConvertedLineOffsets;
@@ -41,6 +55,16 @@ public class FileOffsetsManager {
       myLineOffsetsAreTheSame =
         originalLineOffsets[originalLineOffsets.length - 1] == convertedLineOffsets[convertedLineOffsets.length - 1];
     }
+
+    /**
+     * Original and converted offsets are known to be the same, line tables are not needed.
+     */
+    private LineOffsets(final long modificationStamp) {
+      myFileModificationStamp = modificationStamp;
+      myOriginalLineOffsets = FIRST_LINE_ONLY;
+      myConvertedLineOffsets = FIRST_LINE_ONLY;
+      myLineOffsetsAreTheSame = true;
+    }
   }
 
   public int getConvertedOffset(@NotNull final VirtualFile file, final int originalOffset) {
@@ -57,6 +81,51 @@ public class FileOffsetsManager {
     return getCorrespondingOffset(offsets.myConvertedLineOffsets, offsets.myOriginalLineOffsets, convertedOffset);
   }
 
+  /**
+   * Converts all {@code offsets} in place. Works best if offsets are sorted (or almost sorted, like start and end offsets of
+   * non-overlapping regions): in this case all offsets are converted in one linear pass over the line table
+   * instead of a binary search per offset. Non-positive offsets are left as is.
+   */
+  public void convertOffsets(@NotNull final VirtualFile file, @NotNull final int[] offsets) {
+    if (offsets.length == 0) return;
+
+    final LineOffsets lineOffsets = getLineOffsets(file);
+    if (lineOffsets.myLineOffsetsAreTheSame) return;
+
+    convertOffsets(lineOffsets.myOriginalLineOffsets, lineOffsets.myConvertedLineOffsets, offsets);
+  }
+
+  static void convertOffsets(@NotNull final int[] offsets1, @NotNull final int[] offsets2, @NotNull final int[] offsets) {
+    int line = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      final int offset1 = offsets[i];
+      if (offset1 <= 0) continue;
+
+      if (offset1 < offsets1[line]) {
+        // not sorted, resync
+        line = findLine(offsets1, offset1);
+      }
+      else {
+        // merge walk; fall back to binary search if the offset is far away
+        int steps = 0;
+        while (line + 1 < offsets1.length && offsets1[line + 1] <= offset1) {
+          if (++steps > 8) {
+            line = findLine(offsets1, offset1);
+            break;
+          }
+          line++;
+        }
+      }
+
+      offsets[i] = offsets2[line] + offset1 - offsets1[line];
+    }
+  }
+
+  private static int findLine(@NotNull final int[] lineOffsets, final int offset) {
+    final int line = Arrays.binarySearch(lineOffsets, offset);
+    return line < 0 ? Math.max(0, -line - 2) : line;
+  }
+
   private static int getCorrespondingOffset(int[] offsets1, int[] offsets2, int offset1) {
     int line = Arrays.binarySearch(offsets1, offset1);
     if (line < 0) line = -line - 2;
@@ -69,17 +138,54 @@ public class FileOffsetsManager {
   }
 
   @NotNull
-  private synchronized LineOffsets getLineOffsets(@NotNull final VirtualFile file) {
-    LineOffsets offsets = myLineOffsetsMap.get(file);
+  private LineOffsets getLineOffsets(@NotNull final VirtualFile file) {
+    LineOffsets offsets;
+    synchronized (myLineOffsetsMap) {
+      offsets = myLineOffsetsMap.get(file);
+    }
     if (offsets != null && file.getModificationStamp() == offsets.myFileModificationStamp) {
       return offsets;
     }
 
-    offsets = loadLineOffsets(file);
-    myLineOffsetsMap.put(file, offsets);
+    offsets = loadLineOffsetsFromDocument(file);
+    if (offsets == null) {
+      offsets = loadLineOffsets(file);
+    }
+    synchronized (myLineOffsetsMap) {
+      myLineOffsetsMap.put(file, offsets);
+    }
     return offsets;
   }
 
+  /**
+   * If the file is open in an editor, the document has the same content as the file, and the document length is equal to the file length
+   * in bytes, then the file has neither CRLF line separators nor multi-byte characters. In this case original and converted offsets are
+   * the same, so neither the file nor the document text is read.
+   * <p>
+   * Called on the server notification thread, so the document is not locked: its length is used only if the document has not been
+   * modified meanwhile.
+   */
+  @Nullable
+  private static LineOffsets loadLineOffsetsFromDocument(@NotNull final VirtualFile file) {
+    final FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+    final Document document = fileDocumentManager.getCachedDocument(file);
+    if (document == null) return null;
+
+    final long modificationStamp = file.getModificationStamp();
+    // document that is loaded from or saved to the file gets its modification stamp
+    if (fileDocumentManager.isDocumentUnsaved(document) || document.getModificationStamp() != modificationStamp) return null;
+
+    final int textLength = document.getTextLength();
+    if (document.getModificationStamp() != modificationStamp) return null;
+
+    final byte[] bom = file.getBOM();
+    final int bomLength = bom == null ? 0 : bom.length;
+    // each char takes at least one byte in any charset, and a CRLF pair takes 2 chars in the file but 1 char in the document
+    if (file.getLength() - bomLength != textLength) return null;
+
+    return new LineOffsets(modificationStamp);
+  }
+
   @NotNull
   // similar to com.intellij.openapi.fileEditor.impl.LoadTextUtil.loadText()
   private static LineOffsets loadLineOffsets(@NotNull final VirtualFile file) {
@@ -15,82 +15,133 @@
  */
 package com.jetbrains.lang.dart.coverage;
 
-import com.intellij.util.containers.hash.HashMap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
+/**
+ * Reads coverage data in the format produced by the {@code coverage} package:
+ * <pre>{"type": "CodeCoverage", "coverage": [{"source": "package:foo/foo.dart", "hits": [line, count, line, count, ...]}, ...]}</pre>
+ * Coverage of the whole test suite may be hundreds of MB, so the file is never loaded as a whole: the JSON is read as a stream
+ * and hits of all isolates are merged straight into per-source {@code int} arrays.
+ */
 public class DartCoverageData {
-  @Nullable private List<DartFileCoverageData> coverage;
 
-  @Nullable
-  public List<DartFileCoverageData> getCoverage() {
-    return coverage;
+  /**
+   * Value in the line hits array for lines without coverage data.
+   */
+  public static final int NO_DATA = -1;
+
+  private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+  private static class LineHits {
+    @NotNull private int[] myHits = EMPTY_INT_ARRAY;
+    private int mySize; // last line with data + 1
+
+    private void add(final int line, final int hitCount) {
+      if (line < 0) return;
+
+      if (line >= myHits.length) {
+        final int oldLength = myHits.length;
+        myHits = Arrays.copyOf(myHits, Math.max(line + 1, Math.max(16, oldLength * 3 / 2)));
+        Arrays.fill(myHits, oldLength, myHits.length, NO_DATA);
+      }
+
+      myHits[line] = myHits[line] == NO_DATA ? hitCount : myHits[line] + hitCount;
+      mySize = Math.max(mySize, line + 1);
+    }
+
+    @NotNull
+    private int[] toArray() {
+      return mySize == myHits.length ? myHits : Arrays.copyOf(myHits, mySize);
+    }
   }
 
-  public void setCoverage(@Nullable List<DartFileCoverageData> coverage) {
-    this.coverage = coverage;
+  private DartCoverageData() {
   }
 
+  /**
+   * @return map from source URI to its line hit counts indexed by line number ({@link #NO_DATA} for lines without coverage data);
+   * the array is empty if there is no data for any line of the source
+   */
   @NotNull
-  public Map<String, SortedMap<Integer, Integer>> getMergedDartFileCoverageData() {
-    Map<String, SortedMap<Integer, Integer>> mergedCoverageData = new HashMap<>();
-    List<DartFileCoverageData> coverageData = getCoverage();
-    if (coverageData != null) {
-      for (DartFileCoverageData item : coverageData) {
-        String source = item.getSource();
-        if (source == null) {
-          continue;
-        }
-        if (!mergedCoverageData.containsKey(source)) {
-          mergedCoverageData.put(source, new TreeMap<>());
-        }
-
-        SortedMap<Integer, Integer> fileData = mergedCoverageData.get(source);
-        List<Integer> hits = item.getHits();
-        if (hits == null) {
-          continue;
-        }
-        for (int i = 0; i < hits.size(); i += 2) {
-          Integer lineNumber = hits.get(i);
-          Integer hitCount = hits.get(i + 1);
-          if (!fileData.containsKey(lineNumber)) {
-            fileData.put(lineNumber, 0);
-          }
+  public static Map<String, int[]> readMergedLineHits(@NotNull final Reader reader) throws IOException {
+    final Map<String, LineHits> sourceToHits = new THashMap<>();
 
-          fileData.put(lineNumber, fileData.get(lineNumber) + hitCount);
-        }
+    final JsonReader json = new JsonReader(reader);
+    json.beginObject();
+    while (json.hasNext()) {
+      if ("coverage".equals(json.nextName()) && json.peek() == JsonToken.BEGIN_ARRAY) {
+        readCoverage(json, sourceToHits);
+      }
+      else {
+        json.skipValue();
       }
     }
+    json.endObject();
 
-    return mergedCoverageData;
+    final Map<String, int[]> result = new THashMap<>(sourceToHits.size());
+    for (Map.Entry<String, LineHits> entry : sourceToHits.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toArray());
+    }
+    return result;
   }
-}
 
+  private static void readCoverage(@NotNull final JsonReader json, @NotNull final Map<String, LineHits> sourceToHits) throws IOException {
+    // "source" may come after "hits", so hits of an item are collected in this buffer first, it is reused for all items
+    int[] buffer = new int[256];
 
-class DartFileCoverageData {
-  @Nullable private String source;
-  @Nullable private List<Integer> hits;
+    json.beginArray();
+    while (json.hasNext()) {
+      if (json.peek() != JsonToken.BEGIN_OBJECT) {
+        json.skipValue();
+        continue;
+      }
 
-  @Nullable
-  public String getSource() {
-    return source;
-  }
+      String source = null;
+      int hitsLength = -1; // -1 means no "hits" in the item
 
-  public void setSource(@Nullable String source) {
-    this.source = source;
-  }
+      json.beginObject();
+      while (json.hasNext()) {
+        final String name = json.nextName();
+        if ("source".equals(name) && json.peek() == JsonToken.STRING) {
+          source = json.nextString();
+        }
+        else if ("hits".equals(name) && json.peek() == JsonToken.BEGIN_ARRAY) {
+          hitsLength = 0;
+          json.beginArray();
+          while (json.hasNext()) {
+            if (hitsLength == buffer.length) {
+              buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[hitsLength++] = json.nextInt();
+          }
+          json.endArray();
+        }
+        else {
+          json.skipValue();
+        }
+      }
+      json.endObject();
 
-  @Nullable
-  public List<Integer> getHits() {
-    return hits;
-  }
+      if (source == null) continue;
+
+      LineHits lineHits = sourceToHits.get(source);
+      if (lineHits == null) {
+        lineHits = new LineHits();
+        sourceToHits.put(source, lineHits);
+      }
 
-  public void setHits(@Nullable List<Integer> hits) {
-    this.hits = hits;
+      for (int i = 0; i + 1 < hitsLength; i += 2) {
+        lineHits.add(buffer[i], buffer[i + 1]);
+      }
+    }
+    json.endArray();
   }
-}
\ No newline at end of file
+}
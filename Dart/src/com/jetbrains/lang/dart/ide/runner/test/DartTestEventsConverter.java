@@ -1,6 +1,11 @@
 package com.jetbrains.lang.dart.ide.runner.test;
 
-import com.google.gson.*;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.intellij.execution.testframework.TestConsoleProperties;
 import com.intellij.execution.testframework.sm.ServiceMessageBuilder;
 import com.intellij.execution.testframework.sm.runner.OutputToGeneralTestEventsConverter;
@@ -11,12 +16,15 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.PathUtil;
 import com.jetbrains.lang.dart.ide.runner.util.DartTestLocationProvider;
 import com.jetbrains.lang.dart.util.DartUrlResolver;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntLongHashMap;
+import gnu.trove.TIntObjectHashMap;
 import jetbrains.buildServer.messages.serviceMessages.ServiceMessageVisitor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.io.StringReader;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -30,7 +38,8 @@ import java.util.regex.Pattern;
  * expected by the event processor.
  * NOTE: The test runner runs tests asynchronously. It is possible to get a 'testDone'
  * event followed some time later by an 'error' event for that same test. That should
- * convert a successful test into a failure. That case is not being handled.
+ * convert a successful test into a failure. That case is not being handled, the error
+ * is only shown in the output of the test.
  */
 public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter {
   private static final Logger LOG = Logger.getInstance(DartTestEventsConverter.class.getName());
@@ -92,9 +101,12 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   private ServiceMessageVisitor myCurrentVisitor;
   private TIntLongHashMap myTestIdToTimestamp;
   private Map<Integer, Test> myTestData;
+  // tests evicted from myTestData, kept only to attach late 'error' and 'print' events to their nodes
+  private TIntObjectHashMap<EvictedTest> myEvictedTests;
   private Map<Integer, Group> myGroupData;
   private Map<Integer, Suite> mySuiteData;
   private int mySuitCount;
+  private final Event myEvent = new Event();
 
   public DartTestEventsConverter(@NotNull final String testFrameworkName,
                                  @NotNull final TestConsoleProperties consoleProperties,
@@ -103,6 +115,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     myUrlResolver = urlResolver;
     myTestIdToTimestamp = new TIntLongHashMap();
     myTestData = new HashMap<>();
+    myEvictedTests = new TIntObjectHashMap<>();
     myGroupData = new HashMap<>();
     mySuiteData = new HashMap<>();
   }
@@ -117,10 +130,14 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   }
 
   private boolean processEventText(final String text) throws JsonSyntaxException, ParseException {
-    JsonParser jp = new JsonParser();
+    if (myEvent.decode(text)) {
+      return process(myEvent);
+    }
+
+    // Not a JSON event: plain output of the test process, or a service message
     JsonElement elem;
     try {
-      elem = jp.parse(text);
+      elem = new JsonParser().parse(text);
     }
     catch (JsonSyntaxException ex) {
       if (text.contains("\"json\" is not an allowed value for option \"reporter\"")) {
@@ -134,7 +151,10 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
       return doProcessServiceMessages(text);
     }
     if (elem == null || !elem.isJsonObject()) return false;
-    return process(elem.getAsJsonObject());
+
+    // a JSON object with values of unexpected types, maybe from a newer test runner; ignored like events of unknown types
+    LOG.info("Unexpected event: " + text);
+    return true;
   }
 
   private boolean doProcessServiceMessages(@NotNull final String text) throws ParseException {
@@ -142,8 +162,8 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return super.processServiceMessages(text, myCurrentOutputType, myCurrentVisitor);
   }
 
-  private boolean process(JsonObject obj) throws JsonSyntaxException, ParseException {
-    String type = obj.get(JSON_TYPE).getAsString();
+  private boolean process(@NotNull final Event obj) throws ParseException {
+    String type = obj.myType;
     if (TYPE_TEST_START.equals(type)) {
       return handleTestStart(obj);
     }
@@ -176,10 +196,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     }
   }
 
-  private boolean handleTestStart(JsonObject obj) throws ParseException {
-    final JsonObject testObj = obj.getAsJsonObject(DEF_TEST);
-
-    // Not reached if testObj == null.
+  private boolean handleTestStart(@NotNull final Event obj) throws ParseException {
     final Test test = getTest(obj);
     myTestIdToTimestamp.put(test.getId(), getTimestamp(obj));
 
@@ -207,7 +224,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     addLocationHint(testStarted, test);
     boolean result = finishMessage(testStarted, test.getId(), test.getValidParentId());
 
-    final Metadata metadata = Metadata.from(testObj.getAsJsonObject(DEF_METADATA));
+    final Metadata metadata = test.getMetadata();
     if (metadata.skip) {
       final ServiceMessageBuilder message = ServiceMessageBuilder.testIgnored(test.getBaseName());
       if (metadata.skipReason != null) message.addAttribute("message", metadata.skipReason);
@@ -229,14 +246,14 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
            group != null && group.getDoneTestsCount() > 0 && test.getBaseName().equals(TEAR_DOWN_ALL_VIRTUAL_TEST_NAME);
   }
 
-  private boolean handleTestDone(JsonObject obj) throws ParseException {
+  private boolean handleTestDone(@NotNull final Event obj) throws ParseException {
     final Test test = getTest(obj);
 
     if (!test.myTestStartReported) return true;
 
     String result = getResult(obj);
     if (!result.equals(RESULT_SUCCESS) && !result.equals(RESULT_FAILURE) && !result.equals(RESULT_ERROR)) {
-      throw new ParseException("Unknown result: " + obj, 0);
+      throw new ParseException("Unknown result: " + result, 0);
     }
 
     test.testDone();
@@ -252,13 +269,56 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
 
   private boolean checkGroupDone(@Nullable final Group group) throws ParseException {
     if (group != null && group.getTestCount() > 0 && group.getDoneTestsCount() == group.getTestCount()) {
+      evictDoneTests(group);
       return processGroupDone(group) && checkGroupDone(group.getParent());
     }
     return true;
   }
 
-  private boolean handleGroup(JsonObject obj) throws ParseException {
-    Group group = getGroup(obj.getAsJsonObject(DEF_GROUP));
+  /**
+   * Tests of a finished group are not needed any more, with tens of thousands of tests in a run they shouldn't stay in memory
+   * until the end of the run. Only the node name and parent are remembered, as the test runner may still send output for them.
+   */
+  private void evictDoneTests(@NotNull final Group group) {
+    final TIntArrayList doneTestIds = group.myDoneTestIds;
+    for (int i = 0; i < doneTestIds.size(); i++) {
+      final Test test = myTestData.remove(doneTestIds.get(i));
+      if (test != null && test.myTestStartReported) {
+        myEvictedTests.put(test.getId(), new EvictedTest(test.getBaseName(), test.getValidParentId()));
+      }
+      myTestIdToTimestamp.remove(doneTestIds.get(i));
+    }
+    group.myDoneTestIds = new TIntArrayList(0);
+  }
+
+  /**
+   * 'error' or 'print' event that came after the group of the test had finished: reported as the output of the finished test node.
+   *
+   * @return null if the event is not for an evicted test
+   */
+  @Nullable
+  private Boolean handleLateEvent(@NotNull final Event obj) throws ParseException {
+    if (obj.myTestId == null || myTestData.containsKey(obj.myTestId)) return null;
+
+    final EvictedTest test = myEvictedTests.get(obj.myTestId);
+    if (test == null) return null;
+
+    final ServiceMessageBuilder message;
+    if (TYPE_PRINT.equals(obj.myType)) {
+      message = ServiceMessageBuilder.testStdOut(test.myBaseName);
+      message.addAttribute("out", appendLineBreakIfNeeded(getMessage(obj)));
+    }
+    else {
+      message = ServiceMessageBuilder.testStdErr(test.myBaseName);
+      final String stackTrace = getStackTrace(obj);
+      message.addAttribute("out", appendLineBreakIfNeeded(getErrorMessage(obj)) +
+                                  (StringUtil.isEmptyOrSpaces(stackTrace) ? "" : appendLineBreakIfNeeded(stackTrace)));
+    }
+    return finishMessage(message, obj.myTestId, test.myParentId);
+  }
+
+  private boolean handleGroup(@NotNull final Event obj) throws ParseException {
+    Group group = getGroup(obj.myGroup);
 
     // From spec: The implicit group at the root of each test suite has null name and parentID attributes.
     if (group.getParent() == null && group.getTestCount() > 0) {
@@ -276,15 +336,18 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return finishMessage(groupMsg, group.getId(), group.getValidParentId());
   }
 
-  private boolean handleSuite(JsonObject obj) throws ParseException {
-    Suite suite = getSuite(obj.getAsJsonObject(DEF_SUITE));
+  private boolean handleSuite(@NotNull final Event obj) throws ParseException {
+    Suite suite = getSuite(obj.mySuite);
     if (!suite.hasPath()) {
       mySuiteData.remove(suite.getId());
     }
     return true;
   }
 
-  private boolean handleError(JsonObject obj) throws ParseException {
+  private boolean handleError(@NotNull final Event obj) throws ParseException {
+    final Boolean lateEventResult = handleLateEvent(obj);
+    if (lateEventResult != null) return lateEventResult;
+
     final Test test = getTest(obj);
     final String message = getErrorMessage(obj);
     boolean result = true;
@@ -322,7 +385,8 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
         }
       }
 
-      if (!getBoolean(obj, JSON_IS_FAILURE)) testError.addAttribute("error", "true");
+      if (obj.myIsFailure == null) throw new ParseException("Value is not type boolean: " + JSON_IS_FAILURE, 0);
+      if (!obj.myIsFailure) testError.addAttribute("error", "true");
       testError.addAttribute("message", appendLineBreakIfNeeded(failureMessage));
 
       result &= finishMessage(testError, test.getId(), test.getValidParentId());
@@ -343,14 +407,16 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return message.endsWith("\n") ? message : message + "\n";
   }
 
-  private boolean handleAllSuites(JsonObject obj) {
-    JsonElement elem = obj.get(JSON_COUNT);
-    if (elem == null || !elem.isJsonPrimitive()) return true;
-    mySuitCount = elem.getAsInt();
+  private boolean handleAllSuites(@NotNull final Event obj) {
+    if (obj.myCount < 0) return true;
+    mySuitCount = obj.myCount;
     return true;
   }
 
-  private boolean handlePrint(JsonObject obj) throws ParseException {
+  private boolean handlePrint(@NotNull final Event obj) throws ParseException {
+    final Boolean lateEventResult = handleLateEvent(obj);
+    if (lateEventResult != null) return lateEventResult;
+
     final Test test = getTest(obj);
     boolean result = true;
 
@@ -370,9 +436,10 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return result & finishMessage(message, test.getId(), test.getValidParentId());
   }
 
-  private boolean handleStart(JsonObject obj) throws ParseException {
+  private boolean handleStart(@NotNull final Event obj) throws ParseException {
     myTestIdToTimestamp.clear();
     myTestData.clear();
+    myEvictedTests.clear();
     myGroupData.clear();
     mySuiteData.clear();
     mySuitCount = 0;
@@ -380,7 +447,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     return doProcessServiceMessages(new ServiceMessageBuilder("enteredTheMatrix").toString());
   }
 
-  private boolean handleDone(JsonObject obj) throws ParseException {
+  private boolean handleDone(@NotNull final Event obj) throws ParseException {
     // The test runner has reached the end of the tests.
     processAllTestsDone();
     return true;
@@ -404,6 +471,7 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     }
     myTestIdToTimestamp.clear();
     myTestData.clear();
+    myEvictedTests.clear();
     myGroupData.clear();
     mySuiteData.clear();
     mySuitCount = 0;
@@ -445,101 +513,66 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     messageBuilder.addAttribute("locationHint", location);
   }
 
-  private static long getTimestamp(JsonObject obj) throws ParseException {
-    return getLong(obj, JSON_MILLIS);
+  private static long getTimestamp(@NotNull final Event obj) throws ParseException {
+    if (obj.myTime == null) throw new ParseException("Value is not type long: " + JSON_MILLIS, 0);
+    return obj.myTime;
   }
 
-  private static long getLong(JsonObject obj, String name) throws ParseException {
-    JsonElement val = obj == null ? null : obj.get(name);
-    if (val == null || !val.isJsonPrimitive()) throw new ParseException("Value is not type long: " + val, 0);
-    return val.getAsLong();
-  }
+  @NotNull
+  private Test getTest(@NotNull final Event obj) throws ParseException {
+    if (obj.myTestId != null) {
+      final Test test = myTestData.get(obj.myTestId);
+      if (test == null) throw new ParseException("Unknown testID: " + obj.myTestId, 0);
+      return test;
+    }
 
-  private static boolean getBoolean(JsonObject obj, String name) throws ParseException {
-    JsonElement val = obj == null ? null : obj.get(name);
-    if (val == null || !val.isJsonPrimitive()) throw new ParseException("Value is not type boolean: " + val, 0);
-    return val.getAsBoolean();
-  }
+    final ItemData testObj = obj.myTest;
+    if (!testObj.myPresent) throw new ParseException("No testId in json object", 0);
+    if (testObj.myId == null) throw new ParseException("No testId in json object", 0);
 
-  @NotNull
-  private Test getTest(JsonObject obj) throws ParseException {
-    return getItem(obj, myTestData);
+    final Test test = Test.from(testObj, myGroupData, mySuiteData);
+    myTestData.put(testObj.myId, test);
+    return test;
   }
 
   @NotNull
-  private Group getGroup(JsonObject obj) throws ParseException {
-    return getItem(obj, myGroupData);
-  }
+  private Group getGroup(@NotNull final ItemData obj) throws ParseException {
+    if (!obj.myPresent) throw new ParseException("Unexpected null json object", 0);
+    if (obj.myId == null) throw new ParseException("No id in json object", 0);
 
-  @NotNull
-  private Suite getSuite(JsonObject obj) throws ParseException {
-    return getItem(obj, mySuiteData);
+    final Group group = Group.from(obj, myGroupData, mySuiteData);
+    myGroupData.put(obj.myId, group);
+    return group;
   }
 
   @NotNull
-  private <T extends Item> T getItem(JsonObject obj, Map<Integer, T> items) throws ParseException {
-    if (obj == null) throw new ParseException("Unexpected null json object", 0);
-    T item;
-    JsonElement id = obj.get(JSON_ID);
-    if (id != null) {
-      if (items == myTestData) {
-        @SuppressWarnings("unchecked") T type = (T)Test.from(obj, myGroupData, mySuiteData);
-        item = type;
-      }
-      else if (items == myGroupData) {
-        @SuppressWarnings("unchecked") T group = (T)Group.from(obj, myGroupData, mySuiteData);
-        item = group;
-      }
-      else {
-        @SuppressWarnings("unchecked") T suite = (T)Suite.from(obj);
-        item = suite;
-      }
-      items.put(id.getAsInt(), item);
-    }
-    else {
-      JsonElement testId = obj.get(JSON_TEST_ID);
-      if (testId != null) {
-        int baseId = testId.getAsInt();
-        item = items.get(baseId);
-      }
-      else {
-        JsonElement testObj = obj.get(DEF_TEST);
-        if (testObj != null) {
-          return getItem(testObj.getAsJsonObject(), items);
-        }
-        else {
-          throw new ParseException("No testId in json object", 0);
-        }
-      }
-    }
-    return item;
-  }
+  private Suite getSuite(@NotNull final ItemData obj) throws ParseException {
+    if (!obj.myPresent) throw new ParseException("Unexpected null json object", 0);
+    if (obj.myId == null) throw new ParseException("No id in json object", 0);
 
-  @NotNull
-  private static String getErrorMessage(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_ERROR_MESSAGE, "<no error message>");
+    final Suite suite = Suite.from(obj);
+    mySuiteData.put(obj.myId, suite);
+    return suite;
   }
 
   @NotNull
-  private static String getMessage(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_MESSAGE, "<no message>");
+  private static String getErrorMessage(@NotNull final Event obj) {
+    return obj.myError != null ? obj.myError : "<no error message>";
   }
 
   @NotNull
-  private static String getStackTrace(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_STACK_TRACE, "<no stack trace>");
+  private static String getMessage(@NotNull final Event obj) {
+    return obj.myMessage != null ? obj.myMessage : "<no message>";
   }
 
   @NotNull
-  private static String getResult(JsonObject obj) {
-    return nonNullJsonValue(obj, JSON_RESULT, "<no result>");
+  private static String getStackTrace(@NotNull final Event obj) {
+    return obj.myStackTrace != null ? obj.myStackTrace : "<no stack trace>";
   }
 
   @NotNull
-  private static String nonNullJsonValue(JsonObject obj, @NotNull String id, @NotNull String def) {
-    JsonElement val = obj == null ? null : obj.get(id);
-    if (val == null || !val.isJsonPrimitive()) return def;
-    return val.getAsString();
+  private static String getResult(@NotNull final Event obj) {
+    return obj.myResult != null ? obj.myResult : "<no result>";
   }
 
   private static class Item {
@@ -553,30 +586,15 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     private final int myColumn;
     private final String myUrl;
 
-    static int extractInt(JsonObject obj, String memberName) {
-      JsonElement elem = obj.get(memberName);
-      if (elem == null || !elem.isJsonPrimitive()) return -1;
-      return elem.getAsInt();
-    }
-
-    static String extractString(JsonObject obj, String memberName, String defaultResult) {
-      JsonElement elem = obj.get(memberName);
-      if (elem == null || elem.isJsonNull()) return defaultResult;
-      return elem.getAsString();
+    static Metadata extractMetadata(ItemData obj) {
+      final Metadata metadata = new Metadata();
+      metadata.skip = obj.mySkip;
+      metadata.skipReason = obj.mySkipReason;
+      return metadata;
     }
 
-    static Metadata extractMetadata(JsonObject obj) {
-      return Metadata.from(obj.get(DEF_METADATA));
-    }
-
-    static Suite lookupSuite(JsonObject obj, Map<Integer, Suite> suites) {
-      JsonElement suiteObj = obj.get(JSON_SUITE_ID);
-      Suite suite = null;
-      if (suiteObj != null && suiteObj.isJsonPrimitive()) {
-        int parentId = suiteObj.getAsInt();
-        suite = suites.get(parentId);
-      }
-      return suite;
+    static Suite lookupSuite(ItemData obj, Map<Integer, Suite> suites) {
+      return obj.mySuiteId == null ? null : suites.get(obj.mySuiteId);
     }
 
     Item(int id, String name, Group parent, Suite suite, Metadata metadata, int line, int column, String url) {
@@ -702,17 +720,16 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     private boolean myTestStartReported = false;
     private boolean myTestErrorReported = false;
 
-    static Test from(JsonObject obj, Map<Integer, Group> groups, Map<Integer, Suite> suites) {
-      int[] groupIds = GSON.fromJson(obj.get(JSON_GROUP_IDS), (Type)int[].class);
+    static Test from(ItemData obj, Map<Integer, Group> groups, Map<Integer, Suite> suites) {
       Group parent = null;
-      if (groupIds != null && groupIds.length > 0) {
-        parent = groups.get(groupIds[groupIds.length - 1]);
+      if (obj.myLastGroupId != null) {
+        parent = groups.get(obj.myLastGroupId);
       }
       Suite suite = lookupSuite(obj, suites);
-      final int line = extractInt(obj, JSON_LINE);
-      final int column = extractInt(obj, JSON_COLUMN);
-      return new Test(extractInt(obj, JSON_ID), extractString(obj, JSON_NAME, NO_NAME), parent, suite, extractMetadata(obj),
-                      line < 0 ? -1 : line - 1, column < 0 ? -1 : column - 1, extractString(obj, JSON_URL, null));
+      final int line = obj.myLine;
+      final int column = obj.myColumn;
+      return new Test(obj.myId, obj.myName != null ? obj.myName : NO_NAME, parent, suite, extractMetadata(obj),
+                      line < 0 ? -1 : line - 1, column < 0 ? -1 : column - 1, obj.myUrl);
     }
 
     Test(int id, String name, Group parent, Suite suite, Metadata metadata, int line, int column, String url) {
@@ -721,28 +738,38 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
 
     public void testDone() {
       if (getParent() != null) {
+        getParent().myDoneTestIds.add(getId());
         getParent().incDoneTestsCount();
       }
     }
   }
 
+  private static class EvictedTest {
+    private final String myBaseName;
+    private final int myParentId;
+
+    private EvictedTest(String baseName, int parentId) {
+      myBaseName = baseName;
+      myParentId = parentId;
+    }
+  }
+
   private static class Group extends Item {
     private int myTestCount = 0;
     private int myDoneTestsCount = 0;
+    // ids of done tests directly in this group, evicted from myTestData when the group is done
+    private TIntArrayList myDoneTestIds = new TIntArrayList();
 
-    static Group from(JsonObject obj, Map<Integer, Group> groups, Map<Integer, Suite> suites) {
-      JsonElement parentObj = obj.get(JSON_PARENT_ID);
+    static Group from(ItemData obj, Map<Integer, Group> groups, Map<Integer, Suite> suites) {
       Group parent = null;
-      if (parentObj != null && parentObj.isJsonPrimitive()) {
-        int parentId = parentObj.getAsInt();
-        parent = groups.get(parentId);
+      if (obj.myParentId != null) {
+        parent = groups.get(obj.myParentId);
       }
       Suite suite = lookupSuite(obj, suites);
-      final int line = extractInt(obj, JSON_LINE);
-      final int column = extractInt(obj, JSON_COLUMN);
-      return new Group(extractInt(obj, JSON_ID), extractString(obj, JSON_NAME, NO_NAME), parent, suite, extractMetadata(obj),
-                       extractInt(obj, JSON_TEST_COUNT), line < 0 ? -1 : line - 1, column < 0 ? -1 : column - 1,
-                       extractString(obj, JSON_URL, null));
+      final int line = obj.myLine;
+      final int column = obj.myColumn;
+      return new Group(obj.myId, obj.myName != null ? obj.myName : NO_NAME, parent, suite, extractMetadata(obj),
+                       obj.myTestCount, line < 0 ? -1 : line - 1, column < 0 ? -1 : column - 1, obj.myUrl);
     }
 
     Group(int id, String name, Group parent, Suite suite, Metadata metadata, int count, int line, int column, String url) {
@@ -771,8 +798,8 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
     static Metadata NoMetadata = new Metadata();
     static String NONE = "<none>";
 
-    static Suite from(JsonObject obj) {
-      return new Suite(extractInt(obj, JSON_ID), extractString(obj, JSON_PATH, NONE), extractString(obj, JSON_PLATFORM, NONE));
+    static Suite from(ItemData obj) {
+      return new Suite(obj.myId, obj.myPath != null ? obj.myPath : NONE, obj.myPlatform != null ? obj.myPlatform : NONE);
     }
 
     private final String myPlatform;
@@ -796,12 +823,241 @@ public class DartTestEventsConverter extends OutputToGeneralTestEventsConverter
   }
 
   private static class Metadata {
-    @SuppressWarnings("unused") private boolean skip; // assigned by GSON via reflection
-    @SuppressWarnings("unused") private String skipReason; // assigned by GSON via reflection
+    private boolean skip;
+    private String skipReason;
+  }
 
-    static Metadata from(JsonElement elem) {
-      if (elem == null) return new Metadata();
-      return GSON.fromJson(elem, (Type)Metadata.class);
+  /**
+   * Fields of a {@code test}, {@code group} or {@code suite} object of an event.
+   */
+  private static class ItemData {
+    private boolean myPresent;
+    private Integer myId;
+    private String myName;
+    private Integer mySuiteId;
+    private Integer myParentId;
+    private Integer myLastGroupId;
+    private int myTestCount;
+    private int myLine;
+    private int myColumn;
+    private String myUrl;
+    private String myPath;
+    private String myPlatform;
+    private boolean mySkip;
+    private String mySkipReason;
+
+    private void reset() {
+      myPresent = false;
+      myId = mySuiteId = myParentId = myLastGroupId = null;
+      myName = myUrl = myPath = myPlatform = mySkipReason = null;
+      myTestCount = myLine = myColumn = -1;
+      mySkip = false;
+    }
+
+    private void read(@NotNull final JsonReader reader) throws IOException {
+      reset();
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        reader.skipValue();
+        return;
+      }
+
+      myPresent = true;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        final String name = reader.nextName();
+        if (JSON_ID.equals(name)) {
+          myId = nextIntOrNull(reader);
+        }
+        else if (JSON_NAME.equals(name)) {
+          myName = nextStringOrNull(reader);
+        }
+        else if (JSON_SUITE_ID.equals(name)) {
+          mySuiteId = nextIntOrNull(reader);
+        }
+        else if (JSON_PARENT_ID.equals(name)) {
+          myParentId = nextIntOrNull(reader);
+        }
+        else if (JSON_GROUP_IDS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            myLastGroupId = nextIntOrNull(reader);
+          }
+          reader.endArray();
+        }
+        else if (JSON_TEST_COUNT.equals(name)) {
+          myTestCount = nextIntOrMinusOne(reader);
+        }
+        else if (JSON_LINE.equals(name)) {
+          myLine = nextIntOrMinusOne(reader);
+        }
+        else if (JSON_COLUMN.equals(name)) {
+          myColumn = nextIntOrMinusOne(reader);
+        }
+        else if (JSON_URL.equals(name)) {
+          myUrl = nextStringOrNull(reader);
+        }
+        else if (JSON_PATH.equals(name)) {
+          myPath = nextStringOrNull(reader);
+        }
+        else if (JSON_PLATFORM.equals(name)) {
+          myPlatform = nextStringOrNull(reader);
+        }
+        else if (DEF_METADATA.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            final String metadataName = reader.nextName();
+            if ("skip".equals(metadataName)) {
+              mySkip = Boolean.TRUE.equals(nextBooleanOrNull(reader));
+            }
+            else if ("skipReason".equals(metadataName)) {
+              mySkipReason = nextStringOrNull(reader);
+            }
+            else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+        }
+        else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    }
+  }
+
+  /**
+   * One line of the JSON reporter output. Only the fields used by the handlers are pulled out of the JSON stream, no JSON tree is built.
+   * The instance is reused for all lines.
+   */
+  private static class Event {
+    private String myType;
+    private Long myTime;
+    private Integer myTestId;
+    private String myResult;
+    private String myMessage;
+    private String myError;
+    private String myStackTrace;
+    private Boolean myIsFailure;
+    private int myCount;
+    private final ItemData myTest = new ItemData();
+    private final ItemData myGroup = new ItemData();
+    private final ItemData mySuite = new ItemData();
+
+    /**
+     * @return {@code false} if the text is not a well-formed JSON object
+     */
+    private boolean decode(@NotNull final String text) {
+      myType = myResult = myMessage = myError = myStackTrace = null;
+      myTime = null;
+      myTestId = null;
+      myIsFailure = null;
+      myCount = -1;
+      myTest.reset();
+      myGroup.reset();
+      mySuite.reset();
+
+      if (text.indexOf('{') < 0) return false; // fast path for plain output
+
+      try {
+        final JsonReader reader = new JsonReader(new StringReader(text));
+        reader.setLenient(true); // like JsonParser
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) return false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+          final String name = reader.nextName();
+          if (JSON_TYPE.equals(name)) {
+            myType = nextStringOrNull(reader);
+          }
+          else if (JSON_MILLIS.equals(name)) {
+            myTime = nextLongOrNull(reader);
+          }
+          else if (JSON_TEST_ID.equals(name)) {
+            myTestId = nextIntOrNull(reader);
+          }
+          else if (JSON_RESULT.equals(name)) {
+            myResult = nextStringOrNull(reader);
+          }
+          else if (JSON_MESSAGE.equals(name)) {
+            myMessage = nextStringOrNull(reader);
+          }
+          else if (JSON_ERROR_MESSAGE.equals(name)) {
+            myError = nextStringOrNull(reader);
+          }
+          else if (JSON_STACK_TRACE.equals(name)) {
+            myStackTrace = nextStringOrNull(reader);
+          }
+          else if (JSON_IS_FAILURE.equals(name)) {
+            myIsFailure = nextBooleanOrNull(reader);
+          }
+          else if (JSON_COUNT.equals(name)) {
+            myCount = nextIntOrMinusOne(reader);
+          }
+          else if (DEF_TEST.equals(name)) {
+            myTest.read(reader);
+          }
+          else if (DEF_GROUP.equals(name)) {
+            myGroup.read(reader);
+          }
+          else if (DEF_SUITE.equals(name)) {
+            mySuite.read(reader);
+          }
+          else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+
+        return reader.peek() == JsonToken.END_DOCUMENT;
+      }
+      catch (IOException | IllegalStateException | NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  @Nullable
+  private static String nextStringOrNull(@NotNull final JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case STRING:
+      case NUMBER:
+        return reader.nextString();
+      case BOOLEAN:
+        return String.valueOf(reader.nextBoolean());
+      default:
+        reader.skipValue();
+        return null;
     }
   }
+
+  @Nullable
+  private static Integer nextIntOrNull(@NotNull final JsonReader reader) throws IOException {
+    final JsonToken token = reader.peek();
+    if (token == JsonToken.NUMBER || token == JsonToken.STRING) return reader.nextInt();
+    reader.skipValue();
+    return null;
+  }
+
+  private static int nextIntOrMinusOne(@NotNull final JsonReader reader) throws IOException {
+    final Integer value = nextIntOrNull(reader);
+    return value == null ? -1 : value;
+  }
+
+  @Nullable
+  private static Long nextLongOrNull(@NotNull final JsonReader reader) throws IOException {
+    final JsonToken token = reader.peek();
+    if (token == JsonToken.NUMBER || token == JsonToken.STRING) return reader.nextLong();
+    reader.skipValue();
+    return null;
+  }
+
+  @Nullable
+  private static Boolean nextBooleanOrNull(@NotNull final JsonReader reader) throws IOException {
+    final JsonToken token = reader.peek();
+    if (token == JsonToken.BOOLEAN) return reader.nextBoolean();
+    if (token == JsonToken.STRING) return Boolean.parseBoolean(reader.nextString());
+    reader.skipValue();
+    return null;
+  }
 }
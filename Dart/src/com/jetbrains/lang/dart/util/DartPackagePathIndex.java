@@ -0,0 +1,100 @@
+package com.jetbrains.lang.dart.util;
+
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Path-segment trie of package root folders, answers 'which package contains this file' in O(path depth)
+ * instead of checking each package folder of the (potentially huge) package map.
+ * If package folders are nested the innermost one wins.
+ * <p>
+ * An index is immutable once built and is shared by all {@link DartUrlResolverImpl} instances created for the same package map,
+ * see {@link #isBuiltFrom(Object)}.
+ */
+class DartPackagePathIndex {
+
+  private static class Node {
+    @Nullable private Map<String, Node> myChildren;
+    @Nullable private String myPackageName;
+  }
+
+  @NotNull private final Object mySource;
+  @NotNull private final Node myRoot = new Node();
+
+  /**
+   * @param source package map this index is built from
+   */
+  DartPackagePathIndex(@NotNull final Object source) {
+    mySource = source;
+  }
+
+  boolean isBuiltFrom(@NotNull final Object source) {
+    return mySource == source || mySource.equals(source);
+  }
+
+  /**
+   * Must be called only before the index is shared.
+   */
+  void addPackageDir(@NotNull final String packageName, @NotNull final String dirPath) {
+    Node node = myRoot;
+    int start = 0;
+    while (start < dirPath.length()) {
+      int end = dirPath.indexOf('/', start);
+      if (end < 0) end = dirPath.length();
+
+      if (end > start) {
+        if (node.myChildren == null) {
+          node.myChildren = new THashMap<>();
+        }
+        final String segment = dirPath.substring(start, end);
+        Node child = node.myChildren.get(segment);
+        if (child == null) {
+          child = new Node();
+          node.myChildren.put(segment, child);
+        }
+        node = child;
+      }
+
+      start = end + 1;
+    }
+
+    if (node != myRoot && node.myPackageName == null) {
+      node.myPackageName = packageName;
+    }
+  }
+
+  /**
+   * @param includeDirItself whether the package folder itself is considered to belong to the package
+   * @return {@code package:} URL of the file if it is located in one of the indexed package folders
+   */
+  @Nullable
+  String getPackageUrl(@NotNull final String filePath, final boolean includeDirItself) {
+    Node node = myRoot;
+    String packageName = null;
+    int relPathStart = -1;
+
+    int start = 0;
+    while (start < filePath.length() && node.myChildren != null) {
+      int end = filePath.indexOf('/', start);
+      if (end < 0) end = filePath.length();
+
+      if (end > start) {
+        node = node.myChildren.get(filePath.substring(start, end));
+        if (node == null) break;
+
+        if (node.myPackageName != null && (end < filePath.length() || includeDirItself)) {
+          packageName = node.myPackageName;
+          relPathStart = end + 1;
+        }
+      }
+
+      start = end + 1;
+    }
+
+    if (packageName == null) return null;
+    return DartUrlResolver.PACKAGE_PREFIX + packageName + "/" + (relPathStart < filePath.length() ? filePath.substring(relPathStart) : "");
+  }
+}
@@ -11,6 +11,7 @@ import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.roots.impl.libraries.LibraryEx;
 import com.intellij.openapi.roots.libraries.LibraryProperties;
 import com.intellij.openapi.roots.libraries.LibraryTablesRegistrar;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -35,6 +36,11 @@ import java.util.Map;
 public class DartUrlResolverImpl extends DartUrlResolver {
   // TODO Fold into superclass.
 
+  // package path indices are shared by all resolvers with the same pubspec.yaml file (or the same project for myPackagesMapFromLib)
+  // and rebuilt when the package map changes
+  private static final Key<DartPackagePathIndex> LIVE_PACKAGES_INDEX_KEY = Key.create("DART_LIVE_PACKAGES_INDEX");
+  private static final Key<DartPackagePathIndex> PACKAGES_FROM_LIB_INDEX_KEY = Key.create("DART_PACKAGES_FROM_LIB_INDEX");
+
   @NotNull private final Project myProject;
   @Nullable private final DartSdk myDartSdk;
   @Nullable private final VirtualFile myPubspecYamlFile;
@@ -42,6 +48,9 @@ public class DartUrlResolverImpl extends DartUrlResolver {
   @NotNull private final Map<String, VirtualFile> myLivePackageNameToDirMap = new THashMap<>();
   // myPackagesMapFromLib is not empty only if pubspec.yaml file is null
   @NotNull private final Map<String, List<String>> myPackagesMapFromLib = new THashMap<>();
+  // lazily taken from the shared cache on the first getDartUrlForFile() call
+  @Nullable private DartPackagePathIndex myLivePackagesIndex;
+  @Nullable private DartPackagePathIndex myPackagesFromLibIndex;
 
   public DartUrlResolverImpl(final @NotNull Project project, final @NotNull VirtualFile contextFile) {
     myProject = project;
@@ -148,11 +157,21 @@ public class DartUrlResolverImpl extends DartUrlResolver {
     if (myDartSdk != null) result = getUrlIfFileFromSdkLib(myProject, file, myDartSdk);
     if (result != null) return result;
 
-    result = getUrlIfFileFromLivePackage(file, myLivePackageNameToDirMap);
-    if (result != null) return result;
+    if (!myLivePackageNameToDirMap.isEmpty() && myPubspecYamlFile != null) {
+      if (myLivePackagesIndex == null) {
+        myLivePackagesIndex = getLivePackagesIndex(myPubspecYamlFile, myLivePackageNameToDirMap);
+      }
+      result = myLivePackagesIndex.getPackageUrl(file.getPath(), true);
+      if (result != null) return result;
+    }
 
-    result = getUrlIfFileFromDartPackagesLib(file, myPackagesMapFromLib);
-    if (result != null) return result;
+    if (!myPackagesMapFromLib.isEmpty()) {
+      if (myPackagesFromLibIndex == null) {
+        myPackagesFromLibIndex = getPackagesFromLibIndex(myProject, myPackagesMapFromLib);
+      }
+      result = myPackagesFromLibIndex.getPackageUrl(file.getPath(), false);
+      if (result != null) return result;
+    }
 
     // see com.google.dart.tools.debug.core.server.ServerBreakpointManager#getAbsoluteUrlForResource()
     return new File(file.getPath()).toURI().toString();
@@ -174,32 +193,34 @@ public class DartUrlResolverImpl extends DartUrlResolver {
              : null;
   }
 
-  @Nullable
-  private static String getUrlIfFileFromLivePackage(final @NotNull VirtualFile file,
-                                                    final @NotNull Map<String, VirtualFile> livePackageNameToDirMap) {
-    for (Map.Entry<String, VirtualFile> entry : livePackageNameToDirMap.entrySet()) {
-      final String packageName = entry.getKey();
-      final VirtualFile packageDir = entry.getValue();
-      final String relPath = VfsUtilCore.getRelativePath(file, packageDir, '/');
-      if (relPath != null) {
-        return PACKAGE_PREFIX + packageName + "/" + relPath;
+  @NotNull
+  private static DartPackagePathIndex getLivePackagesIndex(final @NotNull VirtualFile pubspecYamlFile,
+                                                           final @NotNull Map<String, VirtualFile> livePackageNameToDirMap) {
+    DartPackagePathIndex index = pubspecYamlFile.getUserData(LIVE_PACKAGES_INDEX_KEY);
+    if (index == null || !index.isBuiltFrom(livePackageNameToDirMap)) {
+      index = new DartPackagePathIndex(livePackageNameToDirMap);
+      for (Map.Entry<String, VirtualFile> entry : livePackageNameToDirMap.entrySet()) {
+        index.addPackageDir(entry.getKey(), entry.getValue().getPath());
       }
+      pubspecYamlFile.putUserData(LIVE_PACKAGES_INDEX_KEY, index);
     }
-    return null;
+    return index;
   }
 
-  @Nullable
-  private static String getUrlIfFileFromDartPackagesLib(final @NotNull VirtualFile file,
-                                                        final @NotNull Map<String, List<String>> pubListPackageDirsMap) {
-    for (Map.Entry<String, List<String>> mapEntry : pubListPackageDirsMap.entrySet()) {
-      for (String dirPath : mapEntry.getValue()) {
-        if (file.getPath().startsWith(dirPath + "/")) {
-          final String packageName = mapEntry.getKey();
-          return PACKAGE_PREFIX + packageName + file.getPath().substring(dirPath.length());
+  @NotNull
+  private static DartPackagePathIndex getPackagesFromLibIndex(final @NotNull Project project,
+                                                              final @NotNull Map<String, List<String>> pubListPackageDirsMap) {
+    DartPackagePathIndex index = project.getUserData(PACKAGES_FROM_LIB_INDEX_KEY);
+    if (index == null || !index.isBuiltFrom(pubListPackageDirsMap)) {
+      index = new DartPackagePathIndex(pubListPackageDirsMap);
+      for (Map.Entry<String, List<String>> mapEntry : pubListPackageDirsMap.entrySet()) {
+        for (String dirPath : mapEntry.getValue()) {
+          index.addPackageDir(mapEntry.getKey(), dirPath);
         }
       }
+      project.putUserData(PACKAGES_FROM_LIB_INDEX_KEY, index);
     }
-    return null;
+    return index;
   }
 
   private void initLivePackageNameToDirMap() {
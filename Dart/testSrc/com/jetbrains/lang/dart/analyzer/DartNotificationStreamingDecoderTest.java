@@ -0,0 +1,260 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.google.dart.server.AnalysisServerListener;
+import com.google.dart.server.AnalysisServerListenerAdapter;
+import com.google.dart.server.internal.remote.processor.*;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.AnalysisError;
+import org.dartlang.analysis.server.protocol.CompletionSuggestion;
+import org.dartlang.analysis.server.protocol.HighlightRegion;
+import org.dartlang.analysis.server.protocol.NavigationRegion;
+import org.dartlang.analysis.server.protocol.Outline;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DartNotificationStreamingDecoderTest extends TestCase {
+
+  private static final String FILE = "/project/lib/big.dart";
+
+  private static class RecordingListener extends AnalysisServerListenerAdapter {
+    private final List<Object> myResults = new ArrayList<>();
+
+    @Override
+    public void computedHighlights(String file, List<HighlightRegion> highlights) {
+      myResults.add(file);
+      myResults.add(highlights);
+    }
+
+    @Override
+    public void computedNavigation(String file, List<NavigationRegion> targets) {
+      myResults.add(file);
+      myResults.add(targets);
+      for (NavigationRegion region : targets) {
+        myResults.add(region.getTargetObjects());
+      }
+    }
+
+    @Override
+    public void computedErrors(String file, List<AnalysisError> errors) {
+      myResults.add(file);
+      myResults.add(errors);
+    }
+
+    @Override
+    public void computedOutline(String file, Outline outline) {
+      myResults.add(file);
+      myResults.add(outline.toString());
+    }
+
+    @Override
+    public void computedCompletion(String completionId, int replacementOffset, int replacementLength,
+                                   List<CompletionSuggestion> completions, boolean isLast) {
+      myResults.add(completionId);
+      myResults.add(replacementOffset);
+      myResults.add(replacementLength);
+      myResults.add(completions);
+      myResults.add(isLast);
+    }
+  }
+
+  @NotNull
+  private static String highlightsLine(final int regions) {
+    final StringBuilder b = new StringBuilder("{\"event\":\"analysis.highlights\",\"params\":{\"file\":\"" + FILE + "\",\"regions\":[");
+    for (int i = 0; i < regions; i++) {
+      if (i > 0) b.append(',');
+      b.append("{\"type\":\"").append(i % 2 == 0 ? "KEYWORD" : "IDENTIFIER_DEFAULT").append("\",\"offset\":").append(i * 10)
+        .append(",\"length\":").append(5).append('}');
+    }
+    return b.append("]}}").toString();
+  }
+
+  @NotNull
+  private static String navigationLine(final int regions) {
+    final StringBuilder b = new StringBuilder("{\"event\":\"analysis.navigation\",\"params\":{\"file\":\"" + FILE + "\",\"regions\":[");
+    for (int i = 0; i < regions; i++) {
+      if (i > 0) b.append(',');
+      b.append("{\"offset\":").append(i * 10).append(",\"length\":5,\"targets\":[").append(i % 3).append("]}");
+    }
+    b.append("],\"targets\":[");
+    for (int i = 0; i < 3; i++) {
+      if (i > 0) b.append(',');
+      b.append("{\"kind\":\"CLASS\",\"fileIndex\":").append(i % 2).append(",\"offset\":").append(i)
+        .append(",\"length\":3,\"startLine\":1,\"startColumn\":").append(i + 1).append('}');
+    }
+    return b.append("],\"files\":[\"" + FILE + "\",\"/sdk/lib/core/core.dart\"]}}").toString();
+  }
+
+  @NotNull
+  private static String errorsLine() {
+    return "{\"event\":\"analysis.errors\",\"params\":{\"file\":\"" + FILE + "\",\"errors\":[" +
+           "{\"severity\":\"ERROR\",\"type\":\"SYNTACTIC_ERROR\",\"location\":{\"file\":\"" + FILE + "\",\"offset\":10,\"length\":1," +
+           "\"startLine\":2,\"startColumn\":3},\"message\":\"Expected ';'\",\"code\":\"expected_token\",\"hasFix\":true}," +
+           "{\"severity\":\"INFO\",\"type\":\"HINT\",\"location\":{\"file\":\"" + FILE + "\",\"offset\":20,\"length\":4," +
+           "\"startLine\":3,\"startColumn\":1},\"message\":\"Unused import\",\"correction\":\"Remove it\",\"code\":\"unused_import\"}]}}";
+  }
+
+  @NotNull
+  private static String outlineLine() {
+    return "{\"event\":\"analysis.outline\",\"params\":{\"file\":\"" + FILE + "\",\"kind\":\"LIBRARY\",\"outline\":" +
+           "{\"element\":{\"kind\":\"COMPILATION_UNIT\",\"name\":\"<unit>\",\"flags\":0},\"offset\":0,\"length\":100,\"children\":[" +
+           "{\"element\":{\"kind\":\"CLASS\",\"name\":\"A\",\"location\":{\"file\":\"" + FILE + "\",\"offset\":6,\"length\":1," +
+           "\"startLine\":1,\"startColumn\":7},\"flags\":1,\"typeParameters\":\"<T>\"},\"offset\":0,\"length\":50,\"children\":[" +
+           "{\"element\":{\"kind\":\"METHOD\",\"name\":\"foo\",\"flags\":0,\"parameters\":\"(int a)\",\"returnType\":\"void\"}," +
+           "\"offset\":10,\"length\":20}]}]}}}";
+  }
+
+  @NotNull
+  private static String completionLine(final int results) {
+    final StringBuilder b = new StringBuilder("{\"event\":\"completion.results\",\"params\":{\"id\":\"7\",\"replacementOffset\":42," +
+                                              "\"replacementLength\":3,\"results\":[");
+    for (int i = 0; i < results; i++) {
+      if (i > 0) b.append(',');
+      b.append("{\"kind\":\"INVOCATION\",\"relevance\":").append(1000 - i).append(",\"completion\":\"member").append(i)
+        .append("\",\"selectionOffset\":").append(7).append(",\"selectionLength\":0,\"isDeprecated\":").append(i % 5 == 0)
+        .append(",\"isPotential\":false,\"declaringType\":\"A\"");
+      if (i % 2 == 0) {
+        b.append(",\"element\":{\"kind\":\"METHOD\",\"name\":\"member").append(i).append("\",\"flags\":0,\"parameters\":\"(int a, {b})\"," +
+                                                                                      "\"returnType\":\"void\"}")
+          .append(",\"parameterNames\":[\"a\",\"b\"],\"parameterTypes\":[\"int\",\"dynamic\"],\"requiredParameterCount\":1," +
+                  "\"hasNamedParameters\":true,\"defaultArgumentListString\":\"a\",\"defaultArgumentListTextRanges\":[0,1]");
+      }
+      else {
+        b.append(",\"returnType\":\"int\",\"docSummary\":\"Field ").append(i).append(".\"");
+      }
+      b.append('}');
+    }
+    return b.append("],\"isLast\":true}}").toString();
+  }
+
+  private static void processAsTree(@NotNull final String line, @NotNull final AnalysisServerListener listener) throws Exception {
+    final JsonObject response = (JsonObject)new JsonParser().parse(line);
+    final String event = response.get("event").getAsString();
+    if ("analysis.highlights".equals(event)) new NotificationAnalysisHighlightsProcessor(listener).process(response);
+    else if ("analysis.navigation".equals(event)) new NotificationAnalysisNavigationProcessor(listener).process(response);
+    else if ("analysis.errors".equals(event)) new NotificationAnalysisErrorsProcessor(listener).process(response);
+    else if ("analysis.outline".equals(event)) new NotificationAnalysisOutlineProcessor(listener).process(response);
+    else if ("completion.results".equals(event)) new NotificationCompletionResultsProcessor(listener).process(response);
+    else fail(event);
+  }
+
+  private static void doTest(@NotNull final String line) throws Exception {
+    final RecordingListener treeListener = new RecordingListener();
+    processAsTree(line, treeListener);
+
+    final RecordingListener streamingListener = new RecordingListener();
+    assertTrue(new NotificationStreamingDecoder(streamingListener).decode(line));
+
+    assertEquals(treeListener.myResults, streamingListener.myResults);
+  }
+
+  public void testHighlights() throws Exception {
+    doTest(highlightsLine(100));
+  }
+
+  public void testNavigation() throws Exception {
+    doTest(navigationLine(100));
+  }
+
+  public void testErrors() throws Exception {
+    doTest(errorsLine());
+  }
+
+  public void testOutline() throws Exception {
+    doTest(outlineLine());
+  }
+
+  public void testUnsupportedNotification() {
+    final NotificationStreamingDecoder decoder = new NotificationStreamingDecoder(new RecordingListener());
+    assertFalse(decoder.decode("{\"event\":\"server.status\",\"params\":{\"analysis\":{\"isAnalyzing\":true}}}"));
+    assertFalse(decoder.decode("{\"id\":\"5\",\"result\":{}}"));
+    // params before event: left to the tree-based processors
+    assertFalse(decoder.decode("{\"params\":{\"file\":\"" + FILE + "\",\"regions\":[]},\"event\":\"analysis.highlights\"}"));
+  }
+
+  public void testCompletionResults() throws Exception {
+    doTest(completionLine(200));
+  }
+
+  public void testCompletionResultsStreamedOneByOne() {
+    final RecordingListener listener = new RecordingListener();
+    final NotificationStreamingDecoder decoder = new NotificationStreamingDecoder(listener);
+    assertTrue(decoder.decode(completionLine(0)));
+    assertTrue(decoder.decode(completionLine(3)));
+    assertEquals(10, listener.myResults.size());
+    assertEquals("7", listener.myResults.get(5));
+    @SuppressWarnings("unchecked") final List<CompletionSuggestion> suggestions = (List<CompletionSuggestion>)listener.myResults.get(8);
+    assertEquals(3, suggestions.size());
+    assertEquals("member0", suggestions.get(0).getCompletion());
+    assertEquals("METHOD", suggestions.get(0).getElement().getKind());
+    assertEquals(Integer.valueOf(1), suggestions.get(0).getRequiredParameterCount());
+    assertNull(suggestions.get(1).getElement());
+    assertEquals("Field 1.", suggestions.get(1).getDocSummary());
+    assertEquals(998, suggestions.get(2).getRelevance());
+  }
+
+  public void testMalformedCompletionLeftToTreeProcessors() {
+    final RecordingListener listener = new RecordingListener();
+    final NotificationStreamingDecoder decoder = new NotificationStreamingDecoder(listener);
+    // a suggestion without the required "relevance"
+    assertFalse(decoder.decode("{\"event\":\"completion.results\",\"params\":{\"id\":\"1\",\"replacementOffset\":0," +
+                               "\"replacementLength\":0,\"results\":[{\"kind\":\"KEYWORD\",\"completion\":\"if\"}],\"isLast\":true}}"));
+    assertTrue(listener.myResults.isEmpty());
+  }
+
+  public void testAllocationAndThroughput() throws Exception {
+    final String[] traffic = {highlightsLine(20000), navigationLine(20000), errorsLine(), outlineLine(), completionLine(2000)};
+    final AnalysisServerListener listener = new AnalysisServerListenerAdapter();
+    final NotificationStreamingDecoder decoder = new NotificationStreamingDecoder(listener);
+
+    final Measurement tree = new Measurement();
+    final Measurement streaming = new Measurement();
+    for (int i = 0; i < 20; i++) {
+      tree.start();
+      for (String line : traffic) {
+        processAsTree(line, listener);
+      }
+      tree.stop();
+
+      streaming.start();
+      for (String line : traffic) {
+        assertTrue(decoder.decode(line));
+      }
+      streaming.stop();
+    }
+
+    // the tree path keeps a JsonObject per item in addition to the protocol objects
+    assertTrue(streaming + " vs " + tree, streaming.myBestBytes * 2 < tree.myBestBytes);
+    assertTrue(streaming + " vs " + tree, streaming.myBestNanos < tree.myBestNanos);
+  }
+
+  /**
+   * Best time and allocated bytes of the current thread over several runs, the first runs are JIT warm-up.
+   */
+  private static class Measurement {
+    private final com.sun.management.ThreadMXBean myBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private long myBestNanos = Long.MAX_VALUE;
+    private long myBestBytes = Long.MAX_VALUE;
+    private long myStartNanos;
+    private long myStartBytes;
+
+    private void start() {
+      myStartBytes = myBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      myStartNanos = System.nanoTime();
+    }
+
+    private void stop() {
+      myBestNanos = Math.min(myBestNanos, System.nanoTime() - myStartNanos);
+      myBestBytes = Math.min(myBestBytes, myBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - myStartBytes);
+    }
+
+    @Override
+    public String toString() {
+      return myBestNanos / 1000 + " us, " + myBestBytes / 1024 + " KB";
+    }
+  }
+}
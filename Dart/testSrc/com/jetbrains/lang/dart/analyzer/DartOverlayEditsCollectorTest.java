@@ -0,0 +1,123 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.google.dart.server.internal.remote.utilities.RequestUtilities;
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.AddContentOverlay;
+import org.dartlang.analysis.server.protocol.ChangeContentOverlay;
+import org.dartlang.analysis.server.protocol.SourceEdit;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+public class DartOverlayEditsCollectorTest extends TestCase {
+
+  private static final String FILE_PATH = "/project/lib/generated.dart";
+
+  private static void assertEdit(@NotNull final SourceEdit edit, final int offset, final int length, @NotNull final String replacement) {
+    assertEquals(offset, edit.getOffset());
+    assertEquals(length, edit.getLength());
+    assertEquals(replacement, edit.getReplacement());
+  }
+
+  public void testTypingIsCoalesced() {
+    final DartOverlayEditsCollector collector = new DartOverlayEditsCollector();
+    collector.addEdit(10, 0, "f");
+    collector.addEdit(11, 0, "o");
+    collector.addEdit(12, 0, "o");
+    collector.addEdit(12, 1, "");   // backspace within typed text
+    collector.addEdit(9, 1, "");    // backspace before typed text
+
+    final ChangeContentOverlay overlay = collector.toChangeContentOverlay();
+    assertNotNull(overlay);
+    assertEquals(1, overlay.getEdits().size());
+    assertEdit(overlay.getEdits().get(0), 9, 1, "fo");
+  }
+
+  public void testNonAdjacentEdits() {
+    final DartOverlayEditsCollector collector = new DartOverlayEditsCollector();
+    collector.addEdit(10, 0, "a");
+    collector.addEdit(100, 3, "bc");
+
+    final ChangeContentOverlay overlay = collector.toChangeContentOverlay();
+    assertNotNull(overlay);
+    assertEquals(2, overlay.getEdits().size());
+    assertEdit(overlay.getEdits().get(0), 10, 0, "a");
+    assertEdit(overlay.getEdits().get(1), 100, 3, "bc");
+  }
+
+  public void testOverflow() {
+    final DartOverlayEditsCollector collector = new DartOverlayEditsCollector();
+    assertNull(collector.toChangeContentOverlay());
+
+    for (int i = 0; i <= DartOverlayEditsCollector.MAX_EDITS; i++) {
+      collector.addEdit(i * 2, 0, "x");
+    }
+
+    assertTrue(collector.isOverflow());
+    assertNull(collector.toChangeContentOverlay());
+  }
+
+  public void testOverlayMismatchResendsFullContent() {
+    final DartOverlaidFiles files = new DartOverlaidFiles();
+    assertTrue(files.getOverlayToSend(FILE_PATH, 1, "ab", true) instanceof AddContentOverlay);
+    assertNull(files.getOverlayToSend(FILE_PATH, 1, "ab", true));
+
+    files.documentChanged(FILE_PATH, 2, 0, "c");
+    final Object change = files.getOverlayToSend(FILE_PATH, 2, "abc", true);
+    assertTrue(change instanceof ChangeContentOverlay);
+    assertEdit(((ChangeContentOverlay)change).getEdits().get(0), 2, 0, "c");
+
+    // the server rejected the change above, edits made since then are useless
+    files.documentChanged(FILE_PATH, 3, 0, "d");
+    files.onOverlayMismatch();
+    assertTrue(files.isOverlaid(FILE_PATH));
+
+    final Object full = files.getOverlayToSend(FILE_PATH, 3, "abcd", true);
+    assertTrue(full instanceof AddContentOverlay);
+    assertEquals("abcd", ((AddContentOverlay)full).getContent());
+
+    // back to incremental changes after the full content is sent
+    files.documentChanged(FILE_PATH, 4, 0, "e");
+    final Object next = files.getOverlayToSend(FILE_PATH, 4, "abcde", true);
+    assertTrue(next instanceof ChangeContentOverlay);
+    assertEdit(((ChangeContentOverlay)next).getEdits().get(0), 4, 0, "e");
+  }
+
+  public void testMismatchWithUnchangedDocument() {
+    final DartOverlaidFiles files = new DartOverlaidFiles();
+    files.getOverlayToSend(FILE_PATH, 1, "ab", true);
+    files.onOverlayMismatch();
+
+    // the document stamp is the same, but the server content is not known any more
+    final Object full = files.getOverlayToSend(FILE_PATH, 1, "ab", true);
+    assertTrue(full instanceof AddContentOverlay);
+    assertEquals("ab", ((AddContentOverlay)full).getContent());
+  }
+
+  public void testBytesPerKeystroke() {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 8000; i++) {
+      text.append("  final int field").append(i).append(" = ").append(i).append("; // generated\n");
+    }
+
+    final int fullBytes = requestBytes(new AddContentOverlay(text.toString()));
+
+    final DartOverlayEditsCollector collector = new DartOverlayEditsCollector();
+    collector.addEdit(text.length() / 2, 0, "x");
+    //noinspection ConstantConditions
+    final int deltaBytes = requestBytes(collector.toChangeContentOverlay());
+
+    // the full overlay carries the whole document, the change overlay only the request envelope and the typed character
+    assertTrue(String.valueOf(fullBytes), fullBytes > text.length());
+    assertTrue(String.valueOf(deltaBytes), deltaBytes < 512);
+    assertTrue(deltaBytes * 1000 < fullBytes);
+  }
+
+  private static int requestBytes(@NotNull final Object overlay) {
+    // ByteRequestSink writes request.toString() followed by a line separator
+    final String request =
+      RequestUtilities.generateAnalysisUpdateContent("1", Collections.singletonMap(FILE_PATH, overlay)).toString();
+    return request.getBytes(StandardCharsets.UTF_8).length + 1;
+  }
+}
@@ -0,0 +1,174 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.jetbrains.lang.dart.analyzer.DartServerData.DartHighlightRegion;
+import com.jetbrains.lang.dart.analyzer.DartServerData.DartRegion;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public class DartRegionTableTest extends TestCase {
+
+  @NotNull
+  private static DartRegionTable<Void> createTable() {
+    final DartRegionTable<Void> table = DartRegionTable.createTyped(3);
+    table.add(0, 5, DartRegionTable.getTypeId("KEYWORD"));
+    table.add(10, 5, DartRegionTable.getTypeId("IDENTIFIER_DEFAULT"));
+    table.add(20, 5, DartRegionTable.getTypeId("KEYWORD"));
+    return table;
+  }
+
+  @NotNull
+  private static DartRegionTable<DartRegion> createPayloadTable() {
+    final DartRegionTable<DartRegion> table = DartRegionTable.createWithPayloads(
+      2, (region, offset, length, shifter) -> offset == region.getOffset() && length == region.getLength()
+                                              ? region
+                                              : new DartRegion(offset, length));
+    table.add(new DartRegion(0, 5));
+    table.add(new DartRegion(10, 5));
+    return table;
+  }
+
+  @NotNull
+  private static String regions(@NotNull final DartRegionTable<Void> table) {
+    return toString(table.getHighlightRegions());
+  }
+
+  @NotNull
+  private static String toString(@NotNull final List<DartHighlightRegion> regions) {
+    final StringBuilder b = new StringBuilder();
+    for (DartHighlightRegion region : regions) {
+      if (b.length() > 0) b.append(", ");
+      b.append(region.getOffset()).append(':').append(region.getLength()).append(':').append(region.getType());
+    }
+    return "[" + b + "]";
+  }
+
+  public void testTypingIsAppliedLazily() {
+    final DartRegionTable<Void> table = createTable();
+    table.documentChanged(7, 0, 1);   // typed between regions
+    table.documentChanged(12, 0, 2);  // typed inside the second region
+    table.documentChanged(0, 1, 0);   // deleted inside the first region
+    assertEquals("[0:4:KEYWORD, 10:7:IDENTIFIER_DEFAULT, 22:5:KEYWORD]", regions(table));
+  }
+
+  public void testInsertAtRegionBoundaries() {
+    final DartRegionTable<Void> table = createTable();
+    table.documentChanged(10, 0, 3);  // typed right before the second region: shifted, not extended
+    table.documentChanged(5, 0, 1);   // typed right after the first region: neither shifted nor extended
+    assertEquals("[0:5:KEYWORD, 14:5:IDENTIFIER_DEFAULT, 24:5:KEYWORD]", regions(table));
+    assertFalse(table.isSomeRegionDeleted());
+  }
+
+  public void testDeleteBeforeAndInsideRegion() {
+    final DartRegionTable<Void> table = createTable();
+    table.documentChanged(6, 3, 0);   // deleted between regions
+    table.documentChanged(8, 2, 0);   // deleted inside the second region, which now starts at 7
+    assertEquals("[0:5:KEYWORD, 7:3:IDENTIFIER_DEFAULT, 15:5:KEYWORD]", regions(table));
+    assertFalse(table.isSomeRegionDeleted());
+  }
+
+  public void testTouchedRegionDeleted() {
+    final DartRegionTable<Void> table = createTable();
+    table.documentChanged(8, 10, 0);  // deleted the whole second region
+    assertEquals("[0:5:KEYWORD, 10:5:KEYWORD]", regions(table));
+    assertEquals(2, table.size());
+    assertTrue(table.isSomeRegionDeleted());
+  }
+
+  public void testDeleteOverlappingRegionEnd() {
+    final DartRegionTable<Void> table = createTable();
+    table.documentChanged(3, 4, 0);   // deleted the end of the first region and a part of the gap
+    assertEquals("[6:5:IDENTIFIER_DEFAULT, 16:5:KEYWORD]", regions(table));
+    assertTrue(table.isSomeRegionDeleted());
+  }
+
+  public void testDeleteOverlappingRegionStart() {
+    final DartRegionTable<Void> table = createTable();
+    table.documentChanged(8, 4, 0);   // deleted a part of the gap and the start of the second region
+    assertEquals("[0:5:KEYWORD, 16:5:KEYWORD]", regions(table));
+    assertTrue(table.isSomeRegionDeleted());
+  }
+
+  public void testManyPendingDeltas() {
+    final DartRegionTable<Void> table = createTable();
+    for (int i = 0; i < 1000; i++) {
+      table.documentChanged(7, 0, 1);
+    }
+    assertEquals("[0:5:KEYWORD, 1010:5:IDENTIFIER_DEFAULT, 1020:5:KEYWORD]", regions(table));
+  }
+
+  public void testSnapshotIsNotAffectedByLaterDeltas() {
+    final DartRegionTable<Void> table = createTable();
+    final List<DartHighlightRegion> before = table.getHighlightRegions();
+    assertSame(before, table.getHighlightRegions());
+
+    table.documentChanged(0, 0, 2);
+    table.documentChanged(12, 1, 0);
+    final List<DartHighlightRegion> after = table.getHighlightRegions();
+
+    assertNotSame(before, after);
+    assertEquals("[0:5:KEYWORD, 10:5:IDENTIFIER_DEFAULT, 20:5:KEYWORD]", toString(before));
+    assertEquals("[2:5:KEYWORD, 12:4:IDENTIFIER_DEFAULT, 21:5:KEYWORD]", toString(after));
+    assertSame(after, table.getHighlightRegions());
+  }
+
+  public void testTouchedPayloadRegionDeleted() {
+    final DartRegionTable<DartRegion> table = createPayloadTable();
+    final List<DartRegion> payloads = table.getPayloads();
+    assertSame(payloads, table.getPayloads());
+
+    table.documentChanged(7, 0, 1);   // typed between regions
+    assertFalse(table.isSomeRegionDeleted());
+    assertEquals(2, table.size());
+
+    table.documentChanged(13, 0, 1);  // typed inside the second region
+    assertTrue(table.isSomeRegionDeleted());
+    final List<DartRegion> regions = table.getPayloads();
+    assertEquals(1, regions.size());
+    assertEquals(new DartRegion(0, 5), regions.get(0));
+  }
+
+  public void testOldSnapshotKeepsPayloadOffsets() {
+    final DartRegionTable<DartRegion> table = createPayloadTable();
+    final List<DartRegion> before = table.getPayloads();
+    final DartRegion first = before.get(0);
+    final DartRegion second = before.get(1);
+
+    table.documentChanged(7, 0, 3);   // typed between regions
+    final List<DartRegion> after = table.getPayloads();
+
+    assertEquals(new DartRegion(0, 5), before.get(0));
+    assertEquals(new DartRegion(10, 5), before.get(1));
+    assertEquals(10, second.getOffset());
+    assertSame(first, after.get(0));
+    assertNotSame(second, after.get(1));
+    assertEquals(new DartRegion(13, 5), after.get(1));
+  }
+
+  public void testPayloadOffsetsShifted() {
+    final int[] shifted = new int[3];
+    final DartRegionTable<DartRegion> table = DartRegionTable.createWithPayloads(1, (region, offset, length, shifter) -> {
+      shifted[0] = shifter.shift(2);
+      shifted[1] = shifter.shift(30);
+      shifted[2] = shifter.shift(50);
+      return region;
+    });
+    table.add(new DartRegion(0, 5));
+
+    table.documentChanged(10, 0, 4);  // payload offsets at or after 10 are shifted by 4
+    table.documentChanged(40, 6, 0);  // and then those at or after 40 by -6
+    assertEquals(1, table.getPayloads().size());
+    assertEquals(2, shifted[0]);
+    assertEquals(34, shifted[1]);
+    assertEquals(48, shifted[2]);
+  }
+
+  public void testEmptyTableIgnoresDeltas() {
+    final DartRegionTable<Void> table = DartRegionTable.createTyped(0);
+    table.documentChanged(0, 0, 10);
+    assertTrue(table.isEmpty());
+    assertFalse(table.isSomeRegionDeleted());
+    assertEquals("[]", regions(table));
+  }
+}
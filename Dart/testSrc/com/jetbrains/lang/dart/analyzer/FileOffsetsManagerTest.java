@@ -0,0 +1,71 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class FileOffsetsManagerTest extends TestCase {
+
+  // line starts of a file with \r\n line separators, 1000 lines of various lengths
+  private static final int[] ORIGINAL_LINE_OFFSETS = new int[1000];
+  private static final int[] CONVERTED_LINE_OFFSETS = new int[1000];
+
+  static {
+    final Random random = new Random(0);
+    for (int i = 1; i < ORIGINAL_LINE_OFFSETS.length; i++) {
+      final int lineLength = random.nextInt(80);
+      ORIGINAL_LINE_OFFSETS[i] = ORIGINAL_LINE_OFFSETS[i - 1] + lineLength + 2;
+      CONVERTED_LINE_OFFSETS[i] = CONVERTED_LINE_OFFSETS[i - 1] + lineLength + 1;
+    }
+  }
+
+  private static int convertOne(final int offset) {
+    if (offset <= 0) return offset;
+    int line = 0;
+    while (line + 1 < ORIGINAL_LINE_OFFSETS.length && ORIGINAL_LINE_OFFSETS[line + 1] <= offset) {
+      line++;
+    }
+    return CONVERTED_LINE_OFFSETS[line] + offset - ORIGINAL_LINE_OFFSETS[line];
+  }
+
+  private static void doTest(@NotNull final int[] offsets) {
+    final int[] expected = new int[offsets.length];
+    for (int i = 0; i < offsets.length; i++) {
+      expected[i] = convertOne(offsets[i]);
+    }
+
+    final int[] actual = offsets.clone();
+    FileOffsetsManager.convertOffsets(ORIGINAL_LINE_OFFSETS, CONVERTED_LINE_OFFSETS, actual);
+    assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+  }
+
+  public void testSortedStartsAndEnds() {
+    final int[] offsets = new int[2000];
+    for (int i = 0; i < 1000; i++) {
+      offsets[i * 2] = ORIGINAL_LINE_OFFSETS[i] + 3;
+      offsets[i * 2 + 1] = ORIGINAL_LINE_OFFSETS[i] + 5;
+    }
+    doTest(offsets);
+  }
+
+  public void testSparseOffsets() {
+    doTest(new int[]{0, 5, ORIGINAL_LINE_OFFSETS[500], ORIGINAL_LINE_OFFSETS[999] + 10, ORIGINAL_LINE_OFFSETS[999] + 100000});
+  }
+
+  public void testUnsortedOffsets() {
+    final Random random = new Random(1);
+    final int[] offsets = new int[1000];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = random.nextInt(ORIGINAL_LINE_OFFSETS[999]) - 10;
+    }
+    doTest(offsets);
+  }
+
+  public void testNestedRegions() {
+    // start and end offsets of nested regions are not sorted: [0, 500], [10, 20], [30, 40]
+    doTest(new int[]{0, ORIGINAL_LINE_OFFSETS[50], ORIGINAL_LINE_OFFSETS[1] + 1, ORIGINAL_LINE_OFFSETS[2] + 1,
+      ORIGINAL_LINE_OFFSETS[3], ORIGINAL_LINE_OFFSETS[3] + 1});
+  }
+}
@@ -0,0 +1,139 @@
+package com.jetbrains.lang.dart.coverage;
+
+import com.google.gson.Gson;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.*;
+
+public class DartCoverageDataTest extends TestCase {
+
+  public void testMerge() throws IOException {
+    final String json = "{\"type\":\"CodeCoverage\",\"coverage\":[" +
+                        "{\"source\":\"package:foo/foo.dart\",\"script\":{\"type\":\"@Script\",\"id\":\"x\"},\"hits\":[3,1,5,0,7,2]}," +
+                        "{\"hits\":[5,4,9,1],\"source\":\"package:foo/foo.dart\"}," +
+                        "{\"source\":\"package:foo/empty.dart\",\"hits\":[]}," +
+                        "{\"source\":\"package:foo/no_hits.dart\"}," +
+                        "{\"hits\":[1,1]}]}";
+    final Map<String, int[]> data = DartCoverageData.readMergedLineHits(new StringReader(json));
+
+    assertEquals(3, data.size());
+    assertEquals("[-1, -1, -1, 1, -1, 4, -1, 2, -1, 1]", Arrays.toString(data.get("package:foo/foo.dart")));
+    assertEquals(0, data.get("package:foo/empty.dart").length);
+    assertEquals(0, data.get("package:foo/no_hits.dart").length);
+  }
+
+  public void testUnexpectedStructure() throws IOException {
+    assertTrue(DartCoverageData.readMergedLineHits(new StringReader("{\"type\":\"CodeCoverage\"}")).isEmpty());
+    try {
+      DartCoverageData.readMergedLineHits(new StringReader("[1,2,3]"));
+      fail();
+    }
+    catch (IllegalStateException ignored) {
+    }
+  }
+
+  /**
+   * Synthetic coverage dump generated on the fly; each source appears several times, so hits have to be merged.
+   */
+  private static class SyntheticCoverageReader extends Reader {
+    private static final int SOURCES = 50;
+    private static final int LINES = 400;
+
+    private final long myTotalChars;
+    private final StringBuilder myChunk = new StringBuilder();
+    private int myChunkPos;
+    private long myRead;
+    private int myItem;
+    private boolean myFinished;
+
+    private SyntheticCoverageReader(final long totalChars) {
+      myTotalChars = totalChars;
+      myChunk.append("{\"type\":\"CodeCoverage\",\"coverage\":[");
+    }
+
+    private void nextChunk() {
+      myChunk.setLength(0);
+      myChunkPos = 0;
+      if (myRead >= myTotalChars) {
+        myChunk.append("]}");
+        myFinished = true;
+        return;
+      }
+
+      if (myItem > 0) myChunk.append(',');
+      final int source = myItem % SOURCES;
+      myChunk.append("{\"source\":\"package:pkg").append(source / 100).append("/src/file").append(source).append(".dart\",")
+        .append("\"script\":{\"type\":\"@Script\",\"fixedId\":true,\"id\":\"libraries/1/scripts/").append(source).append("\"},")
+        .append("\"hits\":[");
+      for (int line = 1; line <= LINES; line++) {
+        if (line > 1) myChunk.append(',');
+        myChunk.append(line).append(',').append((myItem + line) % 7);
+      }
+      myChunk.append("]}");
+      myItem++;
+    }
+
+    @Override
+    public int read(@NotNull final char[] cbuf, final int off, final int len) {
+      if (myChunkPos == myChunk.length()) {
+        if (myFinished) return -1;
+        nextChunk();
+      }
+      final int n = Math.min(len, myChunk.length() - myChunkPos);
+      myChunk.getChars(myChunkPos, myChunkPos + n, cbuf, off);
+      myChunkPos += n;
+      myRead += n;
+      return n;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  // the format used by DartCoverageRunner before, loaded as a whole by Gson and merged into boxed sorted maps
+  @SuppressWarnings("unused")
+  private static class GsonCoverageData {
+    private List<GsonFileCoverageData> coverage;
+  }
+
+  @SuppressWarnings("unused")
+  private static class GsonFileCoverageData {
+    private String source;
+    private List<Integer> hits;
+  }
+
+  @NotNull
+  private static Map<String, SortedMap<Integer, Integer>> loadWithGson(@NotNull final Reader reader) {
+    final GsonCoverageData data = new Gson().fromJson(reader, GsonCoverageData.class);
+    final Map<String, SortedMap<Integer, Integer>> result = new HashMap<>();
+    for (GsonFileCoverageData item : data.coverage) {
+      final SortedMap<Integer, Integer> fileData = result.computeIfAbsent(item.source, k -> new TreeMap<>());
+      for (int i = 0; i < item.hits.size(); i += 2) {
+        fileData.merge(item.hits.get(i), item.hits.get(i + 1), Integer::sum);
+      }
+    }
+    return result;
+  }
+
+  public void testStreamingParseIsTheSameAsGson() throws IOException {
+    final long chars = 2 * 1024 * 1024;
+    final Map<String, SortedMap<Integer, Integer>> gsonResult = loadWithGson(new SyntheticCoverageReader(chars));
+    final Map<String, int[]> streamingResult = DartCoverageData.readMergedLineHits(new SyntheticCoverageReader(chars));
+
+    assertEquals(SyntheticCoverageReader.SOURCES, gsonResult.size());
+    assertEquals(gsonResult.keySet(), streamingResult.keySet());
+    for (Map.Entry<String, SortedMap<Integer, Integer>> entry : gsonResult.entrySet()) {
+      final int[] expected = new int[entry.getValue().lastKey() + 1];
+      Arrays.fill(expected, -1);
+      for (Map.Entry<Integer, Integer> hit : entry.getValue().entrySet()) {
+        expected[hit.getKey()] = hit.getValue();
+      }
+      assertEquals(entry.getKey(), Arrays.toString(expected), Arrays.toString(streamingResult.get(entry.getKey())));
+    }
+  }
+}
@@ -338,6 +338,97 @@ public class DartTestEventsConverterTest extends BaseSMTRunnerTestCase {
     runTest(events, signals, new int[]{});
   }
 
+  public void testReplayHugeRun() {
+    // JSON reporter log of a run with 60000 tests in 600 groups of a single suite
+    final int groups = 600;
+    final int testsInGroup = 100;
+    final List<String> events = new ArrayList<>();
+    events.add("{\"protocolVersion\":\"0.1.0\",\"runnerVersion\":\"0.12.20\",\"type\":\"start\",\"time\":0}\n");
+    events.add("{\"suite\":{\"id\":0,\"platform\":\"vm\",\"path\":\"/project/test/huge_test.dart\"},\"type\":\"suite\",\"time\":0}\n");
+    events.add("{\"group\":{\"id\":1,\"suiteID\":0,\"parentID\":null,\"name\":null,\"metadata\":{\"skip\":false,\"skipReason\":null}," +
+               "\"testCount\":" + groups * testsInGroup + "},\"type\":\"group\",\"time\":1}\n");
+    int id = 2;
+    for (int g = 0; g < groups; g++) {
+      final int groupId = id++;
+      events.add("{\"group\":{\"id\":" + groupId + ",\"suiteID\":0,\"parentID\":1,\"name\":\"group " + g + "\"," +
+                 "\"metadata\":{\"skip\":false,\"skipReason\":null},\"testCount\":" + testsInGroup + "},\"type\":\"group\",\"time\":2}\n");
+      for (int t = 0; t < testsInGroup; t++) {
+        final int testId = id++;
+        events.add("{\"test\":{\"id\":" + testId + ",\"name\":\"group " + g + " test " + t + "\",\"suiteID\":0,\"groupIDs\":[1," + groupId +
+                   "],\"metadata\":{\"skip\":false,\"skipReason\":null},\"line\":" + (t + 10) + ",\"column\":5}," +
+                   "\"type\":\"testStart\",\"time\":" + testId + "}\n");
+        events.add("{\"testID\":" + testId + ",\"result\":\"success\",\"hidden\":false,\"type\":\"testDone\",\"time\":" + (testId + 1) + "}\n");
+      }
+    }
+    events.add("{\"success\":true,\"type\":\"done\",\"time\":" + id + "}\n");
+
+    final Key key = new Key("stdout");
+    for (String event : events) {
+      myEventsConverter.process(event, key);
+    }
+
+    int finished = 0;
+    int suitesFinished = 0;
+    for (String signal : myEventsProcessor.signals) {
+      if (signal.startsWith("finish ")) finished++;
+      if (signal.startsWith("suite finished ")) suitesFinished++;
+    }
+    assertEquals(groups * testsInGroup, finished);
+    assertEquals(groups + 1, suitesFinished);
+  }
+
+  public void testLateEventsForFinishedGroup() {
+    // 'print' and 'error' may come after the group of the test is done and the test is evicted
+    final String[] events = {
+      "{\"protocolVersion\":\"0.1.0\",\"runnerVersion\":\"0.12.20\",\"type\":\"start\",\"time\":0}\n",
+      "{\"suite\":{\"id\":0,\"platform\":\"vm\",\"path\":\"/project/test/late_test.dart\"},\"type\":\"suite\",\"time\":0}\n",
+      "{\"group\":{\"id\":1,\"suiteID\":0,\"parentID\":null,\"name\":null,\"metadata\":{\"skip\":false,\"skipReason\":null},\"testCount\":1}," +
+      "\"type\":\"group\",\"time\":1}\n",
+      "{\"group\":{\"id\":2,\"suiteID\":0,\"parentID\":1,\"name\":\"g\",\"metadata\":{\"skip\":false,\"skipReason\":null},\"testCount\":1}," +
+      "\"type\":\"group\",\"time\":1}\n",
+      "{\"test\":{\"id\":3,\"name\":\"g t\",\"suiteID\":0,\"groupIDs\":[1,2],\"metadata\":{\"skip\":false,\"skipReason\":null}}," +
+      "\"type\":\"testStart\",\"time\":2}\n",
+      "{\"testID\":3,\"result\":\"success\",\"hidden\":false,\"type\":\"testDone\",\"time\":3}\n",
+      "{\"testID\":3,\"message\":\"late output\",\"type\":\"print\",\"time\":4}\n",
+      "{\"testID\":3,\"error\":\"boom\",\"stackTrace\":\"test/late_test.dart 5:3  main.<fn>\\n\",\"isFailure\":false,\"type\":\"error\",\"time\":5}\n",
+      "{\"success\":false,\"type\":\"done\",\"time\":6}\n"
+    };
+    final String[] signals = {
+      "suite started late_test.dart",
+      "suite started g",
+      "start t",
+      "finish t",
+      "suite finished g",
+      "suite finished late_test.dart",
+      "print t late output\n",
+      "print t boom\ntest/late_test.dart 5:3  main.<fn>\n"
+    };
+    runTest(events, signals, new int[]{0, 0, 0, 2});
+  }
+
+  public void testUnknownEventsIgnored() {
+    // events of unknown types and events with values of unexpected types are skipped
+    final String[] events = {
+      "{\"protocolVersion\":\"0.1.0\",\"runnerVersion\":\"0.12.20\",\"type\":\"start\",\"time\":0}\n",
+      "{\"suite\":{\"id\":0,\"platform\":\"vm\",\"path\":\"/project/test/new_runner_test.dart\"},\"type\":\"suite\",\"time\":0}\n",
+      "{\"suiteID\":0,\"observatory\":\"http://127.0.0.1:8181/\",\"type\":\"debug\",\"time\":0}\n",
+      "{\"group\":{\"id\":1,\"suiteID\":0,\"parentID\":null,\"name\":null,\"metadata\":{\"skip\":false,\"skipReason\":null},\"testCount\":1}," +
+      "\"type\":\"group\",\"time\":1}\n",
+      "{\"test\":{\"id\":2,\"name\":\"t\",\"suiteID\":0,\"groupIDs\":[1],\"metadata\":{\"skip\":false,\"skipReason\":null}}," +
+      "\"type\":\"testStart\",\"time\":2}\n",
+      "{\"testID\":\"two\",\"message\":\"unexpected test id\",\"type\":\"print\",\"time\":3}\n",
+      "{\"testID\":2,\"result\":\"success\",\"hidden\":false,\"type\":\"testDone\",\"time\":4}\n",
+      "{\"success\":true,\"type\":\"done\",\"time\":5}\n"
+    };
+    final String[] signals = {
+      "suite started new_runner_test.dart",
+      "start t",
+      "finish t",
+      "suite finished new_runner_test.dart"
+    };
+    runTest(events, signals, new int[]{});
+  }
+
   private void runTest(String[] jsonEvents, String[] signals, int[] parents) {
     DartTestEventsConverter parser = myEventsConverter;
     Key key = new Key("stdout");
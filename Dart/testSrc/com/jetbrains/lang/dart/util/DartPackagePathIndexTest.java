@@ -0,0 +1,64 @@
+package com.jetbrains.lang.dart.util;
+
+import gnu.trove.THashMap;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+public class DartPackagePathIndexTest extends TestCase {
+
+  @NotNull
+  private static DartPackagePathIndex createIndex() {
+    final Map<String, String> packages = new THashMap<>();
+    packages.put("foo", "/home/user/.pub-cache/hosted/pub.dartlang.org/foo-1.0.0/lib");
+    packages.put("bar", "/home/user/project/packages/bar/lib");
+    packages.put("bar_nested", "/home/user/project/packages/bar/lib/src/nested/lib");
+    packages.put("win", "C:/projects/win/lib");
+
+    final DartPackagePathIndex index = new DartPackagePathIndex(packages);
+    for (Map.Entry<String, String> entry : packages.entrySet()) {
+      index.addPackageDir(entry.getKey(), entry.getValue());
+    }
+    return index;
+  }
+
+  public void testLookup() {
+    final DartPackagePathIndex index = createIndex();
+    assertEquals("package:foo/foo.dart", index.getPackageUrl("/home/user/.pub-cache/hosted/pub.dartlang.org/foo-1.0.0/lib/foo.dart", true));
+    assertEquals("package:bar/src/a.dart", index.getPackageUrl("/home/user/project/packages/bar/lib/src/a.dart", true));
+    assertEquals("package:win/a/b.dart", index.getPackageUrl("C:/projects/win/lib/a/b.dart", false));
+    assertNull(index.getPackageUrl("/home/user/project/packages/bar/test/a_test.dart", true));
+    assertNull(index.getPackageUrl("/home/user/project/packages/bar/library.dart", true));
+    assertNull(index.getPackageUrl("/", true));
+  }
+
+  public void testNestedPackageWins() {
+    final DartPackagePathIndex index = createIndex();
+    assertEquals("package:bar_nested/x.dart", index.getPackageUrl("/home/user/project/packages/bar/lib/src/nested/lib/x.dart", true));
+    assertEquals("package:bar/src/nested/x.dart", index.getPackageUrl("/home/user/project/packages/bar/lib/src/nested/x.dart", true));
+  }
+
+  public void testPackageDirItself() {
+    final DartPackagePathIndex index = createIndex();
+    assertEquals("package:bar/", index.getPackageUrl("/home/user/project/packages/bar/lib", true));
+    assertNull(index.getPackageUrl("/home/user/project/packages/bar/lib", false));
+  }
+
+  public void testManyPackages() {
+    final Map<String, String> packages = new THashMap<>();
+    for (int i = 0; i < 500; i++) {
+      packages.put("p" + i, "/home/user/.pub-cache/hosted/pub.dartlang.org/p" + i + "-1.0.0/lib");
+    }
+    final DartPackagePathIndex index = new DartPackagePathIndex(packages);
+    for (Map.Entry<String, String> entry : packages.entrySet()) {
+      index.addPackageDir(entry.getKey(), entry.getValue());
+    }
+
+    assertTrue(index.isBuiltFrom(new THashMap<>(packages)));
+    for (int i = 0; i < 500; i++) {
+      assertEquals("package:p" + i + "/src/a.dart",
+                   index.getPackageUrl("/home/user/.pub-cache/hosted/pub.dartlang.org/p" + i + "-1.0.0/lib/src/a.dart", true));
+    }
+  }
+}
@@ -105,11 +105,25 @@ public class ByteResponseStream implements ResponseStream {
 
   @Override
   public JsonObject take() throws Exception {
+    String line = takeLine();
+    if (line == null) {
+      return null;
+    }
+    return parse(line);
+  }
+
+  @Override
+  public String takeLine() throws Exception {
     String line = lineQueue.take();
     if (line == EOF_LINE) {
       lineQueue.add(line);
       return null;
     }
+    return line;
+  }
+
+  @Override
+  public JsonObject parse(String line) {
     try {
       return (JsonObject) new JsonParser().parse(line);
     } catch (JsonSyntaxException e) {
@@ -943,15 +943,19 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
 
     @Override
     public void run() {
+      // hot notifications are decoded without building JsonObject trees
+      NotificationStreamingDecoder streamingDecoder = new NotificationStreamingDecoder(listener);
       while (true) {
         try {
-          JsonObject response = stream.take();
-          if (response == null) {
+          String line = stream.takeLine();
+          if (line == null) {
             return;
           }
           lastResponseTime.set(System.currentTimeMillis());
           try {
-            processResponse(response);
+            if (!streamingDecoder.decode(line)) {
+              processResponse(stream.parse(line));
+            }
           }
           finally {
             stream.lastRequestProcessed();
@@ -30,4 +30,15 @@ public interface ResponseStream {
    * Takes the the next response from the stream. Blocks if no response available.
    */
   JsonObject take() throws Exception;
+
+  /**
+   * Takes the the next response from the stream as a raw JSON line, without parsing it. Blocks if
+   * no response available. Returns {@code null} at the end of the stream.
+   */
+  String takeLine() throws Exception;
+
+  /**
+   * Parses a line returned by {@link #takeLine()}.
+   */
+  JsonObject parse(String line);
 }
@@ -0,0 +1,672 @@
+/*
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.dart.server.internal.remote.processor;
+
+import com.google.common.collect.Lists;
+import com.google.dart.server.AnalysisServerListener;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.dartlang.analysis.server.protocol.AnalysisError;
+import org.dartlang.analysis.server.protocol.CompletionSuggestion;
+import org.dartlang.analysis.server.protocol.Element;
+import org.dartlang.analysis.server.protocol.HighlightRegion;
+import org.dartlang.analysis.server.protocol.Location;
+import org.dartlang.analysis.server.protocol.NavigationRegion;
+import org.dartlang.analysis.server.protocol.NavigationTarget;
+import org.dartlang.analysis.server.protocol.Outline;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the hot notifications ("analysis.errors", "analysis.highlights", "analysis.navigation",
+ * "analysis.outline" and "completion.results") straight from the response line into the protocol
+ * objects using {@link JsonReader}, without building an intermediate {@link com.google.gson.JsonObject}
+ * tree.
+ * <p>
+ * The item readers follow the generated {@code fromJson} methods of the protocol classes: a missing
+ * required field fails the decoding, so that the line is handed over to the tree-based processors
+ * and reported there. DartNotificationStreamingDecoderTest checks that both paths give equal results.
+ * <p>
+ * Only lines that start with the "event" field are decoded, everything else is left to the
+ * tree-based processors.
+ *
+ * @coverage dart.server.remote
+ */
+public class NotificationStreamingDecoder {
+  private static final String ANALYSIS_NOTIFICATION_ERRORS = "analysis.errors";
+  private static final String ANALYSIS_NOTIFICATION_HIGHTLIGHTS = "analysis.highlights";
+  private static final String ANALYSIS_NOTIFICATION_NAVIGATION = "analysis.navigation";
+  private static final String ANALYSIS_NOTIFICATION_OUTLINE = "analysis.outline";
+  private static final String COMPLETION_NOTIFICATION_RESULTS = "completion.results";
+
+  private static final String EVENT_PREFIX = "{\"event\":\"";
+
+  /**
+   * Value of a required int field that is not read yet.
+   */
+  private static final int MISSING_INT = Integer.MIN_VALUE;
+
+  /**
+   * Reads a single array item into a protocol object.
+   */
+  private interface ItemReader<T> {
+    T read(JsonReader reader) throws IOException;
+  }
+
+  private static final ItemReader<HighlightRegion> HIGHLIGHT_REGION = NotificationStreamingDecoder::readHighlightRegion;
+  private static final ItemReader<NavigationRegion> NAVIGATION_REGION = NotificationStreamingDecoder::readNavigationRegion;
+  private static final ItemReader<NavigationTarget> NAVIGATION_TARGET = NotificationStreamingDecoder::readNavigationTarget;
+  private static final ItemReader<AnalysisError> ANALYSIS_ERROR = NotificationStreamingDecoder::readAnalysisError;
+  private static final ItemReader<CompletionSuggestion> COMPLETION_SUGGESTION = NotificationStreamingDecoder::readCompletionSuggestion;
+
+  private final AnalysisServerListener listener;
+
+  public NotificationStreamingDecoder(AnalysisServerListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Attempts to decode the given line as one of the supported notifications and notify the
+   * listener.
+   *
+   * @return {@code true} if the line was handled, {@code false} if it should be processed as a
+   *         {@link com.google.gson.JsonObject}
+   */
+  public boolean decode(String line) {
+    if (!isSupportedEvent(line)) {
+      return false;
+    }
+    Runnable notification;
+    try {
+      notification = readNotification(new JsonReader(new StringReader(line)));
+    } catch (IOException e) {
+      return false;
+    } catch (RuntimeException e) {
+      // unexpected structure, let the tree-based processors handle (and report) it
+      return false;
+    }
+    if (notification == null) {
+      return false;
+    }
+    notification.run();
+    return true;
+  }
+
+  private static boolean isSupportedEvent(String line) {
+    if (!line.startsWith(EVENT_PREFIX)) {
+      return false;
+    }
+    return line.startsWith(ANALYSIS_NOTIFICATION_HIGHTLIGHTS, EVENT_PREFIX.length())
+        || line.startsWith(ANALYSIS_NOTIFICATION_NAVIGATION, EVENT_PREFIX.length())
+        || line.startsWith(ANALYSIS_NOTIFICATION_ERRORS, EVENT_PREFIX.length())
+        || line.startsWith(ANALYSIS_NOTIFICATION_OUTLINE, EVENT_PREFIX.length())
+        || line.startsWith(COMPLETION_NOTIFICATION_RESULTS, EVENT_PREFIX.length());
+  }
+
+  /**
+   * Reads the whole notification. The listener is not notified here, so that a malformed line can
+   * still be handed over to the tree-based processors.
+   */
+  private Runnable readNotification(JsonReader reader) throws IOException {
+    reader.beginObject();
+    if (!"event".equals(reader.nextName())) {
+      return null;
+    }
+    String event = reader.nextString();
+    Runnable notification = null;
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("params".equals(name)) {
+        if (event.equals(ANALYSIS_NOTIFICATION_HIGHTLIGHTS)) {
+          notification = readHighlights(reader);
+        } else if (event.equals(ANALYSIS_NOTIFICATION_NAVIGATION)) {
+          notification = readNavigation(reader);
+        } else if (event.equals(ANALYSIS_NOTIFICATION_ERRORS)) {
+          notification = readErrors(reader);
+        } else if (event.equals(ANALYSIS_NOTIFICATION_OUTLINE)) {
+          notification = readOutline(reader);
+        } else if (event.equals(COMPLETION_NOTIFICATION_RESULTS)) {
+          notification = readCompletion(reader);
+        } else {
+          return null;
+        }
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return notification;
+  }
+
+  private Runnable readHighlights(JsonReader reader) throws IOException {
+    String file = null;
+    List<HighlightRegion> regions = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      } else if ("regions".equals(name)) {
+        regions = readArray(reader, HIGHLIGHT_REGION);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (file == null || regions == null) {
+      return null;
+    }
+    final String finalFile = file;
+    final List<HighlightRegion> finalRegions = regions;
+    return () -> listener.computedHighlights(finalFile, finalRegions);
+  }
+
+  private Runnable readNavigation(JsonReader reader) throws IOException {
+    String file = null;
+    String[] targetFiles = null;
+    List<NavigationTarget> targets = null;
+    List<NavigationRegion> regions = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      } else if ("files".equals(name)) {
+        List<String> files = readStringList(reader);
+        targetFiles = files.toArray(new String[files.size()]);
+      } else if ("targets".equals(name)) {
+        targets = readArray(reader, NAVIGATION_TARGET);
+      } else if ("regions".equals(name)) {
+        regions = readArray(reader, NAVIGATION_REGION);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (file == null || targetFiles == null || targets == null || regions == null) {
+      return null;
+    }
+    for (NavigationTarget target : targets) {
+      target.lookupFile(targetFiles);
+    }
+    for (NavigationRegion region : regions) {
+      region.lookupTargets(targets);
+    }
+    final String finalFile = file;
+    final List<NavigationRegion> finalRegions = regions;
+    return () -> listener.computedNavigation(finalFile, finalRegions);
+  }
+
+  private Runnable readErrors(JsonReader reader) throws IOException {
+    String file = null;
+    List<AnalysisError> errors = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      } else if ("errors".equals(name)) {
+        errors = readArray(reader, ANALYSIS_ERROR);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (file == null || errors == null) {
+      return null;
+    }
+    final String finalFile = file;
+    final List<AnalysisError> finalErrors = errors;
+    return () -> listener.computedErrors(finalFile, finalErrors);
+  }
+
+  private Runnable readOutline(JsonReader reader) throws IOException {
+    String file = null;
+    Outline outline = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      } else if ("outline".equals(name)) {
+        outline = readOutlineNode(reader, null);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (file == null || outline == null) {
+      return null;
+    }
+    final String finalFile = file;
+    final Outline finalOutline = outline;
+    return () -> listener.computedOutline(finalFile, finalOutline);
+  }
+
+  private Runnable readCompletion(JsonReader reader) throws IOException {
+    String completionId = null;
+    List<CompletionSuggestion> results = null;
+    int replacementOffset = -1;
+    int replacementLength = -1;
+    Boolean isLast = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("id".equals(name)) {
+        completionId = reader.nextString();
+      } else if ("replacementOffset".equals(name)) {
+        replacementOffset = reader.nextInt();
+      } else if ("replacementLength".equals(name)) {
+        replacementLength = reader.nextInt();
+      } else if ("isLast".equals(name)) {
+        isLast = reader.nextBoolean();
+      } else if ("results".equals(name)) {
+        results = readArray(reader, COMPLETION_SUGGESTION);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (completionId == null || results == null || replacementOffset < 0 || replacementLength < 0 || isLast == null) {
+      return null;
+    }
+    final String finalCompletionId = completionId;
+    final List<CompletionSuggestion> finalResults = results;
+    final int finalReplacementOffset = replacementOffset;
+    final int finalReplacementLength = replacementLength;
+    final boolean finalIsLast = isLast;
+    return () -> listener.computedCompletion(
+        finalCompletionId,
+        finalReplacementOffset,
+        finalReplacementLength,
+        finalResults,
+        finalIsLast);
+  }
+
+  private static HighlightRegion readHighlightRegion(JsonReader reader) throws IOException {
+    String type = null;
+    int offset = MISSING_INT;
+    int length = MISSING_INT;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("type".equals(name)) {
+        type = reader.nextString();
+      } else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      } else if ("length".equals(name)) {
+        length = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new HighlightRegion(required(type), required(offset), required(length));
+  }
+
+  private static NavigationRegion readNavigationRegion(JsonReader reader) throws IOException {
+    int offset = MISSING_INT;
+    int length = MISSING_INT;
+    int[] targets = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      } else if ("length".equals(name)) {
+        length = reader.nextInt();
+      } else if ("targets".equals(name)) {
+        targets = readIntArray(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new NavigationRegion(required(offset), required(length), required(targets));
+  }
+
+  private static NavigationTarget readNavigationTarget(JsonReader reader) throws IOException {
+    String kind = null;
+    int fileIndex = MISSING_INT;
+    int offset = MISSING_INT;
+    int length = MISSING_INT;
+    int startLine = MISSING_INT;
+    int startColumn = MISSING_INT;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("kind".equals(name)) {
+        kind = reader.nextString();
+      } else if ("fileIndex".equals(name)) {
+        fileIndex = reader.nextInt();
+      } else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      } else if ("length".equals(name)) {
+        length = reader.nextInt();
+      } else if ("startLine".equals(name)) {
+        startLine = reader.nextInt();
+      } else if ("startColumn".equals(name)) {
+        startColumn = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new NavigationTarget(
+        required(kind),
+        required(fileIndex),
+        required(offset),
+        required(length),
+        required(startLine),
+        required(startColumn));
+  }
+
+  private static AnalysisError readAnalysisError(JsonReader reader) throws IOException {
+    String severity = null;
+    String type = null;
+    Location location = null;
+    String message = null;
+    String correction = null;
+    String code = null;
+    Boolean hasFix = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("severity".equals(name)) {
+        severity = reader.nextString();
+      } else if ("type".equals(name)) {
+        type = reader.nextString();
+      } else if ("location".equals(name)) {
+        location = readLocation(reader);
+      } else if ("message".equals(name)) {
+        message = reader.nextString();
+      } else if ("correction".equals(name)) {
+        correction = readOptionalString(reader);
+      } else if ("code".equals(name)) {
+        code = readOptionalString(reader);
+      } else if ("hasFix".equals(name)) {
+        hasFix = readOptionalBoolean(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new AnalysisError(required(severity), required(type), required(location), required(message), correction, code, hasFix);
+  }
+
+  private static Location readLocation(JsonReader reader) throws IOException {
+    String file = null;
+    int offset = MISSING_INT;
+    int length = MISSING_INT;
+    int startLine = MISSING_INT;
+    int startColumn = MISSING_INT;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("file".equals(name)) {
+        file = reader.nextString();
+      } else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      } else if ("length".equals(name)) {
+        length = reader.nextInt();
+      } else if ("startLine".equals(name)) {
+        startLine = reader.nextInt();
+      } else if ("startColumn".equals(name)) {
+        startColumn = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new Location(required(file), required(offset), required(length), required(startLine), required(startColumn));
+  }
+
+  private static Element readElement(JsonReader reader) throws IOException {
+    String kind = null;
+    String name = null;
+    Location location = null;
+    int flags = MISSING_INT;
+    String parameters = null;
+    String returnType = null;
+    String typeParameters = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String fieldName = reader.nextName();
+      if ("kind".equals(fieldName)) {
+        kind = reader.nextString();
+      } else if ("name".equals(fieldName)) {
+        name = reader.nextString();
+      } else if ("location".equals(fieldName)) {
+        location = reader.peek() == JsonToken.NULL ? skipNull(reader) : readLocation(reader);
+      } else if ("flags".equals(fieldName)) {
+        flags = reader.nextInt();
+      } else if ("parameters".equals(fieldName)) {
+        parameters = readOptionalString(reader);
+      } else if ("returnType".equals(fieldName)) {
+        returnType = readOptionalString(reader);
+      } else if ("typeParameters".equals(fieldName)) {
+        typeParameters = readOptionalString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new Element(required(kind), required(name), location, required(flags), parameters, returnType, typeParameters);
+  }
+
+  private static Outline readOutlineNode(JsonReader reader, Outline parent) throws IOException {
+    // children reference their parent, so the outline object must be created before the children
+    // are read; "element", "offset" and "length" precede "children" in server output
+    Element element = null;
+    int offset = MISSING_INT;
+    int length = MISSING_INT;
+    Outline outline = null;
+    List<Outline> children = Lists.newArrayList();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("element".equals(name)) {
+        element = readElement(reader);
+      } else if ("offset".equals(name)) {
+        offset = reader.nextInt();
+      } else if ("length".equals(name)) {
+        length = reader.nextInt();
+      } else if ("children".equals(name) && reader.peek() != JsonToken.NULL) {
+        outline = new Outline(parent, required(element), required(offset), required(length));
+        reader.beginArray();
+        while (reader.hasNext()) {
+          children.add(readOutlineNode(reader, outline));
+        }
+        reader.endArray();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (outline == null) {
+      outline = new Outline(parent, required(element), required(offset), required(length));
+    } else if (outline.getOffset() != offset || outline.getLength() != length) {
+      throw new IllegalStateException("Outline offset or length after children");
+    }
+    outline.setChildren(children);
+    return outline;
+  }
+
+  private static CompletionSuggestion readCompletionSuggestion(JsonReader reader) throws IOException {
+    String kind = null;
+    int relevance = MISSING_INT;
+    String completion = null;
+    int selectionOffset = MISSING_INT;
+    int selectionLength = MISSING_INT;
+    Boolean isDeprecated = null;
+    Boolean isPotential = null;
+    String docSummary = null;
+    String docComplete = null;
+    String declaringType = null;
+    String defaultArgumentListString = null;
+    int[] defaultArgumentListTextRanges = null;
+    Element element = null;
+    String returnType = null;
+    List<String> parameterNames = null;
+    List<String> parameterTypes = null;
+    Integer requiredParameterCount = null;
+    Boolean hasNamedParameters = null;
+    String parameterName = null;
+    String parameterType = null;
+    String importUri = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("kind".equals(name)) {
+        kind = reader.nextString();
+      } else if ("relevance".equals(name)) {
+        relevance = reader.nextInt();
+      } else if ("completion".equals(name)) {
+        completion = reader.nextString();
+      } else if ("selectionOffset".equals(name)) {
+        selectionOffset = reader.nextInt();
+      } else if ("selectionLength".equals(name)) {
+        selectionLength = reader.nextInt();
+      } else if ("isDeprecated".equals(name)) {
+        isDeprecated = reader.nextBoolean();
+      } else if ("isPotential".equals(name)) {
+        isPotential = reader.nextBoolean();
+      } else if ("docSummary".equals(name)) {
+        docSummary = readOptionalString(reader);
+      } else if ("docComplete".equals(name)) {
+        docComplete = readOptionalString(reader);
+      } else if ("declaringType".equals(name)) {
+        declaringType = readOptionalString(reader);
+      } else if ("defaultArgumentListString".equals(name)) {
+        defaultArgumentListString = readOptionalString(reader);
+      } else if ("defaultArgumentListTextRanges".equals(name)) {
+        defaultArgumentListTextRanges = reader.peek() == JsonToken.NULL ? skipNull(reader) : readIntArray(reader);
+      } else if ("element".equals(name)) {
+        element = reader.peek() == JsonToken.NULL ? skipNull(reader) : readElement(reader);
+      } else if ("returnType".equals(name)) {
+        returnType = readOptionalString(reader);
+      } else if ("parameterNames".equals(name)) {
+        parameterNames = reader.peek() == JsonToken.NULL ? skipNull(reader) : readStringList(reader);
+      } else if ("parameterTypes".equals(name)) {
+        parameterTypes = reader.peek() == JsonToken.NULL ? skipNull(reader) : readStringList(reader);
+      } else if ("requiredParameterCount".equals(name)) {
+        requiredParameterCount = readOptionalInt(reader);
+      } else if ("hasNamedParameters".equals(name)) {
+        hasNamedParameters = readOptionalBoolean(reader);
+      } else if ("parameterName".equals(name)) {
+        parameterName = readOptionalString(reader);
+      } else if ("parameterType".equals(name)) {
+        parameterType = readOptionalString(reader);
+      } else if ("importUri".equals(name)) {
+        importUri = readOptionalString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new CompletionSuggestion(
+        required(kind),
+        required(relevance),
+        required(completion),
+        required(selectionOffset),
+        required(selectionLength),
+        required(isDeprecated),
+        required(isPotential),
+        docSummary,
+        docComplete,
+        declaringType,
+        defaultArgumentListString,
+        defaultArgumentListTextRanges,
+        element,
+        returnType,
+        parameterNames,
+        parameterTypes,
+        requiredParameterCount,
+        hasNamedParameters,
+        parameterName,
+        parameterType,
+        importUri);
+  }
+
+  private static <T> List<T> readArray(JsonReader reader, ItemReader<T> itemReader) throws IOException {
+    List<T> result = Lists.newArrayList();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      result.add(itemReader.read(reader));
+    }
+    reader.endArray();
+    return result;
+  }
+
+  private static <T> T required(T value) {
+    if (value == null) {
+      throw new IllegalStateException("Missing required field");
+    }
+    return value;
+  }
+
+  private static int required(int value) {
+    if (value == MISSING_INT) {
+      throw new IllegalStateException("Missing required field");
+    }
+    return value;
+  }
+
+  private static String readOptionalString(JsonReader reader) throws IOException {
+    return reader.peek() == JsonToken.NULL ? skipNull(reader) : reader.nextString();
+  }
+
+  private static Boolean readOptionalBoolean(JsonReader reader) throws IOException {
+    return reader.peek() == JsonToken.NULL ? skipNull(reader) : Boolean.valueOf(reader.nextBoolean());
+  }
+
+  private static Integer readOptionalInt(JsonReader reader) throws IOException {
+    return reader.peek() == JsonToken.NULL ? skipNull(reader) : Integer.valueOf(reader.nextInt());
+  }
+
+  private static <T> T skipNull(JsonReader reader) throws IOException {
+    reader.nextNull();
+    return null;
+  }
+
+  private static int[] readIntArray(JsonReader reader) throws IOException {
+    int[] result = new int[8];
+    int size = 0;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (size == result.length) {
+        result = Arrays.copyOf(result, size * 2);
+      }
+      result[size++] = reader.nextInt();
+    }
+    reader.endArray();
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  private static List<String> readStringList(JsonReader reader) throws IOException {
+    List<String> result = Lists.newArrayList();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      result.add(reader.nextString());
+    }
+    reader.endArray();
+    return result;
+  }
+}
@@ -18,8 +18,8 @@ package jetbrains.communicator.commands;
 
 import jetbrains.communicator.core.Pico;
 import jetbrains.communicator.core.transport.GetProjectsDataXmlMessage;
-import jetbrains.communicator.core.transport.GetVFileContentsXmlMessage;
 import jetbrains.communicator.core.transport.Transport;
+import jetbrains.communicator.core.transport.VFileContentsTransfer;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.vfs.ProjectsData;
 import jetbrains.communicator.core.vfs.VFile;
@@ -78,21 +78,8 @@ public class Helper {
             new Runnable() {
               @Override
               public void run() {
-
-                final Semaphore semaphore = new Semaphore(1);
                 try {
-                  semaphore.acquire();
-
-                  transport.sendXmlMessage(user, new GetVFileContentsXmlMessage(vFile) {
-                    @Override
-                    public void processResponse(Element responseElement) {
-                      super.processResponse(responseElement);
-                      semaphore.release();
-                    }
-                  });
-
-                  semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS);
-
+                  new VFileContentsTransfer(vFile, user).receive(transport, user, getWaitTimeout());
                 } catch (InterruptedException ignored) {
                   // noop
                 }
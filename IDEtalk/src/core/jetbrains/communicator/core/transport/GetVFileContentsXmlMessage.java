@@ -13,21 +13,52 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package jetbrains.communicator.core.transport;
 
 import jetbrains.communicator.core.vfs.VFile;
 import org.jdom.Element;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
+ * Requests contents of a remote file.
+ * <p>
+ * In chunked mode (see {@link VFileContentsTransfer}) each response carries one compressed chunk of UTF-8 encoded contents
+ * with its checksum. Peers which don't know chunked mode ignore its attributes and send whole contents in one response.
+ *
  * @author Kir
  */
 public class GetVFileContentsXmlMessage implements XmlMessage {
   public static final String TAG = "fillContents";
+
+  public static final String TRANSFER_ATTR = "transfer";
+  public static final String CHUNKED_TRANSFER = "chunked";
+  public static final String OFFSET_ATTR = "offset";
+  public static final String CHUNK_SIZE_ATTR = "chunkSize";
+  public static final String KNOWN_HASH_ATTR = "knownHash";
+  public static final String CONTENT_HASH_ATTR = "contentHash";
+  public static final String LENGTH_ATTR = "length";
+  public static final String CHUNK_CRC_ATTR = "chunkCrc";
+  public static final String UNCHANGED_ATTR = "unchanged";
+
   private final VFile myFile;
+  @Nullable private final VFileContentsTransfer myTransfer;
 
   public GetVFileContentsXmlMessage(VFile file) {
+    this(file, null);
+  }
+
+  GetVFileContentsXmlMessage(VFile file, @Nullable VFileContentsTransfer transfer) {
     myFile = file;
+    myTransfer = transfer;
   }
 
   public String getTagName() {
@@ -43,13 +74,83 @@ public class GetVFileContentsXmlMessage implements XmlMessage {
   }
 
   public void fillRequest(Element element) {
-    myFile.saveTo(element);
+    if (myTransfer == null) {
+      myFile.saveTo(element);
+    }
+    else {
+      VFile withoutContents = (VFile)myFile.clone();
+      withoutContents.setContents(null);
+      withoutContents.saveTo(element);
+      myTransfer.fillRequest(element);
+    }
   }
 
   public void processResponse(Element responseElement) {
+    if (myTransfer != null) {
+      myTransfer.processResponse(responseElement);
+      return;
+    }
+
     VFile from = VFile.createFrom(responseElement);
     if (from != null) {
       myFile.setContents(from.getContents());
     }
   }
+
+  public static String encodeChunk(byte[] bytes, int offset, int length) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes, offset, length);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  public static byte[] decodeChunk(String text) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(Base64.getMimeDecoder().decode(text));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int count = inflater.inflate(buffer);
+        if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated chunk");
+        }
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    }
+    finally {
+      inflater.end();
+    }
+  }
+
+  public static long getCrc(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return crc.getValue();
+  }
+
+  public static String getHash(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+      StringBuilder result = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return result.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.transport;
+
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.vfs.VFile;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import static jetbrains.communicator.core.transport.GetVFileContentsXmlMessage.*;
+
+/**
+ * Receives contents of a remote file by compressed, checksummed chunks, one {@link GetVFileContentsXmlMessage} per chunk,
+ * so a big file doesn't have to fit into one message and a bad or lost chunk is requested again from its offset.
+ * <p>
+ * Received contents are remembered with their hash. The hash is sent with the next request of the same file, and
+ * if the file hasn't changed the remote side answers without contents. An interrupted transfer is resumed from
+ * the last received offset if the file hasn't changed. Remembered contents take at most {@link #MAX_CACHED_BYTES},
+ * least recently used files are forgotten first. Files bigger than {@link #MAX_FILE_BYTES} are not received.
+ */
+public class VFileContentsTransfer {
+  private static final Logger LOG = Logger.getLogger(VFileContentsTransfer.class);
+
+  static final int CHUNK_SIZE = 32 * 1024;
+  private static final int MAX_ATTEMPTS = 3;
+  static final int MAX_CACHED_BYTES = 4 * 1024 * 1024;
+  static final int MAX_FILE_BYTES = 64 * 1024 * 1024;
+
+  private enum Step { NEXT, RETRY, DONE }
+
+  // user + project + path -> received contents, complete or not, least recently used first
+  private static final Map<String, Received> ourReceived = new LinkedHashMap<>(16, 0.75f, true);
+  private static long ourReceivedBytes;
+
+  private final VFile myFile;
+  private final String myKey;
+  private Received myReceived;
+  private boolean myChunked; // the remote side supports chunks
+  private volatile Step myStep;
+
+  public VFileContentsTransfer(VFile file, User user) {
+    myFile = file;
+    myKey = user.getTransportCode() + ':' + user.getName() + '|' + file.getProjectName() + '|' + file.getFullPath();
+    synchronized (ourReceived) {
+      myReceived = ourReceived.get(myKey);
+    }
+  }
+
+  /**
+   * Requests chunks one by one and puts received contents to the file, the contents are left null if the file
+   * can't be received.
+   *
+   * @param timeout timeout of one chunk
+   */
+  public void receive(Transport transport, User user, long timeout) throws InterruptedException {
+    int attempts = 0;
+    while (attempts < MAX_ATTEMPTS) {
+      final Semaphore semaphore = new Semaphore(0);
+      myStep = null;
+      transport.sendXmlMessage(user, new GetVFileContentsXmlMessage(myFile, this) {
+        @Override
+        public void processResponse(Element responseElement) {
+          super.processResponse(responseElement);
+          semaphore.release();
+        }
+      });
+
+      Step step = semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS) ? myStep : null;
+      if (step == null) {
+        if (!myChunked) return; // no access or no answer, don't wait for it again
+        step = Step.RETRY;
+      }
+
+      switch (step) {
+        case DONE:
+          return;
+        case NEXT:
+          attempts = 0;
+          break;
+        case RETRY:
+          attempts++;
+          LOG.info("Requesting chunk of " + myFile + " again from offset " + (myReceived == null ? 0 : myReceived.myCount));
+          break;
+      }
+    }
+  }
+
+  synchronized void fillRequest(Element element) {
+    element.setAttribute(TRANSFER_ATTR, CHUNKED_TRANSFER);
+    element.setAttribute(CHUNK_SIZE_ATTR, String.valueOf(CHUNK_SIZE));
+    if (myReceived != null && myReceived.isComplete()) {
+      element.setAttribute(KNOWN_HASH_ATTR, myReceived.myHash);
+      element.setAttribute(OFFSET_ATTR, "0");
+    }
+    else {
+      element.setAttribute(OFFSET_ATTR, String.valueOf(myReceived == null ? 0 : myReceived.myCount));
+    }
+  }
+
+  synchronized void processResponse(Element response) {
+    try {
+      myStep = doProcessResponse(response);
+    }
+    catch (RuntimeException e) {
+      LOG.info("Bad chunk of " + myFile, e);
+      myStep = Step.RETRY;
+    }
+  }
+
+  private Step doProcessResponse(Element response) {
+    if (!CHUNKED_TRANSFER.equals(response.getAttributeValue(TRANSFER_ATTR))) {
+      // the remote side has sent whole contents
+      VFile from = VFile.createFrom(response);
+      if (from != null) {
+        myFile.setContents(from.getContents());
+      }
+      return Step.DONE;
+    }
+
+    myChunked = true;
+    if (!"true".equals(response.getAttributeValue(VFile.HAS_CONTENTS_ATTR))) {
+      return Step.DONE; // no such file
+    }
+
+    String hash = response.getAttributeValue(CONTENT_HASH_ATTR);
+    if ("true".equals(response.getAttributeValue(UNCHANGED_ATTR))) {
+      if (myReceived != null && myReceived.isComplete() && myReceived.myHash.equals(hash)) {
+        myFile.setContents(myReceived.getText());
+        return Step.DONE;
+      }
+      setReceived(null);
+      return Step.NEXT;
+    }
+
+    int length = Integer.parseInt(response.getAttributeValue(LENGTH_ATTR));
+    if (length < 0 || length > MAX_FILE_BYTES) {
+      // the buffer for the whole file is allocated with the first chunk, don't let the remote side choose its size
+      LOG.info("Not receiving " + myFile + " of " + length + " bytes");
+      setReceived(null);
+      return Step.DONE;
+    }
+    int offset = Integer.parseInt(response.getAttributeValue(OFFSET_ATTR));
+    if (myReceived == null || myReceived.isComplete() || !myReceived.myHash.equals(hash) || myReceived.myBytes.length != length) {
+      // the first chunk, or the file has been changed since the transfer was started
+      setReceived(new Received(hash, new byte[length]));
+      if (offset != 0) return Step.NEXT;
+    }
+    if (offset != myReceived.myCount) {
+      return Step.RETRY;
+    }
+
+    byte[] chunk;
+    try {
+      chunk = decodeChunk(response.getText());
+    }
+    catch (DataFormatException e) {
+      LOG.info("Bad chunk of " + myFile + " at " + offset, e);
+      return Step.RETRY;
+    }
+    if (offset + chunk.length > length ||
+        getCrc(chunk, 0, chunk.length) != Long.parseLong(response.getAttributeValue(CHUNK_CRC_ATTR))) {
+      return Step.RETRY;
+    }
+
+    System.arraycopy(chunk, 0, myReceived.myBytes, offset, chunk.length);
+    myReceived.myCount += chunk.length;
+    if (!myReceived.isComplete()) {
+      return chunk.length == 0 ? Step.RETRY : Step.NEXT;
+    }
+
+    if (!getHash(myReceived.myBytes).equals(hash)) {
+      setReceived(null);
+      return Step.RETRY;
+    }
+    myFile.setContents(myReceived.getText());
+    return Step.DONE;
+  }
+
+  private void setReceived(Received received) {
+    myReceived = received;
+    synchronized (ourReceived) {
+      Received old = received == null ? ourReceived.remove(myKey) : ourReceived.put(myKey, received);
+      if (old != null) {
+        ourReceivedBytes -= old.myBytes.length;
+      }
+      if (received == null) return;
+
+      ourReceivedBytes += received.myBytes.length;
+      Iterator<Received> eldest = ourReceived.values().iterator();
+      while (ourReceivedBytes > MAX_CACHED_BYTES) {
+        ourReceivedBytes -= eldest.next().myBytes.length;
+        eldest.remove();
+      }
+    }
+  }
+
+  private static class Received {
+    private final String myHash;
+    private final byte[] myBytes;
+    private int myCount;
+
+    private Received(String hash, byte[] bytes) {
+      myHash = hash;
+      myBytes = bytes;
+    }
+
+    private boolean isComplete() {
+      return myCount == myBytes.length;
+    }
+
+    private String getText() {
+      return new String(myBytes, StandardCharsets.UTF_8);
+    }
+  }
+}
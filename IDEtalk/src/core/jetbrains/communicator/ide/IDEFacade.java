@@ -57,6 +57,8 @@ public interface IDEFacade {
   boolean hasFile(VFile file);
   void open(VFile file);
   void fillFileContents(VFile vFile);
+  /** Modification stamp of the file contents, changes whenever the contents change. -1 if there's no such file */
+  long getFileModificationStamp(VFile vFile);
   void showDiffFor(User remoteUser, VFile vFile, String compareWith);
   Change[] getDiff(Object[] src, Object[]dest);
 
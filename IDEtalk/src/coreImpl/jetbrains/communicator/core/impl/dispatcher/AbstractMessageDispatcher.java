@@ -31,6 +31,7 @@ import org.picocontainer.Disposable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Kir
@@ -45,7 +46,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   private final Object myUser2MessagesLock = new Object();
   private final Map<User,List<Message>> myUser2Messages = new HashMap<>();
   private final EventBroadcaster myEventBroadcaster;
-  private boolean myDispatching;
+  private final AtomicInteger myDispatchingCount = new AtomicInteger();
 
   protected AbstractMessageDispatcher(EventBroadcaster eventBroadcaster, File dataDir) {
     myDataDir = dataDir;
@@ -64,7 +65,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   protected boolean performDispatch(User user, Message message) {
     try {
-      myDispatching = true;
+      myDispatchingCount.incrementAndGet();
       if (LOG.isDebugEnabled()) {
         //noinspection HardCodedStringLiteral
         LOG.debug("Start dispatching " + message + " to " + user);
@@ -90,7 +91,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       }
       return result;
     } finally {
-      myDispatching = false;
+      myDispatchingCount.decrementAndGet();
     }
   }
 
@@ -131,7 +132,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   }
 
   boolean isMessageDispatchInProgress() {
-    return myDispatching;
+    return myDispatchingCount.get() > 0;
   }
 
   protected void addPendingMessage(User user, Message message) {
@@ -207,11 +208,16 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
     LOG.debug("Save start");
     synchronized(myUser2MessagesLock) {
-      XMLUtil.toXml(getXStream(), getFileName(), createStorableMessages());
+      saveMessages(createStorableMessages());
     }
     LOG.debug("Save finish");
   }
 
+  /** Called under the lock of the pending messages, so they can't be changed while being saved */
+  protected void saveMessages(MessagesStorable messagesStorable) {
+    XMLUtil.toXml(getXStream(), getFileName(), messagesStorable);
+  }
+
   protected MessagesStorable createStorableMessages() {
     return new MessagesStorable(myUser2Messages);
   }
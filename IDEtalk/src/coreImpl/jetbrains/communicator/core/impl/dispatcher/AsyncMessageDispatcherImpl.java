@@ -24,106 +24,179 @@ import jetbrains.communicator.core.dispatcher.Message;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.ide.IDEFacade;
-import jetbrains.communicator.util.WaitFor;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Delivers pending network messages of each user separately: messages of one user are sent in order by one
+ * of {@link #MAX_WORKERS} pooled threads, so a user who doesn't answer doesn't delay messages to the others.
+ * When delivery to a user fails, it is retried with exponentially growing delay, or when the user comes online.
+ * <p>
+ * Pending messages are saved to {@link MessagesJournal}; the queue saved in XML by the previous versions is
+ * converted on start.
+ *
  * @author Kir
  */
-public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implements AsyncMessageDispatcher, Runnable {
+public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implements AsyncMessageDispatcher {
   private static final Logger LOG = Logger.getLogger(AsyncMessageDispatcherImpl.class);
 
   private static final String FILE_NAME = "pendingNetworkMessages.xml";
+  private static final String JOURNAL_FILE_NAME = "pendingNetworkMessages.journal";
+
+  static final int MAX_WORKERS = 4;
+  static final long INITIAL_RETRY_DELAY = 2000;
+  static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
   private final MyEventListener myEventListener;
   private final IDEFacade myIdeFacade;
+  private final MessagesJournal myJournal;
 
-  private final Object myWorkingThreadLock = new Object();
-  private Thread myWorkingThread;
-  private Thread myThread;
-
-  private boolean myShouldDeliverNow;
+  private final ScheduledThreadPoolExecutor myExecutor;
+  // guarded by itself, users without pending messages are removed
+  private final Map<User, UserQueue> myQueues = new HashMap<>();
 
   public AsyncMessageDispatcherImpl(EventBroadcaster broadcaster, IDEFacade ideFacade) {
     super(broadcaster, ideFacade.getCacheDir());
 
     myIdeFacade = ideFacade;
-    myEventListener = new MyEventListener(broadcaster);
+    File cacheDir = ideFacade.getCacheDir();
+    myJournal = cacheDir == null ? null : new MessagesJournal(new File(cacheDir, JOURNAL_FILE_NAME));
+    loadJournal(new File(cacheDir, FILE_NAME));
+
+    myExecutor = new ScheduledThreadPoolExecutor(MAX_WORKERS, new MyThreadFactory());
+    myExecutor.setRemoveOnCancelPolicy(true);
 
-    start();
+    myEventListener = new MyEventListener(broadcaster);
   }
 
-  private void start() {
-    assert !isRunning(): "Already started";
-    Thread t = new Thread(this, "Network Message Dispatcher");
-    t.setDaemon(true);
-    t.start();
+  private void loadJournal(File xmlFile) {
+    if (myJournal == null) return;
+
+    if (myJournal.exists()) {
+      loadFromStorableMessages(new MessagesStorable(myJournal.load()));
+    }
+    else if (hasUsersWithMessages()) {
+      save(); // converts the queue loaded from XML
+    }
+
+    if (myJournal.exists()) {
+      xmlFile.delete();
+    }
   }
 
   public boolean isRunning() {
-    return myThread != null && myThread.isAlive();
+    return !myExecutor.isTerminated();
   }
 
-  public void run() {
-    LOG.debug("Starting " + Thread.currentThread().getName());
+  private void scheduleDelivery(User user) {
+    synchronized (myQueues) {
+      if (myExecutor.isShutdown()) return;
 
-    synchronized (myWorkingThreadLock) {
-      myWorkingThread = Thread.currentThread();
-      myThread = Thread.currentThread();
+      UserQueue queue = myQueues.computeIfAbsent(user, u -> new UserQueue());
+      if (queue.myScheduled) return; // queued, in progress or waiting for retry
+
+      queue.myScheduled = true;
+      myExecutor.execute(() -> deliverPendingMessages(user));
+    }
+  }
+
+  private void deliverPendingMessages(User user) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Process pending network messages for " + user);
     }
-    try {
-      LOG.debug("Started Network Message Dispatcher thread");
-      while (notDisposed()) {
-        synchronized(myWorkingThreadLock) {
-          while (!myShouldDeliverNow && notDisposed()) {
-            myWorkingThreadLock.wait();
-          }
-          myShouldDeliverNow = false;
-        }
-        LOG.debug("Process pending network messages");
 
-        if (notDisposed()) {
-          dispatchAllMessages();
+    while (true) {
+      Message[] pendingMessages = getPendingMessages(user);
+      boolean failed = false;
+      for (int i = 0; i < pendingMessages.length && !failed; i++) {
+        if (myExecutor.isShutdown()) return;
+        failed = !dispatch(user, pendingMessages[i]);
+      }
+      if (pendingMessages.length > 0) {
+        save();
+      }
+
+      synchronized (myQueues) {
+        UserQueue queue = myQueues.get(user);
+        if (queue == null || myExecutor.isShutdown()) return;
+
+        if (failed) {
+          scheduleRetry(user, queue);
+          return;
+        }
+        queue.myFailures = 0;
+        if (getPendingMessages(user).length == 0) {
+          myQueues.remove(user);
+          return;
         }
       }
-    } catch (InterruptedException e) {
-      LOG.warn(e.getMessage(), e);
     }
-    finally {
-      synchronized(myWorkingThreadLock) {
-        myWorkingThread = null;
-      }
+  }
+
+  private boolean dispatch(User user, Message message) {
+    try {
+      return performDispatch(user, message);
+    }
+    catch (RuntimeException e) {
+      LOG.warn("Unable to send " + message + " to " + user, e);
+      return false;
     }
   }
 
-  private boolean notDisposed() {
-    return myWorkingThread != null;
+  private void scheduleRetry(final User user, final UserQueue queue) {
+    queue.myFailures++;
+    long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(queue.myFailures - 1, 20));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Retry delivery to " + user + " in " + delay + "ms");
+    }
+
+    queue.myRetry = myExecutor.schedule(() -> {
+      synchronized (myQueues) {
+        queue.myRetry = null;
+      }
+      deliverPendingMessages(user);
+    }, delay, TimeUnit.MILLISECONDS);
   }
 
-  private void dispatchAllMessages() {
-    User[] usersWithMessages = getUsersWithMessages();
-    for (int i = 0; i < usersWithMessages.length && isRunning(); i++) {
-      User user = usersWithMessages[i];
-      Message[] pendingMessages = getPendingMessages(user);
-      for (int j = 0; j < pendingMessages.length && isRunning(); j++) {
-        performDispatch(user, pendingMessages[j]);
+  private void retryNow(User user) {
+    if (getPendingMessages(user).length == 0) return;
+
+    synchronized (myQueues) {
+      UserQueue queue = myQueues.get(user);
+      if (queue != null && queue.myRetry != null && queue.myRetry.cancel(false)) {
+        queue.myRetry = null;
+        queue.myFailures = 0;
+        queue.myScheduled = false;
       }
     }
-    save();
+    scheduleDelivery(user);
   }
 
   public void dispose() {
     myEventListener.dispose();
 
-    synchronized(myWorkingThreadLock) {
-      myWorkingThread = null;
-      myWorkingThreadLock.notifyAll();
+    synchronized (myQueues) {
+      myExecutor.shutdownNow();
+      myQueues.clear();
     }
-    new WaitFor(10000){
-      protected boolean condition() {
-        return !isRunning();
+    try {
+      if (!myExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+        LOG.warn("Network message dispatching is not finished");
       }
-    };
+    }
+    catch (InterruptedException e) {
+      LOG.warn(e.getMessage(), e);
+    }
 
+    save();
     super.dispose();
   }
 
@@ -131,21 +204,35 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     return FILE_NAME;
   }
 
-  public void sendLater(User user, Message message) {
-    synchronized(myWorkingThreadLock) {
-      addPendingMessage(user, message);
-      triggerDelivery();
+  @Override
+  protected void saveMessages(MessagesStorable messagesStorable) {
+    if (myJournal != null) {
+      myJournal.save(messagesStorable.getUser2Messages());
     }
   }
 
+  public void sendLater(User user, Message message) {
+    addPendingMessage(user, message);
+    scheduleDelivery(user);
+  }
+
   public IDEFacade getIdeFacade() {
     return myIdeFacade;
   }
 
-  void triggerDelivery() {
-    synchronized(myWorkingThreadLock) {
-      myShouldDeliverNow = true;
-      myWorkingThreadLock.notifyAll();
+  private static class UserQueue {
+    private boolean myScheduled;
+    private int myFailures;
+    private ScheduledFuture<?> myRetry;
+  }
+
+  private static class MyThreadFactory implements ThreadFactory {
+    private final AtomicInteger myCount = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "Network Message Dispatcher " + myCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
     }
   }
 
@@ -164,7 +251,7 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     public void afterChange(IDEtalkEvent event) {
       event.accept(new EventVisitor(){
         @Override public void visitUserOnline(UserEvent.Online online) {
-          triggerDelivery();
+          retryNow(online.getUser());
         }
       });
     }
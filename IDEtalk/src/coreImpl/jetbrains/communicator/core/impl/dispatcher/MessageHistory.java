@@ -27,14 +27,22 @@ import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.FilenameFilter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Future;
 
 /**
+ * History is kept in append-only binary logs, one per day. Each record holds the time, the user and the message
+ * serialized by XStream, so the records of one user can be found without deserializing messages of other users.
+ * Offsets of the records of each user are indexed when a day is accessed for the first time.
+ * <p>
+ * Messages are loaded lazily, by pages of one user and one day, and only {@link #MAX_CACHED_MESSAGES} of them are
+ * kept in memory. XML files of the old format are converted to logs when their day is accessed, an XML file is deleted
+ * only after the log header records the conversion.
+ *
  * @author Kir
  */
 class MessageHistory {
@@ -42,15 +50,38 @@ class MessageHistory {
   private static final Logger LOG = Logger.getLogger(MessageHistory.class);
 
   public static final long SAVE_TIMEOUT = 300;
+  static final int MAX_CACHED_MESSAGES = 5000;
+  // the most recent messages returned by getHistory(), older days aren't read
+  static final int MAX_HISTORY_MESSAGES = MAX_CACHED_MESSAGES;
+
   @NonNls
   private static final String HISTORY = "history";
+  @NonNls
+  private static final String LOG_EXTENSION = ".log";
+  @NonNls
+  private static final String XML_EXTENSION = ".xml";
+
+  private static final int LOG_MAGIC = 0x49445448; // "IDTH"
+  private static final int LOG_VERSION = 1;
+  private static final int LOG_HEADER_SIZE = 12;
+  // set in the header of a log which contains the messages of the XML file of its day
+  private static final int LOG_FLAG_CONVERTED = 1;
+  // time + user key length
+  private static final int MIN_RECORD_LENGTH = 8 + 2;
 
-  private final DayHistory myHistory = new DayHistory();
   @NonNls
   private final XStream myXStream;
-  private final UserModel myUserModel;
+  private final UserConverter myUserConverter;
   private final IDEFacade myFacade;
 
+  // null until the history directory is listed
+  private SortedMap<Date, DayLog> myDays;
+  // added, but not saved yet
+  private final List<PendingMessage> myPendingMessages = new ArrayList<>();
+  // day + user -> messages of the user in that day, least recently used first
+  private final LinkedHashMap<String, List<LocalMessage>> myCache = new LinkedHashMap<>(16, 0.75f, true);
+  private int myCachedMessageCount;
+
   private Future<?> myPendingSave;
 
   @NonNls
@@ -58,14 +89,11 @@ class MessageHistory {
 
   MessageHistory(IDEFacade facade, UserModel userModel) {
     myFacade = facade;
-    myUserModel = userModel;
+    myUserConverter = new UserConverter(userModel);
 
     getHistoryDir().mkdir();
 
-    myXStream = XMLUtil.createXStream();
-    setupXStream();
-
-    loadHistorySince(new Date());
+    myXStream = createXStream(userModel);
   }
 
   public synchronized void dispose() {
@@ -74,28 +102,48 @@ class MessageHistory {
       myPendingSave = null;
     }
 
-    myHistory.clear();
+    saveHistory();
+    clearMemory();
   }
 
-  private void setupXStream() {
-    myXStream.alias("user", UserImpl.class);
-    myXStream.alias("dayHistory", DayHistory.class);
-    myXStream.aliasField("historyEntries", DayHistory.class, "myData");
+  static XStream createXStream(UserModel userModel) {
+    XStream xStream = XMLUtil.createXStream();
+    xStream.alias("user", UserImpl.class);
+    xStream.alias("dayHistory", DayHistory.class);
+    xStream.aliasField("historyEntries", DayHistory.class, "myData");
 
-    myXStream.registerConverter(new UserConverter(myUserModel));
+    xStream.registerConverter(new UserConverter(userModel));
+    return xStream;
   }
 
   public synchronized void addMessage(User user, LocalMessage message) {
-    myHistory.addMessage(user, message);
+    Date day = TimeUtil.getDay(message.getWhen());
+    String userKey = myUserConverter.toString(user);
+    getDays().computeIfAbsent(day, this::createDayLog);
+
+    myPendingMessages.add(new PendingMessage(day, userKey, message));
+    List<LocalMessage> cached = myCache.get(getCacheKey(day, userKey));
+    if (cached != null) {
+      cached.add(message);
+      myCachedMessageCount++;
+    }
     triggerSave();
   }
 
   public synchronized void clear() {
-    myHistory.clear();
+    clearMemory();
+    myDays = new TreeMap<>();
 
     deleteAllHistoryFiles();
   }
 
+  private void clearMemory() {
+    myDays = null;
+    myPendingMessages.clear();
+    myCache.clear();
+    myCachedMessageCount = 0;
+  }
+
   private void deleteAllHistoryFiles() {
     File historyDir = getHistoryDir();
     Thread thread = Thread.currentThread();
@@ -110,69 +158,256 @@ class MessageHistory {
     return new File(myFacade.getCacheDir(), HISTORY);
   }
 
+  /**
+   * @return at most {@link #MAX_HISTORY_MESSAGES} most recent messages, oldest first
+   */
   public synchronized LocalMessage[] getHistory(User user, @Nullable Date since) {
-    loadHistorySince(since);
+    String userKey = myUserConverter.toString(user);
+    SortedMap<Date, DayLog> days = since == null ? getDays() : getDays().tailMap(TimeUtil.getDay(since));
+
+    List<Date> newestFirst = new ArrayList<>(days.keySet());
+    Collections.reverse(newestFirst);
+
+    List<LocalMessage> list = new ArrayList<>();
+    for (Date day : newestFirst) {
+      if (list.size() >= MAX_HISTORY_MESSAGES) break;
+      for (LocalMessage message : getMessages(day, days.get(day), userKey)) {
+        if (since == null || message.getWhen().after(since)) {
+          list.add(message);
+        }
+      }
+    }
 
-    List<LocalMessage> list = filterHistoryByDate(user, since);
+    Collections.sort(list, (o1, o2) -> o1.getWhen().compareTo(o2.getWhen()));
+    if (list.size() > MAX_HISTORY_MESSAGES) {
+      list = list.subList(list.size() - MAX_HISTORY_MESSAGES, list.size());
+    }
     return list.toArray(new LocalMessage[list.size()]);
   }
 
-  private List<LocalMessage> filterHistoryByDate(User user, Date since) {
-    List<LocalMessage> list = myHistory.readMessages(user);
-    if (since != null) {
-      List<LocalMessage> result = new ArrayList<>(list.size());
-      for (LocalMessage message : list) {
-        if (message.getWhen().after(since)) {
-          result.add(message);
+  private SortedMap<Date, DayLog> getDays() {
+    if (myDays == null) {
+      myDays = new TreeMap<>();
+      String[] historyFiles = getHistoryDir().list((dir, name) -> name.endsWith(LOG_EXTENSION) || name.endsWith(XML_EXTENSION));
+      if (historyFiles != null) {
+        for (String historyFile : historyFiles) {
+          try {
+            Date date = DATE_FORMAT.parse(historyFile);
+            myDays.computeIfAbsent(date, this::createDayLog);
+          }
+          catch (ParseException e) {
+            // ignore file of wrong format
+          }
+          catch (NumberFormatException e) {
+            // ignore file of wrong format
+          }
+        }
+      }
+    }
+    return myDays;
+  }
+
+  private List<LocalMessage> getMessages(Date day, DayLog dayLog, String userKey) {
+    String cacheKey = getCacheKey(day, userKey);
+    List<LocalMessage> messages = myCache.get(cacheKey);
+    if (messages != null) return messages;
+
+    ensureIndexed(dayLog);
+
+    messages = new ArrayList<>();
+    List<Long> offsets = dayLog.myOffsets.get(userKey);
+    if (offsets != null) {
+      readMessages(dayLog.myFile, offsets, messages);
+    }
+    for (PendingMessage pendingMessage : myPendingMessages) {
+      if (pendingMessage.myDay.equals(day) && pendingMessage.myUserKey.equals(userKey)) {
+        messages.add(pendingMessage.myMessage);
+      }
+    }
+
+    myCache.put(cacheKey, messages);
+    myCachedMessageCount += messages.size();
+    Iterator<List<LocalMessage>> eldest = myCache.values().iterator();
+    while (myCachedMessageCount > MAX_CACHED_MESSAGES && myCache.size() > 1) {
+      myCachedMessageCount -= eldest.next().size();
+      eldest.remove();
+    }
+    return messages;
+  }
+
+  private static String getCacheKey(Date day, String userKey) {
+    return day.getTime() + "/" + userKey;
+  }
+
+  private void readMessages(File file, List<Long> offsets, List<LocalMessage> result) {
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      for (Long offset : offsets) {
+        in.seek(offset);
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+
+        DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+        recordIn.readLong();
+        int headerLength = MIN_RECORD_LENGTH + recordIn.readUnsignedShort();
+        String xml = new String(record, headerLength, record.length - headerLength, StandardCharsets.UTF_8);
+        try {
+          result.add((LocalMessage)myXStream.fromXML(xml));
+        }
+        catch (RuntimeException e) {
+          LOG.info("Unable to read message at " + offset + " of " + file, e);
         }
       }
-      list = result;
     }
-    return list;
+    catch (IOException e) {
+      LOG.info("Unable to read " + file, e);
+    }
   }
 
-  private void loadHistorySince(@Nullable Date since) {
-    if (since != null) {
-      since = TimeUtil.getDay(since);
+  private void ensureIndexed(DayLog dayLog) {
+    if (dayLog.myOffsets != null) return;
+
+    if (dayLog.myXmlFile.exists() &&
+        ((readLogFlags(dayLog.myFile) & LOG_FLAG_CONVERTED) != 0 || convertXmlFile(dayLog.myXmlFile, dayLog.myFile))) {
+      dayLog.myXmlFile.delete();
     }
 
-    if (!myHistory.hasHistorySince(since)) {
-      if (since == null) {
-        doLoadHistorySince(new Date(0));
-        myHistory.setHasFullHistory();
+    dayLog.myOffsets = new HashMap<>();
+    dayLog.myValidLength = 0;
+    if (!dayLog.myFile.exists()) return;
+
+    long length = dayLog.myFile.length();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dayLog.myFile)))) {
+      if (length < LOG_HEADER_SIZE || in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) {
+        LOG.info("Unknown format of " + dayLog.myFile + ", it will be overwritten");
+        return;
       }
-      else {
-        doLoadHistorySince(since);
+      in.readInt();
+
+      // everything after the last good record is dropped by the next append
+      long offset = LOG_HEADER_SIZE;
+      dayLog.myValidLength = offset;
+      while (offset + 4 <= length) {
+        int recordLength = in.readInt();
+        if (recordLength < MIN_RECORD_LENGTH || offset + 4 + recordLength > length) break; // not completely written
+
+        in.readLong();
+        int userKeyLength = in.readUnsignedShort();
+        if (userKeyLength > recordLength - MIN_RECORD_LENGTH) break;
+        byte[] userKey = new byte[userKeyLength];
+        in.readFully(userKey);
+        skipFully(in, recordLength - MIN_RECORD_LENGTH - userKeyLength);
+
+        dayLog.myOffsets.computeIfAbsent(new String(userKey, StandardCharsets.UTF_8), k -> new ArrayList<>()).add(offset);
+        offset += 4 + recordLength;
+        dayLog.myValidLength = offset;
       }
     }
+    catch (IOException e) {
+      LOG.info("Unable to read " + dayLog.myFile, e);
+    }
   }
 
-  private void doLoadHistorySince(Date since) {
-    File historyDir = getHistoryDir();
+  /**
+   * @return flags from the log header, 0 if there's no log or its format is unknown
+   */
+  private static int readLogFlags(File logFile) {
+    if (logFile.length() < LOG_HEADER_SIZE) return 0;
 
-    String[] historyFiles = historyDir.list((dir, name) -> name.endsWith(".xml"));
+    try (DataInputStream in = new DataInputStream(new FileInputStream(logFile))) {
+      if (in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) return 0;
+      return in.readInt();
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read " + logFile, e);
+      return 0;
+    }
+  }
 
-    Arrays.sort(historyFiles);
-    for (int i = historyFiles.length - 1; i >= 0; i--) {
-      String historyFile = historyFiles[i];
-      try {
-        Date date = DATE_FORMAT.parse(historyFile);
-        if (!date.before(since) && !myHistory.hasHistorySince(date)) {
-          DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, myFacade.getCacheDir(), getFileNameForDate(date), false);
-          if (dayHistory != null) {
-            dayHistory.copyTo(myHistory);
-          }
+  private static void skipFully(DataInputStream in, int count) throws IOException {
+    while (count > 0) {
+      int skipped = in.skipBytes(count);
+      if (skipped <= 0) throw new EOFException();
+      count -= skipped;
+    }
+  }
+
+  /**
+   * Converts history of the old format. The log is written to a temporary file first, so a half-converted
+   * log is never taken for a complete one. Records of an existing log which hasn't been converted yet are kept
+   * after the converted ones.
+   *
+   * @return false if the XML file can't be converted, it is kept then
+   */
+  private boolean convertXmlFile(File xmlFile, File logFile) {
+    DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, xmlFile.getPath(), false);
+    if (dayHistory == null) return false;
+
+    File tempFile = new File(logFile.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      writeHeader(out, LOG_FLAG_CONVERTED);
+      for (User user : dayHistory.keySet()) {
+        String userKey = myUserConverter.toString(user);
+        for (LocalMessage message : dayHistory.readMessages(user)) {
+          writeRecord(out, userKey, message);
         }
       }
-      catch (ParseException e) {
-        // ignore file of wrong format
-      }
-      catch (NumberFormatException e) {
-        // ignore file of wrong format
+      copyRecords(logFile, out);
+    }
+    catch (IOException e) {
+      LOG.error("Unable to convert " + xmlFile, e);
+      tempFile.delete();
+      return false;
+    }
+
+    if (!tempFile.renameTo(logFile)) {
+      LOG.error("Unable to rename " + tempFile + " to " + logFile);
+      tempFile.delete();
+      return false;
+    }
+    return true;
+  }
+
+  private static void copyRecords(File logFile, OutputStream out) throws IOException {
+    if (logFile.length() <= LOG_HEADER_SIZE) return;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+      if (in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) return;
+      in.readInt();
+
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
       }
     }
+  }
 
-    myHistory.resort();
+  private static void writeHeader(DataOutputStream out, int flags) throws IOException {
+    out.writeInt(LOG_MAGIC);
+    out.writeInt(LOG_VERSION);
+    out.writeInt(flags);
+  }
+
+  /**
+   * @return false if the message can't be serialized
+   */
+  private boolean writeRecord(DataOutputStream out, String userKey, LocalMessage message) throws IOException {
+    byte[] xml;
+    try {
+      xml = myXStream.toXML(message).getBytes(StandardCharsets.UTF_8);
+    }
+    catch (RuntimeException e) {
+      LOG.error("Unable to save message " + message, e);
+      return false;
+    }
+    byte[] user = userKey.getBytes(StandardCharsets.UTF_8);
+
+    out.writeInt(MIN_RECORD_LENGTH + user.length + xml.length);
+    out.writeLong(message.getWhen().getTime());
+    out.writeShort(user.length);
+    out.write(user);
+    out.write(xml);
+    return true;
   }
 
   private void triggerSave() {
@@ -192,53 +427,92 @@ class MessageHistory {
   }
 
   private synchronized void saveHistory() {
+    if (myPendingMessages.isEmpty()) return;
     LOG.debug("Start history save");
-    Map<Date, DayHistory> map = getHistory();
-    for (Date date : map.keySet()) {
-      DayHistory dayHistory = map.get(date);
+
+    Map<Date, List<PendingMessage>> byDay = new LinkedHashMap<>();
+    for (PendingMessage pendingMessage : myPendingMessages) {
+      byDay.computeIfAbsent(pendingMessage.myDay, d -> new ArrayList<>()).add(pendingMessage);
+    }
+    myPendingMessages.clear();
+
+    for (Map.Entry<Date, List<PendingMessage>> entry : byDay.entrySet()) {
+      DayLog dayLog = getDays().computeIfAbsent(entry.getKey(), this::createDayLog);
       try {
-        XMLUtil.toXml(myXStream, myFacade.getCacheDir(), getFileNameForDate(date), dayHistory);
-      } catch (RuntimeException e) {
-        LOG.error("Unable to save dayHistory for " + date + ": " + dayHistory, e);
+        appendToLog(dayLog, entry.getValue());
+      }
+      catch (IOException e) {
+        LOG.error("Unable to save history for " + entry.getKey(), e);
+        dayLog.myOffsets = null; // index again
       }
     }
 
     LOG.debug("Done history save");
   }
 
-  private synchronized Map<Date, DayHistory> getHistory() {
-    Map<Date, DayHistory> result = new HashMap<>();
+  private void appendToLog(DayLog dayLog, List<PendingMessage> messages) throws IOException {
+    ensureIndexed(dayLog);
 
-    for (User user : myHistory.keySet()) {
-      List<LocalMessage> messages = myHistory.get(user);
-      for (LocalMessage message : messages) {
-        DayHistory dayHistory = getDayHistoryFor(message, result);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    if (dayLog.myValidLength == 0) {
+      writeHeader(out, 0);
+    }
 
-        dayHistory.addMessage(user, message);
+    Map<String, List<Long>> newOffsets = new HashMap<>();
+    long start = dayLog.myValidLength;
+    for (PendingMessage message : messages) {
+      long offset = start + out.size();
+      if (writeRecord(out, message.myUserKey, message.myMessage)) {
+        newOffsets.computeIfAbsent(message.myUserKey, k -> new ArrayList<>()).add(offset);
       }
     }
 
-    return result;
-  }
+    try (RandomAccessFile file = new RandomAccessFile(dayLog.myFile, "rw")) {
+      file.setLength(start); // drops the tail which hasn't been completely written
+      file.seek(start);
+      file.write(bytes.toByteArray());
+    }
 
-  private DayHistory getDayHistoryFor(LocalMessage message, Map<Date, DayHistory> result) {
-    Date day = TimeUtil.getDay(message.getWhen());
-    DayHistory dayHistory = result.get(day);
-    if (dayHistory == null) {
-      dayHistory = new DayHistory();
-      result.put(day, dayHistory);
+    for (Map.Entry<String, List<Long>> entry : newOffsets.entrySet()) {
+      dayLog.myOffsets.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
     }
-    return dayHistory;
+    dayLog.myValidLength = start + bytes.size();
   }
 
-  @NonNls
-  private String getFileNameForDate(Date date) {
-    //noinspection HardCodedStringLiteral
-    return HISTORY + '/' + DATE_FORMAT.format(date) + ".xml";
+  private DayLog createDayLog(Date date) {
+    String name = DATE_FORMAT.format(date);
+    return new DayLog(new File(getHistoryDir(), name + LOG_EXTENSION), new File(getHistoryDir(), name + XML_EXTENSION));
   }
 
   public boolean isEmpty() {
     File historyDir = getHistoryDir();
     return !(historyDir.isDirectory() && historyDir.list().length > 0);
   }
+
+  private static class DayLog {
+    private final File myFile;
+    private final File myXmlFile; // old format
+    // user -> offsets of the user's records, null until the log is read
+    private Map<String, List<Long>> myOffsets;
+    // the end of the last completely written record
+    private long myValidLength;
+
+    private DayLog(File file, File xmlFile) {
+      myFile = file;
+      myXmlFile = xmlFile;
+    }
+  }
+
+  private static class PendingMessage {
+    private final Date myDay;
+    private final String myUserKey;
+    private final LocalMessage myMessage;
+
+    private PendingMessage(Date day, String userKey, LocalMessage message) {
+      myDay = day;
+      myUserKey = userKey;
+      myMessage = message;
+    }
+  }
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.impl.users.UserImpl;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.util.XMLUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Append-only storage of pending messages. Each save appends records only for messages added and removed
+ * since the previous save, instead of rewriting the whole queue. Record format is<br>
+ * <code>int length, byte ADDED, long id, int userLength, user XML, message XML</code> or<br>
+ * <code>int length, byte REMOVED, long id</code>.
+ * <p>
+ * When most of the records are obsolete, the journal is rewritten with the live messages only; it is written
+ * to a temporary file first, so the journal on disk is always complete.
+ *
+ * @author Kir
+ */
+class MessagesJournal {
+  private static final Logger LOG = Logger.getLogger(MessagesJournal.class);
+
+  private static final int JOURNAL_MAGIC = 0x49445451; // "IDTQ"
+  private static final int JOURNAL_VERSION = 1;
+  private static final int JOURNAL_HEADER_SIZE = 8;
+
+  private static final byte ADDED = 1;
+  private static final byte REMOVED = 2;
+
+  // type + id
+  private static final int REMOVED_RECORD_LENGTH = 1 + 8;
+  // type + id + user length
+  private static final int ADDED_HEADER_LENGTH = 1 + 8 + 4;
+
+  static final int MIN_RECORDS_TO_COMPACT = 256;
+
+  private final File myFile;
+  private final XStream myXStream;
+
+  // user + message -> id of its ADDED record
+  private final Map<Entry, Long> myIds = new HashMap<>();
+  private long myNextId;
+  private long myValidLength;
+  private int myRecordCount;
+
+  MessagesJournal(File file) {
+    myFile = file;
+    myXStream = XMLUtil.createXStream();
+    myXStream.alias("user", UserImpl.class);
+  }
+
+  boolean exists() {
+    return myFile.exists();
+  }
+
+  /**
+   * Reads the journal. A record which hasn't been completely written or is malformed ends the valid data,
+   * it is dropped with everything after it with the next save.
+   */
+  synchronized Map<User, List<Message>> load() {
+    Map<User, List<Message>> result = new LinkedHashMap<>();
+    myIds.clear();
+    myNextId = 0;
+    myValidLength = 0;
+    myRecordCount = 0;
+    if (!myFile.exists()) return result;
+
+    Map<Long, Entry> entries = new LinkedHashMap<>();
+    long length = myFile.length();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)))) {
+      if (length < JOURNAL_HEADER_SIZE || in.readInt() != JOURNAL_MAGIC || in.readInt() != JOURNAL_VERSION) {
+        LOG.info("Unknown format of " + myFile + ", it will be overwritten");
+        return result;
+      }
+
+      long offset = JOURNAL_HEADER_SIZE;
+      myValidLength = offset;
+      while (offset + 4 <= length) {
+        int recordLength = in.readInt();
+        if (recordLength < REMOVED_RECORD_LENGTH || offset + 4 + recordLength > length) break; // not completely written
+
+        byte[] record = new byte[recordLength];
+        in.readFully(record);
+        if (!readRecord(record, entries)) {
+          LOG.info("Malformed record at " + offset + " of " + myFile);
+          break;
+        }
+        offset += 4 + recordLength;
+        myValidLength = offset;
+        myRecordCount++;
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read " + myFile, e);
+    }
+
+    for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+      Entry userMessage = entry.getValue();
+      result.computeIfAbsent(userMessage.myUser, u -> new ArrayList<>()).add(userMessage.myMessage);
+      myIds.put(userMessage, entry.getKey());
+    }
+    return result;
+  }
+
+  /**
+   * @return false if the record is malformed
+   */
+  private boolean readRecord(byte[] record, Map<Long, Entry> entries) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    byte type = in.readByte();
+    long id = in.readLong();
+
+    if (type == REMOVED) {
+      entries.remove(id);
+    }
+    else if (type == ADDED) {
+      if (record.length < ADDED_HEADER_LENGTH) return false;
+      int userLength = in.readInt();
+      if (userLength < 0 || userLength > record.length - ADDED_HEADER_LENGTH) return false;
+
+      String userXml = new String(record, ADDED_HEADER_LENGTH, userLength, StandardCharsets.UTF_8);
+      String messageXml = new String(record, ADDED_HEADER_LENGTH + userLength, record.length - ADDED_HEADER_LENGTH - userLength,
+                                     StandardCharsets.UTF_8);
+      try {
+        entries.put(id, new Entry((User)myXStream.fromXML(userXml), (Message)myXStream.fromXML(messageXml)));
+      }
+      catch (RuntimeException e) {
+        LOG.info("Unable to read pending message " + id + " of " + myFile, e);
+      }
+    }
+    else {
+      return false;
+    }
+
+    myNextId = Math.max(myNextId, id + 1);
+    return true;
+  }
+
+  /**
+   * Appends the difference between the messages saved before and the given ones.
+   */
+  synchronized void save(Map<User, List<Message>> user2Messages) {
+    Set<Entry> current = new LinkedHashSet<>();
+    for (Map.Entry<User, List<Message>> entry : user2Messages.entrySet()) {
+      for (Message message : entry.getValue()) {
+        current.add(new Entry(entry.getKey(), message));
+      }
+    }
+
+    if (myRecordCount >= MIN_RECORDS_TO_COMPACT && myRecordCount > current.size() * 2) {
+      compact(current);
+      return;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    List<Entry> removed = new ArrayList<>();
+    Map<Entry, Long> added = new LinkedHashMap<>();
+    int records = 0;
+    try {
+      if (myValidLength == 0) {
+        out.writeInt(JOURNAL_MAGIC);
+        out.writeInt(JOURNAL_VERSION);
+      }
+
+      for (Map.Entry<Entry, Long> entry : myIds.entrySet()) {
+        if (!current.contains(entry.getKey())) {
+          writeRemoved(out, entry.getValue());
+          removed.add(entry.getKey());
+          records++;
+        }
+      }
+      for (Entry entry : current) {
+        if (!myIds.containsKey(entry)) {
+          long id = myNextId++;
+          if (writeAdded(out, id, entry)) {
+            added.put(entry, id);
+            records++;
+          }
+        }
+      }
+      if (records == 0) return;
+
+      try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+        file.setLength(myValidLength); // drops the tail which hasn't been completely written
+        file.seek(myValidLength);
+        file.write(bytes.toByteArray());
+      }
+    }
+    catch (IOException e) {
+      LOG.error("Unable to save pending messages to " + myFile, e);
+      return;
+    }
+
+    for (Entry entry : removed) {
+      myIds.remove(entry);
+    }
+    myIds.putAll(added);
+    myValidLength += bytes.size();
+    myRecordCount += records;
+  }
+
+  private void compact(Set<Entry> current) {
+    LOG.debug("Compact " + myFile);
+
+    File tempFile = new File(myFile.getPath() + ".tmp");
+    Map<Entry, Long> ids = new HashMap<>();
+    long id = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(JOURNAL_MAGIC);
+      out.writeInt(JOURNAL_VERSION);
+      for (Entry entry : current) {
+        if (writeAdded(out, id, entry)) {
+          ids.put(entry, id++);
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.error("Unable to compact " + myFile, e);
+      tempFile.delete();
+      return;
+    }
+
+    if (!(myFile.delete() || !myFile.exists()) || !tempFile.renameTo(myFile)) {
+      LOG.error("Unable to rename " + tempFile + " to " + myFile);
+      tempFile.delete();
+      return;
+    }
+
+    myIds.clear();
+    myIds.putAll(ids);
+    myNextId = id;
+    myValidLength = myFile.length();
+    myRecordCount = ids.size();
+  }
+
+  private static void writeRemoved(DataOutputStream out, long id) throws IOException {
+    out.writeInt(REMOVED_RECORD_LENGTH);
+    out.writeByte(REMOVED);
+    out.writeLong(id);
+  }
+
+  /**
+   * @return false if the message can't be serialized
+   */
+  private boolean writeAdded(DataOutputStream out, long id, Entry entry) throws IOException {
+    byte[] user;
+    byte[] message;
+    try {
+      user = myXStream.toXML(entry.myUser).getBytes(StandardCharsets.UTF_8);
+      message = myXStream.toXML(entry.myMessage).getBytes(StandardCharsets.UTF_8);
+    }
+    catch (RuntimeException e) {
+      LOG.error("Unable to save pending message " + entry.myMessage, e);
+      return false;
+    }
+
+    out.writeInt(ADDED_HEADER_LENGTH + user.length + message.length);
+    out.writeByte(ADDED);
+    out.writeLong(id);
+    out.writeInt(user.length);
+    out.write(user);
+    out.write(message);
+    return true;
+  }
+
+  /**
+   * The same message object may be queued for several users, so messages are told apart by identity and recipient.
+   */
+  private static class Entry {
+    private final User myUser;
+    private final Message myMessage;
+
+    Entry(User user, Message message) {
+      myUser = user;
+      myMessage = message;
+    }
+
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Entry)) return false;
+
+      final Entry entry = (Entry)o;
+      return myMessage == entry.myMessage && myUser.equals(entry.myUser);
+    }
+
+    public int hashCode() {
+      return 31 * myUser.hashCode() + System.identityHashCode(myMessage);
+    }
+
+    @NonNls
+    public String toString() {
+      return myMessage + " for " + myUser;
+    }
+  }
+}
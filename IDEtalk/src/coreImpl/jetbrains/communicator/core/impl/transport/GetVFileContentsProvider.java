@@ -21,10 +21,29 @@ import jetbrains.communicator.core.vfs.VFile;
 import jetbrains.communicator.ide.IDEFacade;
 import org.jdom.Element;
 
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jetbrains.communicator.core.transport.GetVFileContentsXmlMessage.*;
+
 /**
+ * Sends contents of a local file, whole or by chunks if requested in chunked mode.
+ *
  * @author Kir
  */
 public class GetVFileContentsProvider extends FileAccessProvider {
+  private static final int MAX_CHUNK_SIZE = 256 * 1024;
+  private static final int MAX_SENT_FILES = 10;
+
+  // project + path -> contents read for the first chunk, the following chunks are sent from the same snapshot while the file
+  // modification stamp is the same
+  private final Map<String, Contents> mySentContents = new LinkedHashMap<String, Contents>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Contents> eldest) {
+      return size() > MAX_SENT_FILES;
+    }
+  };
 
   public GetVFileContentsProvider(IDEFacade ideFacade, UserModel userModel) {
     super(ideFacade, userModel);
@@ -36,7 +55,76 @@ public class GetVFileContentsProvider extends FileAccessProvider {
 
   protected void doProcess(Element request, Element response) {
     VFile from = VFile.createFrom(request);
-    myIdeFacade.fillFileContents(from);
+    if (!CHUNKED_TRANSFER.equals(request.getAttributeValue(TRANSFER_ATTR))) {
+      myIdeFacade.fillFileContents(from);
+      from.saveTo(response);
+      return;
+    }
+
+    int offset = getIntAttribute(request, OFFSET_ATTR, 0);
+    int chunkSize = Math.min(Math.max(getIntAttribute(request, CHUNK_SIZE_ATTR, MAX_CHUNK_SIZE), 1), MAX_CHUNK_SIZE);
+    String key = from.getProjectName() + '|' + from.getFullPath();
+
+    Contents contents;
+    synchronized (mySentContents) {
+      contents = offset == 0 ? null : mySentContents.get(key);
+    }
+    long stamp = myIdeFacade.getFileModificationStamp(from);
+    if (contents != null && contents.myStamp != stamp) {
+      // the file has been changed since the transfer was started, it is sent again from the beginning
+      contents = null;
+      offset = 0;
+    }
+    if (contents == null) {
+      // the stamp is taken before the contents, so a change made in between is noticed with the next chunk
+      myIdeFacade.fillFileContents(from);
+      if (from.getContents() != null) {
+        contents = new Contents(from.getContents().getBytes(StandardCharsets.UTF_8), stamp);
+        synchronized (mySentContents) {
+          mySentContents.put(key, contents);
+        }
+      }
+    }
+
+    from.setContents(null);
     from.saveTo(response);
+    response.setAttribute(TRANSFER_ATTR, CHUNKED_TRANSFER);
+    if (contents == null) return;
+
+    response.setAttribute(VFile.HAS_CONTENTS_ATTR, "true");
+    response.setAttribute(CONTENT_HASH_ATTR, contents.myHash);
+    if (offset == 0 && contents.myHash.equals(request.getAttributeValue(KNOWN_HASH_ATTR))) {
+      response.setAttribute(UNCHANGED_ATTR, "true");
+      return;
+    }
+
+    offset = Math.min(Math.max(offset, 0), contents.myBytes.length);
+    int length = Math.min(chunkSize, contents.myBytes.length - offset);
+    response.setAttribute(LENGTH_ATTR, String.valueOf(contents.myBytes.length));
+    response.setAttribute(OFFSET_ATTR, String.valueOf(offset));
+    response.setAttribute(CHUNK_CRC_ATTR, String.valueOf(getCrc(contents.myBytes, offset, length)));
+    response.setText(encodeChunk(contents.myBytes, offset, length));
+  }
+
+  private static int getIntAttribute(Element element, String name, int defaultValue) {
+    try {
+      String value = element.getAttributeValue(name);
+      return value == null ? defaultValue : Integer.parseInt(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private static class Contents {
+    private final byte[] myBytes;
+    private final String myHash;
+    private final long myStamp;
+
+    private Contents(byte[] bytes, long stamp) {
+      myBytes = bytes;
+      myHash = getHash(bytes);
+      myStamp = stamp;
+    }
   }
 }
@@ -30,6 +30,7 @@ import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.IdeFrame;
 import com.intellij.openapi.wm.ex.WindowManagerEx;
@@ -286,6 +287,17 @@ public class IDEAFacade implements IDEFacade {
     });
   }
 
+  @Override
+  public long getFileModificationStamp(final VFile vFile) {
+    final VirtualFile virtualFile = VFSUtil.getVirtualFile(vFile);
+    if (virtualFile == null) return -1;
+
+    return ApplicationManager.getApplication().runReadAction((Computable<Long>)() -> {
+      Document document = FileDocumentManager.getInstance().getDocument(virtualFile);
+      return document != null ? document.getModificationStamp() : virtualFile.getModificationStamp();
+    });
+  }
+
   @Override
   public void showDiffFor(User remoteUser, VFile vFile, String compareWith) {
     Project project = getProject(null);
@@ -151,6 +151,19 @@ public abstract class AbstractTransportTestCase extends BaseTestCase {
     assertEquals("Should successfully return file text", new String(buf), vFile.getContents() );
   }
 
+  public void testGetFileContent_ChangedAfterFirstRequest() {
+    VFile vFile = VFile.create("a path");
+    myUserModel.addUser(mySelf);
+    mySelf.setCanAccessMyFiles(true, myUserModel);
+
+    myIdeFacade.setReturnedFileText(vFile, "some text");
+    assertEquals("some text", mySelf.getVFile(vFile, myIdeFacade));
+    assertEquals("Unchanged file should be taken from the cache", "some text", mySelf.getVFile(VFile.create("a path"), myIdeFacade));
+
+    myIdeFacade.setReturnedFileText(vFile, "another text");
+    assertEquals("another text", mySelf.getVFile(VFile.create("a path"), myIdeFacade));
+  }
+
   public void testGetFileContent_NoRights() {
     VFile vFile = VFile.create("a path");
     myUserModel.addUser(mySelf);
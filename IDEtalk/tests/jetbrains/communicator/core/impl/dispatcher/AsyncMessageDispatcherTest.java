@@ -15,6 +15,7 @@
  */
 package jetbrains.communicator.core.impl.dispatcher;
 
+import jetbrains.communicator.core.dispatcher.Message;
 import jetbrains.communicator.core.impl.BaseTestCase;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.mock.MockIDEFacade;
@@ -23,6 +24,13 @@ import jetbrains.communicator.mock.MockUser;
 import jetbrains.communicator.util.WaitFor;
 import org.apache.log4j.Logger;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author kir
  */
@@ -122,7 +130,14 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     mockMessage.waitUntilDispatchingStarted();
     myDispatcher.sendLater(user2, new MockMessage(true));
 
-    assertEquals("Messages not delivered yet", 2,
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getPendingMessages(user2).length == 0;
+      }
+    };
+    assertEquals("Message to user2 should not wait for user1", 0, myDispatcher.getPendingMessages(user2).length);
+    assertEquals("Message to user1 not delivered yet", 1,
         myDispatcher.getUsersWithMessages().length);
 
     triggerMessageProcessing(mockMessage);
@@ -137,6 +152,107 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     assertEquals("All messages should be delivered", 0, myDispatcher.getUsersWithMessages().length);
   }
 
+  public void testDeliveryLatencyWithOfflineUsers() {
+    final int users = 50;
+    final int offlineUsers = 10;
+
+    final List<FakeTransportMessage> messages = new ArrayList<>();
+    for (int i = 0; i < users; i++) {
+      MockUser user = new MockUser("user" + i, null);
+      user.setOnline(i >= offlineUsers); // offline users are queued first
+      FakeTransportMessage message = new FakeTransportMessage();
+      messages.add(message);
+      myDispatcher.sendLater(user, message);
+    }
+
+    new WaitFor(10000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == offlineUsers;
+      }
+    };
+    assertEquals("Messages to online users should be delivered", offlineUsers,
+        myDispatcher.getUsersWithMessages().length);
+
+    long maxLatency = 0;
+    for (FakeTransportMessage message : messages.subList(offlineUsers, users)) {
+      maxLatency = Math.max(maxLatency, message.myLatency);
+    }
+    LOG.info("Max delivery latency with " + offlineUsers + " of " + users + " users offline: " + maxLatency + "ms");
+
+    assertTrue("Offline users should not delay the others as serial delivery would: " + maxLatency + "ms",
+        maxLatency < FakeTransportMessage.TIMEOUT * offlineUsers / 2);
+    for (FakeTransportMessage message : messages.subList(0, offlineUsers)) {
+      assertEquals("Delivery to offline users should be retried later", 1, message.myAttempts.get());
+    }
+  }
+
+  public void testPendingMessagesPersistInJournal() {
+    MockUser user = new MockUser("offline", null);
+    myDispatcher.sendLater(user, new MockMessage(false));
+    myDispatcher.sendLater(user, new MockMessage(false));
+    myDispatcher.dispose();
+
+    myDispatcher = new AsyncMessageDispatcherImpl(getBroadcaster(), myIdeFacade);
+    assertEquals("queue should persist", 2, myDispatcher.getPendingMessages(user).length);
+    assertTrue(myDispatcher.getPendingMessages(user)[0] instanceof MockMessage);
+
+    myDispatcher.clearAll();
+    myDispatcher.dispose();
+
+    myDispatcher = new AsyncMessageDispatcherImpl(getBroadcaster(), myIdeFacade);
+    assertEquals("removed messages should not be loaded", 0, myDispatcher.getUsersWithMessages().length);
+  }
+
+  public void testMalformedJournalRecordEndsJournal() throws Exception {
+    MockUser user = new MockUser("offline", null);
+    myDispatcher.sendLater(user, new MockMessage(false));
+    myDispatcher.dispose();
+
+    File journal = new File(myIdeFacade.getCacheDir(), "pendingNetworkMessages.journal");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journal, true))) {
+      // ADDED record with the user longer than the record
+      out.writeInt(1 + 8 + 4);
+      out.writeByte(1);
+      out.writeLong(100);
+      out.writeInt(1000);
+    }
+
+    myDispatcher = new AsyncMessageDispatcherImpl(getBroadcaster(), myIdeFacade);
+    assertEquals(1, myDispatcher.getPendingMessages(user).length);
+    myDispatcher.sendLater(user, new MockMessage(false));
+    myDispatcher.dispose();
+
+    myDispatcher = new AsyncMessageDispatcherImpl(getBroadcaster(), myIdeFacade);
+    assertEquals("malformed record should be overwritten", 2, myDispatcher.getPendingMessages(user).length);
+  }
+
+  /**
+   * Sends to online users at once, sending to offline users fails after the timeout.
+   */
+  private static class FakeTransportMessage implements Message {
+    static final long TIMEOUT = 300;
+
+    private final long myCreated = System.currentTimeMillis();
+    private final AtomicInteger myAttempts = new AtomicInteger();
+    private volatile long myLatency;
+
+    @Override
+    public boolean send(User user) {
+      myAttempts.incrementAndGet();
+      if (!user.isOnline()) {
+        try {
+          Thread.sleep(TIMEOUT);
+        } catch (InterruptedException e) {
+          // disposed
+        }
+        return false;
+      }
+      myLatency = System.currentTimeMillis() - myCreated;
+      return true;
+    }
+  }
+
   private static class NotifyableMessage extends MockMessage {
     private boolean myDispatchingStarted;
     private boolean myProcessed;
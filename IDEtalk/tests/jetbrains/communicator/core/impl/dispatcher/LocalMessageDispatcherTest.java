@@ -27,10 +27,14 @@ import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockMessage;
 import jetbrains.communicator.mock.MockTransport;
 import jetbrains.communicator.util.WatchDog;
+import jetbrains.communicator.util.XMLUtil;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
@@ -252,6 +256,89 @@ public class LocalMessageDispatcherTest extends BaseTestCase {
     assertEquals(2, messages.length);
   }
 
+  public void testHistoryConvertedFromXml() throws Exception {
+    DayHistory dayHistory = new DayHistory();
+    dayHistory.addMessage(myUser, new MockMessage(yesterday(), "old text"));
+    File historyDir = new File(myIdeFacade.getCacheDir(), "history");
+    String name = new SimpleDateFormat("yyyy-MM-dd").format(yesterday());
+    XMLUtil.toXml(MessageHistory.createXStream(myUserModel), historyDir, name + ".xml", dayHistory);
+
+    LocalMessageDispatcherImpl localMessageDispatcher = createLocalMessageDispatcher();
+    LocalMessage[] messages = localMessageDispatcher.getHistory(myUser, null);
+    assertEquals(1, messages.length);
+    assertEquals("old text", ((MockMessage) messages[0]).getMessage());
+    assertFalse(new File(historyDir, name + ".xml").exists());
+    assertTrue(new File(historyDir, name + ".log").exists());
+
+    localMessageDispatcher.sendNow(myUser, new MockMessage(yesterday(), "new text"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("new text", ((MockMessage) messages[1]).getMessage());
+  }
+
+  public void testXmlMergedIntoLogWrittenBeforeConversion() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(yesterday(), "new text"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    DayHistory dayHistory = new DayHistory();
+    dayHistory.addMessage(myUser, new MockMessage(new Date(yesterday().getTime() - 1000), "old text"));
+    File historyDir = new File(myIdeFacade.getCacheDir(), "history");
+    String name = new SimpleDateFormat("yyyy-MM-dd").format(yesterday());
+    XMLUtil.toXml(MessageHistory.createXStream(myUserModel), historyDir, name + ".xml", dayHistory);
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("old text", ((MockMessage) messages[0]).getMessage());
+    assertFalse(new File(historyDir, name + ".xml").exists());
+
+    assertEquals(2, createLocalMessageDispatcher().getHistory(myUser, null).length);
+  }
+
+  public void testBrokenRecordEndsLog() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "first"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    File[] logs = new File(myIdeFacade.getCacheDir(), "history").listFiles();
+    assertEquals(1, logs.length);
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(logs[0], true))) {
+      out.writeInt(3);
+      out.write(new byte[]{1, 2, 3});
+    }
+
+    LocalMessageDispatcherImpl localMessageDispatcher = createLocalMessageDispatcher();
+    assertEquals(1, localMessageDispatcher.getHistory(myUser, null).length);
+
+    localMessageDispatcher.sendNow(myUser, new MockMessage(new Date(), "second"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("second", ((MockMessage) messages[1]).getMessage());
+  }
+
+  public void testHistoryLimited() throws Exception {
+    Logger logger = Logger.getLogger("jetbrains.communicator");
+    Level oldLevel = logger.getLevel();
+    try {
+      logger.setLevel(Level.WARN);
+
+      long start = System.currentTimeMillis() - 1000L * 3600L * 24L * 3L;
+      for (int i = 0; i <= MessageHistory.MAX_HISTORY_MESSAGES; i++) {
+        myDispatcher.sendNow(myUser, new MockMessage(new Date(start + i * 30000L), String.valueOf(i)));
+      }
+      Thread.sleep(SAVE_WAIT_TIMEOUT * 2);
+
+      LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+      assertEquals(MessageHistory.MAX_HISTORY_MESSAGES, messages.length);
+      assertEquals("1", ((MockMessage) messages[0]).getMessage());
+    }
+    finally {
+      logger.setLevel(oldLevel);
+    }
+  }
+
   private Date yesterday() {
     return new Date(System.currentTimeMillis() - 1000 * 3600 * 24);
   }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.transport;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.impl.transport.GetVFileContentsProvider;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.mock.MockTransport;
+import org.jdom.Element;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static jetbrains.communicator.core.transport.GetVFileContentsXmlMessage.*;
+
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class VFileContentsTransferTest extends BaseTestCase {
+  private static final int C = VFileContentsTransfer.CHUNK_SIZE;
+
+  private MockIDEFacade myIdeFacade;
+  private User myUser;
+  private MyTransport myTransport;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    myIdeFacade = new MockIDEFacade(getClass());
+    UserModelImpl userModel = new UserModelImpl(getBroadcaster());
+    disposeOnTearDown(userModel);
+
+    myUser = userModel.createUser("user", MockTransport.NAME);
+    userModel.addUser(myUser);
+    myUser.setCanAccessMyFiles(true, userModel);
+
+    myTransport = new MyTransport(new GetVFileContentsProvider(myIdeFacade, userModel));
+  }
+
+  public void testFileOfSeveralChunks() throws Exception {
+    // multibyte characters are split between chunks
+    String text = createText(C * 2 + C / 2, "text \u0447\u0442\u043e ");
+    VFile file = createFile(getName(), text);
+
+    assertEquals(text, receive(file));
+    List<Integer> offsets = new ArrayList<>();
+    for (int offset = 0; offset < text.getBytes(StandardCharsets.UTF_8).length; offset += C) {
+      offsets.add(offset);
+    }
+    assertEquals(offsets, myTransport.myOffsets);
+  }
+
+  public void testBadChunkRequestedAgain() throws Exception {
+    String text = createText(C * 2 + 10, "some text ");
+    VFile file = createFile(getName(), text);
+    myTransport.myCorruptedOffsets.add(C);
+
+    assertEquals(text, receive(file));
+    assertEquals(Arrays.asList(0, C, C, 2 * C), myTransport.myOffsets);
+  }
+
+  public void testInterruptedTransferResumed() throws Exception {
+    String text = createText(C * 3 + 10, "some text ");
+    VFile file = createFile(getName(), text);
+
+    myTransport.myAnsweredRequests = 2;
+    assertNull("All chunks after the second one are lost", receive(file));
+
+    myTransport.myAnsweredRequests = Integer.MAX_VALUE;
+    myTransport.myOffsets.clear();
+    assertEquals(text, receive(file));
+    assertEquals(Arrays.asList(2 * C, 3 * C), myTransport.myOffsets);
+  }
+
+  public void testFileChangedDuringInterruptedTransfer() throws Exception {
+    VFile file = createFile(getName(), createText(C * 3 + 10, "some text "));
+
+    myTransport.myAnsweredRequests = 2;
+    assertNull(receive(file));
+
+    // the same length, so only the modification stamp tells the snapshot is outdated
+    String changed = createText(C * 3 + 10, "changed   ");
+    myIdeFacade.setReturnedFileText(file, changed);
+    myTransport.myAnsweredRequests = Integer.MAX_VALUE;
+    myTransport.myOffsets.clear();
+    assertEquals(changed, receive(file));
+    assertEquals(Arrays.asList(2 * C, C, 2 * C, 3 * C), myTransport.myOffsets);
+  }
+
+  public void testTooBigLengthRejected() throws Exception {
+    VFile file = createFile(getName(), createText(C + 10, "some text "));
+
+    myTransport.myLength = String.valueOf(Integer.MAX_VALUE);
+    assertNull(receive(file));
+    myTransport.myLength = "-1";
+    assertNull(receive(file));
+    assertEquals(Arrays.asList(0, 0), myTransport.myOffsets);
+  }
+
+  public void testReceivedFileNotSentAgain() throws Exception {
+    String text = createText(C + 10, "some text ");
+    VFile file = createFile(getName(), text);
+    assertEquals(text, receive(file));
+
+    myTransport.myOffsets.clear();
+    assertEquals(text, receive(file));
+    assertEquals(1, myTransport.myOffsets.size());
+    assertNotNull(myTransport.myKnownHash);
+  }
+
+  public void testFileBiggerThanCacheNotRemembered() throws Exception {
+    String text = createText(VFileContentsTransfer.MAX_CACHED_BYTES + 1, "some text ");
+    VFile file = createFile(getName(), text);
+    assertEquals(text, receive(file));
+
+    assertEquals(text, receive(file));
+    assertNull(myTransport.myKnownHash);
+  }
+
+  private String receive(VFile file) throws InterruptedException {
+    VFile copy = (VFile)file.clone();
+    copy.setContents(null);
+    new VFileContentsTransfer(copy, myUser).receive(myTransport, myUser, 10);
+    return copy.getContents();
+  }
+
+  private VFile createFile(String path, String text) {
+    VFile file = VFile.create(path);
+    myIdeFacade.setReturnedFileText(file, text);
+    return file;
+  }
+
+  private static String createText(int length, String line) {
+    StringBuilder result = new StringBuilder(length);
+    while (result.length() < length) {
+      result.append(line).append(result.length()).append('\n');
+    }
+    result.setLength(length);
+    return result.toString();
+  }
+
+  private class MyTransport extends MockTransport {
+    private final GetVFileContentsProvider myProvider;
+    private final List<Integer> myOffsets = new ArrayList<>();
+    private final Set<Integer> myCorruptedOffsets = new HashSet<>();
+    private int myAnsweredRequests = Integer.MAX_VALUE;
+    private String myKnownHash;
+    private String myLength;
+
+    private MyTransport(GetVFileContentsProvider provider) {
+      myProvider = provider;
+    }
+
+    @Override
+    public void sendXmlMessage(User user, XmlMessage message) {
+      Element request = new Element(message.getTagName());
+      message.fillRequest(request);
+      myOffsets.add(Integer.valueOf(request.getAttributeValue(OFFSET_ATTR)));
+      myKnownHash = request.getAttributeValue(KNOWN_HASH_ATTR);
+      if (myAnsweredRequests-- <= 0) return;
+
+      Element response = new Element(message.getTagName());
+      assertTrue(myProvider.processAndFillResponse(response, request, this, user.getName()));
+      if (myLength != null) {
+        response.setAttribute(LENGTH_ATTR, myLength);
+      }
+      String offset = response.getAttributeValue(OFFSET_ATTR);
+      if (offset != null && myCorruptedOffsets.remove(Integer.valueOf(offset))) {
+        response.setAttribute(CHUNK_CRC_ATTR, String.valueOf(Long.parseLong(response.getAttributeValue(CHUNK_CRC_ATTR)) + 1));
+      }
+      message.processResponse(response);
+    }
+  }
+}
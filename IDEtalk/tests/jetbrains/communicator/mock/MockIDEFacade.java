@@ -50,6 +50,7 @@ public class MockIDEFacade implements IDEFacade {
   private LocalMessage myMessageToReturn;
   private String[] myProjects = new String[0];
   private final Map<Cloneable,String> myFileText = new HashMap<>();
+  private final Map<Cloneable,Long> myFileStamps = new HashMap<>();
   private String myMessage;
   private String myProjectId;
   private String myProjectName;
@@ -110,6 +111,12 @@ public class MockIDEFacade implements IDEFacade {
     vFile.setContents(myFileText.get(vFile));
   }
 
+  @Override
+  public long getFileModificationStamp(VFile vFile) {
+    Long stamp = myFileStamps.get(vFile);
+    return stamp == null ? -1 : stamp;
+  }
+
   @Override
   public void showDiffFor(User remoteUser, VFile vFile, String compareWith) {
     throw new UnsupportedOperationException("Not implemented in " + getClass().getName());
@@ -245,6 +252,8 @@ public class MockIDEFacade implements IDEFacade {
 
   public void setReturnedFileText(VFile vFile, String s) {
     myFileText.put(vFile, s);
+    Long stamp = myFileStamps.get(vFile);
+    myFileStamps.put(vFile, stamp == null ? 1 : stamp + 1);
   }
 
   public void setReturnedProjectId(String s) {
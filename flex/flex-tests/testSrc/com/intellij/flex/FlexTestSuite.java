@@ -1,6 +1,7 @@
 package com.intellij.flex;
 
 import com.intellij.flex.bc.FlexCompilerConfigTest;
+import com.intellij.flex.bc.FlexCompilerDependenciesCacheTest;
 import com.intellij.flex.bc.FlexProjectConfigTest;
 import com.intellij.flex.codeInsight.*;
 import com.intellij.flex.completion.*;
@@ -27,6 +28,8 @@ import com.intellij.flex.refactoring.*;
 import com.intellij.flex.resolver.ActionScriptResolveTest;
 import com.intellij.flex.resolver.FlexCssNavigationTest;
 import com.intellij.flex.uml.FlashUmlTest;
+import com.intellij.lang.javascript.flex.debug.CompositeDebuggerCommandTest;
+import com.intellij.lang.javascript.flex.debug.FdbOutputBufferTest;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -39,6 +42,7 @@ public class FlexTestSuite extends TestCase {
 
     // com.intellij.flex.bc.*
     testSuite.addTestSuite(FlexCompilerConfigTest.class);
+    testSuite.addTestSuite(FlexCompilerDependenciesCacheTest.class);
     testSuite.addTestSuite(FlexProjectConfigTest.class);
 
     // com.intellij.flex.codeInsight.*
@@ -136,6 +140,10 @@ public class FlexTestSuite extends TestCase {
     //com.intellij.flex.uml.*
     testSuite.addTestSuite(FlashUmlTest.class);
 
+    //com.intellij.lang.javascript.flex.debug.*
+    testSuite.addTestSuite(CompositeDebuggerCommandTest.class);
+    testSuite.addTestSuite(FdbOutputBufferTest.class);
+
     return testSuite;
   }
 }
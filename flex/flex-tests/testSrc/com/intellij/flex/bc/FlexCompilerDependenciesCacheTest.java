@@ -0,0 +1,120 @@
+package com.intellij.flex.bc;
+
+import com.intellij.flex.util.FlexTestUtils;
+import com.intellij.lang.javascript.flex.FlexModuleType;
+import com.intellij.lang.javascript.flex.build.FlexCompilerDependenciesCache;
+import com.intellij.lang.javascript.flex.projectStructure.model.FlexBuildConfiguration;
+import com.intellij.lang.javascript.flex.projectStructure.model.FlexBuildConfigurationManager;
+import com.intellij.lang.javascript.flex.projectStructure.model.ModuleOrProjectCompilerOptions;
+import com.intellij.lang.javascript.flex.projectStructure.model.impl.Factory;
+import com.intellij.openapi.module.ModuleType;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+public class FlexCompilerDependenciesCacheTest extends PlatformTestCase {
+
+  private File myOutputFile;
+  private File myCacheFile;
+
+  @Override
+  protected ModuleType getModuleType() {
+    return FlexModuleType.getInstance();
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final File outputDir = createTempDirectory();
+    myOutputFile = new File(outputDir, "Main.swf");
+    FileUtil.writeToFile(myOutputFile, "swf");
+    myCacheFile = new File(createTempDirectory(), "dependencies.dat");
+
+    FlexTestUtils.modifyBuildConfiguration(myModule, bc -> {
+      bc.setMainClass("Main");
+      bc.setOutputFolder(outputDir.getPath());
+      bc.setOutputFileName(myOutputFile.getName());
+    });
+  }
+
+  private FlexBuildConfiguration getBC() {
+    return FlexBuildConfigurationManager.getInstance(myModule).getActiveConfiguration();
+  }
+
+  private FlexCompilerDependenciesCache restart(final FlexCompilerDependenciesCache cache) {
+    cache.save();
+    return new FlexCompilerDependenciesCache(myProject, myCacheFile);
+  }
+
+  private FlexCompilerDependenciesCache createCachedBC() {
+    final FlexCompilerDependenciesCache cache = new FlexCompilerDependenciesCache(myProject, myCacheFile);
+    cache.cacheBC(myModule, getBC(), Collections.emptyList());
+    assertTrue(cache.isNothingChangedSincePreviousCompilation(myModule, getBC()));
+    return cache;
+  }
+
+  public void testCachedBCSurvivesRestart() {
+    final FlexCompilerDependenciesCache cache = restart(createCachedBC());
+    assertTrue(cache.isNothingChangedSincePreviousCompilation(myModule, getBC()));
+  }
+
+  public void testFileChangedWhileClosed() throws IOException {
+    final FlexCompilerDependenciesCache cache = createCachedBC();
+    cache.save();
+    FileUtil.writeToFile(myOutputFile, "changed swf");
+    assertFalse(new FlexCompilerDependenciesCache(myProject, myCacheFile).isNothingChangedSincePreviousCompilation(myModule, getBC()));
+  }
+
+  public void testFileTouchedWhileClosed() {
+    final FlexCompilerDependenciesCache cache = createCachedBC();
+    cache.save();
+    assertTrue(myOutputFile.setLastModified(myOutputFile.lastModified() + 10000));
+    assertTrue(new FlexCompilerDependenciesCache(myProject, myCacheFile).isNothingChangedSincePreviousCompilation(myModule, getBC()));
+  }
+
+  public void testCompilerOptionsChangedWhileClosed() {
+    final FlexCompilerDependenciesCache cache = createCachedBC();
+    cache.save();
+
+    final ModuleOrProjectCompilerOptions options = FlexBuildConfigurationManager.getInstance(myModule).getModuleLevelCompilerOptions();
+    final String additionalOptions = options.getAdditionalOptions();
+    options.setAdditionalOptions("-debug");
+    try {
+      assertFalse(new FlexCompilerDependenciesCache(myProject, myCacheFile).isNothingChangedSincePreviousCompilation(myModule, getBC()));
+    }
+    finally {
+      options.setAdditionalOptions(additionalOptions);
+    }
+  }
+
+  public void testChangedBCIsNotSaved() {
+    final FlexCompilerDependenciesCache cache = createCachedBC();
+    FlexTestUtils.modifyBuildConfiguration(myModule, bc -> bc.setMainClass("Other"));
+    cache.save();
+
+    // the cached state is up to date again, but it has been dropped on save
+    FlexTestUtils.modifyBuildConfiguration(myModule, bc -> bc.setMainClass("Main"));
+    assertFalse(new FlexCompilerDependenciesCache(myProject, myCacheFile).isNothingChangedSincePreviousCompilation(myModule, getBC()));
+  }
+
+  public void testMarkedDirty() {
+    final FlexCompilerDependenciesCache cache = createCachedBC();
+    cache.markBCDirty(myModule, getBC());
+    assertFalse(cache.isNothingChangedSincePreviousCompilation(myModule, getBC()));
+    assertFalse(restart(cache).isNothingChangedSincePreviousCompilation(myModule, getBC()));
+  }
+
+  public void testTemporaryBCIsNotSaved() {
+    final FlexBuildConfiguration tempBC = Factory.getTemporaryCopyForCompilation(getBC());
+    final FlexCompilerDependenciesCache cache = createCachedBC();
+    cache.cacheBC(myModule, tempBC, Collections.emptyList());
+    assertTrue(cache.isNothingChangedSincePreviousCompilation(myModule, tempBC));
+
+    final FlexCompilerDependenciesCache restarted = restart(cache);
+    assertFalse(restarted.isNothingChangedSincePreviousCompilation(myModule, tempBC));
+    assertTrue(restarted.isNothingChangedSincePreviousCompilation(myModule, getBC()));
+  }
+}
@@ -0,0 +1,171 @@
+package com.intellij.lang.javascript.flex.debug;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CompositeDebuggerCommandTest extends TestCase {
+  private final List<String> myPosted = new ArrayList<>();
+  private final List<String> myProcessed = new ArrayList<>();
+
+  private class TestCommand extends DebuggerCommand {
+    private final boolean myPipelinable;
+
+    private TestCommand(final String text, final boolean pipelinable) {
+      super(text, CommandOutputProcessingType.SPECIAL_PROCESSING);
+      myPipelinable = pipelinable;
+    }
+
+    @Override
+    boolean isPipelinable() {
+      return myPipelinable;
+    }
+
+    @Override
+    public void post(final FlexDebugProcess flexDebugProcess) {
+      myPosted.add(getText());
+    }
+
+    @Override
+    CommandOutputProcessingMode onTextAvailable(final String s) {
+      myProcessed.add(getText() + ": " + s);
+      return CommandOutputProcessingMode.DONE;
+    }
+  }
+
+  private static class TestCompositeCommand extends CompositeDebuggerCommand {
+    private boolean myInserted;
+    private boolean myObsolete;
+    private boolean mySucceeded;
+
+    private TestCompositeCommand(final boolean[] obsolete, final DebuggerCommand... commands) {
+      super(() -> obsolete[0], commands);
+    }
+
+    @Override
+    void insertIntoQueue() {
+      myInserted = true;
+    }
+
+    @Override
+    protected void obsolete() {
+      super.obsolete();
+      myObsolete = true;
+    }
+
+    @Override
+    protected void succeeded() {
+      super.succeeded();
+      mySucceeded = true;
+    }
+
+    /**
+     * Reads the next response, as FlexDebugProcess does, and posts the command again if it is back in the queue.
+     */
+    private void respond(final String response) throws Exception {
+      myInserted = false;
+      onTextAvailable(response);
+      if (myInserted) {
+        post(null);
+      }
+    }
+  }
+
+  public void testFrameVariablesInOneRoundTrip() throws Exception {
+    final TestCompositeCommand command = new TestCompositeCommand(new boolean[1],
+                                                                  new TestCommand("frame 1", false),
+                                                                  new TestCommand("print this", true),
+                                                                  new TestCommand("info arguments", true),
+                                                                  new TestCommand("info locals", true));
+    command.post(null);
+    assertEquals(Arrays.asList("frame 1", "print this", "info arguments", "info locals"), myPosted);
+
+    command.respond("#1 Main.foo()");
+    command.respond("this = [Object 1]");
+    command.respond("No arguments.");
+    command.respond("i = 1");
+
+    assertEquals(4, myPosted.size());
+    assertEquals(Arrays.asList("frame 1: #1 Main.foo()", "print this: this = [Object 1]", "info arguments: No arguments.",
+                               "info locals: i = 1"), myProcessed);
+    assertTrue(command.mySucceeded);
+  }
+
+  public void testNotPipelinableCommandWaitsForResponses() throws Exception {
+    final TestCompositeCommand command = new TestCompositeCommand(new boolean[1],
+                                                                  new TestCommand("a", false),
+                                                                  new TestCommand("b", true),
+                                                                  new TestCommand("c", false),
+                                                                  new TestCommand("d", true));
+    command.post(null);
+    assertEquals(Arrays.asList("a", "b"), myPosted);
+
+    command.respond("1");
+    assertEquals(Arrays.asList("a", "b"), myPosted);
+
+    command.respond("2");
+    assertEquals(Arrays.asList("a", "b", "c", "d"), myPosted);
+
+    command.respond("3");
+    command.respond("4");
+    assertEquals(Arrays.asList("a: 1", "b: 2", "c: 3", "d: 4"), myProcessed);
+    assertTrue(command.mySucceeded);
+  }
+
+  public void testPipelineIsBounded() throws Exception {
+    final DebuggerCommand[] commands = new DebuggerCommand[20];
+    for (int i = 0; i < commands.length; i++) {
+      commands[i] = new TestCommand(String.valueOf(i), true);
+    }
+    final TestCompositeCommand command = new TestCompositeCommand(new boolean[1], commands);
+
+    command.post(null);
+    final int firstPosted = myPosted.size();
+    assertTrue(String.valueOf(firstPosted), firstPosted > 1 && firstPosted < commands.length);
+
+    for (int i = 0; i < commands.length; i++) {
+      command.respond(String.valueOf(i));
+      assertTrue(myPosted.size() - (i + 1) <= firstPosted);
+    }
+
+    final List<String> expected = new ArrayList<>();
+    for (int i = 0; i < commands.length; i++) {
+      expected.add(String.valueOf(i));
+    }
+    assertEquals(expected, myPosted);
+    assertTrue(command.mySucceeded);
+  }
+
+  public void testObsoleteAfterPostedResponsesAreRead() throws Exception {
+    final boolean[] obsolete = new boolean[1];
+    final TestCompositeCommand command = new TestCompositeCommand(obsolete,
+                                                                  new TestCommand("a", false),
+                                                                  new TestCommand("b", true),
+                                                                  new TestCommand("c", false));
+    command.post(null);
+    obsolete[0] = true;
+
+    // the response of "b" is already on its way and must be consumed by this command
+    command.respond("1");
+    assertFalse(command.myObsolete);
+    assertTrue(command.myInserted);
+
+    command.respond("2");
+    assertTrue(command.myObsolete);
+    assertFalse(command.myInserted);
+    assertFalse(command.mySucceeded);
+
+    assertEquals(Arrays.asList("a", "b"), myPosted);
+    assertEquals(Arrays.asList("a: 1", "b: 2"), myProcessed);
+  }
+
+  public void testObsoleteBeforePosted() throws Exception {
+    final TestCompositeCommand command = new TestCompositeCommand(new boolean[]{true}, new TestCommand("a", false));
+    command.post(null);
+    assertTrue(command.myObsolete);
+    assertEquals(Collections.emptyList(), myPosted);
+  }
+}
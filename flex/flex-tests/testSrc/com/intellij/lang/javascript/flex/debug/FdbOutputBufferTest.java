@@ -0,0 +1,73 @@
+package com.intellij.lang.javascript.flex.debug;
+
+import junit.framework.TestCase;
+
+public class FdbOutputBufferTest extends TestCase {
+  private final FdbOutputBuffer myBuffer = new FdbOutputBuffer();
+
+  private void append(final String text) {
+    myBuffer.append(text.toCharArray(), text.length());
+  }
+
+  public void testResponse() {
+    append("Set breakpoint 1 at 0x5: file Main.as, line 10\n(fdb) ");
+    assertEquals("Set breakpoint 1 at 0x5: file Main.as, line 10\n", myBuffer.nextResponse(false));
+    assertEquals(FlexDebugProcess.FDB_MARKER, myBuffer.getLastMarker());
+    assertTrue(myBuffer.isEmpty());
+    assertNull(myBuffer.nextResponse(false));
+  }
+
+  public void testMarkerSplitBetweenChunks() {
+    final String output = "this = [Object 1, class='Main']\n(fdb) ";
+    final int markerStart = output.indexOf(FlexDebugProcess.FDB_MARKER);
+    for (int split = markerStart; split < output.length(); split++) {
+      final FdbOutputBuffer buffer = new FdbOutputBuffer();
+      buffer.append(output.substring(0, split).toCharArray(), split);
+      assertNull(String.valueOf(split), buffer.nextResponse(false));
+      buffer.append(output.substring(split).toCharArray(), output.length() - split);
+      assertEquals(String.valueOf(split), output.substring(0, markerStart), buffer.nextResponse(false));
+    }
+  }
+
+  public void testMarkerSplitBetweenManyChunks() {
+    append("text");
+    for (char c : FlexDebugProcess.FDB_MARKER.toCharArray()) {
+      assertNull(myBuffer.nextResponse(false));
+      append(String.valueOf(c));
+    }
+    assertEquals("text", myBuffer.nextResponse(false));
+  }
+
+  public void testPipelinedResponses() {
+    append("#0 this = [Object 1]\n(fdb) No arguments.\n(fdb) i = 1\n(fd");
+    assertEquals("#0 this = [Object 1]\n", myBuffer.nextResponse(false));
+    assertEquals("No arguments.\n", myBuffer.nextResponse(false));
+    assertNull(myBuffer.nextResponse(false));
+    append("b) ");
+    assertEquals("i = 1\n", myBuffer.nextResponse(false));
+    assertTrue(myBuffer.isEmpty());
+  }
+
+  public void testYesOrNoPrompt() {
+    append("Do you want to attempt to halt execution? (y or n) ");
+    assertEquals("Do you want to attempt to halt execution? ", myBuffer.nextResponse(false));
+    assertEquals("(y or n)", myBuffer.getLastMarker());
+    assertTrue(myBuffer.isEmpty());
+  }
+
+  public void testTextWithoutMarker() {
+    append("[trace] hello\n");
+    assertNull(myBuffer.nextResponse(false));
+    assertEquals("[trace] hello\n", myBuffer.nextResponse(true));
+    assertEquals("", myBuffer.getLastMarker());
+    assertTrue(myBuffer.isEmpty());
+  }
+
+  public void testWaitingForPlayerSplitBetweenChunks() {
+    append("Waiting for Pla");
+    assertNull(myBuffer.nextResponse(false));
+    append("yer to connect\n");
+    assertEquals("Waiting for Player to connect\n", myBuffer.nextResponse(false));
+    assertEquals("", myBuffer.getLastMarker());
+  }
+}
@@ -0,0 +1,143 @@
+package com.intellij.jps.flex.build;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Compiles BCs of one build target, the first one is the main BC. BCs that depend on the main BC are started only after it has been
+ * compiled successfully, other BCs are compiled in parallel, at most {@code maxParallelCompilations} at a time.
+ * No more BCs are started after a failure or cancellation.
+ */
+class BCCompilationScheduler {
+  private static final Logger LOG = Logger.getInstance(BCCompilationScheduler.class.getName());
+
+  private static final int NOT_STARTED = 0;
+  private static final int STARTED = 1;
+
+  private final int myMaxParallelCompilations;
+  private final IntPredicate myDependsOnMainBC;
+  private final Function<Runnable, Future<?>> myExecutor;
+
+  BCCompilationScheduler(final int maxParallelCompilations,
+                         @NotNull final IntPredicate dependsOnMainBC,
+                         @NotNull final Function<Runnable, Future<?>> executor) {
+    myMaxParallelCompilations = Math.max(1, maxParallelCompilations);
+    myDependsOnMainBC = dependsOnMainBC;
+    myExecutor = executor;
+  }
+
+  /**
+   * If the current thread is interrupted, BCs that haven't been started yet are not compiled at all, and the method waits for
+   * the running compilations to finish before throwing {@link InterruptedException}.
+   *
+   * @return statuses of BCs with the same indices, null if the BC hasn't been compiled
+   */
+  @NotNull
+  FlexBuilder.Status[] compile(final int bcCount, @NotNull final IntFunction<FlexBuilder.Status> compilation) throws InterruptedException {
+    final FlexBuilder.Status[] statuses = new FlexBuilder.Status[bcCount];
+    if (bcCount == 1 || myMaxParallelCompilations == 1) {
+      for (int i = 0; i < bcCount; i++) {
+        statuses[i] = compilation.apply(i);
+        if (statuses[i] != FlexBuilder.Status.Ok) break;
+      }
+      return statuses;
+    }
+
+    final BlockingQueue<Integer> finishedIndices = new LinkedBlockingQueue<>();
+    // a submitted compilation runs only if it wins the race with the interruption handling below
+    final AtomicIntegerArray states = new AtomicIntegerArray(bcCount);
+    final List<Integer> submittedIndices = new ArrayList<>(bcCount);
+    final List<Future<?>> futures = new ArrayList<>(bcCount);
+
+    final List<Integer> notStartedIndices = new ArrayList<>(bcCount);
+    for (int i = 0; i < bcCount; i++) {
+      notStartedIndices.add(i);
+    }
+
+    int inProgress = 0;
+    boolean startMore = true;
+    boolean mainBCCompiled = false;
+
+    try {
+      while (true) {
+        if (startMore) {
+          final Iterator<Integer> iterator = notStartedIndices.iterator();
+          while (inProgress < myMaxParallelCompilations && iterator.hasNext()) {
+            final int index = iterator.next();
+            if (index != 0 && !mainBCCompiled && myDependsOnMainBC.test(index)) continue;
+
+            iterator.remove();
+            inProgress++;
+            submittedIndices.add(index);
+            futures.add(myExecutor.apply(() -> {
+              if (!states.compareAndSet(index, NOT_STARTED, STARTED)) return;
+
+              FlexBuilder.Status status = FlexBuilder.Status.Failed;
+              try {
+                status = compilation.apply(index);
+              }
+              catch (RuntimeException e) {
+                LOG.error(e);
+              }
+              finally {
+                statuses[index] = status;
+                finishedIndices.add(index);
+              }
+            }));
+          }
+        }
+
+        if (inProgress == 0) break;
+
+        final int finishedIndex = finishedIndices.take();
+
+        inProgress--;
+        if (statuses[finishedIndex] != FlexBuilder.Status.Ok) {
+          startMore = false;
+        }
+        else if (finishedIndex == 0) {
+          mainBCCompiled = true;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      for (int index : submittedIndices) {
+        if (states.compareAndSet(index, NOT_STARTED, STARTED)) {
+          inProgress--; // will never run
+        }
+      }
+      for (Future<?> future : futures) {
+        future.cancel(false);
+      }
+      awaitRunningCompilations(finishedIndices, inProgress);
+      throw e;
+    }
+
+    return statuses;
+  }
+
+  /**
+   * Running compilations report to the compile context and may use the built-in compiler process,
+   * so they must finish before the builder returns.
+   */
+  private static void awaitRunningCompilations(final BlockingQueue<Integer> finishedIndices, int inProgress) {
+    while (inProgress > 0) {
+      try {
+        finishedIndices.take();
+        inProgress--;
+      }
+      catch (InterruptedException ignore) {/**/}
+    }
+  }
+}
@@ -34,6 +34,7 @@ import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import org.jetbrains.jps.model.JpsProject;
 import org.jetbrains.jps.model.library.sdk.JpsSdk;
 import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
 import java.io.IOException;
@@ -47,7 +48,7 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
   private static Logger LOG = Logger.getInstance(FlexBuilder.class.getName());
   private JpsBuiltInFlexCompilerHandler myBuiltInCompilerHandler;
 
-  private enum Status {Ok, Failed, Cancelled}
+  enum Status {Ok, Failed, Cancelled}
 
   protected FlexBuilder() {
     super(Collections.singletonList(FlexBuildTargetType.INSTANCE));
@@ -133,8 +134,14 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
       }
     }
 
-    for (JpsFlexBuildConfiguration bc : bcsToCompile) {
-      final Status status = compileBuildConfiguration(context, bc, myBuiltInCompilerHandler);
+    final Status[] statuses = compileBuildConfigurations(context, bcsToCompile, myBuiltInCompilerHandler);
+
+    // BCs are compiled in parallel, so outputs of the BCs compiled successfully are registered even if another BC failed
+    boolean failed = false;
+    for (int i = 0; i < bcsToCompile.size(); i++) {
+      final JpsFlexBuildConfiguration bc = bcsToCompile.get(i);
+      final Status status = statuses[i];
+      if (status == null) continue; // not started because another BC failed or was cancelled, the failure is reported below
 
       switch (status) {
         case Ok:
@@ -150,16 +157,20 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
                                  ? FlexCommonBundle.message("compilation.failed")
                                  : FlexCommonBundle.message("compilation.failed.dependent.will.be.skipped");
           context.processMessage(new CompilerMessage(FlexBuilderUtils.getCompilerName(bc), BuildMessage.Kind.INFO, message));
-
-          throw new StopBuildException();
+          failed = true;
+          break;
 
         case Cancelled:
           context.processMessage(
             new CompilerMessage(FlexBuilderUtils.getCompilerName(bc), BuildMessage.Kind.INFO,
                                 FlexCommonBundle.message("compilation.cancelled")));
-          return;
+          break;
       }
     }
+
+    if (failed) {
+      throw new StopBuildException();
+    }
   }
 
   /**
@@ -279,6 +290,52 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
     return cssBC;
   }
 
+  /**
+   * RLMs optimized for the main app load its link report, so they are compiled after the main BC. Other BCs
+   * (main BC, other RLMs, runtime style sheets) don't depend on each other and are compiled in parallel,
+   * at most {@link JpsFlexCompilerProjectExtension#MAX_PARALLEL_COMPILATIONS} at a time, see {@link BCCompilationScheduler}.
+   * BCs are compiled one by one by the built-in compiler that can't run concurrent compilations safely.
+   *
+   * @return statuses of BCs with the same indices, null if the BC hasn't been compiled
+   */
+  private static Status[] compileBuildConfigurations(final CompileContext context,
+                                                     final List<JpsFlexBuildConfiguration> bcs,
+                                                     final JpsBuiltInFlexCompilerHandler builtInCompilerHandler)
+    throws ProjectBuildException {
+    final JpsProject project = bcs.get(0).getModule().getProject();
+    int maxParallelCompilations = JpsFlexCompilerProjectExtension.getInstance(project).MAX_PARALLEL_COMPILATIONS;
+    for (JpsFlexBuildConfiguration bc : bcs) {
+      if (maxParallelCompilations > 1 && isBuiltInCompilerUsed(bc, builtInCompilerHandler)) {
+        // the compiler reports whether it supports concurrent compilations when started; if it fails to start, BCs report the error
+        try {
+          builtInCompilerHandler.startCompilerIfNeeded(bc.getSdk(), context, FlexBuilderUtils.getCompilerName(bc));
+        }
+        catch (IOException e) {
+          LOG.debug(e);
+        }
+        if (!builtInCompilerHandler.supportsConcurrentCompilations()) {
+          maxParallelCompilations = 1;
+        }
+        break;
+      }
+    }
+
+    final BCCompilationScheduler scheduler =
+      new BCCompilationScheduler(maxParallelCompilations, index -> dependsOnMainBC(bcs.get(index)),
+                                 task -> SharedThreadPool.getInstance().executeOnPooledThread(task));
+    try {
+      return scheduler.compile(bcs.size(), index -> compileBuildConfiguration(context, bcs.get(index), builtInCompilerHandler));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProjectBuildException(e);
+    }
+  }
+
+  private static boolean dependsOnMainBC(final JpsFlexBuildConfiguration bc) {
+    return FlexCommonUtils.isRLMTemporaryBC(bc) && !bc.getOptimizeFor().isEmpty();
+  }
+
   private static Status compileBuildConfiguration(final CompileContext context,
                                                   final JpsFlexBuildConfiguration bc,
                                                   final JpsBuiltInFlexCompilerHandler builtInCompilerHandler) {
@@ -354,15 +411,9 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
     final JpsSdk<?> sdk = bc.getSdk();
     assert sdk != null;
 
-    final boolean asc20 = bc.isPureAs() &&
-                          FlexCommonUtils.containsASC20(sdk.getHomePath()) &&
-                          (JpsFlexCompilerProjectExtension.getInstance(bc.getModule().getProject()).PREFER_ASC_20 ||
-                           FlexCommonUtils.isAirSdkWithoutFlex(sdk));
-    final boolean builtIn = !asc20 &&
-                            JpsFlexCompilerProjectExtension.getInstance(bc.getModule().getProject()).USE_BUILT_IN_COMPILER &&
-                            builtInCompilerHandler.canBeUsedForSdk(sdk.getHomePath());
+    final boolean asc20 = isASC20Used(bc, sdk);
 
-    if (builtIn) {
+    if (isBuiltInCompilerUsed(bc, builtInCompilerHandler)) {
       return doCompileWithBuiltInCompiler(context, bc, configFiles, compilerName, builtInCompilerHandler);
     }
 
@@ -429,6 +480,22 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
                                                : Status.Ok;
   }
 
+  private static boolean isASC20Used(final JpsFlexBuildConfiguration bc, final JpsSdk<?> sdk) {
+    return bc.isPureAs() &&
+           FlexCommonUtils.containsASC20(sdk.getHomePath()) &&
+           (JpsFlexCompilerProjectExtension.getInstance(bc.getModule().getProject()).PREFER_ASC_20 ||
+            FlexCommonUtils.isAirSdkWithoutFlex(sdk));
+  }
+
+  private static boolean isBuiltInCompilerUsed(final JpsFlexBuildConfiguration bc,
+                                               final JpsBuiltInFlexCompilerHandler builtInCompilerHandler) {
+    final JpsSdk<?> sdk = bc.getSdk();
+    return sdk != null &&
+           !isASC20Used(bc, sdk) &&
+           JpsFlexCompilerProjectExtension.getInstance(bc.getModule().getProject()).USE_BUILT_IN_COMPILER &&
+           builtInCompilerHandler.canBeUsedForSdk(sdk.getHomePath());
+  }
+
   private static List<String> getASC20Command(final JpsProject project, final JpsSdk<?> flexSdk, final boolean isApp) {
     final String mainClass = isApp ? "com.adobe.flash.compiler.clients.MXMLC" : "com.adobe.flash.compiler.clients.COMPC";
 
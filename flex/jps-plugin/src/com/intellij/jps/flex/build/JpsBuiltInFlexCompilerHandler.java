@@ -18,20 +18,30 @@ import org.jetbrains.jps.service.SharedThreadPool;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class JpsBuiltInFlexCompilerHandler {
 
   private static final Logger LOG = Logger.getInstance(JpsBuiltInFlexCompilerHandler.class.getName());
   private static final String CONNECTION_SUCCESSFUL = "Connection successful";
   public static final String COMPILATION_FINISHED = "Compilation finished";
+  // reported by the compiler after CONNECTION_SUCCESSFUL, see FlexCompiler
+  private static final String CAPABILITIES = ", capabilities:";
+  private static final String CONCURRENT_COMPILATIONS = "concurrent-compilations";
+  private static final int CONNECTION_TIMEOUT = 10000;
 
   private final JpsProject myProject;
 
   private String mySdkHome;
 
   private ServerSocket myServerSocket;
+  // not guarded by this, the compiler output is read while startCompilerIfNeeded() waits for the connection to be reported
+  private volatile CountDownLatch myConnectionReported;
+  private volatile boolean mySupportsConcurrentCompilations;
   private DataInputStream myDataInputStream;
   private DataOutputStream myDataOutputStream;
 
@@ -48,6 +58,14 @@ public class JpsBuiltInFlexCompilerHandler {
     myProject = project;
   }
 
+  /**
+   * Whether the started compiler can run several compilations at a time. Older compilers share loaded SWCs between concurrent
+   * compilations unsafely, they don't report this capability when connected.
+   */
+  public synchronized boolean supportsConcurrentCompilations() {
+    return myServerSocket != null && mySupportsConcurrentCompilations;
+  }
+
   public synchronized boolean canBeUsedForSdk(final String sdkHome) {
     return mySdkHome == null || mySdkHome.equals(sdkHome);
   }
@@ -63,9 +81,11 @@ public class JpsBuiltInFlexCompilerHandler {
       try {
         //context.processMessage(new ProgressMessage("Starting Flex compiler"));
         myServerSocket = new ServerSocket(0);
-        myServerSocket.setSoTimeout(10000);
+        myServerSocket.setSoTimeout(CONNECTION_TIMEOUT);
         final int port = myServerSocket.getLocalPort();
 
+        myConnectionReported = new CountDownLatch(1);
+        mySupportsConcurrentCompilations = false;
         startCompilerProcess(sdk, port, context, compilerName);
 
         final Socket socket = myServerSocket.accept();
@@ -73,6 +93,16 @@ public class JpsBuiltInFlexCompilerHandler {
         myDataOutputStream = new DataOutputStream(socket.getOutputStream());
         mySdkHome = sdk.getHomePath();
         scheduleInputReading();
+
+        // the compiler prints its capabilities right after connecting
+        if (!myConnectionReported.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          LOG.warn("Flex compiler didn't report connection");
+        }
+      }
+      catch (InterruptedException e) {
+        stopCompilerProcess();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
       }
       catch (IOException e) {
         stopCompilerProcess();
@@ -107,10 +137,13 @@ public class JpsBuiltInFlexCompilerHandler {
     context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.INFO, "Starting Flex compiler:\n" + plainCommand));
 
     final Process process = processBuilder.start();
-    readInputStreamUntilConnected(process, context, compilerName);
+    readInputStreamUntilConnected(process, context, compilerName, myConnectionReported);
   }
 
-  private void readInputStreamUntilConnected(final Process process, final CompileContext context, final String compilerName) {
+  private void readInputStreamUntilConnected(final Process process,
+                                             final CompileContext context,
+                                             final String compilerName,
+                                             final CountDownLatch connectionReported) {
     SharedThreadPool.getInstance().executeOnPooledThread(() -> {
       final InputStreamReader reader = FlexCommonUtils.createInputStreamReader(process.getInputStream());
 
@@ -120,6 +153,11 @@ public class JpsBuiltInFlexCompilerHandler {
         while ((read = reader.read(buf, 0, buf.length)) >= 0) {
           final String output = new String(buf, 0, read);
           if (output.startsWith(CONNECTION_SUCCESSFUL)) {
+            final int capabilitiesIndex = output.indexOf(CAPABILITIES);
+            final List<String> capabilities = capabilitiesIndex < 0
+                                              ? Collections.emptyList()
+                                              : StringUtil.split(output.substring(capabilitiesIndex + CAPABILITIES.length()).trim(), " ");
+            setSupportsConcurrentCompilations(connectionReported, capabilities.contains(CONCURRENT_COMPILATIONS));
             break;
           }
           else {
@@ -134,6 +172,7 @@ public class JpsBuiltInFlexCompilerHandler {
           new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, "Failed to start Flex compiler: " + e.toString()));
       }
       finally {
+        connectionReported.countDown();
         try {
           reader.close();
         }
@@ -142,6 +181,13 @@ public class JpsBuiltInFlexCompilerHandler {
     });
   }
 
+  private void setSupportsConcurrentCompilations(final CountDownLatch connectionReported, final boolean supports) {
+    // ignore the output of a compiler process that has already been replaced
+    if (connectionReported == myConnectionReported) {
+      mySupportsConcurrentCompilations = supports;
+    }
+  }
+
   private void scheduleInputReading() {
     SharedThreadPool.getInstance().executeOnPooledThread(() -> {
       final StringBuilder buffer = new StringBuilder();
@@ -0,0 +1,149 @@
+package com.intellij.jps.flex.build;
+
+import com.intellij.jps.flex.build.FlexBuilder.Status;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
+
+public class BCCompilationSchedulerTest extends TestCase {
+  private ExecutorService myExecutor;
+  private final List<String> myEvents = Collections.synchronizedList(new ArrayList<>());
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = Executors.newCachedThreadPool();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myExecutor.shutdownNow();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  private BCCompilationScheduler createScheduler(final int maxParallelCompilations, final IntPredicate dependsOnMainBC) {
+    return new BCCompilationScheduler(maxParallelCompilations, dependsOnMainBC, myExecutor::submit);
+  }
+
+  public void testSingleBCCompiledInCallingThread() throws Exception {
+    final Thread thread = Thread.currentThread();
+    final Status[] statuses = createScheduler(4, index -> false).compile(1, index -> {
+      assertSame(thread, Thread.currentThread());
+      return Status.Ok;
+    });
+    assertEquals(Arrays.asList(Status.Ok), Arrays.asList(statuses));
+  }
+
+  public void testAtMostMaxParallelCompilations() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Status[] statuses = createScheduler(2, index -> false).compile(6, index -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      running.decrementAndGet();
+      return Status.Ok;
+    });
+
+    assertEquals(Collections.nCopies(6, Status.Ok), Arrays.asList(statuses));
+    assertTrue(String.valueOf(maxRunning.get()), maxRunning.get() <= 2);
+  }
+
+  public void testDependentBCsStartedAfterMainBC() throws Exception {
+    final Status[] statuses = createScheduler(3, index -> index == 2 || index == 3).compile(4, index -> {
+      myEvents.add("start " + index);
+      myEvents.add("finish " + index);
+      return Status.Ok;
+    });
+
+    assertEquals(Collections.nCopies(4, Status.Ok), Arrays.asList(statuses));
+    final int mainFinished = myEvents.indexOf("finish 0");
+    assertTrue(myEvents.toString(), mainFinished < myEvents.indexOf("start 2"));
+    assertTrue(myEvents.toString(), mainFinished < myEvents.indexOf("start 3"));
+  }
+
+  public void testDependentBCsNotStartedAfterMainBCFailure() throws Exception {
+    final Status[] statuses = createScheduler(2, index -> index != 0).compile(3, index -> {
+      myEvents.add("start " + index);
+      return index == 0 ? Status.Failed : Status.Ok;
+    });
+
+    assertEquals(Arrays.asList(Status.Failed, null, null), Arrays.asList(statuses));
+    assertEquals(Arrays.asList("start 0"), myEvents);
+  }
+
+  public void testNoMoreBCsStartedAfterCancellation() throws Exception {
+    final Status[] statuses = createScheduler(1, index -> false).compile(3, index -> index == 1 ? Status.Cancelled : Status.Ok);
+    assertEquals(Arrays.asList(Status.Ok, Status.Cancelled, null), Arrays.asList(statuses));
+  }
+
+  public void testInterruptionWaitsForRunningCompilations() throws Exception {
+    // the second compilation is queued in the executor behind the first one and must never run
+    myExecutor.shutdown();
+    myExecutor = Executors.newSingleThreadExecutor();
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean firstFinished = new AtomicBoolean();
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    final AtomicBoolean finishedBeforeThrown = new AtomicBoolean();
+
+    final BCCompilationScheduler scheduler = createScheduler(2, index -> false);
+    final Thread thread = new Thread(() -> {
+      try {
+        scheduler.compile(2, index -> {
+          myEvents.add("start " + index);
+          started.countDown();
+          try {
+            release.await();
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          firstFinished.set(true);
+          return Status.Ok;
+        });
+      }
+      catch (Throwable t) {
+        thrown.set(t);
+        finishedBeforeThrown.set(firstFinished.get());
+      }
+    });
+    thread.start();
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    thread.interrupt();
+    thread.join(100);
+    assertTrue("must wait for the running compilation", thread.isAlive());
+
+    release.countDown();
+    thread.join(10000);
+    assertFalse(thread.isAlive());
+
+    assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedException);
+    assertTrue(finishedBeforeThrown.get());
+
+    myExecutor.shutdown();
+    assertTrue(myExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("start 0"), myEvents);
+  }
+}
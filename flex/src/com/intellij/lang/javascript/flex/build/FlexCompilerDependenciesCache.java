@@ -1,32 +1,69 @@
 package com.intellij.lang.javascript.flex.build;
 
 import com.intellij.ProjectTopics;
+import com.intellij.flex.FlexCommonUtils;
 import com.intellij.flex.model.bc.BuildConfigurationNature;
 import com.intellij.lang.javascript.flex.FlexUtils;
-import com.intellij.lang.javascript.flex.projectStructure.model.FlexBuildConfiguration;
+import com.intellij.lang.javascript.flex.projectStructure.FlexProjectLevelCompilerOptionsHolder;
+import com.intellij.lang.javascript.flex.projectStructure.model.*;
 import com.intellij.lang.javascript.flex.projectStructure.model.impl.Factory;
+import com.intellij.lang.javascript.flex.projectStructure.options.FlexProjectRootsUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.ModuleListener;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.ProjectFileIndex;
-import com.intellij.openapi.roots.ProjectRootManager;
-import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.roots.*;
+import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.containers.ContainerUtil;
 import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
+/**
+ * Remembers the files that the last successful compilation of each BC depended on, so that the next compilation can be skipped if nothing
+ * has changed. A file is unchanged if its length and timestamp are the same, or if only its timestamp has changed (VCS checkout,
+ * build server sync) but its content hash is the same.
+ * <p>
+ * A BC is cached together with the hash of everything that isn't a file but affects compilation: BC state, module and project level
+ * compiler options, SDK home and version, roots of the libraries and output files of the BCs it depends on. Changes of these are also
+ * reported by {@link #clear()} and {@link #markBCDirty(Module, FlexBuildConfiguration)} calls, but not if they are made while the IDE is
+ * closed.
+ * <p>
+ * The cache is saved to the system folder when the project is closed and is loaded when it is used for the first time. Only BCs that are
+ * up to date with the project configuration are saved, temporary BCs created for compilation aren't saved at all. Changes of source files
+ * made while the IDE was closed aren't reported to {@link #markModuleDirtyIfInSourceRoot(VirtualFile)}, so source files of the module
+ * are remembered as well and are checked once for each loaded BC. Files are checked and hashed in parallel, and without holding the
+ * cache lock. The project model is read in read actions, also without holding the cache lock, because write actions mark BCs dirty.
+ */
 public class FlexCompilerDependenciesCache {
 
+  private static final Logger LOG = Logger.getInstance(FlexCompilerDependenciesCache.class.getName());
+  private static final int VERSION = 2;
+
   private final Project myProject;
-  private final Map<Module, Collection<BCInfo>> myCache = new THashMap<>();
+  private final File myCacheFile;
+  // module name -> BCs
+  private final Map<String, Collection<BCInfo>> myCache = new THashMap<>();
+  private boolean myLoaded;
+  // incremented when something is marked dirty, BC is not cached if that happened while its dependencies were being hashed
+  private long myModificationCount;
+  private int myBCsBeingCached;
+  // path -> last known hash, to avoid rehashing of files shared by several BCs (SDK and library SWCs)
+  private final Map<String, FileInfo> myKnownFiles = Collections.synchronizedMap(new THashMap<>());
+  // config file content hash -> file paths found in the config file
+  private final Map<String, Collection<String>> myConfigFilePaths = Collections.synchronizedMap(new THashMap<>());
 
   private static final String[] TAGS_FOR_FILE_PATHS_IN_CONFIG_FILE =
     {"<flex-config><compiler><external-library-path><path-element>", "<flex-config><compiler><local-font-paths><path-element>",
@@ -42,36 +79,43 @@ public class FlexCompilerDependenciesCache {
     };
 
   public FlexCompilerDependenciesCache(final Project project) {
+    this(project, new File(PathManager.getSystemPath(), "flex/compiler-dependencies/" + project.getLocationHash() + ".dat"));
+  }
+
+  @TestOnly
+  public FlexCompilerDependenciesCache(final Project project, final File cacheFile) {
     myProject = project;
+    myCacheFile = cacheFile;
 
     project.getMessageBus().connect(project).subscribe(ProjectTopics.MODULES, new ModuleListener() {
       public void moduleRemoved(@NotNull final Project project, @NotNull final Module module) {
-        myCache.remove(module);
+        markModuleDirty(module);
       }
     });
   }
 
-  public void clear() {
+  public synchronized void clear() {
+    myLoaded = true; // no need to load what is cleared
+    myModificationCount++;
     myCache.clear();
+    myKnownFiles.clear();
+    myConfigFilePaths.clear();
   }
 
-  public void markModuleDirty(final Module module) {
-    myCache.remove(module);
+  public synchronized void markModuleDirty(final Module module) {
+    ensureLoaded();
+    myModificationCount++;
+    myCache.remove(module.getName());
   }
 
-  public void markBCDirty(final Module module, final FlexBuildConfiguration bc) {
-    final Collection<BCInfo> infosForModule = myCache.get(module);
-    final BCInfo existingInfo = infosForModule == null ? null : findCacheForBC(infosForModule, bc);
-    if (existingInfo != null) {
-      infosForModule.remove(existingInfo);
-      if (infosForModule.isEmpty()) {
-        myCache.remove(module);
-      }
-    }
+  public synchronized void markBCDirty(final Module module, final FlexBuildConfiguration bc) {
+    ensureLoaded();
+    myModificationCount++;
+    removeBCInfo(module, bc);
   }
 
-  public void markModuleDirtyIfInSourceRoot(final VirtualFile file) {
-    if (myCache.isEmpty()) return;
+  public synchronized void markModuleDirtyIfInSourceRoot(final VirtualFile file) {
+    if (myLoaded && myCache.isEmpty() && myBCsBeingCached == 0) return;
 
     final ProjectFileIndex fileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
     final Module module = fileIndex.getModuleForFile(file);
@@ -81,125 +125,523 @@ public class FlexCompilerDependenciesCache {
   }
 
   public boolean isNothingChangedSincePreviousCompilation(final Module module, final FlexBuildConfiguration bc) {
-    final Collection<BCInfo> infosForModule = myCache.get(module);
-    final BCInfo existingInfo = infosForModule == null ? null : findCacheForBC(infosForModule, bc);
-    if (existingInfo == null) {
-      return false;
+    final BCInfo existingInfo;
+    final long modificationCount;
+    synchronized (this) {
+      ensureLoaded();
+      final Collection<BCInfo> infosForModule = myCache.get(module.getName());
+      existingInfo = infosForModule == null ? null : findBCInfo(infosForModule, bc.getName(), bc.isTempBCForCompilation());
+      if (existingInfo == null) {
+        return false;
+      }
+      modificationCount = myModificationCount;
     }
 
-    final String[] currentSourceRoots = ModuleRootManager.getInstance(module).getSourceRootUrls();
-    if (!Arrays.equals(existingInfo.mySourceRootUrls, currentSourceRoots) || existingInfo.timestampsChanged()) {
-      infosForModule.remove(existingInfo);
-      if (infosForModule.isEmpty()) {
-        myCache.remove(module);
+    // BCInfo is immutable except for verification marks, so it is checked without holding the lock
+    final String stateHash = ReadAction.compute(() -> getStateHash(module, bc));
+    final String[] currentSourceRoots = ReadAction.compute(() -> ModuleRootManager.getInstance(module).getSourceRootUrls());
+    final boolean unchanged = existingInfo.myStateHash.equals(stateHash) &&
+                              Arrays.equals(existingInfo.mySourceRootUrls, currentSourceRoots) &&
+                              areUnchanged(existingInfo.myDependencies) &&
+                              (existingInfo.mySourcesVerified || areUnchanged(existingInfo.mySourceFiles, getSourceFiles(module)));
+
+    synchronized (this) {
+      final Collection<BCInfo> infosForModule = myCache.get(module.getName());
+      final boolean stillCached =
+        infosForModule != null && findBCInfo(infosForModule, bc.getName(), bc.isTempBCForCompilation()) == existingInfo;
+      if (!unchanged) {
+        if (stillCached) {
+          removeBCInfo(module, bc);
+        }
+        return false;
       }
-      return false;
-    }
 
-    return true;
+      // something might have been marked dirty after it had been checked
+      if (!stillCached || myModificationCount != modificationCount) return false;
+
+      // further changes of sources are reported by markModuleDirtyIfInSourceRoot()
+      existingInfo.mySourcesVerified = true;
+      return true;
+    }
   }
 
   public void cacheBC(final Module module, final FlexBuildConfiguration bc, final List<VirtualFile> configFiles) {
-    Collection<BCInfo> infosForModule = myCache.get(module);
-    if (infosForModule == null) {
-      infosForModule = new ArrayList<>();
-      myCache.put(module, infosForModule);
+    final long modificationCount;
+    synchronized (this) {
+      ensureLoaded();
+      removeBCInfo(module, bc);
+      modificationCount = myModificationCount;
+      myBCsBeingCached++;
+    }
+
+    try {
+      // model changes made after modificationCount was read are detected below
+      final String stateHash = ReadAction.compute(() -> getStateHash(module, bc));
+      final BCInfo bcInfo = createBCInfo(module, bc, configFiles, stateHash);
+      if (bcInfo == null) return;
+
+      synchronized (this) {
+        if (myModificationCount != modificationCount) return; // files might have changed after they had been hashed
+
+        removeBCInfo(module, bc);
+        Collection<BCInfo> infosForModule = myCache.get(module.getName());
+        if (infosForModule == null) {
+          infosForModule = new ArrayList<>();
+          myCache.put(module.getName(), infosForModule);
+        }
+        infosForModule.add(bcInfo);
+      }
     }
-    else {
-      final BCInfo existingInfo = findCacheForBC(infosForModule, bc);
-      if (existingInfo != null) {
-        infosForModule.remove(existingInfo);
+    finally {
+      synchronized (this) {
+        myBCsBeingCached--;
       }
     }
+  }
 
+  /**
+   * @return null if some file has been deleted or can't be read
+   */
+  @Nullable
+  private BCInfo createBCInfo(final Module module,
+                              final FlexBuildConfiguration bc,
+                              final List<VirtualFile> configFiles,
+                              final String stateHash) {
     final VirtualFile outputFile = FlexCompilationManager.refreshAndFindFileInWriteAction(bc.getActualOutputFilePath());
-    if (outputFile == null) return;
-
-    final BCInfo bcInfo = new BCInfo(Factory.getCopy(bc), ModuleRootManager.getInstance(module).getSourceRootUrls());
-    infosForModule.add(bcInfo);
+    if (outputFile == null) return null;
 
-    bcInfo.addFileDependency(outputFile.getPath());
+    final Collection<File> dependencies = new LinkedHashSet<>();
+    dependencies.add(new File(outputFile.getPath()));
 
     final String workDirPath = FlexUtils.getFlexCompilerWorkDirPath(module.getProject(), null);
     for (VirtualFile configFile : configFiles) {
-      addFileDependencies(bcInfo, configFile, workDirPath);
+      addFileDependencies(dependencies, configFile, workDirPath);
     }
 
     if (bc.isTempBCForCompilation() && !bc.getCompilerOptions().getAdditionalConfigFilePath().isEmpty()) {
-      bcInfo.addFileDependency(bc.getCompilerOptions().getAdditionalConfigFilePath());
+      addFileDependency(dependencies, bc.getCompilerOptions().getAdditionalConfigFilePath());
     }
 
     final BuildConfigurationNature nature = bc.getNature();
     if (nature.isApp() && !nature.isWebPlatform()) {
       if (nature.isDesktopPlatform()) {
         if (!bc.getAirDesktopPackagingOptions().isUseGeneratedDescriptor()) {
-          bcInfo.addFileDependency(bc.getAirDesktopPackagingOptions().getCustomDescriptorPath());
+          addFileDependency(dependencies, bc.getAirDesktopPackagingOptions().getCustomDescriptorPath());
         }
       }
       else {
         if (bc.getAndroidPackagingOptions().isEnabled() && !bc.getAndroidPackagingOptions().isUseGeneratedDescriptor()) {
-          bcInfo.addFileDependency(bc.getAndroidPackagingOptions().getCustomDescriptorPath());
+          addFileDependency(dependencies, bc.getAndroidPackagingOptions().getCustomDescriptorPath());
         }
         if (bc.getIosPackagingOptions().isEnabled() && !bc.getIosPackagingOptions().isUseGeneratedDescriptor()) {
-          bcInfo.addFileDependency(bc.getIosPackagingOptions().getCustomDescriptorPath());
+          addFileDependency(dependencies, bc.getIosPackagingOptions().getCustomDescriptorPath());
         }
       }
     }
+
+    final String[] sourceRootUrls = ReadAction.compute(() -> ModuleRootManager.getInstance(module).getSourceRootUrls());
+    final List<FileInfo> dependencyInfos = createFileInfos(dependencies);
+    final List<FileInfo> sourceFileInfos = createFileInfos(getSourceFiles(module));
+    if (dependencyInfos == null || sourceFileInfos == null) return null;
+
+    final BCInfo bcInfo =
+      new BCInfo(bc.getName(), bc.isTempBCForCompilation(), stateHash, sourceRootUrls, dependencyInfos, sourceFileInfos);
+    bcInfo.mySourcesVerified = true;
+    return bcInfo;
+  }
+
+  private void removeBCInfo(final Module module, final FlexBuildConfiguration bc) {
+    final Collection<BCInfo> infosForModule = myCache.get(module.getName());
+    final BCInfo existingInfo = infosForModule == null ? null : findBCInfo(infosForModule, bc.getName(), bc.isTempBCForCompilation());
+    if (existingInfo != null) {
+      infosForModule.remove(existingInfo);
+      if (infosForModule.isEmpty()) {
+        myCache.remove(module.getName());
+      }
+    }
   }
 
+  /**
+   * Temporary BC created for compilation has the same name as the original one, they are cached separately.
+   */
   @Nullable
-  private static BCInfo findCacheForBC(final @NotNull Collection<BCInfo> bcInfos, @NotNull final FlexBuildConfiguration bc) {
-    return ContainerUtil.find(bcInfos, info -> info.myBC.isEqual(bc));
+  private static BCInfo findBCInfo(final @NotNull Collection<BCInfo> bcInfos, @NotNull final String bcName, final boolean temp) {
+    for (BCInfo info : bcInfos) {
+      if (info.myBCName.equals(bcName) && info.myTemp == temp) return info;
+    }
+    return null;
   }
 
-  private static void addFileDependencies(final BCInfo bcInfo, final VirtualFile configFile, final String workDirPath) {
-    bcInfo.addFileDependency(configFile.getPath());
+  private String getStateHash(final Module module, final FlexBuildConfiguration bc) {
+    final StringBuilder b = new StringBuilder(Factory.getStateText(bc));
+
+    appendCompilerOptions(b.append("\nmodule level compiler options:"),
+                          FlexBuildConfigurationManager.getInstance(module).getModuleLevelCompilerOptions());
+    appendCompilerOptions(b.append("\nproject level compiler options:"),
+                          FlexProjectLevelCompilerOptionsHolder.getInstance(myProject).getProjectLevelCompilerOptions());
+
+    final Sdk sdk = bc.getSdk();
+    if (sdk != null) {
+      b.append("\nsdk: ").append(sdk.getHomePath()).append(' ').append(sdk.getVersionString());
+    }
+
+    b.append("\ndependencies:");
+    for (DependencyEntry entry : bc.getDependencies().getEntries()) {
+      if (entry instanceof BuildConfigurationEntry) {
+        final FlexBuildConfiguration dependencyBC = ((BuildConfigurationEntry)entry).findBuildConfiguration();
+        if (dependencyBC != null) {
+          b.append('\n').append(dependencyBC.getActualOutputFilePath());
+        }
+      }
+      else if (entry instanceof ModuleLibraryEntry) {
+        final LibraryOrderEntry orderEntry =
+          FlexProjectRootsUtil.findOrderEntry((ModuleLibraryEntry)entry, ModuleRootManager.getInstance(module));
+        if (orderEntry != null) {
+          appendUrls(b, orderEntry.getRootUrls(OrderRootType.CLASSES));
+        }
+      }
+      else if (entry instanceof SharedLibraryEntry) {
+        final Library library = FlexProjectRootsUtil.findOrderEntry(myProject, (SharedLibraryEntry)entry);
+        if (library != null) {
+          appendUrls(b, library.getUrls(OrderRootType.CLASSES));
+        }
+      }
+    }
 
     try {
-      final Map<String, List<String>> elementsMap =
-        FlexUtils.findXMLElements(configFile.getInputStream(), Arrays.asList(TAGS_FOR_FILE_PATHS_IN_CONFIG_FILE));
-      for (List<String> filePathList : elementsMap.values()) {
-        for (String filePath : filePathList) {
-          bcInfo.addFileDependency(filePath, configFile.getParent().getPath(), workDirPath);
+      return toHex(createDigest().digest(b.toString().getBytes("UTF-8")));
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void appendCompilerOptions(final StringBuilder b, final CompilerOptions options) {
+    for (Map.Entry<String, String> entry : new TreeMap<>(options.getAllOptions()).entrySet()) {
+      b.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    b.append('\n').append(options.getResourceFilesMode());
+    appendUrls(b, options.getFilesToIncludeInSWC().toArray(new String[0]));
+    b.append('\n').append(options.getAdditionalConfigFilePath());
+    b.append('\n').append(options.getAdditionalOptions());
+  }
+
+  private static void appendUrls(final StringBuilder b, final String[] urls) {
+    for (String url : urls) {
+      b.append('\n').append(url);
+    }
+  }
+
+  private void addFileDependencies(final Collection<File> dependencies, final VirtualFile configFile, final String workDirPath) {
+    // generated config files are deleted on project closing, their content depends only on BC and compiler options (see clear() calls)
+    final boolean generated = FileUtil.isAncestor(FlexCommonUtils.getTempFlexConfigsDirPath(), configFile.getPath(), true);
+    if (!generated) {
+      dependencies.add(new File(configFile.getPath()));
+    }
+
+    try {
+      final byte[] bytes = configFile.contentsToByteArray();
+      final String hash = toHex(createDigest().digest(bytes));
+      Collection<String> filePaths = myConfigFilePaths.get(hash);
+      if (filePaths == null) {
+        filePaths = new ArrayList<>();
+        final Map<String, List<String>> elementsMap =
+          FlexUtils.findXMLElements(new ByteArrayInputStream(bytes), Arrays.asList(TAGS_FOR_FILE_PATHS_IN_CONFIG_FILE));
+        for (List<String> filePathList : elementsMap.values()) {
+          filePaths.addAll(filePathList);
         }
+        myConfigFilePaths.put(hash, filePaths);
+      }
+
+      for (String filePath : filePaths) {
+        addFileDependency(dependencies, filePath, configFile.getParent().getPath(), workDirPath);
       }
     }
     catch (IOException e) {/*ignore*/}
   }
 
-  private static class BCInfo {
-    private final FlexBuildConfiguration myBC;
-    private final String[] mySourceRootUrls;
-    private final Collection<Pair<File, Long>> myFileToTimestamp = new ArrayList<>();
+  private static void addFileDependency(final Collection<File> dependencies, final String filePath, final String... potentialBaseDirs) {
+    final File file = new File(FileUtil.toSystemDependentName(filePath));
+    if (file.exists()) {
+      dependencies.add(file);
+    }
+    else if (potentialBaseDirs != null) {
+      for (String baseDir : potentialBaseDirs) {
+        final File file1 = new File(FileUtil.toSystemDependentName(baseDir + '/' + filePath));
+        if (file1.exists()) {
+          dependencies.add(file1);
+          break;
+        }
+      }
+    }
+  }
 
-    private BCInfo(final FlexBuildConfiguration bc, final String[] sourceRootUrls) {
-      myBC = bc;
-      mySourceRootUrls = sourceRootUrls;
+  /**
+   * Non-test source files of the module, sorted by path.
+   */
+  private static List<File> getSourceFiles(final Module module) {
+    final List<File> result = new ArrayList<>();
+    final VirtualFile[] sourceRoots = ReadAction.compute(() -> ModuleRootManager.getInstance(module).getSourceRoots(false));
+    for (VirtualFile sourceRoot : sourceRoots) {
+      FileUtil.processFilesRecursively(new File(sourceRoot.getPath()), file -> {
+        if (file.isFile()) {
+          result.add(file);
+        }
+        return true;
+      });
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * @return null if some file doesn't exist or can't be read
+   */
+  @Nullable
+  private List<FileInfo> createFileInfos(final Collection<File> files) {
+    final FileInfo[] result = files.parallelStream().map(this::createFileInfo).toArray(FileInfo[]::new);
+    for (FileInfo info : result) {
+      if (info == null) return null;
+    }
+    return Arrays.asList(result);
+  }
+
+  @Nullable
+  private FileInfo createFileInfo(final File file) {
+    final String path = file.getPath();
+    final long timestamp = file.lastModified();
+    final long length = file.length();
+
+    final FileInfo known = myKnownFiles.get(path);
+    if (known != null && known.myTimestamp == timestamp && known.myLength == length) {
+      return known;
     }
 
-    private void addFileDependency(final String filePath, final String... potentialBaseDirs) {
-      final File file = new File(FileUtil.toSystemDependentName(filePath));
-      if (file.exists()) {
-        myFileToTimestamp.add(Pair.create(file, file.lastModified()));
+    final byte[] hash = computeHash(file);
+    if (hash == null) return null;
+
+    final FileInfo info = new FileInfo(path, timestamp, length, hash);
+    myKnownFiles.put(path, info);
+    return info;
+  }
+
+  private boolean areUnchanged(final List<FileInfo> infos) {
+    return infos.parallelStream().allMatch(this::isUnchanged);
+  }
+
+  private boolean areUnchanged(final List<FileInfo> infos, final List<File> currentFiles) {
+    if (infos.size() != currentFiles.size()) return false;
+    for (int i = 0; i < infos.size(); i++) {
+      if (!infos.get(i).myPath.equals(currentFiles.get(i).getPath())) return false;
+    }
+    return areUnchanged(infos);
+  }
+
+  private boolean isUnchanged(final FileInfo info) {
+    final File file = new File(info.myPath);
+    final long timestamp = file.lastModified();
+    if (timestamp == 0 || file.length() != info.myLength) return false; // deleted or changed
+    if (timestamp == info.myTimestamp) return true;
+
+    final FileInfo current = createFileInfo(file);
+    if (current == null || !Arrays.equals(current.myHash, info.myHash)) return false;
+
+    info.myTimestamp = timestamp; // content is the same, no need to hash it next time
+    return true;
+  }
+
+  @Nullable
+  private static byte[] computeHash(final File file) {
+    final MessageDigest digest = createDigest();
+    try (InputStream stream = new FileInputStream(file)) {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
       }
-      else if (potentialBaseDirs != null) {
-        for (String baseDir : potentialBaseDirs) {
-          final File file1 = new File(FileUtil.toSystemDependentName(baseDir + '/' + filePath));
-          if (file1.exists()) {
-            myFileToTimestamp.add(Pair.create(file1, file1.lastModified()));
-            break;
+      return digest.digest();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  private void ensureLoaded() {
+    if (myLoaded) return;
+    myLoaded = true;
+
+    if (!myCacheFile.isFile()) return;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myCacheFile)))) {
+      if (in.readInt() != VERSION) return;
+
+      final int moduleCount = in.readInt();
+      for (int i = 0; i < moduleCount; i++) {
+        final String moduleName = in.readUTF();
+        final int bcCount = in.readInt();
+        final Collection<BCInfo> infos = new ArrayList<>(bcCount);
+        for (int j = 0; j < bcCount; j++) {
+          final String bcName = in.readUTF();
+          final String stateHash = in.readUTF();
+          final String[] sourceRootUrls = new String[in.readInt()];
+          for (int k = 0; k < sourceRootUrls.length; k++) {
+            sourceRootUrls[k] = in.readUTF();
           }
+          infos.add(new BCInfo(bcName, false, stateHash, sourceRootUrls, readFileInfos(in), readFileInfos(in)));
         }
+        myCache.put(moduleName, infos);
       }
     }
+    catch (IOException e) {
+      LOG.info("Failed to load " + myCacheFile.getPath(), e);
+      myCache.clear();
+    }
+  }
+
+  private static List<FileInfo> readFileInfos(final DataInputStream in) throws IOException {
+    final int count = in.readInt();
+    final List<FileInfo> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final String path = in.readUTF();
+      final long timestamp = in.readLong();
+      final long length = in.readLong();
+      final byte[] hash = new byte[in.readUnsignedByte()];
+      in.readFully(hash);
+      result.add(new FileInfo(path, timestamp, length, hash));
+    }
+    return result;
+  }
+
+  /**
+   * Called when the project is closed.
+   */
+  public synchronized void save() {
+    if (!myLoaded) return; // not changed
+
+    ApplicationManager.getApplication().runReadAction(() -> removeOutdatedBCInfos());
+
+    if (myCache.isEmpty()) {
+      FileUtil.delete(myCacheFile);
+      return;
+    }
 
-    public boolean timestampsChanged() {
-      for (Pair<File, Long> fileAndTimestamp : myFileToTimestamp) {
-        if (fileAndTimestamp.first.lastModified() != fileAndTimestamp.second) {
-          return true;
+    try {
+      FileUtil.createParentDirs(myCacheFile);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myCacheFile)))) {
+        out.writeInt(VERSION);
+        out.writeInt(myCache.size());
+        for (Map.Entry<String, Collection<BCInfo>> entry : myCache.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeInt(entry.getValue().size());
+          for (BCInfo info : entry.getValue()) {
+            out.writeUTF(info.myBCName);
+            out.writeUTF(info.myStateHash);
+            out.writeInt(info.mySourceRootUrls.length);
+            for (String url : info.mySourceRootUrls) {
+              out.writeUTF(url);
+            }
+            writeFileInfos(out, info.myDependencies);
+            writeFileInfos(out, info.mySourceFiles);
+          }
         }
       }
-      return false;
+    }
+    catch (IOException e) {
+      LOG.info("Failed to save " + myCacheFile.getPath(), e);
+      FileUtil.delete(myCacheFile);
+    }
+  }
+
+  /**
+   * Removes temporary BCs and BCs that no longer exist or have changed since they were cached, otherwise they would be found up to date
+   * in the next session if the change is reverted.
+   */
+  private void removeOutdatedBCInfos() {
+    final ModuleManager moduleManager = ModuleManager.getInstance(myProject);
+    for (Iterator<Map.Entry<String, Collection<BCInfo>>> iterator = myCache.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<String, Collection<BCInfo>> entry = iterator.next();
+      final Module module = moduleManager.findModuleByName(entry.getKey());
+      if (module == null) {
+        iterator.remove();
+        continue;
+      }
+
+      final FlexBuildConfigurationManager manager = FlexBuildConfigurationManager.getInstance(module);
+      entry.getValue().removeIf(info -> {
+        if (info.myTemp) return true;
+        final FlexBuildConfiguration bc = manager.findConfigurationByName(info.myBCName);
+        return bc == null || !info.myStateHash.equals(getStateHash(module, bc));
+      });
+      if (entry.getValue().isEmpty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static void writeFileInfos(final DataOutputStream out, final List<FileInfo> infos) throws IOException {
+    out.writeInt(infos.size());
+    for (FileInfo info : infos) {
+      out.writeUTF(info.myPath);
+      out.writeLong(info.myTimestamp);
+      out.writeLong(info.myLength);
+      out.writeByte(info.myHash.length);
+      out.write(info.myHash);
+    }
+  }
+
+  private static class FileInfo {
+    private final String myPath;
+    private volatile long myTimestamp;
+    private final long myLength;
+    private final byte[] myHash;
+
+    private FileInfo(final String path, final long timestamp, final long length, final byte[] hash) {
+      myPath = path;
+      myTimestamp = timestamp;
+      myLength = length;
+      myHash = hash;
+    }
+  }
+
+  private static class BCInfo {
+    private final String myBCName;
+    private final boolean myTemp;
+    private final String myStateHash;
+    private final String[] mySourceRootUrls;
+    private final List<FileInfo> myDependencies;
+    private final List<FileInfo> mySourceFiles;
+    // sources are checked only once, then markModuleDirtyIfInSourceRoot() is responsible for them
+    private volatile boolean mySourcesVerified;
+
+    private BCInfo(final String bcName,
+                   final boolean temp,
+                   final String stateHash,
+                   final String[] sourceRootUrls,
+                   final List<FileInfo> dependencies,
+                   final List<FileInfo> sourceFiles) {
+      myBCName = bcName;
+      myTemp = temp;
+      myStateHash = stateHash;
+      mySourceRootUrls = sourceRootUrls;
+      myDependencies = dependencies;
+      mySourceFiles = sourceFiles;
     }
   }
 }
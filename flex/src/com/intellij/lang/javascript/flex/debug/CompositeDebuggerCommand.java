@@ -11,8 +11,12 @@ import java.io.IOException;
  * @author Maxim.Mossienko
  */
 class CompositeDebuggerCommand extends DebuggerCommand {
+  private static final int MAX_PIPELINED_COMMANDS = 8;
+
   private final DebuggerCommand[] myCommands;
   private int myCurrentIndex;
+  // commands before this index have been sent to fdb, pipelinable commands are sent together with the previous one
+  private int myPostedCount;
   private FlexDebugProcess myFlexDebugProcess;
   private final Obsolescent myObsolescent;
   private volatile boolean myBecomeObsolete;
@@ -33,11 +37,22 @@ class CompositeDebuggerCommand extends DebuggerCommand {
   @Override
   public void post(final FlexDebugProcess flexDebugProcess) throws IOException {
     myFlexDebugProcess = flexDebugProcess;
+    if (myCurrentIndex < myPostedCount) {
+      return; // response is already on its way
+    }
     if (myObsolescent != null && myObsolescent.isObsolete() && !myBecomeObsolete) {
       dispatchObsolete();
       return;
     }
     myCommands[myCurrentIndex].post(flexDebugProcess);
+    myPostedCount = myCurrentIndex + 1;
+
+    // don't wait for each response of independent read-only commands
+    while (myPostedCount < myCommands.length &&
+           myPostedCount - myCurrentIndex < MAX_PIPELINED_COMMANDS &&
+           myCommands[myPostedCount].isPipelinable()) {
+      myCommands[myPostedCount++].post(flexDebugProcess);
+    }
   }
 
   private void dispatchObsolete() {
@@ -73,13 +88,14 @@ class CompositeDebuggerCommand extends DebuggerCommand {
     final CommandOutputProcessingMode b = myCommands[myCurrentIndex].onTextAvailable(s);
 
     if (b == CommandOutputProcessingMode.DONE) {
-      if (myObsolescent != null && myObsolescent.isObsolete()) {
+      // responses of already posted commands must be read anyway
+      if (myCurrentIndex + 1 >= myPostedCount && myObsolescent != null && myObsolescent.isObsolete()) {
         dispatchObsolete();
         return CommandOutputProcessingMode.DONE;
       }
       ++myCurrentIndex;
       if (myCurrentIndex != myCommands.length) {
-        myFlexDebugProcess.insertCommand(this);
+        insertIntoQueue();
       } else {
         succeeded();
       }
@@ -87,6 +103,13 @@ class CompositeDebuggerCommand extends DebuggerCommand {
     return b;
   }
 
+  /**
+   * Puts this command back to the head of the command queue, so that the next subcommand is processed.
+   */
+  void insertIntoQueue() {
+    myFlexDebugProcess.insertCommand(this);
+  }
+
   protected void succeeded() {
     mySucceeded = true;
   }
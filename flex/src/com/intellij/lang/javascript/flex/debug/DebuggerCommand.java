@@ -37,6 +37,14 @@ class DebuggerCommand {
     return myStartVMState;
   }
 
+  /**
+   * Pipelinable command only reads the state of the suspended VM and gets exactly one response, so it may be sent to fdb
+   * before the responses to previously sent commands are read, see {@link CompositeDebuggerCommand}.
+   */
+  boolean isPipelinable() {
+    return false;
+  }
+
   CommandOutputProcessingMode onTextAvailable(@NonNls String s) {
     assert myOutputProcessingType != CommandOutputProcessingType.NO_PROCESSING;
     return CommandOutputProcessingMode.DONE;
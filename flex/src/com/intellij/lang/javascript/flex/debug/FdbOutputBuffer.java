@@ -0,0 +1,82 @@
+package com.intellij.lang.javascript.flex.debug;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Collects fdb output and splits it into responses by the prompt markers. Output is appended in chunks as it is read, each chunk is
+ * scanned for markers once, except for its beginning, where a marker split between chunks may end.
+ */
+class FdbOutputBuffer {
+  private static final String[] PROMPT_MARKERS = {FlexDebugProcess.FDB_MARKER, "(y or n)"};
+
+  private final StringBuilder myText = new StringBuilder();
+  private int myScannedLength;
+  private String myLastMarker = "";
+
+  void append(final char[] chars, final int length) {
+    myText.append(chars, 0, length);
+  }
+
+  boolean isEmpty() {
+    return myText.length() == 0;
+  }
+
+  /**
+   * @param allowEmptyMarker if no prompt is found, all collected text is returned as a response without marker
+   * @return text before the first prompt, null if there's no complete response yet
+   */
+  @Nullable
+  String nextResponse(final boolean allowEmptyMarker) {
+    int i = -1;
+    String marker = "";
+    for (String promptMarker : PROMPT_MARKERS) {
+      i = indexOfNew(promptMarker);
+      if (i != -1) {
+        marker = promptMarker;
+        break;
+      }
+    }
+
+    if (i == -1 &&
+        (allowEmptyMarker ||
+         indexOfNew(FlexDebugProcess.WAITING_PLAYER_MARKER_1) >= 0 ||
+         indexOfNew(FlexDebugProcess.WAITING_PLAYER_MARKER_2) >= 0) &&
+        myText.length() > 0) {
+      i = myText.length();
+    }
+
+    if (i == -1) {
+      myScannedLength = myText.length();
+      return null;
+    }
+
+    final String result = myText.substring(0, i);
+    myText.delete(0, i + marker.length());
+    // the rest may be the response of the next pipelined command, it hasn't been scanned for markers yet
+    myScannedLength = 0;
+    if (isBlank()) myText.setLength(0);
+    myLastMarker = marker;
+    return result;
+  }
+
+  /**
+   * @return marker that ended the last response returned by {@link #nextResponse(boolean)}, empty if there was no marker
+   */
+  String getLastMarker() {
+    return myLastMarker;
+  }
+
+  /**
+   * Text before {@link #myScannedLength} doesn't contain the marker, but the marker may start there and end in the text appended later.
+   */
+  int indexOfNew(final String marker) {
+    return myText.indexOf(marker, Math.max(0, myScannedLength - marker.length() + 1));
+  }
+
+  private boolean isBlank() {
+    for (int i = 0; i < myText.length(); ++i) {
+      if (myText.charAt(i) != ' ') return false;
+    }
+    return true;
+  }
+}
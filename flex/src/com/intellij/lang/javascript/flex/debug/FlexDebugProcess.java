@@ -112,9 +112,9 @@ public class FlexDebugProcess extends XDebugProcess {
 
   @NonNls static final String RESOLVED_BREAKPOINT_MARKER = "Resolved breakpoint ";
   @NonNls static final String BREAKPOINT_MARKER = "Breakpoint ";
-  @NonNls private static final String FDB_MARKER = "(fdb) ";
-  @NonNls private static final String WAITING_PLAYER_MARKER_1 = "Waiting for Player to connect";
-  @NonNls private static final String WAITING_PLAYER_MARKER_2 = "Trying to connect to Player";
+  @NonNls static final String FDB_MARKER = "(fdb) ";
+  @NonNls static final String WAITING_PLAYER_MARKER_1 = "Waiting for Player to connect";
+  @NonNls static final String WAITING_PLAYER_MARKER_2 = "Trying to connect to Player";
   @NonNls static final String ATTEMPTING_TO_RESOLVE_BREAKPOINT_MARKER = "Attempting to resolve breakpoint ";
 
   @NonNls private static final String ADL_PREFIX = "[AIR Debug Launcher]: ";
@@ -1220,11 +1220,14 @@ public class FlexDebugProcess extends XDebugProcess {
     return null;
   }
 
+  /**
+   * Splits fdb output into responses while it arrives. Each chunk is scanned for the markers once, only the last
+   * {@code marker.length() - 1} characters are scanned again because a marker may be split between chunks.
+   */
   class MyFdbOutputReader {
     private final InputStreamReader myReader;
     private final char[] buf = new char[8192];
-    private final StringBuilder lastText = new StringBuilder();
-    private int lastTextMarkerScanningStart;
+    private final FdbOutputBuffer myBuffer = new FdbOutputBuffer();
     private final InputStream myInputStream;
 
     public MyFdbOutputReader(final InputStream _inputStream) {
@@ -1237,7 +1240,7 @@ public class FlexDebugProcess extends XDebugProcess {
     }
 
     String readLine(boolean nonblock) throws IOException {
-      if (lastText != null) {
+      if (!myBuffer.isEmpty()) {
         final String lastText = getNextLine(nonblock);
         if (lastText != null) return lastText;
       }
@@ -1245,55 +1248,21 @@ public class FlexDebugProcess extends XDebugProcess {
       while (true) {
         int read = myReader.read(buf, 0, buf.length);
         if (read == -1) return null;
-        lastText.append(buf, 0, read);
+        myBuffer.append(buf, read);
 
-        if (read < buf.length) {
-          final String lastText = getNextLine(nonblock);
-          if (lastText != null) return lastText;
-        }
+        // a full buffer means that more output is likely pending, so text without marker is not returned yet
+        final String lastText = getNextLine(nonblock && read < buf.length);
+        if (lastText != null) return lastText;
       }
     }
 
     private String getNextLine(boolean allowEmptyMarker) {
-      String result;
-      String marker = FDB_MARKER;
-      int i = lastText.indexOf(marker, lastTextMarkerScanningStart);
-
-      if (i == -1) {
-        marker = "(y or n)";
-        i = lastText.indexOf(marker, lastTextMarkerScanningStart);
-      }
-
-      if (i == -1 &&
-          (allowEmptyMarker ||
-           lastText.indexOf(WAITING_PLAYER_MARKER_1, lastTextMarkerScanningStart) >= 0 ||
-           lastText.indexOf(WAITING_PLAYER_MARKER_2, lastTextMarkerScanningStart) >= 0) &&
-          lastText.length() > 0) {
-        i = lastText.length();
-        marker = "";
-      }
-
-      if (i != -1) {
-        result = lastText.substring(0, i);
-        lastText.delete(0, i + marker.length());
-        lastTextMarkerScanningStart = 0;
-        if (isBlank(lastText)) lastText.setLength(0);
-        setSuspended(marker.length() != 0);
-        return result;
-      }
-      else {
-        lastTextMarkerScanningStart = lastText.length();
-        result = null;
+      final String result = myBuffer.nextResponse(allowEmptyMarker);
+      if (result != null) {
+        setSuspended(myBuffer.getLastMarker().length() != 0);
       }
       return result;
     }
-
-    private boolean isBlank(StringBuilder lastText) {
-      for (int i = 0; i < lastText.length(); ++i) {
-        if (lastText.charAt(i) != ' ') return false;
-      }
-      return true;
-    }
   }
 
   @Override
@@ -511,6 +511,11 @@ public class FlexStackFrame extends XStackFrame {
       myValueType = valueType;
     }
 
+    @Override
+    boolean isPipelinable() {
+      return !hasFrame; // "info arguments" and "info locals" of the frame selected by the previous command
+    }
+
     @Override
     CommandOutputProcessingMode onTextAvailable(@NonNls final String s) {
       final int offsetIndex = hasFrame ? 1:0; // frame command
@@ -7,19 +7,38 @@ import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 public class KnownFilesInfo {
 
+  private static final int MAX_CACHED_LISTINGS = 20;
+
+  // SWF hash + "show files" output hash -> parsed output, shared between debug sessions of the same SWF
+  private static final Map<String, Listing> ourListings = new LinkedHashMap<String, Listing>(MAX_CACHED_LISTINGS, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Listing> eldest) {
+      return size() > MAX_CACHED_LISTINGS;
+    }
+  };
+
   private final FlexDebugProcess myFlexDebugProcess;
 
   private boolean myUpToDate = false;
 
-  private final TIntObjectHashMap<BidirectionalMap<String, String>> myWorkerToFilePathToIdMap =
-    new TIntObjectHashMap<>();
+  // all files listed in this session, may be a listing from ourListings until another listing is added to it
+  private Listing myListing = new Listing();
+  private boolean myListingShared;
 
-  private final TIntObjectHashMap<Map<String, Collection<String>>> myWorkerToFileNameToPathsMap =
-    new TIntObjectHashMap<>();
+  private String myShowFilesOutput; // last output added to myListing
+
+  private String mySwfKey; // null if not calculated yet, empty if the SWF can't be read
 
   public KnownFilesInfo(final FlexDebugProcess flexDebugProcess) {
     myFlexDebugProcess = flexDebugProcess;
@@ -33,7 +52,7 @@ public class KnownFilesInfo {
   public String getFilePathById(final int worker, final String id) {
     ensureUpToDate();
 
-    final BidirectionalMap<String, String> filePathToId = myWorkerToFilePathToIdMap.get(worker);
+    final BidirectionalMap<String, String> filePathToId = myListing.myWorkerToFilePathToIdMap.get(worker);
     final List<String> paths = filePathToId == null ? null : filePathToId.getKeysByValue(id);
 
     return paths != null && paths.size() > 0 ? paths.get(0) : null;
@@ -45,7 +64,7 @@ public class KnownFilesInfo {
 
     final int worker = 0; // todo calculate correct worker
 
-    final BidirectionalMap<String, String> filePathToId = myWorkerToFilePathToIdMap.get(worker);
+    final BidirectionalMap<String, String> filePathToId = myListing.myWorkerToFilePathToIdMap.get(worker);
     return filePathToId == null ? null : filePathToId.get(filePath);
   }
 
@@ -53,7 +72,7 @@ public class KnownFilesInfo {
   public String getIdByFilePathNoUpdate(final String filePath) {
     final int worker = 0; // todo calculate correct worker
 
-    final BidirectionalMap<String, String> filePathToId = myWorkerToFilePathToIdMap.get(worker);
+    final BidirectionalMap<String, String> filePathToId = myListing.myWorkerToFilePathToIdMap.get(worker);
     return filePathToId == null ? null : filePathToId.get(filePath);
   }
 
@@ -61,7 +80,7 @@ public class KnownFilesInfo {
   public Collection<String> getPathsByName(final int worker, final String fileName) {
     ensureUpToDate();
 
-    final Map<String, Collection<String>> fileNameToPaths = myWorkerToFileNameToPathsMap.get(worker);
+    final Map<String, Collection<String>> fileNameToPaths = myListing.myWorkerToFileNameToPathsMap.get(worker);
     return fileNameToPaths == null ? null : fileNameToPaths.get(fileName);
   }
 
@@ -71,18 +90,110 @@ public class KnownFilesInfo {
       new DebuggerCommand("show files", CommandOutputProcessingType.SPECIAL_PROCESSING, VMState.SUSPENDED, VMState.SUSPENDED) {
         @Override
         CommandOutputProcessingMode onTextAvailable(@NonNls String s) {
-          processShowFilesResult(new StringTokenizer(s, "\r\n"));
+          addShowFilesOutput(s);
           return CommandOutputProcessingMode.DONE;
         }
       }, null);
     myUpToDate = true;
   }
 
-  private void processShowFilesResult(StringTokenizer tokenizer) {
+  /**
+   * Files listed by "show files" are added to the files known from the previous listings of this session. "show files" is requested
+   * again after each code load, but usually lists the same files, so the same output is ignored.
+   */
+  private void addShowFilesOutput(final String showFilesOutput) {
+    if (showFilesOutput.equals(myShowFilesOutput)) return;
+    myShowFilesOutput = showFilesOutput;
+
+    final Listing listing = getListing(showFilesOutput);
+    if (myListing.isEmpty()) {
+      myListing = listing;
+      myListingShared = true;
+      return;
+    }
+
+    if (myListingShared) {
+      final Listing copy = new Listing();
+      copy.addAll(myListing);
+      myListing = copy;
+      myListingShared = false;
+    }
+    myListing.addAll(listing);
+  }
+
+  /**
+   * "show files" lists all files known to the session, and it is the same in each session of the same SWF until the same
+   * modules and workers are loaded, so the output isn't parsed again if it has been seen already.
+   */
+  private Listing getListing(final String showFilesOutput) {
+    final String swfKey = getSwfKey();
+    if (swfKey.isEmpty()) {
+      return parseShowFilesResult(showFilesOutput);
+    }
+
+    final String key = swfKey + ':' + toHex(createDigest().digest(showFilesOutput.getBytes(StandardCharsets.UTF_8)));
+    synchronized (ourListings) {
+      final Listing listing = ourListings.get(key);
+      if (listing != null) return listing;
+    }
+
+    final Listing listing = parseShowFilesResult(showFilesOutput);
+    synchronized (ourListings) {
+      ourListings.put(key, listing);
+    }
+    return listing;
+  }
+
+  private String getSwfKey() {
+    if (mySwfKey == null) {
+      // paths of SDK sources in the listing are relative to the app SDK
+      final byte[] hash = computeHash(new File(myFlexDebugProcess.getBC().getActualOutputFilePath()));
+      mySwfKey = hash == null ? "" : myFlexDebugProcess.getAppSdkHome() + ':' + toHex(hash);
+    }
+    return mySwfKey;
+  }
+
+  @Nullable
+  private static byte[] computeHash(final File file) {
+    final MessageDigest digest = createDigest();
+    try (InputStream stream = new FileInputStream(file)) {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+      return digest.digest();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  private Listing parseShowFilesResult(final String s) {
     //2 C:\work\flex_projects\MP3Worker\src\Workers.as, Workers.as
     //2 C:\work\flex_projects\MP3Worker\src\Workers.as, Workers.as (Main Thread)
     //1 C:\work\flex_projects\MP3Worker\src\BackWorker.as, BackWorker.as (Worker 1)
 
+    final Listing listing = new Listing();
+    final StringTokenizer tokenizer = new StringTokenizer(s, "\r\n");
+
     while (tokenizer.hasMoreTokens()) {
       final String line = tokenizer.nextToken().trim();
       final int spaceIndex = line.indexOf(' ');
@@ -123,6 +234,36 @@ public class KnownFilesInfo {
         }
       }
 
+      listing.addFile(worker, id, fullPath, shortName);
+    }
+
+    return listing;
+  }
+
+  private static <K, T> void addToMap(final Map<K, Collection<T>> map, final K key, final T valueCollectionElement) {
+    Collection<T> valueCollection = map.get(key);
+    if (valueCollection == null) {
+      valueCollection = new ArrayList<>(1);
+      map.put(key, valueCollection);
+    }
+
+    if (!valueCollection.contains(valueCollectionElement)) {
+      valueCollection.add(valueCollectionElement);
+    }
+  }
+
+  /**
+   * Parsed "show files" output. Listings in {@link #ourListings} may be shared between debug sessions and are not modified.
+   */
+  private static class Listing {
+    private final TIntObjectHashMap<BidirectionalMap<String, String>> myWorkerToFilePathToIdMap = new TIntObjectHashMap<>();
+    private final TIntObjectHashMap<Map<String, Collection<String>>> myWorkerToFileNameToPathsMap = new TIntObjectHashMap<>();
+
+    private boolean isEmpty() {
+      return myWorkerToFilePathToIdMap.isEmpty();
+    }
+
+    private void addFile(final int worker, final String id, final String fullPath, final String shortName) {
       BidirectionalMap<String, String> filePathToIdMap = myWorkerToFilePathToIdMap.get(worker);
       if (filePathToIdMap == null) {
         filePathToIdMap = new BidirectionalMap<>();
@@ -137,17 +278,33 @@ public class KnownFilesInfo {
       }
       addToMap(fileNameToPaths, shortName, fullPath);
     }
-  }
-
-  private static <K, T> void addToMap(final Map<K, Collection<T>> map, final K key, final T valueCollectionElement) {
-    Collection<T> valueCollection = map.get(key);
-    if (valueCollection == null) {
-      valueCollection = new ArrayList<>(1);
-      map.put(key, valueCollection);
-    }
 
-    if (!valueCollection.contains(valueCollectionElement)) {
-      valueCollection.add(valueCollectionElement);
+    private void addAll(final Listing listing) {
+      listing.myWorkerToFilePathToIdMap.forEachEntry((worker, filePathToId) -> {
+        BidirectionalMap<String, String> filePathToIdMap = myWorkerToFilePathToIdMap.get(worker);
+        if (filePathToIdMap == null) {
+          filePathToIdMap = new BidirectionalMap<>();
+          myWorkerToFilePathToIdMap.put(worker, filePathToIdMap);
+        }
+        for (Map.Entry<String, String> entry : filePathToId.entrySet()) {
+          filePathToIdMap.put(entry.getKey(), entry.getValue());
+        }
+        return true;
+      });
+
+      listing.myWorkerToFileNameToPathsMap.forEachEntry((worker, fileNameToPaths) -> {
+        Map<String, Collection<String>> fileNameToPathsMap = myWorkerToFileNameToPathsMap.get(worker);
+        if (fileNameToPathsMap == null) {
+          fileNameToPathsMap = new THashMap<>();
+          myWorkerToFileNameToPathsMap.put(worker, fileNameToPathsMap);
+        }
+        for (Map.Entry<String, Collection<String>> entry : fileNameToPaths.entrySet()) {
+          for (String path : entry.getValue()) {
+            addToMap(fileNameToPathsMap, entry.getKey(), path);
+          }
+        }
+        return true;
+      });
     }
   }
 }
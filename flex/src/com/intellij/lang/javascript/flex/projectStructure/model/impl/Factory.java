@@ -1,6 +1,8 @@
 package com.intellij.lang.javascript.flex.projectStructure.model.impl;
 
 import com.intellij.lang.javascript.flex.projectStructure.model.*;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.util.xmlb.XmlSerializer;
 import org.jetbrains.annotations.NotNull;
 
 public class Factory {
@@ -25,6 +27,15 @@ public class Factory {
     return ((FlexBuildConfigurationImpl)bc).getCopy();
   }
 
+  /**
+   * @return text that is the same for equal build configurations (see {@link FlexBuildConfiguration#isEqual(FlexBuildConfiguration)}),
+   * also in different IDE sessions
+   */
+  public static String getStateText(@NotNull FlexBuildConfiguration bc) {
+    final String text = JDOMUtil.writeElement(XmlSerializer.serialize(((FlexBuildConfigurationImpl)bc).getState(null)));
+    return bc.isTempBCForCompilation() ? "temp " + text : text;
+  }
+
   public static ModifiableFlexBuildConfiguration getTemporaryCopyForCompilation(@NotNull FlexBuildConfiguration bc) {
     final FlexBuildConfigurationImpl copy = ((FlexBuildConfigurationImpl)bc).getCopy();
     copy.setTempBCForCompilation(true);
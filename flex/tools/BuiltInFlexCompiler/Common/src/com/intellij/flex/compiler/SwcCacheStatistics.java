@@ -0,0 +1,62 @@
+package com.intellij.flex.compiler;
+
+/**
+ * SWC cache hits and misses of the compilation running in the current thread.
+ */
+public class SwcCacheStatistics {
+
+  public static final String PREFIX = "SWC cache: ";
+
+  private static ThreadLocal<SwcCacheStatistics> ourStatistics = new ThreadLocal<SwcCacheStatistics>();
+
+  private int myHits;
+  private int myMisses;
+  private long myLoadingNanos;
+
+  public static void start() {
+    ourStatistics.set(new SwcCacheStatistics());
+  }
+
+  /**
+   * @return statistics collected since {@link #start()}, null if not started in this thread
+   */
+  public static SwcCacheStatistics finish() {
+    final SwcCacheStatistics statistics = ourStatistics.get();
+    ourStatistics.remove();
+    return statistics;
+  }
+
+  public static void hit() {
+    final SwcCacheStatistics statistics = ourStatistics.get();
+    if (statistics != null) {
+      statistics.myHits++;
+    }
+  }
+
+  public static void miss(final long loadingNanos) {
+    final SwcCacheStatistics statistics = ourStatistics.get();
+    if (statistics != null) {
+      statistics.myMisses++;
+      statistics.myLoadingNanos += loadingNanos;
+    }
+  }
+
+  public int getHits() {
+    return myHits;
+  }
+
+  public int getMisses() {
+    return myMisses;
+  }
+
+  /**
+   * @return false if no SWC was borrowed from {@link SwcPool}, e.g. Flex 3 compilers don't use the pool at all
+   */
+  public boolean isPoolUsed() {
+    return myHits + myMisses > 0;
+  }
+
+  public String toString() {
+    return PREFIX + myHits + " hits, " + myMisses + " misses (" + myLoadingNanos / 1000000 + " ms loading)";
+  }
+}
@@ -0,0 +1,146 @@
+package com.intellij.flex.compiler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loaded SWCs shared between compilations of the built-in compiler. Loaded SWC is mutable (compilation units are attached to its
+ * scripts, ABC is cached), so it is never shared between concurrent compilations: it is borrowed by one compilation and returned to
+ * the pool when the compilation finishes, see {@link #startCompilation()} and {@link #finishCompilation()}. Concurrent compilations
+ * that need the same SWC load their own copies.
+ * <p>
+ * Idle SWCs are kept in LRU order, a SWC is reused while the file timestamp and length are the same.
+ */
+public class SwcPool<T> {
+
+  public interface Loader<T> {
+    /**
+     * @return null if the SWC can't be loaded, it is not pooled then
+     */
+    T load() throws Exception;
+  }
+
+  private static final ThreadLocal<List<Borrowed<?>>> ourBorrowed = new ThreadLocal<List<Borrowed<?>>>();
+
+  // guarded by itself
+  private final Map<String, Borrowed<T>> myIdle;
+
+  public SwcPool(final int maxSize) {
+    myIdle = new LinkedHashMap<String, Borrowed<T>>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(final Map.Entry<String, Borrowed<T>> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  public static void startCompilation() {
+    ourBorrowed.set(new ArrayList<Borrowed<?>>());
+  }
+
+  /**
+   * Returns the SWCs borrowed by the compilation running in the current thread to their pools.
+   */
+  public static void finishCompilation() {
+    final List<Borrowed<?>> borrowed = ourBorrowed.get();
+    ourBorrowed.remove();
+    if (borrowed != null) {
+      for (final Borrowed<?> swc : borrowed) {
+        swc.giveBack();
+      }
+    }
+  }
+
+  /**
+   * Outside of a compilation (see {@link #startCompilation()}) the SWC is just loaded, it isn't pooled.
+   */
+  public T borrow(final String location, final long lastModified, final long length, final Loader<T> loader) throws Exception {
+    final List<Borrowed<?>> borrowedByCompilation = ourBorrowed.get();
+    if (borrowedByCompilation == null) {
+      return loader.load();
+    }
+
+    Borrowed<T> borrowed;
+    synchronized (myIdle) {
+      borrowed = myIdle.remove(location);
+    }
+
+    if (borrowed != null && borrowed.myLastModified == lastModified && borrowed.myLength == length) {
+      SwcCacheStatistics.hit();
+    }
+    else {
+      final long start = System.nanoTime();
+      final T swc = loader.load();
+      SwcCacheStatistics.miss(System.nanoTime() - start);
+      if (swc == null) {
+        return null;
+      }
+      borrowed = new Borrowed<T>(this, location, swc, lastModified, length);
+    }
+
+    borrowedByCompilation.add(borrowed);
+    return borrowed.mySwc;
+  }
+
+  /**
+   * The SWC at the location is outdated (e.g. it has been exported by the current compilation): drops the idle copy, and the copies
+   * borrowed by the current compilation are not returned to the pool.
+   */
+  public void discard(final String location) {
+    synchronized (myIdle) {
+      myIdle.remove(location);
+    }
+
+    final List<Borrowed<?>> borrowedByCompilation = ourBorrowed.get();
+    if (borrowedByCompilation != null) {
+      for (final Borrowed<?> borrowed : borrowedByCompilation) {
+        if (borrowed.myPool == this && borrowed.myLocation.equals(location)) {
+          borrowed.myDiscarded = true;
+        }
+      }
+    }
+  }
+
+  public int getIdleCount() {
+    synchronized (myIdle) {
+      return myIdle.size();
+    }
+  }
+
+  /**
+   * Called before the SWC is returned to the pool: drops data of the finished compilation, which must not be seen by the next one.
+   */
+  protected void released(final T swc) {
+  }
+
+  private void giveBack(final Borrowed<T> borrowed) {
+    released(borrowed.mySwc);
+    synchronized (myIdle) {
+      myIdle.put(borrowed.myLocation, borrowed);
+    }
+  }
+
+  private static class Borrowed<T> {
+    private final SwcPool<T> myPool;
+    private final String myLocation;
+    private final T mySwc;
+    private final long myLastModified;
+    private final long myLength;
+    private boolean myDiscarded;
+
+    private Borrowed(final SwcPool<T> pool, final String location, final T swc, final long lastModified, final long length) {
+      myPool = pool;
+      myLocation = location;
+      mySwc = swc;
+      myLastModified = lastModified;
+      myLength = length;
+    }
+
+    private void giveBack() {
+      if (!myDiscarded) {
+        myPool.giveBack(this);
+      }
+    }
+  }
+}
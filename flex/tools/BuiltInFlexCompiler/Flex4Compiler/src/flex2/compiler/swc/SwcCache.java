@@ -0,0 +1,212 @@
+package flex2.compiler.swc;
+
+import com.intellij.flex.compiler.SwcPool;
+import flash.util.FileUtils;
+import flex2.compiler.io.VirtualFile;
+import flex2.compiler.util.ThreadLocalToolkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces SDK class. Mxmlc and Compc create new SwcCache for each compilation, so each compilation of the built-in compiler
+ * used to load and parse all SWCs of its library path again. Here loaded SWCs are borrowed from {@link SwcPool} shared by all
+ * instances, and kept in {@link #swcLRUCache} of the instance for the rest of the compilation, as in the SDK class. Loaded SWC is
+ * mutable, so concurrent compilations never get the same instance, and compilation units attached to its scripts are dropped when
+ * it is returned to the pool.
+ */
+public class SwcCache {
+
+  public static int CACHE_INITIAL_SIZE = 20;
+  public static int CACHE_MAX_SIZE = 200;
+
+  public static final String SWC_EXTENSION = ".swc";
+  public static final String GENSWC_EXTENSION = "-generated.swc";
+
+  private static final SwcPool<Swc> ourPool = new SwcPool<Swc>(Integer.getInteger("idea.flex.compiler.swc.cache.size", 500)) {
+    protected void released(final Swc swc) {
+      for (final Iterator<SwcLibrary> libraries = swc.getLibraryIterator(); libraries.hasNext(); ) {
+        for (final Iterator<SwcScript> scripts = libraries.next().getScriptIterator(); scripts.hasNext(); ) {
+          scripts.next().setCompilationUnit(null);
+        }
+      }
+    }
+  };
+
+  protected SwcLRUCache swcLRUCache;
+  protected boolean lazyRead = true;
+  protected boolean useCache = true;
+
+  public SwcCache() {
+    this(CACHE_INITIAL_SIZE, CACHE_MAX_SIZE);
+  }
+
+  public SwcCache(final int initialSize, final int maxSize) {
+    swcLRUCache = new SwcLRUCache(initialSize, maxSize);
+  }
+
+  public SwcGroup getSwcGroup(final VirtualFile[] paths) {
+    final String[] urls = new String[paths.length];
+    for (int i = 0; i < paths.length; ++i) {
+      urls[i] = paths[i].getName();
+    }
+    return getSwcGroup(urls);
+  }
+
+  public SwcGroup getSwcGroup(final String[] paths) {
+    final Map<String, Swc> swcs = new LinkedHashMap<String, Swc>();
+    for (final String path : paths) {
+      swcs.putAll(getSwcs(path));
+    }
+    return new SwcGroup(swcs);
+  }
+
+  public SwcGroup getSwcGroup(final List<SwcGroup> groups, final SwcGroup rslGroup) {
+    final Map<String, Swc> swcs = mergeGroups(groups);
+    return swcs.isEmpty() ? null : new SwcGroup(swcs, rslGroup);
+  }
+
+  // Flex 3 SDK
+  public SwcGroup getSwcGroup(final List<SwcGroup> groups) {
+    final Map<String, Swc> swcs = mergeGroups(groups);
+    return swcs.isEmpty() ? null : new SwcGroup(swcs);
+  }
+
+  private static Map<String, Swc> mergeGroups(final List<SwcGroup> groups) {
+    final Map<String, Swc> swcs = new LinkedHashMap<String, Swc>();
+    for (final SwcGroup group : groups) {
+      if (group != null) {
+        swcs.putAll(group.getSwcs());
+      }
+    }
+    return swcs;
+  }
+
+  /**
+   * Saves the SWC. Exported SWC isn't cached, it is loaded from disk by the compilations that depend on it.
+   */
+  public boolean export(final Swc swc) throws IOException {
+    try {
+      if (!swc.save()) {
+        return false;
+      }
+    }
+    catch (SwcException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      final SwcException ex = new SwcException.SwcNotExported(swc.getLocation(), e);
+      ThreadLocalToolkit.log(ex);
+      throw ex;
+    }
+    finally {
+      remove(swc.getLocation());
+    }
+    return true;
+  }
+
+  protected Map<String, Swc> getSwcs(final String path) {
+    final Map<String, Swc> map = new LinkedHashMap<String, Swc>();
+    final File file = new File(path);
+    if (!file.exists()) {
+      throw new SwcException.SwcNotFound(path);
+    }
+
+    final File catalog = new File(FileUtils.addPathComponents(path, Swc.CATALOG_XML, File.separatorChar));
+    if (!file.isDirectory() || catalog.exists()) {
+      final Swc swc = getSwc(file);
+      if (swc != null) {
+        map.put(swc.getLocation(), swc);
+      }
+    }
+    else {
+      // a single level, not the entire directory tree
+      for (final File child : FileUtils.listFiles(file)) {
+        if (child.isDirectory() || !child.canRead()) continue;
+
+        final String name = child.getName().toLowerCase();
+        if (name.endsWith(SWC_EXTENSION) && !name.endsWith(GENSWC_EXTENSION)) {
+          final Swc swc = getSwc(child);
+          if (swc != null) {
+            map.put(swc.getLocation(), swc);
+          }
+        }
+      }
+    }
+    return map;
+  }
+
+  protected Swc getSwc(final File file) {
+    try {
+      final String location = FileUtils.canonicalPath(file);
+      final long lastModified = file.lastModified();
+
+      Swc swc = useCache ? swcLRUCache.get(location) : null;
+      if (swc != null && swc.getLastModified() == lastModified) {
+        return swc;
+      }
+
+      final SwcPool.Loader<Swc> loader = new SwcPool.Loader<Swc>() {
+        public Swc load() throws Exception {
+          final SwcArchive archive = file.isDirectory() ? new SwcDirectoryArchive(location)
+                                                        : lazyRead ? new SwcLazyReadArchive(location) : new SwcDynamicArchive(location);
+          final Swc loaded = new Swc(archive, true);
+          loaded.setLastModified(lastModified);
+          return ThreadLocalToolkit.errorCount() > 0 ? null : loaded;
+        }
+      };
+
+      if (!useCache) {
+        return loader.load();
+      }
+
+      swc = ourPool.borrow(location, lastModified, file.isDirectory() ? -1 : file.length(), loader);
+      if (swc != null) {
+        swcLRUCache.put(location, swc);
+      }
+      return swc;
+    }
+    catch (Exception e) {
+      final SwcException.SwcNotLoaded ex = new SwcException.SwcNotLoaded(file.getName(), e);
+      ThreadLocalToolkit.log(ex);
+      throw ex;
+    }
+  }
+
+  public void setLastModified(final String location, final long lastModified) {
+    final Swc swc = swcLRUCache.get(location);
+    if (swc != null) {
+      swc.setLastModified(lastModified);
+    }
+  }
+
+  public void setLazyRead(final boolean lazyRead) {
+    this.lazyRead = lazyRead;
+  }
+
+  public void remove(final String location) {
+    swcLRUCache.remove(location);
+    ourPool.discard(location);
+  }
+
+  protected static class SwcLRUCache extends LinkedHashMap<String, Swc> {
+    private final int myMaxSize;
+
+    public SwcLRUCache(final int initialSize, final int maxSize) {
+      super(initialSize, 0.75f, true);
+      myMaxSize = maxSize;
+    }
+
+    protected boolean removeEldestEntry(final Map.Entry<String, Swc> eldest) {
+      return size() > myMaxSize;
+    }
+
+    public Map<String, Swc> getSwcs() {
+      return this;
+    }
+  }
+}
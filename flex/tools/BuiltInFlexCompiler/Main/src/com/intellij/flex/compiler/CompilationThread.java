@@ -36,6 +36,8 @@ public class CompilationThread extends Thread {
   public void run() {
     try {
       mySdkSpecificHandler.initThreadLocals(myLogger);
+      SwcCacheStatistics.start();
+      SwcPool.startCompilation();
 
       final boolean omitTrace = mySdkSpecificHandler.isOmitTrace(mySwf, myParams);
 
@@ -81,9 +83,13 @@ public class CompilationThread extends Thread {
       System.exit(1);
     }
     finally {
+      SwcPool.finishCompilation();
+      final SwcCacheStatistics swcCacheStatistics = SwcCacheStatistics.finish();
+      if (swcCacheStatistics != null && swcCacheStatistics.isPoolUsed()) {
+        myLogger.log(swcCacheStatistics.toString());
+      }
       myLogger.log(FlexCompiler.COMPILATION_FINISHED);
       mySdkSpecificHandler.cleanThreadLocals();
-      System.gc();
     }
   }
 
@@ -12,6 +12,9 @@ import java.net.Socket;
 public class FlexCompiler implements MessageSender {
 
   private static final String CONNECTION_SUCCESSFUL = "Connection successful";
+  // capabilities are reported to JpsBuiltInFlexCompilerHandler after CONNECTION_SUCCESSFUL, older compilers report none
+  private static final String CAPABILITIES = ", capabilities:";
+  private static final String CONCURRENT_COMPILATIONS = "concurrent-compilations";
 
   private static final String FINISH_COMMAND = "Finish";
   public static final String CANCEL_COMMAND = "Cancel";
@@ -32,7 +35,7 @@ public class FlexCompiler implements MessageSender {
         socket = new Socket(InetAddress.getLocalHost(), port);
         myDataInputStream = new DataInputStream(socket.getInputStream());
         myDataOutputStream = new DataOutputStream(socket.getOutputStream());
-        System.out.println(CONNECTION_SUCCESSFUL);
+        System.out.println(CONNECTION_SUCCESSFUL + CAPABILITIES + ' ' + CONCURRENT_COMPILATIONS);
         break;
       }
       catch (IOException e) {
@@ -0,0 +1,166 @@
+import com.intellij.flex.compiler.SwcPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SwcPoolTest {
+  public static void main(String[] args) throws Exception {
+    testReusedBySequentialCompilations();
+    testNotSharedByConcurrentCompilations();
+    testChangedSwcLoadedAgain();
+    testDiscarded();
+    testNotPooledOutsideCompilation();
+    testBounded();
+  }
+
+  private static void testReusedBySequentialCompilations() throws Exception {
+    final TestPool pool = new TestPool(10);
+
+    SwcPool.startCompilation();
+    final Object swc = pool.borrow("a.swc", 1, 100, pool.loader("a"));
+    assert pool.idle() == 0;
+    SwcPool.finishCompilation();
+    assert pool.myReleased.equals(listOf(swc));
+    assert pool.idle() == 1;
+
+    SwcPool.startCompilation();
+    assert pool.borrow("a.swc", 1, 100, pool.loader("a")) == swc;
+    assert pool.myLoaded.size() == 1;
+    SwcPool.finishCompilation();
+  }
+
+  private static void testNotSharedByConcurrentCompilations() throws Exception {
+    final TestPool pool = new TestPool(10);
+    final CountDownLatch borrowed = new CountDownLatch(1);
+    final CountDownLatch otherFinished = new CountDownLatch(1);
+    final AtomicReference<Object> first = new AtomicReference<Object>();
+
+    final Thread thread = new Thread() {
+      public void run() {
+        SwcPool.startCompilation();
+        try {
+          first.set(pool.borrow("a.swc", 1, 100, pool.loader("a")));
+          borrowed.countDown();
+          otherFinished.await();
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        finally {
+          SwcPool.finishCompilation();
+        }
+      }
+    };
+    thread.start();
+    borrowed.await();
+
+    SwcPool.startCompilation();
+    final Object second = pool.borrow("a.swc", 1, 100, pool.loader("a"));
+    SwcPool.finishCompilation();
+    otherFinished.countDown();
+    thread.join();
+
+    assert second != first.get();
+    assert pool.myLoaded.size() == 2;
+    assert pool.myReleased.size() == 2;
+    assert pool.idle() == 1;
+  }
+
+  private static void testChangedSwcLoadedAgain() throws Exception {
+    final TestPool pool = new TestPool(10);
+    compile(pool, "a.swc", 1, 100);
+    compile(pool, "a.swc", 2, 100);
+    compile(pool, "a.swc", 2, 200);
+    assert pool.myLoaded.size() == 3;
+    compile(pool, "a.swc", 2, 200);
+    assert pool.myLoaded.size() == 3;
+    assert pool.idle() == 1;
+  }
+
+  private static void testDiscarded() throws Exception {
+    final TestPool pool = new TestPool(10);
+    compile(pool, "a.swc", 1, 100);
+
+    SwcPool.startCompilation();
+    pool.borrow("a.swc", 1, 100, pool.loader("a"));
+    pool.borrow("b.swc", 1, 100, pool.loader("b"));
+    // exported by this compilation
+    pool.discard("a.swc");
+    SwcPool.finishCompilation();
+
+    assert pool.idle() == 1;
+    compile(pool, "a.swc", 1, 100);
+    assert pool.myLoaded.size() == 3;
+  }
+
+  private static void testNotPooledOutsideCompilation() throws Exception {
+    final TestPool pool = new TestPool(10);
+    final Object swc = pool.borrow("a.swc", 1, 100, pool.loader("a"));
+    assert pool.borrow("a.swc", 1, 100, pool.loader("a")) != swc;
+    assert pool.idle() == 0;
+    assert pool.myReleased.isEmpty();
+  }
+
+  private static void testBounded() throws Exception {
+    final TestPool pool = new TestPool(2);
+    compile(pool, "a.swc", 1, 100);
+    compile(pool, "b.swc", 1, 100);
+    compile(pool, "a.swc", 1, 100);
+    compile(pool, "c.swc", 1, 100);
+    assert pool.idle() == 2;
+    // b is the least recently used
+    compile(pool, "a.swc", 1, 100);
+    compile(pool, "b.swc", 1, 100);
+    assert pool.myLoaded.equals(listOf("a", "b", "c", "b"));
+  }
+
+  private static void compile(final TestPool pool, final String location, final long lastModified, final long length) throws Exception {
+    SwcPool.startCompilation();
+    try {
+      pool.borrow(location, lastModified, length, pool.loader(location.substring(0, location.indexOf('.'))));
+    }
+    finally {
+      SwcPool.finishCompilation();
+    }
+  }
+
+  private static List<Object> listOf(final Object... values) {
+    final List<Object> list = new ArrayList<Object>();
+    for (final Object value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  private static class TestPool extends SwcPool<Object> {
+    private final List<Object> myLoaded = new ArrayList<Object>();
+    private final List<Object> myReleased = new ArrayList<Object>();
+
+    private TestPool(final int maxSize) {
+      super(maxSize);
+    }
+
+    private Loader<Object> loader(final String name) {
+      return new Loader<Object>() {
+        public Object load() {
+          synchronized (myLoaded) {
+            myLoaded.add(name);
+          }
+          return new String(name);
+        }
+      };
+    }
+
+    private int idle() {
+      return getIdleCount();
+    }
+
+    protected void released(final Object swc) {
+      synchronized (myReleased) {
+        myReleased.add(swc);
+      }
+    }
+  }
+}
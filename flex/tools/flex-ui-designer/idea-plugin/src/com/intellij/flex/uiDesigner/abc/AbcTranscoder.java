@@ -73,6 +73,10 @@ abstract public class AbcTranscoder extends SwfTranscoder {
   protected abstract void doAbc2(int length) throws IOException;
 
   protected int processTag(int type, int length) throws IOException {
+    return isUselessTag(type) ? 1 : 0;
+  }
+
+  public static boolean isUselessTag(int type) {
     switch (type) {
       case TagTypes.EnableDebugger:
       case TagTypes.EnableDebugger2:
@@ -81,10 +85,10 @@ abstract public class AbcTranscoder extends SwfTranscoder {
       case TagTypes.DebugID:
       case TagTypes.ScriptLimits:
       case TagTypes.Metadata:
-        return 1;
+        return true;
 
       default:
-        return 0;
+        return false;
     }
   }
 
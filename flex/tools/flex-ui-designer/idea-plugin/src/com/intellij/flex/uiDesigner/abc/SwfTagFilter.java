@@ -0,0 +1,47 @@
+package com.intellij.flex.uiDesigner.abc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Reads SWF (inflates it if compressed) and returns it uncompressed, without skipped tags. Tag bodies are copied as is.
+ */
+public class SwfTagFilter extends SwfTranscoder {
+  // in will be closed
+  public byte[] filter(InputStream in, long inputLength, IntPredicate isTagSkipped) throws IOException {
+    readSource(in, inputLength);
+
+    final byte[] data = buffer.array();
+    final byte[] result = new byte[PARTIAL_HEADER_LENGTH + data.length];
+    int resultLength = PARTIAL_HEADER_LENGTH + buffer.position();
+    // FrameSize, FrameRate, FrameCount
+    System.arraycopy(data, 0, result, PARTIAL_HEADER_LENGTH, buffer.position());
+    while (buffer.position() < buffer.limit()) {
+      final int tagStart = buffer.position();
+      final int tagCodeAndLength = buffer.getShort();
+      final int type = tagCodeAndLength >> 6;
+      int length = tagCodeAndLength & 0x3F;
+      if (length == 63) {
+        length = buffer.getInt();
+      }
+      final int tagEnd = buffer.position() + length;
+      if (type == TagTypes.End || !isTagSkipped.test(type)) {
+        System.arraycopy(data, tagStart, result, resultLength, tagEnd - tagStart);
+        resultLength += tagEnd - tagStart;
+      }
+      if (type == TagTypes.End) {
+        break;
+      }
+      buffer.position(tagEnd);
+    }
+
+    buffer = ByteBuffer.wrap(result).order(ByteOrder.LITTLE_ENDIAN);
+    writePartialHeader(resultLength);
+    buffer = null;
+    return resultLength == result.length ? result : Arrays.copyOf(result, resultLength);
+  }
+}
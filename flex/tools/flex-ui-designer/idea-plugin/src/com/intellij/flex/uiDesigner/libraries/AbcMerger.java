@@ -6,6 +6,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -60,6 +61,14 @@ class AbcMerger extends AbcTranscoder {
     process(file.getInputStream(), (int)file.getLength());
   }
 
+  /**
+   * @param swf uncompressed and filtered library.swf, see {@link LibrarySwfCache}
+   */
+  public void process(Library library, byte[] swf) throws IOException {
+    this.library = library;
+    process(new ByteArrayInputStream(swf), swf.length);
+  }
+
   public void process(InputStream in) throws IOException {
     process(in, in.available());
   }
@@ -131,9 +140,16 @@ class AbcMerger extends AbcTranscoder {
     channel = null;
   }
 
+  /**
+   * Tags which are skipped for any library set, {@link LibrarySwfCache} doesn't keep them
+   */
+  static boolean isSkippedTag(int type) {
+    return isUselessTag(type) || type == TagTypes.FileAttributes || type == TagTypes.ShowFrame;
+  }
+
   @Override
   protected int processTag(int type, int length) throws IOException {
-    if (super.processTag(type, length) == 1 || type == TagTypes.FileAttributes || type == TagTypes.ShowFrame) {
+    if (isSkippedTag(type)) {
       return 1;
     }
 
@@ -142,7 +142,7 @@ public class LibraryManager implements Disposable {
       final String key = createKey(libraryCollector.externalLibraries, false);
       librarySet = librarySets.get(key);
       if (librarySet == null) {
-        final SortResult sortResult = sortLibraries(new LibrarySorter(), libraryCollector, flexLibrarySet.contains, key, false);
+        final SortResult sortResult = sortLibraries(new LibrarySorter(null, null, appDir), libraryCollector, flexLibrarySet.contains, key, false);
         librarySet = new LibrarySet(sortResult.id, flexLibrarySet, sortResult.libraries);
         registerLibrarySet(key, librarySet);
       }
@@ -186,7 +186,7 @@ public class LibraryManager implements Disposable {
       final Condition<String> globalContains = name -> globalDefinitions.contains(name);
       final SortResult sortResult = sortLibraries(new LibrarySorter(new FlexDefinitionProcessor(libraryCollector.getFlexSdkVersion()),
                                                                     new FlexDefinitionMapProcessor(libraryCollector.getFlexSdkVersion(),
-                                                                                                   globalContains)), libraryCollector,
+                                                                                                   globalContains), appDir), libraryCollector,
                                                   globalContains, key, true);
       flexLibrarySet =
         new FlexLibrarySet(sortResult, null, new ContainsCondition(globalDefinitions, sortResult.definitionMap), assetCounter, libraryCollector.getFlexSdkVersion());
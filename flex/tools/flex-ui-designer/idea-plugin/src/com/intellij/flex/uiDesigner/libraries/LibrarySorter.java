@@ -5,6 +5,8 @@ import com.intellij.flex.uiDesigner.abc.Decoder;
 import com.intellij.flex.uiDesigner.abc.DecoderException;
 import com.intellij.flex.uiDesigner.abc.Encoder;
 import com.intellij.flex.uiDesigner.io.IOUtil;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Condition;
 import gnu.trove.THashMap;
 import org.jetbrains.annotations.Nullable;
@@ -12,11 +14,14 @@ import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.intellij.flex.uiDesigner.libraries.Definition.ResolvedState;
 
@@ -26,13 +31,25 @@ public class LibrarySorter {
   @Nullable
   private final DefinitionMapProcessor definitionMapProcessor;
 
+  private final LibrarySwfCache swfCache;
+
   public LibrarySorter() {
-    this(null, null);
+    this(null, null, null);
   }
 
   public LibrarySorter(@Nullable DefinitionProcessor definitionProcessor, @Nullable DefinitionMapProcessor definitionMapProcessor) {
+    this(definitionProcessor, definitionMapProcessor, null);
+  }
+
+  /**
+   * @param swfCacheDir directory for filtered library SWFs, see {@link LibrarySwfCache}; if null, nothing is cached
+   */
+  public LibrarySorter(@Nullable DefinitionProcessor definitionProcessor,
+                       @Nullable DefinitionMapProcessor definitionMapProcessor,
+                       @Nullable File swfCacheDir) {
     this.definitionProcessor = definitionProcessor;
     this.definitionMapProcessor = definitionMapProcessor;
+    swfCache = new LibrarySwfCache(swfCacheDir);
   }
 
   private static List<LibrarySetItem> collectItems(final List<Library> libraries, Map<CharSequence, Definition> definitionMap,
@@ -57,6 +74,7 @@ public class LibrarySorter {
     final AbcMerger abcMerger = new AbcMerger(definitionMap, outFile, definitionProcessor);
     try {
       final ArrayList<Library> resourceOrStyleHolders = new ArrayList<>(unsortedItems.size());
+      final List<Library> librariesToMerge = new ArrayList<>(unsortedItems.size());
       for (LibrarySetItem item : unsortedItems) {
         if (!item.hasDefinitions()) {
           if (item.library.hasResourceBundles()) {
@@ -69,8 +87,10 @@ public class LibrarySorter {
           resourceOrStyleHolders.add(item.library);
         }
 
-        abcMerger.process(item.library);
+        librariesToMerge.add(item.library);
       }
+
+      mergeLibraries(librariesToMerge, abcMerger);
       
       if (definitionMapProcessor != null) {
         definitionMapProcessor.process(definitionMap, abcMerger);
@@ -96,6 +116,56 @@ public class LibrarySorter {
     }
   }
 
+  /**
+   * Merging depends on the library order (definitions of later libraries may overload earlier ones), so libraries are merged
+   * sequentially, but loading and filtering of library SWFs is done on pooled threads, a few libraries ahead of the merger.
+   */
+  private void mergeLibraries(List<Library> libraries, AbcMerger abcMerger) throws IOException {
+    final Application application = ApplicationManager.getApplication();
+    if (application == null) {
+      for (Library library : libraries) {
+        abcMerger.process(library, swfCache.load(library));
+      }
+      return;
+    }
+
+    final int window = Runtime.getRuntime().availableProcessors() + 1;
+    final List<Future<byte[]>> loads = new ArrayList<>(libraries.size());
+    try {
+      for (int i = 0; i < libraries.size(); i++) {
+        for (int j = loads.size(); j < libraries.size() && j <= i + window; j++) {
+          final Library library = libraries.get(j);
+          loads.add(application.executeOnPooledThread(() -> swfCache.load(library)));
+        }
+
+        final byte[] swf;
+        try {
+          swf = loads.get(i).get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ClosedByInterruptException();
+        }
+        catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException)cause;
+          }
+          throw new IOException(cause);
+        }
+        loads.set(i, null);
+        abcMerger.process(libraries.get(i), swf);
+      }
+    }
+    finally {
+      for (Future<byte[]> load : loads) {
+        if (load != null) {
+          load.cancel(false);
+        }
+      }
+    }
+  }
+
   private static Decoder createDecoder(Definition definition) {
     final Decoder decoder = new Decoder(definition.doAbcData, definition.doAbcData.abcModifier);
     definition.doAbcData = null;
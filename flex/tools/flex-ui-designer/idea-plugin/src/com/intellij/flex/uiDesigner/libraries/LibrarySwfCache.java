@@ -0,0 +1,147 @@
+package com.intellij.flex.uiDesigner.libraries;
+
+import com.intellij.flex.uiDesigner.LogMessageUtil;
+import com.intellij.flex.uiDesigner.abc.SwfTagFilter;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads library.swf of a SWC as an uncompressed SWF without the tags {@link AbcMerger} skips for any library set. Filtered SWFs are
+ * cached on disk under a name made of the SHA-1 of the library.swf path, {@link LibrariesData#ABC_FILTER_VERSION} and the length and
+ * timestamp of library.swf, so a SWC shared by several library sets is inflated and filtered only once. Cache files have
+ * {@link LibrariesData#NAME_PREFIX} and are also dropped together with the other library caches when the filter version changes;
+ * outdated files of a changed library are deleted as soon as it is cached again, and the least recently used files are deleted when
+ * the cache exceeds {@link #MAX_CACHE_SIZE}.
+ * <p>
+ * Thread-safe, libraries are loaded in parallel by {@link LibrarySorter}.
+ */
+class LibrarySwfCache {
+  private static final String FILE_PREFIX = LibrariesData.NAME_PREFIX + "swf_";
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final long MAX_CACHE_SIZE = 256 * 1024 * 1024;
+
+  @Nullable
+  private final File cacheDir;
+  private final String filterVersion;
+
+  LibrarySwfCache(@Nullable File cacheDir) {
+    this(cacheDir, LibrariesData.ABC_FILTER_VERSION);
+  }
+
+  LibrarySwfCache(@Nullable File cacheDir, @NotNull String filterVersion) {
+    this.cacheDir = cacheDir;
+    this.filterVersion = filterVersion;
+  }
+
+  @NotNull
+  byte[] load(@NotNull Library library) throws IOException {
+    final VirtualFile file = library.getSwfFile();
+    if (cacheDir == null) {
+      return filter(file);
+    }
+
+    final String libraryPrefix = FILE_PREFIX + pathDigest(file.getPath()) + '_';
+    final File cacheFile = new File(cacheDir, libraryPrefix + filterVersion + '_' + Long.toHexString(file.getLength()) + '_' +
+                                              Long.toHexString(file.getTimeStamp()));
+    if (cacheFile.isFile()) {
+      try {
+        final byte[] swf = FileUtil.loadFileBytes(cacheFile);
+        //noinspection ResultOfMethodCallIgnored
+        cacheFile.setLastModified(System.currentTimeMillis());
+        return swf;
+      }
+      catch (IOException e) {
+        LogMessageUtil.LOG.info(e);
+      }
+    }
+
+    final byte[] swf = filter(file);
+    try {
+      // write to temp file first, concurrent readers must never see partially written file
+      final File tempFile = FileUtil.createTempFile(cacheDir, FILE_PREFIX, TEMP_FILE_SUFFIX, true, false);
+      FileUtil.writeToFile(tempFile, swf);
+      if (!tempFile.renameTo(cacheFile)) {
+        FileUtil.delete(tempFile);
+      }
+      deleteOutdated(cacheDir, libraryPrefix, cacheFile);
+    }
+    catch (IOException e) {
+      LogMessageUtil.LOG.info(e);
+    }
+    return swf;
+  }
+
+  @NotNull
+  byte[] filter(@NotNull VirtualFile file) throws IOException {
+    return new SwfTagFilter().filter(file.getInputStream(), file.getLength(), AbcMerger::isSkippedTag);
+  }
+
+  @NotNull
+  private static String pathDigest(@NotNull String path) {
+    final byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes(StandardCharsets.UTF_8));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+
+    final StringBuilder builder = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Deletes the other files of the same library and then the least recently used files until the cache fits into {@link #MAX_CACHE_SIZE}.
+   */
+  private static void deleteOutdated(@NotNull File cacheDir, @NotNull String libraryPrefix, @NotNull File cacheFile) {
+    synchronized (LibrarySwfCache.class) {
+      final File[] files = cacheDir.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && !name.endsWith(TEMP_FILE_SUFFIX));
+      if (files == null) {
+        return;
+      }
+
+      final List<File> candidates = new ArrayList<>(files.length);
+      long size = 0;
+      for (File file : files) {
+        if (file.equals(cacheFile)) {
+          size += file.length();
+        }
+        else if (file.getName().startsWith(libraryPrefix)) {
+          FileUtil.delete(file);
+        }
+        else {
+          size += file.length();
+          candidates.add(file);
+        }
+      }
+
+      if (size <= MAX_CACHE_SIZE) {
+        return;
+      }
+
+      candidates.sort((o1, o2) -> Long.compare(o1.lastModified(), o2.lastModified()));
+      for (File file : candidates) {
+        final long length = file.length();
+        if (FileUtil.delete(file)) {
+          size -= length;
+          if (size <= MAX_CACHE_SIZE) {
+            return;
+          }
+        }
+      }
+    }
+  }
+}
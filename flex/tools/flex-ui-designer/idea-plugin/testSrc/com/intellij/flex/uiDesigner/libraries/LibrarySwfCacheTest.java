@@ -0,0 +1,120 @@
+package com.intellij.flex.uiDesigner.libraries;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class LibrarySwfCacheTest {
+  private File cacheDir;
+  private int filterCount;
+
+  @Before
+  public void runBeforeEveryTest() throws Exception {
+    cacheDir = FileUtil.createTempDirectory("swf_cache_", null);
+  }
+
+  @After
+  public void runAfterEveryTest() {
+    Assert.assertTrue(FileUtil.delete(cacheDir));
+  }
+
+  @Test
+  public void reuse() throws IOException {
+    final Library library = createLibrary("/lib/a.swc", 1);
+    assertLoaded(createCache("1"), library);
+    assertLoaded(createCache("1"), library);
+    Assert.assertEquals(1, filterCount);
+    Assert.assertEquals(1, countCacheFiles());
+  }
+
+  @Test
+  public void invalidatedByTimestamp() throws IOException {
+    assertLoaded(createCache("1"), createLibrary("/lib/a.swc", 1));
+    assertLoaded(createCache("1"), createLibrary("/lib/a.swc", 2));
+    Assert.assertEquals(2, filterCount);
+    Assert.assertEquals(1, countCacheFiles());
+  }
+
+  @Test
+  public void invalidatedByFilterVersion() throws IOException {
+    final Library library = createLibrary("/lib/a.swc", 1);
+    assertLoaded(createCache("1"), library);
+    assertLoaded(createCache("2"), library);
+    Assert.assertEquals(2, filterCount);
+    Assert.assertEquals(1, countCacheFiles());
+  }
+
+  @Test
+  public void pathHashCodeCollision() throws IOException {
+    Assert.assertEquals("/lib/Aa.swc".hashCode(), "/lib/BB.swc".hashCode());
+    final Library first = createLibrary("/lib/Aa.swc", 1);
+    final Library second = createLibrary("/lib/BB.swc", 1);
+    assertLoaded(createCache("1"), first);
+    assertLoaded(createCache("1"), second);
+    Assert.assertEquals(2, countCacheFiles());
+
+    assertLoaded(createCache("1"), first);
+    assertLoaded(createCache("1"), second);
+    Assert.assertEquals(2, filterCount);
+  }
+
+  private LibrarySwfCache createCache(String filterVersion) {
+    return new LibrarySwfCache(cacheDir, filterVersion) {
+      @NotNull
+      @Override
+      byte[] filter(@NotNull VirtualFile file) {
+        filterCount++;
+        return content(file);
+      }
+    };
+  }
+
+  private static void assertLoaded(LibrarySwfCache cache, Library library) throws IOException {
+    Assert.assertArrayEquals(content(library.getSwfFile()), cache.load(library));
+  }
+
+  private static byte[] content(VirtualFile file) {
+    return (file.getPath() + '@' + file.getTimeStamp()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private int countCacheFiles() {
+    final String[] names = cacheDir.list();
+    Assert.assertNotNull(names);
+    return names.length;
+  }
+
+  private static Library createLibrary(final String path, final long timeStamp) {
+    final VirtualFile swfFile = new LightVirtualFile("library.swf") {
+      @NotNull
+      @Override
+      public String getPath() {
+        return path + "!/library.swf";
+      }
+
+      @Override
+      public long getTimeStamp() {
+        return timeStamp;
+      }
+
+      @Override
+      public long getLength() {
+        return 42;
+      }
+    };
+    return new Library(new LightVirtualFile(path)) {
+      @Override
+      public VirtualFile getSwfFile() {
+        return swfFile;
+      }
+    };
+  }
+}
@@ -1,68 +1,135 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
 import com.intellij.openapi.util.Pair;
-import com.intellij.util.ArrayUtil;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
-import gnu.trove.THashSet;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.Map;
 
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.ROOT;
+
+/**
+ * Frames are stored as int ids of {@link FrameDictionary}, nodes are stored in {@link CallTreeArena}.
+ * Samples keep coming while snapshots of the same tree are viewed, so all access is synchronized.
+ */
 public class CallTree {
-  private final CallTreeNode root;
+  private final FrameDictionary frames = new FrameDictionary();
+  private final CallTreeArena arena = new CallTreeArena(frames);
+
+  // path of the last added sample: consecutive samples usually share the bottom of the stack
+  private FrameInfo[] lastPathFrames = FrameInfo.EMPTY_FRAME_INFO_ARRAY;
+  private int[] lastPathNodes = new int[0];
+  private int lastPathLength;
+
+  // dropped when the tree changes
+  @Nullable
+  private TimeMapBuilder timeMapBuilder;
 
-  public CallTree() {
-    root = new CallTreeNode();
+  CallTreeArena getArena() {
+    return arena;
   }
 
-  CallTree(CallTreeNode root) {
-    this.root = root;
+  public synchronized void addFrames(FrameInfo[] frames, long duration) {
+    if (lastPathFrames.length < frames.length) {
+      lastPathFrames = Arrays.copyOf(lastPathFrames, frames.length);
+      lastPathNodes = Arrays.copyOf(lastPathNodes, frames.length);
+    }
+
+    int node = ROOT;
+    int depth = 0;
+    for (int i = frames.length - 1; i >= 0; i--, depth++) {
+      final FrameInfo frame = frames[i];
+      if (depth < lastPathLength && lastPathFrames[depth] == frame) {
+        node = lastPathNodes[depth];
+      }
+      else {
+        lastPathLength = depth;
+        node = arena.getOrCreateChild(node, this.frames.getId(frame));
+        lastPathFrames[depth] = frame;
+        lastPathNodes[depth] = node;
+      }
+      arena.addTiming(node, duration);
+    }
+    lastPathLength = depth;
+    timeMapBuilder = null;
   }
 
-  CallTreeNode getRoot() {
-    return root;
+  /*
+   * Adds (or merges with the existing child of the same frame) a child of <code>parent</code> node.
+   *
+   * @return child node
+   */
+  synchronized int addChild(int parent, FrameInfo frame, long duration) {
+    final int child = arena.getOrCreateChild(parent, frames.getId(frame));
+    arena.addTiming(child, duration);
+    lastPathLength = 0;
+    timeMapBuilder = null;
+    return child;
   }
 
-  public void addFrames(FrameInfo[] frames, long duration) {
-    root.addChildren(Arrays.asList(ArrayUtil.reverseArray(frames)), duration);
+  private TimeMapBuilder getTimeMapBuilder() {
+    if (timeMapBuilder == null) {
+      timeMapBuilder = new TimeMapBuilder(arena);
+    }
+    return timeMapBuilder;
   }
 
   /*
    * @return pair <cumulative time map, self time map>
    */
-  public Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getTimeMaps() {
-    return TimeMapBuilder.buildTimeMaps(root, root.getChildren());
+  public synchronized Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getTimeMaps() {
+    return getTimeMapBuilder().buildTimeMaps();
   }
 
   /*
    * @return pair <cumulative time map, self time map>
    */
-  public Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCallersTimeMaps(FrameInfo[] frames) {
-    List<CallTreeNode> calls = CallerFinder.findCallsByFrames(root, frames);
-    Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> timeMaps = TimeMapBuilder.buildTimeMaps(root, calls);
-    Set<FrameInfo> callerNames = getNamesOfNodes(calls);
-    Map<FrameInfo, Long> filteredCountMap = filterMap(timeMaps.getFirst(), callerNames);
-    Map<FrameInfo, Long> filteredSelfTimeMap = filterMap(timeMaps.getSecond(), callerNames);
-    return Pair.create(filteredCountMap, filteredSelfTimeMap);
+  public synchronized Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCallersTimeMaps(FrameInfo[] frames) {
+    final int[] reversedFrameIds = getReversedFrameIds(frames);
+    if (reversedFrameIds == null) {
+      return createEmptyTimeMaps();
+    }
+
+    final boolean[] calls = CallerFinder.findCallsByFrames(arena, reversedFrameIds);
+    final boolean[] callerFrames = new boolean[this.frames.size()];
+    for (int node = 0; node < calls.length; node++) {
+      if (calls[node]) {
+        callerFrames[arena.getFrameId(node)] = true;
+      }
+    }
+    return getTimeMapBuilder().buildTimeMaps(calls, callerFrames);
   }
 
   /*
    * @return pair <cumulative time map, self time map>
    */
-  public Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCalleesTimeMaps(FrameInfo[] frames) {
-    List<CallTreeNode> calls = CalleeFinder.findCallsByFrameName(root, frames);
-    return TimeMapBuilder.buildTimeMaps(root, calls);
+  public synchronized Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCalleesTimeMaps(FrameInfo[] frames) {
+    final int[] reversedFrameIds = getReversedFrameIds(frames);
+    if (reversedFrameIds == null) {
+      return createEmptyTimeMaps();
+    }
+    return getTimeMapBuilder().buildTimeMaps(CalleeFinder.findCallsByFrameName(arena, reversedFrameIds), null);
   }
 
-  private static Map<FrameInfo, Long> filterMap(Map<FrameInfo, Long> first, Set<FrameInfo> callerNames) {
-    first.keySet().retainAll(callerNames);
-    return first;
+  /*
+   * @return null if some frame is not in the tree
+   */
+  @Nullable
+  private int[] getReversedFrameIds(FrameInfo[] frames) {
+    final int[] ids = new int[frames.length];
+    for (int i = 0; i < frames.length; i++) {
+      final int id = this.frames.findId(frames[i]);
+      if (id == FrameDictionary.NO_FRAME) {
+        return null;
+      }
+      ids[frames.length - 1 - i] = id;
+    }
+    return ids;
   }
 
-  private static Set<FrameInfo> getNamesOfNodes(Collection<CallTreeNode> nodes) {
-    THashSet<FrameInfo> names = new THashSet<>();
-    for (CallTreeNode node : nodes) {
-      names.add(node.getFrameInfo());
-    }
-    return names;
+  private static Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> createEmptyTimeMaps() {
+    return Pair.create(new THashMap<>(), new THashMap<>());
   }
 }
@@ -0,0 +1,112 @@
+package com.jetbrains.actionscript.profiler.calltree;
+
+import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+import gnu.trove.TLongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Array-backed call tree nodes. A node is an index, node 0 is the root.
+ * A child is always created after its parent, so parent index is less than child index and a single pass over
+ * the indices visits parents before their children.
+ */
+class CallTreeArena {
+  static final int ROOT = 0;
+  static final int NO_NODE = -1;
+
+  private final FrameDictionary frames;
+  private int size = 1;
+  private int[] frameIds = new int[256];
+  private int[] parents = new int[256];
+  private int[] firstChildren = new int[256];
+  private int[] nextSiblings = new int[256];
+  private long[] timings = new long[256];
+  // (parent << 32 | frame id) -> child; 0 means no child, root is never a child
+  private final TLongIntHashMap childIndex = new TLongIntHashMap();
+
+  CallTreeArena(FrameDictionary frames) {
+    this.frames = frames;
+    frameIds[ROOT] = FrameDictionary.NO_FRAME;
+    parents[ROOT] = NO_NODE;
+    firstChildren[ROOT] = NO_NODE;
+    nextSiblings[ROOT] = NO_NODE;
+  }
+
+  FrameDictionary getFrames() {
+    return frames;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int getFrameId(int node) {
+    return frameIds[node];
+  }
+
+  FrameInfo getFrame(int node) {
+    return frames.getFrame(frameIds[node]);
+  }
+
+  int getParent(int node) {
+    return parents[node];
+  }
+
+  int getFirstChild(int node) {
+    return firstChildren[node];
+  }
+
+  int getNextSibling(int node) {
+    return nextSiblings[node];
+  }
+
+  long getTiming(int node) {
+    return timings[node];
+  }
+
+  void addTiming(int node, long timing) {
+    timings[node] += timing;
+  }
+
+  int findChild(int node, int frameId) {
+    final int child = childIndex.get(key(node, frameId));
+    return child == ROOT ? NO_NODE : child;
+  }
+
+  /*
+   * @return node reached from <code>node</code> by <code>frameIds[from..]</code>, or NO_NODE
+   */
+  int findChildDeep(int node, int[] frameIds, int from) {
+    for (int i = from; i < frameIds.length && node != NO_NODE; i++) {
+      node = findChild(node, frameIds[i]);
+    }
+    return node;
+  }
+
+  int getOrCreateChild(int node, int frameId) {
+    final long key = key(node, frameId);
+    int child = childIndex.get(key);
+    if (child == ROOT) {
+      child = size++;
+      if (child == frameIds.length) {
+        final int newLength = child * 2;
+        frameIds = Arrays.copyOf(frameIds, newLength);
+        parents = Arrays.copyOf(parents, newLength);
+        firstChildren = Arrays.copyOf(firstChildren, newLength);
+        nextSiblings = Arrays.copyOf(nextSiblings, newLength);
+        timings = Arrays.copyOf(timings, newLength);
+      }
+      frameIds[child] = frameId;
+      parents[child] = node;
+      firstChildren[child] = NO_NODE;
+      nextSiblings[child] = firstChildren[node];
+      firstChildren[node] = child;
+      childIndex.put(key, child);
+    }
+    return child;
+  }
+
+  private static long key(int node, int frameId) {
+    return (long)node << 32 | frameId;
+  }
+}
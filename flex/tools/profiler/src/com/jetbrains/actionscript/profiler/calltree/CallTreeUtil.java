@@ -1,26 +1,33 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
+import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.NO_NODE;
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.ROOT;
+
 /**
  * @author: Fedor.Korotkov
  */
 public class CallTreeUtil {
   public static CallTree filterSystemStuff(CallTree tree) {
-    return new CallTree(filterSystemStuffImpl(tree.getRoot()));
-  }
-
-  private static CallTreeNode filterSystemStuffImpl(CallTreeNode node) {
-    CallTreeNode result = new CallTreeNode(node.getFrameInfo(), node.getCumulativeTiming());
-
-    for (CallTreeNode child : node.getChildren()) {
-      CallTreeNode newChild = filterSystemStuffImpl(child);
-      if (newChild.getFrameInfo().isSystem()) {
-        result.addChildrenRecursive(newChild.getChildren());
-      }
-      else {
-        result.addChildRecursive(newChild);
+    final CallTree result = new CallTree();
+    synchronized (tree) {
+      final CallTreeArena arena = tree.getArena();
+      for (int child = arena.getFirstChild(ROOT); child != NO_NODE; child = arena.getNextSibling(child)) {
+        filterSystemStuffImpl(arena, child, result, ROOT);
       }
     }
-
     return result;
   }
+
+  /*
+   * Children of system nodes are merged into the nearest non-system ancestor.
+   */
+  private static void filterSystemStuffImpl(CallTreeArena arena, int node, CallTree result, int resultParent) {
+    final FrameInfo frameInfo = arena.getFrame(node);
+    final int resultNode = frameInfo.isSystem() ? resultParent : result.addChild(resultParent, frameInfo, arena.getTiming(node));
+    for (int child = arena.getFirstChild(node); child != NO_NODE; child = arena.getNextSibling(child)) {
+      filterSystemStuffImpl(arena, child, result, resultNode);
+    }
+  }
 }
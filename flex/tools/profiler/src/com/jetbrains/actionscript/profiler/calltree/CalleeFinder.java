@@ -1,10 +1,8 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
-import com.intellij.util.ArrayUtil;
-import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+import java.util.Arrays;
 
-import java.util.ArrayList;
-import java.util.List;
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.NO_NODE;
 
 class CalleeFinder {
   private CalleeFinder() {
@@ -12,22 +10,27 @@ class CalleeFinder {
 
   /*
   * Find nodes with <code>frameName == frames[0]</code>. Node's call stack contains all <code>frames</code> in order.
+  *
+  * @param reversedFrameIds ids of <code>frames</code> in reverse order
+  * @return <code>calls[node]</code> is true for found nodes
   */
-  static List<CallTreeNode> findCallsByFrameName(CallTreeNode root, FrameInfo[] frames) {
-    ArrayList<CallTreeNode> result = new ArrayList<>();
-    fillCallsByFrameName(root, ArrayUtil.reverseArray(frames), result);
-    return result;
-  }
-
-  private static void fillCallsByFrameName(CallTreeNode node,
-                                           FrameInfo[] frames,
-                                           List<CallTreeNode> result) {
-    final CallTreeNode deepChild = node.getChildDeep(frames);
-    if (deepChild != null) {
-      result.addAll(deepChild.getChildren());
+  static boolean[] findCallsByFrameName(CallTreeArena arena, int[] reversedFrameIds) {
+    final boolean[] calls = new boolean[arena.size()];
+    if (reversedFrameIds.length == 0) {
+      Arrays.fill(calls, 1, calls.length, true);
+      return calls;
     }
-    for (CallTreeNode child : node.getChildren()) {
-      fillCallsByFrameName(child, frames, result);
+    // children of every node reached by the frames from some node
+    for (int node = 1; node < arena.size(); node++) {
+      if (arena.getFrameId(node) == reversedFrameIds[0]) {
+        final int deepChild = arena.findChildDeep(node, reversedFrameIds, 1);
+        if (deepChild != NO_NODE) {
+          for (int child = arena.getFirstChild(deepChild); child != NO_NODE; child = arena.getNextSibling(child)) {
+            calls[child] = true;
+          }
+        }
+      }
     }
+    return calls;
   }
 }
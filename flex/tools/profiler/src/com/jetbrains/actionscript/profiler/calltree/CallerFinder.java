@@ -1,10 +1,7 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
-import com.intellij.util.ArrayUtil;
-import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
-
-import java.util.ArrayList;
-import java.util.List;
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.NO_NODE;
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.ROOT;
 
 class CallerFinder {
   private CallerFinder() {
@@ -20,37 +17,23 @@ class CallerFinder {
   * <code>frames = [baz, bar]</code>
   *
   * Method return only <code>foo</code>.
+  *
+  * @param reversedFrameIds ids of <code>frames</code> in reverse order
+  * @return <code>calls[node]</code> is true for found nodes
   */
-  static List<CallTreeNode> findCallsByFrames(CallTreeNode root, FrameInfo[] frames) {
-    List<CallTreeNode> calls = new ArrayList<>();
-    if (frames.length == 0) {
+  static boolean[] findCallsByFrames(CallTreeArena arena, int[] reversedFrameIds) {
+    final boolean[] calls = new boolean[arena.size()];
+    if (reversedFrameIds.length == 0) {
       return calls;
     }
-    frames = ArrayUtil.reverseArray(frames);
-    for (CallTreeNode node : root.getChildren()) {
-      fillCallsByFrames(node, calls, frames, new ArrayList<>());
+    // a node is found if it has a child with the first frame and the rest of the frames go down from that child
+    for (int node = 1; node < arena.size(); node++) {
+      final int parent = arena.getParent(node);
+      if (parent != ROOT && arena.getFrameId(node) == reversedFrameIds[0] &&
+          arena.findChildDeep(node, reversedFrameIds, 1) != NO_NODE) {
+        calls[parent] = true;
+      }
     }
     return calls;
   }
-
-  private static void fillCallsByFrames(CallTreeNode currentNode,
-                                        List<CallTreeNode> result,
-                                        FrameInfo[] frames,
-                                        List<FrameInfo> callChainAddedFrames) {
-    //we need only the nearest node to the root
-    //we have <code>callChainAddedFrames<code>
-    boolean needAdd = !callChainAddedFrames.contains(currentNode.getFrameInfo()) && currentNode.getChildDeep(frames) != null;
-    if (needAdd) {
-      result.add(currentNode);
-      callChainAddedFrames.add(currentNode.getFrameInfo());
-    }
-
-    for (CallTreeNode childCall : currentNode.getChildren()) {
-      fillCallsByFrames(childCall, result, frames, callChainAddedFrames);
-    }
-    if (needAdd) {
-      //pop
-      callChainAddedFrames.remove(callChainAddedFrames.size() - 1);
-    }
-  }
 }
@@ -0,0 +1,56 @@
+package com.jetbrains.actionscript.profiler.calltree;
+
+import com.intellij.util.containers.ContainerUtil;
+import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+import gnu.trove.TObjectIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Assigns int ids to frames, equal frames get the same id.
+ * <p>
+ * Samples share {@link FrameInfo} instances interned by {@link com.jetbrains.actionscript.profiler.sampler.FrameInfoBuilder},
+ * so frames are looked up by identity first: {@link FrameInfo#hashCode()} is not cached and is too expensive to be called
+ * for every frame of every sample.
+ */
+class FrameDictionary {
+  static final int NO_FRAME = 0;
+
+  private final TObjectIntHashMap<FrameInfo> identityIds = new TObjectIntHashMap<>(ContainerUtil.identityStrategy());
+  private final TObjectIntHashMap<FrameInfo> ids = new TObjectIntHashMap<>();
+  private FrameInfo[] frames = new FrameInfo[64];
+  private int size = 1;
+
+  int getId(FrameInfo frame) {
+    int id = identityIds.get(frame);
+    if (id == NO_FRAME) {
+      id = ids.get(frame);
+      if (id == NO_FRAME) {
+        id = size++;
+        if (id == frames.length) {
+          frames = Arrays.copyOf(frames, id * 2);
+        }
+        frames[id] = frame;
+        ids.put(frame, id);
+      }
+      identityIds.put(frame, id);
+    }
+    return id;
+  }
+
+  /*
+   * @return NO_FRAME if the frame has not been added
+   */
+  int findId(FrameInfo frame) {
+    final int id = identityIds.get(frame);
+    return id != NO_FRAME ? id : ids.get(frame);
+  }
+
+  FrameInfo getFrame(int id) {
+    return frames[id];
+  }
+
+  int size() {
+    return size;
+  }
+}
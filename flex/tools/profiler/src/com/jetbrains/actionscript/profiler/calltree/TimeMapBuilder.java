@@ -3,59 +3,139 @@ package com.jetbrains.actionscript.profiler.calltree;
 import com.intellij.openapi.util.Pair;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
 import gnu.trove.THashMap;
-import gnu.trove.THashSet;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.NO_NODE;
+import static com.jetbrains.actionscript.profiler.calltree.CallTreeArena.ROOT;
+
+/**
+ * Per-node tables precomputed once for a call tree state and reused by all time map queries,
+ * must be rebuilt after the tree changes.
+ */
 class TimeMapBuilder {
-  private TimeMapBuilder() {
-  }
+  private final CallTreeArena arena;
+  private final long[] selfTimings;
+  // nearest ancestor with the same frame, or NO_NODE
+  private final int[] sameFrameAncestors;
 
-  /*
-  * @return pair <cumulative time map, self time map>
-  */
-  static Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> buildTimeMaps(CallTreeNode root, List<CallTreeNode> calls) {
-    Map<FrameInfo, Long> countMap = new THashMap<>();
-    Map<FrameInfo, Long> selfCountMap = new THashMap<>();
-    THashSet<CallTreeNode> trackedCalls = new THashSet<>(calls);
-
-    for (CallTreeNode node : root.getChildren()) {
-      fillTimeMaps(node, countMap, selfCountMap, trackedCalls.contains(node), trackedCalls);
+  private TimeTable fullTimeTable;
+
+  TimeMapBuilder(CallTreeArena arena) {
+    this.arena = arena;
+    final int size = arena.size();
+
+    selfTimings = new long[size];
+    for (int node = 1; node < size; node++) {
+      selfTimings[node] += arena.getTiming(node);
+      selfTimings[arena.getParent(node)] -= arena.getTiming(node);
     }
-    return Pair.create(countMap, selfCountMap);
+
+    sameFrameAncestors = new int[size];
+    fillSameFrameAncestors();
   }
 
-  private static void fillTimeMaps(CallTreeNode node,
-                                   Map<FrameInfo, Long> countMap,
-                                   Map<FrameInfo, Long> selfCountMap,
-                                   boolean tracking,
-                                   THashSet<CallTreeNode> trackedCalls) {
-    if (tracking) {
-      updateSelfTime(node, selfCountMap);
-    }
+  private void fillSameFrameAncestors() {
+    final int[] innermostNodes = new int[arena.getFrames().size()];
+    Arrays.fill(innermostNodes, NO_NODE);
+    // node is pushed as is to be entered and as ~node to be exited
+    int[] stack = new int[64];
+    int stackSize = 0;
+    stack[stackSize++] = ROOT;
+    while (stackSize > 0) {
+      final int node = stack[--stackSize];
+      if (node < 0) {
+        innermostNodes[arena.getFrameId(~node)] = sameFrameAncestors[~node];
+        continue;
+      }
 
-    //save value before subcalls
-    Long countBefore = countMap.get(node.getFrameInfo());
-    if (countBefore == null) {
-      countBefore = 0L;
+      final int frameId = arena.getFrameId(node);
+      sameFrameAncestors[node] = innermostNodes[frameId];
+      innermostNodes[frameId] = node;
+      if (stackSize == stack.length) {
+        stack = Arrays.copyOf(stack, stackSize * 2);
+      }
+      stack[stackSize++] = ~node;
+      for (int child = arena.getFirstChild(node); child != NO_NODE; child = arena.getNextSibling(child)) {
+        if (stackSize == stack.length) {
+          stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = child;
+      }
     }
-    for (CallTreeNode child : node.getChildren()) {
-      fillTimeMaps(child, countMap, selfCountMap, tracking || trackedCalls.contains(child), trackedCalls);
+  }
+
+  /*
+   * @return pair <cumulative time map, self time map> of the whole tree
+   */
+  Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> buildTimeMaps() {
+    if (fullTimeTable == null) {
+      fullTimeTable = buildTimeTable(null);
     }
-    if (tracking) {
-      //rewrite values that were added in subcalls.
-      //cause of that we get value only of the nearest node to the root
-      countMap.put(node.getFrameInfo(), countBefore + node.getCumulativeTiming());
+    return fullTimeTable.toMaps(null);
+  }
+
+  /*
+   * Cumulative time of a frame is taken only from the nearest to the root tracked nodes of this frame,
+   * self time is summed over all tracked nodes of this frame. Subtrees of calls are tracked.
+   *
+   * @param frameFilter if not null, only frames with <code>frameFilter[frameId]</code> are included
+   * @return pair <cumulative time map, self time map>
+   */
+  Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> buildTimeMaps(boolean[] calls, @Nullable boolean[] frameFilter) {
+    return buildTimeTable(calls).toMaps(frameFilter);
+  }
+
+  /*
+   * @param calls if null, all nodes are tracked
+   */
+  private TimeTable buildTimeTable(@Nullable boolean[] calls) {
+    final int size = arena.size();
+    final TimeTable table = new TimeTable(arena.getFrames());
+    final boolean[] tracked = new boolean[size];
+    for (int node = 1; node < size; node++) {
+      tracked[node] = calls == null || calls[node] || tracked[arena.getParent(node)];
+      if (!tracked[node]) {
+        continue;
+      }
+
+      final int frameId = arena.getFrameId(node);
+      table.present[frameId] = true;
+      table.selfTimings[frameId] += selfTimings[node];
+      final int sameFrameAncestor = sameFrameAncestors[node];
+      if (sameFrameAncestor == NO_NODE || !tracked[sameFrameAncestor]) {
+        table.cumulativeTimings[frameId] += arena.getTiming(node);
+      }
     }
+    return table;
   }
 
-  private static void updateSelfTime(CallTreeNode node, Map<FrameInfo, Long> selfCountMap) {
-    long currentSelfTime = node.getCumulativeTiming() - node.calcSelfTiming();
-    Long selfTime = selfCountMap.get(node.getFrameInfo());
-    if (selfTime == null) {
-      selfTime = 0L;
+  private static class TimeTable {
+    private final FrameDictionary frames;
+    private final boolean[] present;
+    private final long[] cumulativeTimings;
+    private final long[] selfTimings;
+
+    private TimeTable(FrameDictionary frames) {
+      this.frames = frames;
+      present = new boolean[frames.size()];
+      cumulativeTimings = new long[frames.size()];
+      selfTimings = new long[frames.size()];
+    }
+
+    private Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> toMaps(@Nullable boolean[] frameFilter) {
+      Map<FrameInfo, Long> countMap = new THashMap<>();
+      Map<FrameInfo, Long> selfCountMap = new THashMap<>();
+      for (int frameId = 0; frameId < present.length; frameId++) {
+        if (present[frameId] && (frameFilter == null || frameFilter[frameId])) {
+          final FrameInfo frame = frames.getFrame(frameId);
+          countMap.put(frame, cumulativeTimings[frameId]);
+          selfCountMap.put(frame, selfTimings[frameId]);
+        }
+      }
+      return Pair.create(countMap, selfCountMap);
     }
-    selfCountMap.put(node.getFrameInfo(), selfTime + currentSelfTime);
   }
 }
@@ -0,0 +1,49 @@
+package com.jetbrains.actionscript.profiler.livetable;
+
+import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+
+/**
+ * Class name and allocation stack of a live object. Stacks are compared by frame qualified names,
+ * the same way frame nodes of the live objects tree are matched.
+ */
+class AllocationSite {
+  final String className;
+  final FrameInfo[] frames;
+  private final int hash;
+
+  AllocationSite(String className, FrameInfo[] frames) {
+    this.className = className;
+    this.frames = frames;
+
+    int hash = className.hashCode();
+    for (FrameInfo frame : frames) {
+      hash = 31 * hash + frame.getQName().hashCode();
+    }
+    this.hash = hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof AllocationSite)) {
+      return false;
+    }
+    final AllocationSite other = (AllocationSite)obj;
+    if (hash != other.hash || frames.length != other.frames.length || !className.equals(other.className)) {
+      return false;
+    }
+    for (int i = 0; i < frames.length; i++) {
+      if (frames[i] != other.frames[i] && !frames[i].getQName().equals(other.frames[i].getQName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
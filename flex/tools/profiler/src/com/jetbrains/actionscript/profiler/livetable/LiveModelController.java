@@ -4,6 +4,8 @@ import com.intellij.psi.search.GlobalSearchScope;
 import com.jetbrains.actionscript.profiler.base.SortableListTreeTableModel;
 import com.jetbrains.actionscript.profiler.sampler.*;
 import com.jetbrains.actionscript.profiler.util.ResolveUtil;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -11,22 +13,44 @@ import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeNode;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * Samples are folded into per allocation site counters as they come, {@link #apply(SortableListTreeTableModel)} applies
+ * the counters collected since the previous call to the tree (one path walk per site instead of one per sample)
+ * and notifies the model about inserted, changed and removed nodes only.
+ *
  * @author: Fedor.Korotkov
  */
 public class LiveModelController implements ObjectSampleHandler {
+  /**
+   * Period of {@link #apply(SortableListTreeTableModel)} calls
+   */
+  public static final int REFRESH_INTERVAL = 500;
+
   private static final int BYTES_IN_KB = 1000;
+  // deletes of objects created before profiling has started never match, so only the last ones are kept
+  private static final int MAX_UNMATCHED_DELETES = 4096;
+
+  private static class SiteCounter {
+    private int createdCount;
+    private long createdSize;
+    private int deletedCount;
+    private long deletedSize;
+  }
 
-  private final List<Sample> cache = new LinkedList<>();
-  private final ConcurrentLinkedQueue<Sample> queue = new ConcurrentLinkedQueue<>();
+  private final Object lock = new Object();
+  // guarded by lock
+  private Map<AllocationSite, SiteCounter> pendingCounters = new THashMap<>();
+
+  private final Map<String, SizeInfoNode> classNodes = new THashMap<>();
+  private final UnmatchedDeletes unmatchedDeletes = new UnmatchedDeletes(MAX_UNMATCHED_DELETES);
 
   private final List<SizeInfoNode> filteredClasses = new ArrayList<>();
   private GlobalSearchScope scope;
-  
+
   private volatile int allocatedMemorySize = 0;
 
   public void updateScope(GlobalSearchScope scope) {
@@ -38,23 +62,39 @@ public class LiveModelController implements ObjectSampleHandler {
   }
 
   public void apply(SortableListTreeTableModel model) {
-    while (!queue.isEmpty()) {
-      cache.add(queue.poll());
+    final Map<AllocationSite, SiteCounter> counters;
+    synchronized (lock) {
+      counters = pendingCounters;
+      pendingCounters = new THashMap<>();
     }
-    final Iterator<Sample> iterator = cache.iterator();
-    while (iterator.hasNext()) {
-      final Sample sample = iterator.next();
-      if (sample instanceof CreateObjectSample) {
-        applyCreate(model, (CreateObjectSample)sample);
-        iterator.remove();
-      }
-      else if (sample instanceof DeleteObjectSample && applyDelete(model, (DeleteObjectSample)sample)) {
-        iterator.remove();
+
+    final DefaultMutableTreeNode root = (DefaultMutableTreeNode)model.getRoot();
+    final Set<SizeInfoNode> changedNodes = new THashSet<>();
+    boolean nodesCreated = false;
+    for (Map.Entry<AllocationSite, SiteCounter> entry : counters.entrySet()) {
+      final SiteCounter counter = entry.getValue();
+      final SizeInfoNode[] path = findPath(model, entry.getKey(), counter.createdCount > 0);
+      if (path == null) {
+        unmatchedDeletes.add(entry.getKey(), counter.deletedCount, counter.deletedSize);
+        continue;
       }
+      nodesCreated |= counter.createdCount > 0;
+      update(path, counter.createdSize - counter.deletedSize, counter.createdCount - counter.deletedCount, changedNodes);
+    }
+
+    // nodes of unmatched deletes may appear only if something has been created
+    if (nodesCreated) {
+      unmatchedDeletes.retry(model, changedNodes);
     }
-    removeUselessNodes((MutableTreeNode)model.getRoot());
 
+    removeUselessNodes(model, changedNodes);
     filterByScope(model);
+
+    for (SizeInfoNode node : changedNodes) {
+      if (node.getRoot() == root) {
+        model.nodeChanged(node);
+      }
+    }
   }
 
   private void filterByScope(SortableListTreeTableModel model) {
@@ -65,6 +105,7 @@ public class LiveModelController implements ObjectSampleHandler {
       final SizeInfoNode node = iterator.next();
       if (scope == null || ResolveUtil.containsInScope(node.getQName(), scope)) {
         root.insert(node, root.getChildCount());
+        model.nodesWereInserted(root, new int[]{root.getChildCount() - 1});
         iterator.remove();
         ++i;
       }
@@ -73,6 +114,7 @@ public class LiveModelController implements ObjectSampleHandler {
       final SizeInfoNode child = (SizeInfoNode)root.getChildAt(i);
       if (scope != null && !ResolveUtil.containsInScope(child.getQName(), scope)) {
         root.remove(i);
+        model.nodesWereRemoved(root, new int[]{i}, new Object[]{child});
         filteredClasses.add(child);
       }
       else {
@@ -81,110 +123,167 @@ public class LiveModelController implements ObjectSampleHandler {
     }
   }
 
-  private static void removeUselessNodes(MutableTreeNode root) {
-    for (int i = 0; i < root.getChildCount(); ++i) {
-      MutableTreeNode child = (MutableTreeNode)root.getChildAt(i);
-      if (child instanceof SizeInfoNode) {
-        if (((SizeInfoNode)child).getCount() <= 0) {
-          root.remove(child);
-          continue;
-        }
+  /**
+   * Only changed nodes may become useless: counts of other nodes are positive.
+   */
+  private void removeUselessNodes(SortableListTreeTableModel model, Set<SizeInfoNode> changedNodes) {
+    final TreeNode root = (TreeNode)model.getRoot();
+    final Iterator<SizeInfoNode> iterator = changedNodes.iterator();
+    while (iterator.hasNext()) {
+      final SizeInfoNode node = iterator.next();
+      if (node.getCount() > 0) {
+        continue;
+      }
+      iterator.remove();
+
+      final MutableTreeNode parent = (MutableTreeNode)node.getParent();
+      if (parent == null) {
+        // filtered class or already removed with its parent
+        continue;
+      }
+      if (parent == root) {
+        classNodes.remove(node.getUserObject());
+      }
+      final boolean attached = node.getRoot() == root;
+      final int index = parent.getIndex(node);
+      parent.remove(index);
+      if (attached) {
+        model.nodesWereRemoved(parent, new int[]{index}, new Object[]{node});
       }
-      removeUselessNodes(child);
     }
   }
 
-  private void applyCreate(SortableListTreeTableModel model,
-                           CreateObjectSample sample) {
-    final String className = sample.className;
+  /**
+   * @return class node and frame nodes of the site, or null if some node doesn't exist and <code>create</code> is false
+   */
+  @Nullable
+  private SizeInfoNode[] findPath(SortableListTreeTableModel model, AllocationSite site, boolean create) {
     final DefaultMutableTreeNode root = (DefaultMutableTreeNode)model.getRoot();
-    SizeInfoNode classNode = findChildByValue(root, className);
+    final SizeInfoNode[] path = new SizeInfoNode[site.frames.length + 1];
+    SizeInfoNode classNode = classNodes.get(site.className);
     if (classNode == null) {
-      classNode = new SizeInfoNode(className, null, 0, 0);
+      if (!create) {
+        return null;
+      }
+      classNode = new SizeInfoNode(site.className, null, 0, 0);
+      classNodes.put(site.className, classNode);
       root.insert(classNode, root.getChildCount());
+      model.nodesWereInserted(root, new int[]{root.getChildCount() - 1});
     }
-    classNode.incSize(sample.size);
+    path[0] = classNode;
 
     SizeInfoNode node = classNode;
-    for (FrameInfo frameInfo : sample.frames) {
-      SizeInfoNode frameNode = findChildByValue(node, frameInfo.getQName());
+    for (int i = 0; i < site.frames.length; i++) {
+      final FrameInfo frameInfo = site.frames[i];
+      SizeInfoNode frameNode = node.findChildByQName(frameInfo.getQName());
       if (frameNode == null) {
+        if (!create) {
+          return null;
+        }
         frameNode = new SizeInfoNode(frameInfo.toSimpleString(), frameInfo, 0, 0);
         node.insert(frameNode, node.getChildCount());
+        if (node.getRoot() == root) {
+          model.nodesWereInserted(node, new int[]{node.getChildCount() - 1});
+        }
       }
       node = frameNode;
-      node.incSize(sample.size);
+      path[i + 1] = node;
     }
+    return path;
   }
 
-  private boolean applyDelete(SortableListTreeTableModel model,
-                              DeleteObjectSample sample) {
-    final List<SizeInfoNode> nodesForUpdate = new ArrayList<>();
-    final String className = sample.className;
-    final DefaultMutableTreeNode root = (DefaultMutableTreeNode)model.getRoot();
-    SizeInfoNode classNode = findChildByValue(root, className);
-    if (classNode == null) {
-      return false;
+  private static void update(SizeInfoNode[] path, long size, int count, Set<SizeInfoNode> changedNodes) {
+    for (SizeInfoNode node : path) {
+      node.addSize(size, count);
+      changedNodes.add(node);
     }
-    nodesForUpdate.add(classNode);
+  }
 
-    SizeInfoNode node = classNode;
-    for (FrameInfo frameInfo : sample.frames) {
-      final SizeInfoNode frameNode = findChildByValue(node, frameInfo.getQName());
-      if (frameNode == null) {
-        return false;
+  @Override
+  public void processCreateSample(CreateObjectSample createObjectSample) {
+    if (createObjectSample.className != null) {
+      synchronized (lock) {
+        final SiteCounter counter = getCounter(createObjectSample.className, createObjectSample.frames);
+        counter.createdCount++;
+        counter.createdSize += createObjectSample.size;
       }
-      nodesForUpdate.add(frameNode);
-      node = frameNode;
-    }
-    for (SizeInfoNode sizeInfoNode : nodesForUpdate) {
-      sizeInfoNode.decSize(sample.size);
+      allocatedMemorySize += createObjectSample.size;
     }
-    return true;
   }
 
-  @Nullable
-  private SizeInfoNode findChildByValue(TreeNode root, String name) {
-    for (int i = 0; i < root.getChildCount(); ++i) {
-      final TreeNode child = root.getChildAt(i);
-      if (!(child instanceof SizeInfoNode)) {
-        continue;
-      }
-      final SizeInfoNode sizeInfoNode = (SizeInfoNode)child;
-      if (matchByName(name, sizeInfoNode)) {
-        return (SizeInfoNode)child;
+  @Override
+  public void processDeleteSample(DeleteObjectSample deleteObjectSample) {
+    if (deleteObjectSample.className != null) {
+      synchronized (lock) {
+        final SiteCounter counter = getCounter(deleteObjectSample.className, deleteObjectSample.frames);
+        counter.deletedCount++;
+        counter.deletedSize += deleteObjectSample.size;
       }
+      allocatedMemorySize -= deleteObjectSample.size;
     }
+  }
 
-
-    for (SizeInfoNode filteredNode : filteredClasses) {
-      if (matchByName(name, filteredNode)) {
-        return filteredNode;
-      }
+  // must be called under lock
+  private SiteCounter getCounter(String className, FrameInfo[] frames) {
+    final AllocationSite site = new AllocationSite(className, frames);
+    SiteCounter counter = pendingCounters.get(site);
+    if (counter == null) {
+      counter = new SiteCounter();
+      pendingCounters.put(site, counter);
     }
-    return null;
+    return counter;
   }
 
-  private static boolean matchByName(String name, SizeInfoNode sizeInfoNode) {
-    if (sizeInfoNode.isMethod()) {
-      return name.equals(sizeInfoNode.getQName());
+  /**
+   * Ring buffer of deletes whose nodes don't exist yet, the oldest entries are overwritten.
+   */
+  private class UnmatchedDeletes {
+    private final AllocationSite[] sites;
+    private final int[] counts;
+    private final long[] sizes;
+    private int start;
+    private int size;
+
+    private UnmatchedDeletes(int capacity) {
+      sites = new AllocationSite[capacity];
+      counts = new int[capacity];
+      sizes = new long[capacity];
     }
-    return name.equals(sizeInfoNode.getUserObject());
-  }
 
-  @Override
-  public void processCreateSample(CreateObjectSample createObjectSample) {
-    if (createObjectSample.className != null) {
-      queue.add(createObjectSample);
-      allocatedMemorySize += createObjectSample.size;
+    private void add(AllocationSite site, int count, long size) {
+      if (count == 0) {
+        return;
+      }
+      final int index = (start + this.size) % sites.length;
+      if (this.size == sites.length) {
+        start = (start + 1) % sites.length;
+      }
+      else {
+        this.size++;
+      }
+      sites[index] = site;
+      counts[index] = count;
+      sizes[index] = size;
     }
-  }
 
-  @Override
-  public void processDeleteSample(DeleteObjectSample deleteObjectSample) {
-    if (deleteObjectSample.className != null) {
-      queue.add(deleteObjectSample);
-      allocatedMemorySize -= deleteObjectSample.size;
+    private void retry(SortableListTreeTableModel model, Set<SizeInfoNode> changedNodes) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        final int index = (start + i) % sites.length;
+        final SizeInfoNode[] path = findPath(model, sites[index], false);
+        if (path != null) {
+          update(path, -sizes[index], -counts[index], changedNodes);
+          continue;
+        }
+        final int keptIndex = (start + kept++) % sites.length;
+        sites[keptIndex] = sites[index];
+        counts[keptIndex] = counts[index];
+        sizes[keptIndex] = sizes[index];
+      }
+      for (int i = kept; i < size; i++) {
+        sites[(start + i) % sites.length] = null;
+      }
+      size = kept;
     }
   }
 }
@@ -5,9 +5,13 @@ import com.jetbrains.actionscript.profiler.base.FilePathProducer;
 import com.jetbrains.actionscript.profiler.base.FrameInfoProducer;
 import com.jetbrains.actionscript.profiler.base.QNameProducer;
 import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
+import java.util.Map;
 
 /**
  * @author: Fedor.Korotkov
@@ -18,6 +22,8 @@ public class SizeInfoNode extends DefaultMutableTreeNode implements FrameInfoPro
   private final JSResolveUtil.GenericSignature signature;
   private long size;
   private int count;
+  // children are looked up by qualified name for each allocation site
+  private @Nullable Map<String, SizeInfoNode> childrenByQName;
 
   public SizeInfoNode(String qName, @Nullable FrameInfo frameInfo, long size, int count) {
     JSResolveUtil.GenericSignature signatureCandidate = JSResolveUtil.extractGenericSignature(qName);
@@ -48,15 +54,38 @@ public class SizeInfoNode extends DefaultMutableTreeNode implements FrameInfoPro
     return count;
   }
 
-  public void incSize(long size) {
+  public void addSize(long size, int count) {
     this.size += size;
-    ++count;
+    this.count += count;
   }
 
+  @Nullable
+  SizeInfoNode findChildByQName(String qName) {
+    return childrenByQName != null ? childrenByQName.get(qName) : null;
+  }
+
+  @Override
+  public void insert(MutableTreeNode newChild, int childIndex) {
+    super.insert(newChild, childIndex);
+    if (newChild instanceof SizeInfoNode) {
+      if (childrenByQName == null) {
+        childrenByQName = new THashMap<>();
+      }
+      final SizeInfoNode child = (SizeInfoNode)newChild;
+      childrenByQName.put(child.getQName(), child);
+    }
+  }
 
-  public void decSize(long size) {
-    this.size -= size;
-    --count;
+  @Override
+  public void remove(int childIndex) {
+    final TreeNode child = getChildAt(childIndex);
+    super.remove(childIndex);
+    if (child instanceof SizeInfoNode && childrenByQName != null) {
+      final String qName = ((SizeInfoNode)child).getQName();
+      if (childrenByQName.get(qName) == child) {
+        childrenByQName.remove(qName);
+      }
+    }
   }
 
   public boolean isMethod() {
@@ -0,0 +1,108 @@
+package com.jetbrains.actionscript.profiler.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the agent connection. If the packet queue is often full (see {@link #getQueueFullStalls()}),
+ * the IDE doesn't keep up with the agent and the agent is blocked on the socket.
+ */
+public class ConnectionStatistics {
+  private final long myStartNanos = System.nanoTime();
+  private final AtomicLong myBytesRead = new AtomicLong();
+  private final AtomicLong myPacketsRead = new AtomicLong();
+  private final AtomicLong mySamplesDecoded = new AtomicLong();
+  private final AtomicLong myQueueFullStalls = new AtomicLong();
+  private final AtomicLong myStallNanos = new AtomicLong();
+  private final AtomicLong myDroppedPackets = new AtomicLong();
+  private volatile int myQueuedPackets;
+  private volatile int myMaxQueuedPackets;
+
+  void bytesRead(int count) {
+    myBytesRead.addAndGet(count);
+  }
+
+  void packetsQueued(int count, int queued) {
+    myPacketsRead.addAndGet(count);
+    myQueuedPackets = queued;
+    if (queued > myMaxQueuedPackets) {
+      myMaxQueuedPackets = queued;
+    }
+  }
+
+  void packetsDequeued(int queued) {
+    myQueuedPackets = queued;
+  }
+
+  void sampleDecoded() {
+    mySamplesDecoded.incrementAndGet();
+  }
+
+  void queueFull() {
+    myQueueFullStalls.incrementAndGet();
+  }
+
+  void stalled(long nanos) {
+    myStallNanos.addAndGet(nanos);
+  }
+
+  void packetsDropped(int count) {
+    myDroppedPackets.addAndGet(count);
+  }
+
+  public long getBytesRead() {
+    return myBytesRead.get();
+  }
+
+  /**
+   * @return bytes per second since the connection has been established
+   */
+  public long getThroughput() {
+    final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - myStartNanos);
+    return millis == 0 ? 0 : myBytesRead.get() * 1000 / millis;
+  }
+
+  public long getPacketsRead() {
+    return myPacketsRead.get();
+  }
+
+  public long getSamplesDecoded() {
+    return mySamplesDecoded.get();
+  }
+
+  /**
+   * @return packets read from the socket but not decoded yet
+   */
+  public int getQueuedPackets() {
+    return myQueuedPackets;
+  }
+
+  public int getMaxQueuedPackets() {
+    return myMaxQueuedPackets;
+  }
+
+  /**
+   * @return how many times the reader waited for the decoder because the packet queue was full
+   */
+  public long getQueueFullStalls() {
+    return myQueueFullStalls.get();
+  }
+
+  public long getStallMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(myStallNanos.get());
+  }
+
+  /**
+   * @return packets read from the socket but discarded because the connection has been closed before they were decoded
+   */
+  public long getDroppedPackets() {
+    return myDroppedPackets.get();
+  }
+
+  @Override
+  public String toString() {
+    return "bytes read: " + getBytesRead() + " (" + getThroughput() + " bytes/s), packets read: " + getPacketsRead() +
+           ", samples decoded: " + getSamplesDecoded() + ", queued packets: " + getQueuedPackets() + " (max " + getMaxQueuedPackets() +
+           "), queue full stalls: " + getQueueFullStalls() + " (" + getStallMillis() + " ms), dropped packets: " + getDroppedPackets();
+  }
+}
@@ -0,0 +1,282 @@
+package com.jetbrains.actionscript.profiler.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads packets (strings written by the agent with <code>writeUTF</code>) from the socket channel on its own thread
+ * into a bounded ring of pre-allocated records, so the agent isn't blocked on the socket while the IDE decodes samples.
+ * Packets are decoded to strings by the consumer thread, see {@link #take()}.
+ * <p>
+ * When the ring is full the reader waits for the consumer: packets can't be dropped, the agent refers to previously sent
+ * strings by index.
+ */
+class PacketReader implements Runnable {
+  static final int DEFAULT_CAPACITY = 1 << 14;
+  private static final int READ_BUFFER_SIZE = 128 * 1024; // must be greater than max packet length (2 + 65535)
+
+  private static class Packet {
+    private byte[] data = new byte[256];
+    private int length;
+  }
+
+  private final SocketChannel myChannel;
+  private final ConnectionStatistics myStatistics;
+  private final Packet[] myRing;
+  private final int myMask;
+
+  private final ReentrantLock myLock = new ReentrantLock();
+  private final Condition myNotFull = myLock.newCondition();
+  private final Condition myNotEmpty = myLock.newCondition();
+  // guarded by myLock, head and tail are counters, ring index is counter & myMask
+  private int myHead;
+  private int myTail;
+  private boolean myFinished;
+  private volatile boolean myStopped; // read by the consumer without the lock too
+  @Nullable private IOException myFailure;
+
+  // consumer state
+  private int myAvailable;
+  private int myTaken;
+  private char[] myChars = new char[256];
+
+  PacketReader(SocketChannel channel, ConnectionStatistics statistics) {
+    this(channel, statistics, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity power of 2
+   */
+  PacketReader(SocketChannel channel, ConnectionStatistics statistics, int capacity) {
+    assert Integer.bitCount(capacity) == 1;
+    myChannel = channel;
+    myStatistics = statistics;
+    myRing = new Packet[capacity];
+    for (int i = 0; i < capacity; i++) {
+      myRing[i] = new Packet();
+    }
+    myMask = capacity - 1;
+  }
+
+  @Override
+  public void run() {
+    final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    IOException failure = null;
+    try {
+      while (true) {
+        final int count = myChannel.read(buffer);
+        if (count < 0) {
+          throw new EOFException();
+        }
+        myStatistics.bytesRead(count);
+        buffer.flip();
+        if (!queuePackets(buffer)) {
+          break;
+        }
+        buffer.compact();
+      }
+    }
+    catch (IOException e) {
+      failure = e;
+    }
+    finish(failure);
+  }
+
+  /**
+   * @return false if stopped
+   */
+  private boolean queuePackets(ByteBuffer buffer) {
+    int free = 0;
+    int queued = 0;
+    while (buffer.remaining() >= 2) {
+      final int length = buffer.getShort(buffer.position()) & 0xFFFF;
+      if (buffer.remaining() < 2 + length) {
+        break;
+      }
+
+      if (queued == free) {
+        publish(queued);
+        queued = 0;
+        free = awaitFree();
+        if (free == 0) {
+          return false;
+        }
+      }
+
+      final Packet packet = myRing[(myTail + queued) & myMask];
+      if (packet.data.length < length) {
+        packet.data = new byte[Math.max(length, packet.data.length * 2)];
+      }
+      buffer.position(buffer.position() + 2);
+      buffer.get(packet.data, 0, length);
+      packet.length = length;
+      queued++;
+    }
+    publish(queued);
+    return true;
+  }
+
+  /**
+   * @return number of free records, 0 if stopped
+   */
+  private int awaitFree() {
+    myLock.lock();
+    try {
+      if (myTail - myHead == myRing.length && !myStopped) {
+        myStatistics.queueFull();
+        final long start = System.nanoTime();
+        do {
+          myNotFull.awaitUninterruptibly();
+        }
+        while (myTail - myHead == myRing.length && !myStopped);
+        myStatistics.stalled(System.nanoTime() - start);
+      }
+      return myStopped ? 0 : myRing.length - (myTail - myHead);
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  private void publish(int count) {
+    if (count == 0) {
+      return;
+    }
+    myLock.lock();
+    try {
+      myTail += count;
+      myStatistics.packetsQueued(count, myTail - myHead);
+      myNotEmpty.signal();
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  private void finish(@Nullable IOException failure) {
+    myLock.lock();
+    try {
+      myFinished = true;
+      if (!myStopped) {
+        myFailure = failure;
+      }
+      myNotEmpty.signal();
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  /**
+   * Must be called by the consumer thread only.
+   *
+   * @return next packet
+   * @throws ClosedChannelException if the reader has been stopped, e.g. the connection has been disposed
+   * @throws IOException if reading has failed, after all packets read before the failure have been taken
+   */
+  @NotNull
+  String take() throws IOException {
+    if (myStopped) {
+      throw new ClosedChannelException();
+    }
+    if (myTaken == myAvailable) {
+      myAvailable = awaitAvailable(myTaken);
+      myTaken = 0;
+      if (myAvailable == 0) {
+        if (myFailure != null) {
+          throw myFailure;
+        }
+        throw new ClosedChannelException();
+      }
+    }
+
+    final Packet packet = myRing[(myHead + myTaken++) & myMask];
+    return decode(packet.data, packet.length);
+  }
+
+  /**
+   * Releases <code>taken</code> records and waits for the next ones.
+   *
+   * @return number of available records, 0 if finished or stopped
+   */
+  private int awaitAvailable(int taken) {
+    myLock.lock();
+    try {
+      myHead += taken;
+      myStatistics.packetsDequeued(myTail - myHead);
+      myNotFull.signal();
+      while (myTail == myHead && !myFinished && !myStopped) {
+        myNotEmpty.awaitUninterruptibly();
+      }
+      return myStopped ? 0 : myTail - myHead;
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  private String decode(byte[] data, int length) throws UTFDataFormatException {
+    if (myChars.length < length) {
+      myChars = new char[Math.max(length, myChars.length * 2)];
+    }
+
+    // modified UTF-8, see DataInput.readUTF()
+    final char[] chars = myChars;
+    int charCount = 0;
+    int i = 0;
+    while (i < length) {
+      final int b = data[i] & 0xFF;
+      if (b < 0x80) {
+        chars[charCount++] = (char)b;
+        i++;
+      }
+      else if ((b & 0xE0) == 0xC0 && i + 1 < length && (data[i + 1] & 0xC0) == 0x80) {
+        chars[charCount++] = (char)(((b & 0x1F) << 6) | (data[i + 1] & 0x3F));
+        i += 2;
+      }
+      else if ((b & 0xF0) == 0xE0 && i + 2 < length && (data[i + 1] & 0xC0) == 0x80 && (data[i + 2] & 0xC0) == 0x80) {
+        chars[charCount++] = (char)(((b & 0x0F) << 12) | ((data[i + 1] & 0x3F) << 6) | (data[i + 2] & 0x3F));
+        i += 3;
+      }
+      else {
+        throw new UTFDataFormatException("malformed input around byte " + i);
+      }
+    }
+    return new String(chars, 0, charCount);
+  }
+
+  /**
+   * Stops reading and closes the channel, queued packets are dropped. The consumer gets {@link ClosedChannelException}.
+   */
+  void stop() {
+    myLock.lock();
+    try {
+      if (myStopped) {
+        return;
+      }
+      myStopped = true;
+      // myTaken is consumer state, so the count is exact only if stopped by the consumer
+      myStatistics.packetsDropped(myTail - myHead - myTaken);
+      myNotFull.signal();
+      myNotEmpty.signal();
+    }
+    finally {
+      myLock.unlock();
+    }
+
+    try {
+      myChannel.close();
+    }
+    catch (IOException ignored) {
+    }
+  }
+}
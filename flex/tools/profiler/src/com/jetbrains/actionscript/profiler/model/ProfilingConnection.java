@@ -8,19 +8,24 @@ import com.jetbrains.actionscript.profiler.sampler.*;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
 public class ProfilingConnection {
   private static final Logger LOG = Logger.getInstance(ProfilingConnection.class.getName());
-  private ServerSocket myServerSocket;
+  private ServerSocketChannel myServerSocket;
   private ServerSocket myPolicyServerSocket;
   private OutputStream myOutputStream;
-  private DataInputStream myInputStream;
+  private PacketReader myPacketReader;
+  private final ConnectionStatistics myStatistics = new ConnectionStatistics();
   private PacketProcessor myCurrentPacketProcessor;
   private final Map<String, PacketProcessor> myInitialString2ProcessorsMap = new HashMap<>();
   private final Callback myIoHandler;
@@ -36,7 +41,7 @@ public class ProfilingConnection {
       new PolicyFileRequestProcessor(port)
     );
 
-    BatchSamplesProcessor samplesProcessor = new BatchSamplesProcessor(sampleProcessor);
+    BatchSamplesProcessor samplesProcessor = new BatchSamplesProcessor(sampleProcessor, myStatistics);
     myInitialString2ProcessorsMap.put(
       BatchSamplesProcessor.BATCH_MARKER,
       samplesProcessor
@@ -79,17 +84,21 @@ public class ProfilingConnection {
     myAbortingSocketConnection = false;
     myDisposed = false;
     ensurePolicyServedEvenOnFlashSecurityPort();
+    final PacketReader packetReader;
     try {
-      myServerSocket = new ServerSocket(myPort);
-      Socket socket = myServerSocket.accept();
-      myInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-      myOutputStream = socket.getOutputStream();
+      myServerSocket = ServerSocketChannel.open();
+      myServerSocket.socket().bind(new InetSocketAddress(myPort));
+      SocketChannel channel = myServerSocket.accept();
+      packetReader = new PacketReader(channel, myStatistics);
+      myPacketReader = packetReader;
+      myOutputStream = channel.socket().getOutputStream();
       myServerSocket.close();
       myServerSocket = null;
       myIoHandler.finished("Connection established", null);
     }
     catch (IOException ex) {
-      final boolean abortedWaitingForConnection = ex instanceof SocketException && myAbortingSocketConnection;
+      final boolean abortedWaitingForConnection =
+        (ex instanceof SocketException || ex instanceof ClosedChannelException) && myAbortingSocketConnection;
       if (abortedWaitingForConnection) {
         ex = new EOFException("aborted wait for connection");
       }
@@ -100,14 +109,14 @@ public class ProfilingConnection {
       return;
     }
 
+    // the agent is blocked while its packets are not read, so reading and decoding are done on different threads
+    ApplicationManager.getApplication().executeOnPooledThread(packetReader);
     ApplicationManager.getApplication().executeOnPooledThread(() -> {
-      int bytesRead = 0;
       try {
         while (true) {
-          String x = myInputStream.readUTF();
-          if (x == null) break;
+          // throws if the connection is disposed, as reading from the closed socket did
+          String x = packetReader.take();
           LOG.debug(x);
-          bytesRead += x.length();
           try {
             if (myCurrentPacketProcessor == null) {
               String marker = x;
@@ -121,7 +130,10 @@ public class ProfilingConnection {
             if (myCurrentPacketProcessor != null) {
               PacketProcessor.ProcessingResult processingResult = myCurrentPacketProcessor.process(x);
               if (processingResult == PacketProcessor.ProcessingResult.FINISHED) myCurrentPacketProcessor = null;
-              if (processingResult == PacketProcessor.ProcessingResult.STOP) return;
+              if (processingResult == PacketProcessor.ProcessingResult.STOP) {
+                packetReader.stop();
+                return;
+              }
             }
             else {
               LOG.warn("No processing:" + x);
@@ -133,7 +145,7 @@ public class ProfilingConnection {
         }
       }
       catch (IOException ex) {
-        LOG.debug("Bytes read:" + bytesRead);
+        LOG.debug("Connection statistics: " + myStatistics);
         myIoHandler.finished(null, ex);
       }
       catch (Throwable t) {
@@ -161,6 +173,10 @@ public class ProfilingConnection {
     });
   }
 
+  public ConnectionStatistics getStatistics() {
+    return myStatistics;
+  }
+
   private static final int START_CPU_PROFILING = 1;
   private static final int STOP_CPU_PROFILING = 2;
   private static final int CAPTURE_MEMORY_SNAPSHOT = 3;
@@ -225,7 +241,7 @@ public class ProfilingConnection {
     myDisposed = true;
     if (myServerSocket != null) myServerSocket.close();
     if (myOutputStream != null) myOutputStream.close();
-    if (myInputStream != null) myInputStream.close();
+    if (myPacketReader != null) myPacketReader.stop();
     if (myPolicyServerSocket != null) myPolicyServerSocket.close();
   }
 
@@ -291,9 +307,11 @@ public class ProfilingConnection {
     private Sample lastCpuSample;
     private Sample lastCreateObjectSample;
     private final FrameInfoBuilder frameInfoBuilder = new FrameInfoBuilder();
+    private final ConnectionStatistics myStatistics;
 
-    public BatchSamplesProcessor(ProfilerDataConsumer sampleProcessor) {
+    public BatchSamplesProcessor(ProfilerDataConsumer sampleProcessor, ConnectionStatistics statistics) {
       this.mySampleProcessor = sampleProcessor;
+      myStatistics = statistics;
     }
 
     @Override
@@ -355,6 +373,7 @@ public class ProfilingConnection {
 
     private ProcessingResult maybeFinishSample() {
       if (frameIndex == frames.length) {
+        myStatistics.sampleDecoded();
         Sample sample;
         if (type.startsWith(CREATE_OBJECT_SAMPLE_MARKER)) {
           ++memorySamples;
@@ -464,7 +483,7 @@ public class ProfilingConnection {
         LOG.warn("Version mismatch");
         myIoHandler.finished(null, new AgentVersionMismatchProblem());
         myOutputStream.close();
-        myInputStream.close();
+        myPacketReader.stop();
       }
       return ProcessingResult.FINISHED;
     }
@@ -21,7 +21,6 @@ import com.intellij.ui.SpeedSearchComparator;
 import com.intellij.ui.TreeTableSpeedSearch;
 import com.intellij.util.Function;
 import com.intellij.util.ui.UIUtil;
-import com.intellij.util.ui.tree.TreeUtil;
 import com.jetbrains.actionscript.profiler.ProfilerBundle;
 import com.jetbrains.actionscript.profiler.livetable.LiveModelController;
 import com.jetbrains.actionscript.profiler.livetable.LiveObjectsTreeTable;
@@ -39,11 +38,9 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import javax.swing.table.TableColumn;
-import javax.swing.tree.TreePath;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * @author: Fedor.Korotkov
@@ -71,19 +68,15 @@ public class LiveObjectsView extends ProfileView implements Disposable {
     if (controller == null || profilingManager == null) {
       return;
     }
-    updateTimer = UIUtil.createNamedTimer("LiveObjects", 2000, new ActionListener() {
+    updateTimer = UIUtil.createNamedTimer("LiveObjects", LiveModelController.REFRESH_INTERVAL, new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
         if (!liveUpdatesCheckBox.isSelected() || DumbServiceImpl.getInstance(getProject()).isDumb()) {
           return;
         }
-        final List<TreePath> paths = TreeUtil.collectExpandedPaths(liveObjectsTreeTable.getTree());
-        final TreePath selectionPath = liveObjectsTreeTable.getTree().getSelectionPath();
         controller.updateScope(getCurrentScope());
+        // the model is notified about changed nodes only, so expanded paths and selection are kept
         controller.apply(liveObjectsTreeTable.getSortableTreeTableModel());
-        liveObjectsTreeTable.reload();
-        TreeUtil.restoreExpandedPaths(liveObjectsTreeTable.getTree(), paths);
-        liveObjectsTreeTable.getTree().setSelectionPath(selectionPath);
 
         myAllocatedMemory.setText(ProfilerBundle.message("allocated.memory.size", controller.getAllocatedMemorySize()));
       }
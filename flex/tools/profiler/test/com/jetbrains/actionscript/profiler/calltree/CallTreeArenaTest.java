@@ -0,0 +1,265 @@
+package com.jetbrains.actionscript.profiler.calltree;
+
+import com.intellij.openapi.util.Pair;
+import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
+import com.jetbrains.actionscript.profiler.sampler.FrameUtil;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Compares {@link CallTree} with {@link ReferenceNode}, the straightforward object tree it replaced, on small random trees
+ * with recursion and system frames.
+ */
+public class CallTreeArenaTest extends TestCase {
+  private static final int SAMPLES = 300;
+
+  private final FrameInfo[] frames = new FrameInfo[8];
+  private final List<FrameInfo[]> samples = new ArrayList<>();
+  private final CallTree callTree = new CallTree();
+  private final ReferenceNode reference = new ReferenceNode(null);
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    for (int i = 0; i < frames.length - 1; i++) {
+      frames[i] = FrameUtil.getFrameInfo("f" + i);
+    }
+    frames[frames.length - 1] = FrameUtil.getFrameInfo("");
+
+    final Random random = new Random(42);
+    for (int i = 0; i < SAMPLES; i++) {
+      // few frames and deep stacks, so recursion is common
+      final FrameInfo[] sample = new FrameInfo[1 + random.nextInt(7)];
+      for (int j = 0; j < sample.length; j++) {
+        sample[j] = frames[random.nextInt(frames.length)];
+      }
+      final long duration = 1 + random.nextInt(10);
+      samples.add(sample);
+      callTree.addFrames(sample, duration);
+      reference.addFrames(sample, duration);
+    }
+  }
+
+  public void testTimeMaps() {
+    assertTimeMapsEqual(reference.getTimeMaps(), callTree.getTimeMaps());
+  }
+
+  public void testConsecutiveSamplesSharingPath() {
+    final CallTree tree = new CallTree();
+    final ReferenceNode referenceTree = new ReferenceNode(null);
+    for (FrameInfo[] sample : samples) {
+      // the same stack twice and then its caller, the path of the previous sample is reused
+      final FrameInfo[] caller = Arrays.copyOfRange(sample, Math.min(1, sample.length - 1), sample.length);
+      for (FrameInfo[] frames : new FrameInfo[][]{sample, sample, caller}) {
+        tree.addFrames(frames, 1);
+        referenceTree.addFrames(frames, 1);
+      }
+    }
+    assertTimeMapsEqual(referenceTree.getTimeMaps(), tree.getTimeMaps());
+  }
+
+  public void testCallersAndCallees() {
+    final List<FrameInfo[]> queries = new ArrayList<>();
+    for (FrameInfo frame : frames) {
+      queries.add(new FrameInfo[]{frame});
+    }
+    for (FrameInfo[] sample : samples.subList(0, 50)) {
+      queries.add(Arrays.copyOfRange(sample, 0, Math.min(2, sample.length)));
+      queries.add(sample);
+    }
+    queries.add(new FrameInfo[]{FrameUtil.getFrameInfo("unknown")});
+
+    for (FrameInfo[] query : queries) {
+      final String message = Arrays.toString(query);
+      assertTimeMapsEqual(message, reference.getCallersTimeMaps(query), callTree.getCallersTimeMaps(query));
+      assertTimeMapsEqual(message, reference.getCalleesTimeMaps(query), callTree.getCalleesTimeMaps(query));
+    }
+  }
+
+  public void testQueriesAfterNewSamples() {
+    final FrameInfo[] query = {frames[0]};
+    callTree.getTimeMaps();
+    callTree.getCallersTimeMaps(query);
+
+    final FrameInfo[] sample = {frames[0], frames[1], frames[0]};
+    callTree.addFrames(sample, 100);
+    reference.addFrames(sample, 100);
+
+    assertTimeMapsEqual(reference.getTimeMaps(), callTree.getTimeMaps());
+    assertTimeMapsEqual(reference.getCallersTimeMaps(query), callTree.getCallersTimeMaps(query));
+    assertTimeMapsEqual(reference.getCalleesTimeMaps(query), callTree.getCalleesTimeMaps(query));
+  }
+
+  public void testFilterSystemStuff() {
+    final CallTree filtered = CallTreeUtil.filterSystemStuff(callTree);
+    final ReferenceNode filteredReference = reference.filterSystemStuff();
+    assertTimeMapsEqual(filteredReference.getTimeMaps(), filtered.getTimeMaps());
+    assertFalse(filtered.getTimeMaps().getFirst().containsKey(frames[frames.length - 1]));
+
+    final FrameInfo[] query = {frames[0]};
+    assertTimeMapsEqual(filteredReference.getCallersTimeMaps(query), filtered.getCallersTimeMaps(query));
+    assertTimeMapsEqual(filteredReference.getCalleesTimeMaps(query), filtered.getCalleesTimeMaps(query));
+  }
+
+  private static void assertTimeMapsEqual(Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> expected,
+                                          Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> actual) {
+    assertTimeMapsEqual(null, expected, actual);
+  }
+
+  private static void assertTimeMapsEqual(String message,
+                                          Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> expected,
+                                          Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> actual) {
+    assertEquals(message, new HashMap<>(expected.getFirst()), new HashMap<>(actual.getFirst()));
+    assertEquals(message, new HashMap<>(expected.getSecond()), new HashMap<>(actual.getSecond()));
+  }
+
+  /**
+   * Call tree of linked nodes, results are computed by walking the whole tree for every query.
+   */
+  private static class ReferenceNode {
+    private final FrameInfo frame;
+    private long duration;
+    private final Map<FrameInfo, ReferenceNode> children = new LinkedHashMap<>();
+
+    ReferenceNode(FrameInfo frame) {
+      this.frame = frame;
+    }
+
+    void addFrames(FrameInfo[] frames, long duration) {
+      ReferenceNode node = this;
+      for (int i = frames.length - 1; i >= 0; i--) {
+        node = node.children.computeIfAbsent(frames[i], ReferenceNode::new);
+        node.duration += duration;
+      }
+    }
+
+    ReferenceNode getChildDeep(FrameInfo[] reversedFrames) {
+      ReferenceNode node = this;
+      for (FrameInfo frame : reversedFrames) {
+        node = node.children.get(frame);
+        if (node == null) {
+          return null;
+        }
+      }
+      return node;
+    }
+
+    ReferenceNode filterSystemStuff() {
+      final ReferenceNode result = new ReferenceNode(frame);
+      result.duration = duration;
+      for (ReferenceNode child : children.values()) {
+        final ReferenceNode filteredChild = child.filterSystemStuff();
+        if (filteredChild.frame.isSystem()) {
+          for (ReferenceNode grandChild : filteredChild.children.values()) {
+            result.merge(grandChild);
+          }
+        }
+        else {
+          result.merge(filteredChild);
+        }
+      }
+      return result;
+    }
+
+    private void merge(ReferenceNode newChild) {
+      final ReferenceNode child = children.get(newChild.frame);
+      if (child == null) {
+        children.put(newChild.frame, newChild);
+        return;
+      }
+      child.duration += newChild.duration;
+      for (ReferenceNode grandChild : newChild.children.values()) {
+        child.merge(grandChild);
+      }
+    }
+
+    Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getTimeMaps() {
+      return buildTimeMaps(new HashSet<>(children.values()));
+    }
+
+    Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCallersTimeMaps(FrameInfo[] frames) {
+      final FrameInfo[] reversedFrames = reverse(frames);
+      final Set<ReferenceNode> calls = new HashSet<>();
+      for (ReferenceNode child : children.values()) {
+        child.findCallers(reversedFrames, calls, new ArrayList<>());
+      }
+      final Set<FrameInfo> callerFrames = new HashSet<>();
+      for (ReferenceNode call : calls) {
+        callerFrames.add(call.frame);
+      }
+      final Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> timeMaps = buildTimeMaps(calls);
+      timeMaps.getFirst().keySet().retainAll(callerFrames);
+      timeMaps.getSecond().keySet().retainAll(callerFrames);
+      return timeMaps;
+    }
+
+    // only the nearest to the root node of every frame is a caller
+    private void findCallers(FrameInfo[] reversedFrames, Set<ReferenceNode> calls, List<FrameInfo> addedFrames) {
+      final boolean add = !addedFrames.contains(frame) && getChildDeep(reversedFrames) != null;
+      if (add) {
+        calls.add(this);
+        addedFrames.add(frame);
+      }
+      for (ReferenceNode child : children.values()) {
+        child.findCallers(reversedFrames, calls, addedFrames);
+      }
+      if (add) {
+        addedFrames.remove(addedFrames.size() - 1);
+      }
+    }
+
+    Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> getCalleesTimeMaps(FrameInfo[] frames) {
+      final Set<ReferenceNode> calls = new HashSet<>();
+      findCallees(reverse(frames), calls);
+      return buildTimeMaps(calls);
+    }
+
+    private void findCallees(FrameInfo[] reversedFrames, Set<ReferenceNode> calls) {
+      final ReferenceNode deepChild = getChildDeep(reversedFrames);
+      if (deepChild != null) {
+        calls.addAll(deepChild.children.values());
+      }
+      for (ReferenceNode child : children.values()) {
+        child.findCallees(reversedFrames, calls);
+      }
+    }
+
+    // cumulative time is taken from the nodes nearest to the root only, self time is summed over all tracked nodes
+    private Pair<Map<FrameInfo, Long>, Map<FrameInfo, Long>> buildTimeMaps(Set<ReferenceNode> calls) {
+      final Map<FrameInfo, Long> countMap = new HashMap<>();
+      final Map<FrameInfo, Long> selfCountMap = new HashMap<>();
+      for (ReferenceNode child : children.values()) {
+        child.fillTimeMaps(countMap, selfCountMap, calls.contains(child), calls);
+      }
+      return Pair.create(countMap, selfCountMap);
+    }
+
+    private void fillTimeMaps(Map<FrameInfo, Long> countMap, Map<FrameInfo, Long> selfCountMap, boolean tracking,
+                              Set<ReferenceNode> calls) {
+      if (tracking) {
+        long childrenDuration = 0;
+        for (ReferenceNode child : children.values()) {
+          childrenDuration += child.duration;
+        }
+        selfCountMap.merge(frame, duration - childrenDuration, Long::sum);
+      }
+
+      final long countBefore = countMap.getOrDefault(frame, 0L);
+      for (ReferenceNode child : children.values()) {
+        child.fillTimeMaps(countMap, selfCountMap, tracking || calls.contains(child), calls);
+      }
+      if (tracking) {
+        countMap.put(frame, countBefore + duration);
+      }
+    }
+
+    private static FrameInfo[] reverse(FrameInfo[] frames) {
+      final FrameInfo[] result = new FrameInfo[frames.length];
+      for (int i = 0; i < frames.length; i++) {
+        result[frames.length - 1 - i] = frames[i];
+      }
+      return result;
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package com.jetbrains.actionscript.profiler.calltree;
 
 import com.intellij.psi.xml.XmlTag;
-import com.jetbrains.actionscript.profiler.sampler.FrameInfo;
 import com.jetbrains.actionscript.profiler.sampler.FrameUtil;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
@@ -11,26 +10,26 @@ public class CallTreeTestUtil {
   }
 
   public static CallTree getCallTreeFromXmlFile(@NotNull XmlTag rootTag) {
-    CallTreeNode root = getCallTreeNodeFromXmlTag(rootTag);
-    return new CallTree(root);
+    CallTree callTree = new CallTree();
+    addChildrenFromXmlTag(callTree, CallTreeArena.ROOT, rootTag);
+    return callTree;
   }
 
-  private static CallTreeNode getCallTreeNodeFromXmlTag(XmlTag rootTag) {
-    int count = Integer.MAX_VALUE;
-    String countStr = rootTag.getAttributeValue("count");
-    if (countStr != null) {
-      count = Integer.parseInt(countStr);
+  private static void addChildrenFromXmlTag(CallTree callTree, int node, XmlTag tag) {
+    long count = getCount(tag);
+    for (XmlTag childTag : tag.getSubTags()) {
+      int childNode = callTree.addChild(node, FrameUtil.getFrameInfo(childTag.getName()), getCount(childTag));
+      addChildrenFromXmlTag(callTree, childNode, childTag);
+      long childSelfTiming = 0;
+      for (XmlTag grandChildTag : childTag.getSubTags()) {
+        childSelfTiming += getCount(grandChildTag);
+      }
+      Assert.assertTrue("Bad edge " + tag.getName() + "->" + childTag.getName(), childSelfTiming <= count);
     }
-    FrameInfo frameInfo = FrameUtil.getFrameInfo(rootTag.getName());
-    CallTreeNode node = new CallTreeNode(frameInfo, count);
-    if (rootTag.isEmpty()) {
-      return node;
-    }
-    for (XmlTag childTag : rootTag.getSubTags()) {
-      CallTreeNode childNode = getCallTreeNodeFromXmlTag(childTag);
-      node.addChildRecursive(childNode);
-      Assert.assertTrue("Bad edge " + node.getFrameInfo() + "->" + childNode.getFrameInfo(), childNode.calcSelfTiming() <= count);
-    }
-    return node;
+  }
+
+  private static int getCount(XmlTag tag) {
+    String countStr = tag.getAttributeValue("count");
+    return countStr != null ? Integer.parseInt(countStr) : Integer.MAX_VALUE;
   }
 }
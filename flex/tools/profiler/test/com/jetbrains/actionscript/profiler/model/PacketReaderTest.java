@@ -0,0 +1,181 @@
+package com.jetbrains.actionscript.profiler.model;
+
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PacketReaderTest extends TestCase {
+  private ServerSocketChannel myServerChannel;
+  private Socket myClient;
+  private TestStatistics myStatistics;
+  private PacketReader myReader;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myServerChannel = ServerSocketChannel.open();
+    myServerChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    myClient = new Socket(InetAddress.getLoopbackAddress(), myServerChannel.socket().getLocalPort());
+    myStatistics = new TestStatistics();
+    myReader = new PacketReader(myServerChannel.accept(), myStatistics, 8);
+    final Thread thread = new Thread(myReader, "packet reader");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myReader.stop();
+      myClient.close();
+      myServerChannel.close();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testPacketsInOrder() throws Exception {
+    final List<String> packets = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      packets.add("cs:" + i);
+    }
+    packets.add("");
+    packets.add("\u041f\u0440\u0438\u0432\u0435\u0442, \u0000 \uffff");
+    final StringBuilder builder = new StringBuilder();
+    while (builder.length() < 60000) {
+      builder.append("com.foo::Bar/baz()[/src/com/foo/Bar.as:12];");
+    }
+    packets.add(builder.toString());
+
+    final Thread writer = write(packets, true);
+    for (String packet : packets) {
+      assertEquals(packet, myReader.take());
+    }
+    try {
+      myReader.take();
+      fail("EOF expected");
+    }
+    catch (EOFException ignored) {
+    }
+    writer.join();
+
+    assertEquals(packets.size(), myStatistics.getPacketsRead());
+    assertEquals(0, myStatistics.getQueuedPackets());
+    assertTrue(myStatistics.getMaxQueuedPackets() <= 8);
+    assertEquals(0, myStatistics.getDroppedPackets());
+  }
+
+  public void testQueueFullStall() throws Exception {
+    final List<String> packets = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      packets.add("u>:" + i);
+    }
+    final Thread writer = write(packets, false);
+    writer.join();
+
+    // the reader can't queue more than the ring capacity until something is taken
+    assertTrue(myStatistics.myQueueFull.await(10, TimeUnit.SECONDS));
+    assertEquals(8, myStatistics.getPacketsRead());
+    assertEquals(8, myStatistics.getQueuedPackets());
+
+    for (String packet : packets) {
+      assertEquals(packet, myReader.take());
+    }
+    assertTrue(myStatistics.getQueueFullStalls() > 0);
+  }
+
+  public void testStop() throws Exception {
+    final List<String> packets = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      packets.add("cs:" + i);
+    }
+    write(packets, false).join();
+    assertTrue(myStatistics.myFiveQueued.await(10, TimeUnit.SECONDS));
+
+    assertEquals("cs:0", myReader.take());
+    myReader.stop();
+    assertClosed();
+    assertEquals(4, myStatistics.getDroppedPackets());
+  }
+
+  public void testStopWhileConsumerWaits() throws Exception {
+    final CountDownLatch closed = new CountDownLatch(1);
+    final Thread consumer = new Thread(() -> {
+      try {
+        myReader.take();
+      }
+      catch (ClosedChannelException e) {
+        closed.countDown();
+      }
+      catch (IOException ignored) {
+      }
+    }, "consumer");
+    consumer.start();
+
+    // the connection is disposed: the consumer must be notified, not just return
+    myReader.stop();
+    assertTrue(closed.await(10, TimeUnit.SECONDS));
+    consumer.join();
+    assertClosed();
+  }
+
+  private void assertClosed() throws IOException {
+    try {
+      myReader.take();
+      fail("ClosedChannelException expected");
+    }
+    catch (ClosedChannelException ignored) {
+    }
+  }
+
+  private Thread write(final List<String> packets, final boolean close) {
+    final Thread thread = new Thread(() -> {
+      try {
+        final DataOutputStream out = new DataOutputStream(myClient.getOutputStream());
+        for (String packet : packets) {
+          out.writeUTF(packet);
+        }
+        out.flush();
+        if (close) {
+          myClient.close();
+        }
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }, "agent");
+    thread.start();
+    return thread;
+  }
+
+  private static class TestStatistics extends ConnectionStatistics {
+    private final CountDownLatch myFiveQueued = new CountDownLatch(5);
+    private final CountDownLatch myQueueFull = new CountDownLatch(1);
+
+    @Override
+    void packetsQueued(int count, int queued) {
+      super.packetsQueued(count, queued);
+      for (int i = 0; i < count; i++) {
+        myFiveQueued.countDown();
+      }
+    }
+
+    @Override
+    void queueFull() {
+      super.queueFull();
+      myQueueFull.countDown();
+    }
+  }
+}
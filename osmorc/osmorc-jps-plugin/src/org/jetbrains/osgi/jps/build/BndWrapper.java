@@ -30,8 +30,11 @@ import aQute.bnd.build.Workspace;
 import aQute.bnd.osgi.*;
 import aQute.service.reporter.Report;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.ExceptionUtil;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,7 +43,9 @@ import org.jetbrains.osgi.jps.util.OrderedProperties;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.regex.Matcher;
@@ -53,6 +58,8 @@ import java.util.stream.Collectors;
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thomä</a>
  */
 public class BndWrapper {
+  private static final int MAX_BUNDLIFICATION_THREADS = 4;
+
   private final Reporter myReporter;
 
   public BndWrapper(Reporter reporter) {
@@ -61,37 +68,93 @@ public class BndWrapper {
 
   /**
    * Wraps .jar files using Bnd analyzer. Uses bundlification rules defined in Settings/OSGi/Library Bundling.
+   * Libraries are wrapped concurrently; a bundle is reused while the content of its library and the bundlification
+   * properties stay the same (see {@link BundlificationCache}).
    */
   @NotNull
   public List<String> bundlifyLibraries(@NotNull Collection<File> dependencies,
                                         @NotNull File outputDir,
                                         @NotNull List<LibraryBundlificationRule> rules) {
-    List<String> result = ContainerUtil.newArrayListWithCapacity(dependencies.size());
+    String[] result = new String[dependencies.size()];
+    BundlificationCache cache = BundlificationCache.load(outputDir);
 
+    // libraries with the same name are wrapped into the same bundle, so they must not be wrapped concurrently
+    Map<String, List<Pair<Integer, File>>> toWrap = ContainerUtil.newLinkedHashMap();
+    int index = 0;
     for (File dependency : dependencies) {
       String path = dependency.getPath();
       if (CachingBundleInfoProvider.canBeBundlified(path)) {
-        myReporter.progress(path);
-        try {
-          File bundledDependency = wrap(dependency, outputDir, rules);
-          if (bundledDependency != null) {
-            result.add(bundledDependency.getPath());
-          }
-        }
-        catch (OsgiBuildException e) {
-          myReporter.warning(e.getMessage(), e.getCause(), e.getSourcePath(), -1);
-        }
+        toWrap.computeIfAbsent(dependency.getName(), k -> ContainerUtil.newSmartList()).add(Pair.create(index, dependency));
       }
       else if (CachingBundleInfoProvider.isBundle(path)) {
-        result.add(path);
+        result[index] = path;
       }
+      index++;
     }
 
-    return result;
+    List<Runnable> tasks = ContainerUtil.map(toWrap.values(), libraries -> () -> {
+      for (Pair<Integer, File> library : libraries) {
+        File bundledDependency = wrap(library.second, outputDir, rules, cache);
+        if (bundledDependency != null) {
+          result[library.first] = bundledDependency.getPath();
+        }
+      }
+    });
+
+    try {
+      runAll(tasks);
+    }
+    finally {
+      cache.save();
+    }
+
+    return Arrays.stream(result).filter(Objects::nonNull).collect(Collectors.toList());
+  }
+
+  private static void runAll(@NotNull List<Runnable> tasks) {
+    int threads = Math.min(Math.min(Runtime.getRuntime().availableProcessors(), MAX_BUNDLIFICATION_THREADS), tasks.size());
+    if (threads <= 1) {
+      tasks.forEach(Runnable::run);
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, ConcurrencyUtil.newNamedThreadFactory("OSGi library bundlification"));
+    try {
+      List<Future<?>> futures = ContainerUtil.map(tasks, executor::submit);
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e) {
+      ExceptionUtil.rethrowUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Nullable
+  private File wrap(@NotNull File sourceFile, @NotNull File outputDir, @NotNull List<LibraryBundlificationRule> rules, @NotNull BundlificationCache cache) {
+    myReporter.progress(sourceFile.getPath());
+    try {
+      return doWrapIfNeeded(sourceFile, outputDir, rules, cache);
+    }
+    catch (OsgiBuildException e) {
+      myReporter.warning(e.getMessage(), e.getCause(), e.getSourcePath(), -1);
+      return null;
+    }
   }
 
   @Nullable
-  private File wrap(@NotNull File sourceFile, @NotNull File outputDir, @NotNull List<LibraryBundlificationRule> rules) throws OsgiBuildException {
+  private File doWrapIfNeeded(@NotNull File sourceFile,
+                              @NotNull File outputDir,
+                              @NotNull List<LibraryBundlificationRule> rules,
+                              @NotNull BundlificationCache cache) throws OsgiBuildException {
     if (!sourceFile.isFile()) {
       throw new OsgiBuildException("The library '" + sourceFile + "' does not exist - please check module dependencies.");
     }
@@ -99,30 +162,39 @@ public class BndWrapper {
     File targetFile = new File(outputDir, sourceFile.getName());
     Map<String, String> additionalProperties = ContainerUtil.newHashMap();
 
-    long lastModified = Long.MIN_VALUE;
     for (LibraryBundlificationRule bundlificationRule : rules) {
       if (bundlificationRule.appliesTo(sourceFile.getName())) {
         if (bundlificationRule.isDoNotBundle()) {
           return null;
         }
         additionalProperties.putAll(bundlificationRule.getAdditionalPropertiesMap());
-        lastModified = Math.max(lastModified, bundlificationRule.getLastModified());
         if (bundlificationRule.isStopAfterThisRule()) {
           break;
         }
       }
     }
 
-    if (targetFile.exists() && targetFile.lastModified() >= sourceFile.lastModified() && targetFile.lastModified() >= lastModified) {
-      return targetFile;
-    }
+    long start = System.currentTimeMillis();
+    String propertiesHash = BundlificationCache.hashProperties(additionalProperties);
+    try {
+      String sourceHash = cache.getOutdatedSourceHash(sourceFile, targetFile, propertiesHash);
+      if (sourceHash == null) {
+        myReporter.progress(sourceFile.getName() + " is up to date (" + (System.currentTimeMillis() - start) + " ms)");
+        return targetFile;
+      }
 
-    doWrap(sourceFile, targetFile, additionalProperties);
+      doWrap(sourceFile, targetFile, additionalProperties);
+      cache.update(sourceFile, sourceHash, targetFile, propertiesHash);
+      myReporter.progress(sourceFile.getName() + " bundlified in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    catch (IOException e) {
+      throw new OsgiBuildException("Can't read the library '" + sourceFile + "'", e, null);
+    }
     return targetFile;
   }
 
   // internal function which does the actual wrapping. 90% borrowed from the Bnd source code.
-  private void doWrap(@NotNull File inputJar, @NotNull File outputJar, @NotNull Map<String, String> properties) throws OsgiBuildException {
+  protected void doWrap(@NotNull File inputJar, @NotNull File outputJar, @NotNull Map<String, String> properties) throws OsgiBuildException {
     if (!FileUtil.delete(outputJar)) {
       throw new OsgiBuildException("Can't delete outdated bundle '" + outputJar + "'");
     }
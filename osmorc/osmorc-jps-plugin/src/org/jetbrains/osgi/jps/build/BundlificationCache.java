@@ -0,0 +1,227 @@
+/*
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.osgi.jps.build;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what each bundle in the output directory has been made of: the content hash of the library and the hash
+ * of the bundlification properties. A library is bundlified again only when one of them changes, so a re-downloaded
+ * or freshly checked out library with a new timestamp but the same content is not.
+ * <p>
+ * Stored in the output directory as a properties file: <code>bundle name = source hash, properties hash,
+ * source length, source timestamp, bundle length, bundle timestamp</code>. Source stamps allow to skip hashing of
+ * libraries which have not been touched; bundle stamps detect bundles modified by someone else.
+ */
+class BundlificationCache {
+  private static final Logger LOG = Logger.getInstance(BundlificationCache.class);
+
+  static final String FILE_NAME = ".bundlification.cache";
+  private static final String VERSION_KEY = "#version";
+  private static final String VERSION = "1";
+
+  private final File myFile;
+  private final Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+  private volatile boolean myModified;
+
+  private BundlificationCache(@NotNull File outputDir) {
+    myFile = new File(outputDir, FILE_NAME);
+  }
+
+  @NotNull
+  static BundlificationCache load(@NotNull File outputDir) {
+    BundlificationCache cache = new BundlificationCache(outputDir);
+    synchronized (BundlificationCache.class) {
+      cache.myEntries.putAll(readEntries(cache.myFile));
+    }
+    return cache;
+  }
+
+  /**
+   * The library is hashed at most once: the hash is returned to be passed to {@link #update} after bundlification.
+   *
+   * @return null if the bundle has been made of a library with the same content using the same properties,
+   * the content hash of the library otherwise
+   */
+  @Nullable
+  String getOutdatedSourceHash(@NotNull File sourceFile, @NotNull File targetFile, @NotNull String propertiesHash) throws IOException {
+    Entry entry = myEntries.get(targetFile.getName());
+    if (entry == null || !entry.myPropertiesHash.equals(propertiesHash) || !targetFile.isFile() ||
+        entry.myTargetLength != targetFile.length() || entry.myTargetTimestamp != targetFile.lastModified()) {
+      return hashFile(sourceFile);
+    }
+    if (entry.mySourceLength == sourceFile.length() && entry.mySourceTimestamp == sourceFile.lastModified()) {
+      return null;
+    }
+
+    String sourceHash = hashFile(sourceFile);
+    if (!entry.mySourceHash.equals(sourceHash)) {
+      return sourceHash;
+    }
+    update(sourceFile, sourceHash, targetFile, propertiesHash);
+    return null;
+  }
+
+  void update(@NotNull File sourceFile, @NotNull String sourceHash, @NotNull File targetFile, @NotNull String propertiesHash) {
+    myEntries.put(targetFile.getName(), new Entry(sourceHash, propertiesHash, sourceFile.length(), sourceFile.lastModified(),
+                                                  targetFile.length(), targetFile.lastModified()));
+    myModified = true;
+  }
+
+  /**
+   * Saves the entries updated by this session over the ones saved by other sessions sharing the same output directory.
+   */
+  void save() {
+    if (!myModified) return;
+
+    synchronized (BundlificationCache.class) {
+      Map<String, Entry> entries = readEntries(myFile);
+      entries.putAll(myEntries);
+
+      Properties properties = new Properties();
+      properties.setProperty(VERSION_KEY, VERSION);
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        properties.setProperty(entry.getKey(), entry.getValue().toString());
+      }
+
+      File tempFile = new File(myFile.getPath() + ".tmp");
+      try {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+          properties.store(stream, null);
+        }
+        FileUtil.rename(tempFile, myFile);
+        myModified = false;
+      }
+      catch (IOException e) {
+        LOG.warn("Can't save " + myFile, e);
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  @NotNull
+  private static Map<String, Entry> readEntries(@NotNull File file) {
+    Map<String, Entry> result = new TreeMap<>();
+    if (!file.isFile()) return result;
+
+    Properties properties = new Properties();
+    try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+      properties.load(stream);
+    }
+    catch (IOException e) {
+      LOG.warn("Can't read " + file, e);
+      return result;
+    }
+    if (!VERSION.equals(properties.getProperty(VERSION_KEY))) {
+      return result;
+    }
+
+    for (String name : properties.stringPropertyNames()) {
+      if (!VERSION_KEY.equals(name)) {
+        Entry entry = Entry.parse(properties.getProperty(name));
+        if (entry != null) {
+          result.put(name, entry);
+        }
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  static String hashFile(@NotNull File file) throws IOException {
+    MessageDigest digest = createDigest();
+    try (InputStream stream = new FileInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return StringUtil.toHexString(digest.digest());
+  }
+
+  /**
+   * The hash doesn't depend on the order of properties.
+   */
+  @NotNull
+  static String hashProperties(@NotNull Map<String, String> properties) {
+    MessageDigest digest = createDigest();
+    for (Map.Entry<String, String> entry : new TreeMap<>(properties).entrySet()) {
+      digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+      digest.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+    }
+    return StringUtil.toHexString(digest.digest());
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static class Entry {
+    private final String mySourceHash;
+    private final String myPropertiesHash;
+    private final long mySourceLength;
+    private final long mySourceTimestamp;
+    private final long myTargetLength;
+    private final long myTargetTimestamp;
+
+    private Entry(String sourceHash, String propertiesHash, long sourceLength, long sourceTimestamp, long targetLength, long targetTimestamp) {
+      mySourceHash = sourceHash;
+      myPropertiesHash = propertiesHash;
+      mySourceLength = sourceLength;
+      mySourceTimestamp = sourceTimestamp;
+      myTargetLength = targetLength;
+      myTargetTimestamp = targetTimestamp;
+    }
+
+    @Nullable
+    private static Entry parse(String value) {
+      String[] parts = value.split(",");
+      if (parts.length != 6) return null;
+      try {
+        return new Entry(parts[0], parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]), Long.parseLong(parts[5]));
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return mySourceHash + ',' + myPropertiesHash + ',' + mySourceLength + ',' + mySourceTimestamp + ',' + myTargetLength + ',' + myTargetTimestamp;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.osgi.jps
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.osgi.jps.build.BndWrapper
+import org.jetbrains.osgi.jps.build.Reporter
+import org.jetbrains.osgi.jps.model.LibraryBundlificationRule
+import java.io.File
+import java.io.FileOutputStream
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+
+class BndWrapperTest : UsefulTestCase() {
+  private lateinit var myLibDir: File
+  private lateinit var myOutputDir: File
+  private val myBundlified = AtomicInteger()
+  private val myRule = LibraryBundlificationRule()
+
+  override fun setUp() {
+    super.setUp()
+    val root = FileUtil.createTempDirectory("bnd", null)
+    myLibDir = File(root, "lib")
+    myOutputDir = File(root, "bundles")
+    assertTrue(myOutputDir.mkdirs())
+  }
+
+  override fun tearDown() {
+    try {
+      FileUtil.delete(myLibDir.parentFile)
+    }
+    finally {
+      super.tearDown()
+    }
+  }
+
+  fun testAllLibrariesBundlifiedInOrder() {
+    val libraries = (1..20).map { library("lib$it-1.0.jar") }
+    assertEquals(libraries.map { File(myOutputDir, it.name).path }, bundlify(libraries))
+    assertEquals(20, myBundlified.get())
+    (1..20).forEach { assertEquals("lib$it", manifestAttribute("lib$it-1.0.jar", "Bundle-SymbolicName")) }
+  }
+
+  fun testLibraryWithNewTimestampNotBundlifiedAgain() {
+    val libraries = (1..3).map { library("lib$it-1.0.jar") }
+    bundlify(libraries)
+    libraries.forEach { it.setLastModified(it.lastModified() + 60000) }
+
+    myBundlified.set(0)
+    assertEquals(3, bundlify(libraries).size)
+    assertEquals(0, myBundlified.get())
+  }
+
+  fun testChangedLibraryBundlifiedAgain() {
+    val libraries = (1..3).map { library("lib$it-1.0.jar") }
+    bundlify(libraries)
+    library("lib2-1.0.jar", "extra.txt")
+
+    myBundlified.set(0)
+    bundlify(libraries)
+    assertEquals(1, myBundlified.get())
+  }
+
+  fun testChangedRuleApplied() {
+    val libraries = (1..3).map { library("lib$it-1.0.jar") }
+    bundlify(libraries)
+    myRule.additionalProperties = "Bundle-Vendor: Test"
+
+    myBundlified.set(0)
+    bundlify(libraries)
+    assertEquals(3, myBundlified.get())
+    assertEquals("Test", manifestAttribute("lib1-1.0.jar", "Bundle-Vendor"))
+  }
+
+  private fun bundlify(libraries: List<File>): List<String> =
+    object : BndWrapper(TestReporter()) {
+      override fun doWrap(inputJar: File, outputJar: File, properties: Map<String, String>) {
+        myBundlified.incrementAndGet()
+        super.doWrap(inputJar, outputJar, properties)
+      }
+    }.bundlifyLibraries(libraries, myOutputDir, listOf(myRule))
+
+  private fun manifestAttribute(bundle: String, name: String): String? =
+    JarFile(File(myOutputDir, bundle)).use { it.manifest.mainAttributes.getValue(name) }
+
+  private fun library(name: String, vararg extraEntries: String): File {
+    val file = File(myLibDir, name)
+    FileUtil.createParentDirs(file)
+    val classFile = javaClass.name.replace('.', '/') + ".class"
+    JarOutputStream(FileOutputStream(file)).use { jar ->
+      jar.putNextEntry(ZipEntry(classFile))
+      javaClass.classLoader.getResourceAsStream(classFile).use { it.copyTo(jar) }
+      jar.closeEntry()
+      extraEntries.forEach {
+        jar.putNextEntry(ZipEntry(it))
+        jar.write(it.toByteArray())
+        jar.closeEntry()
+      }
+    }
+    return file
+  }
+
+  private inner class TestReporter : Reporter {
+    override fun progress(message: String) {}
+
+    override fun warning(message: String, t: Throwable?, sourcePath: String?, lineNum: Int) {}
+
+    override fun error(message: String, t: Throwable?, sourcePath: String?, lineNum: Int) = fail(message)
+
+    override fun isDebugEnabled() = false
+
+    override fun debug(message: String) {}
+
+    override fun setReportSource(source: String?): String? = null
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.model;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.struts2.BasicLightHighlightingTestCase;
+import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action and Action class lookups in a model with synthetic struts.xml files of {@link #FILES} * {@link #ACTIONS_PER_FILE} actions.
+ */
+public class StrutsModelPerformanceTest extends BasicLightHighlightingTestCase {
+
+  private static final int FILES = 10;
+  private static final int ACTIONS_PER_FILE = 1000;
+
+  // every n-th action is a wildcard mapping
+  private static final int WILDCARD_EVERY = 10;
+
+  // actions use classes perf.PerfAction0..n
+  private static final int ACTION_CLASSES = 10;
+
+  @Override
+  @NotNull
+  protected String getTestDataLocation() {
+    return "strutsXml";
+  }
+
+  public void testFindActionsByName() {
+    final StrutsModel model = createModel();
+
+    assertSize(1, model.findActionsByName("action5", "/ns0"));
+    assertSize(1, model.findActionsByName("action5!execute", "/ns0"));
+    assertEmpty(model.findActionsByName("action5", "/ns1"));
+    assertEmpty(model.findActionsByName("action5", "/unknown"));
+    assertEmpty(model.findActionsByName("action10", "/ns0"));
+
+    assertSize(1, model.findActionsByName("wild10_Something", "/ns0"));
+    assertEmpty(model.findActionsByName("wild10_Some/thing", "/ns0"));
+
+    final List<Action> all = model.findActionsByName("action1005", null);
+    assertSize(1, all);
+    assertEquals("/ns1", all.get(0).getNamespace());
+
+    assertSize(ACTIONS_PER_FILE, model.getActionsForNamespace("/ns3"));
+    assertSize(FILES * ACTIONS_PER_FILE, model.getActionsForNamespace(null));
+  }
+
+  public void testFindActionsByNamePerformance() {
+    final StrutsModel model = createModel();
+
+    PlatformTestUtil.startPerformanceTest("10k actions lookup", 2000, () -> {
+      for (int i = 0; i < FILES * ACTIONS_PER_FILE; i++) {
+        final String namespace = "/ns" + i / ACTIONS_PER_FILE;
+        final String name = i % WILDCARD_EVERY == 0 ? "wild" + i + "_Something" : "action" + i;
+        assertSize(1, model.findActionsByName(name, namespace));
+      }
+    }).assertTiming();
+  }
+
+  public void testFindActionsByClass() {
+    final StrutsModel model = createModel();
+
+    final PsiClass actionClass = myFixture.findClass("perf.PerfAction3");
+    assertTrue(model.isActionClass(actionClass));
+    assertSize(FILES * ACTIONS_PER_FILE / ACTION_CLASSES, model.findActionsByClass(actionClass));
+
+    final PsiClass otherClass = myFixture.addClass("package perf; public class NoAction {}");
+    assertFalse(model.isActionClass(otherClass));
+    assertEmpty(model.findActionsByClass(otherClass));
+  }
+
+  public void testIsActionClassPerformance() {
+    final StrutsModel model = createModel();
+    final PsiClass[] classes = new PsiClass[ACTION_CLASSES];
+    for (int i = 0; i < ACTION_CLASSES; i++) {
+      classes[i] = myFixture.findClass("perf.PerfAction" + i);
+    }
+
+    PlatformTestUtil.startPerformanceTest("isActionClass() with 10k actions", 2000, () -> {
+      for (int i = 0; i < FILES * ACTIONS_PER_FILE; i++) {
+        assertTrue(model.isActionClass(classes[i % ACTION_CLASSES]));
+      }
+    }).assertTiming();
+  }
+
+  public void testIndexUpdatedOnModification() {
+    final StrutsModel model = createModel();
+    assertEmpty(model.findActionsByName("renamedAction", "/ns0"));
+
+    final PsiFile psiFile = myFixture.getPsiManager().findFile(myFixture.findFileInTempDir("struts-perf-0.xml"));
+    assertNotNull(psiFile);
+    final Document document = PsiDocumentManager.getInstance(getProject()).getDocument(psiFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      final int offset = document.getText().indexOf("\"action1\"");
+      document.replaceString(offset, offset + "\"action1\"".length(), "\"renamedAction\"");
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+
+    assertSize(1, model.findActionsByName("renamedAction", "/ns0"));
+    assertEmpty(model.findActionsByName("action1", "/ns0"));
+  }
+
+  private StrutsModel createModel() {
+    for (int i = 0; i < ACTION_CLASSES; i++) {
+      myFixture.addClass("package perf; public class PerfAction" + i + " {}");
+    }
+
+    final List<VirtualFile> files = new ArrayList<>(FILES);
+    for (int i = 0; i < FILES; i++) {
+      final String fileName = "struts-perf-" + i + ".xml";
+      files.add(myFixture.addFileToProject(fileName, createStrutsXml(i)).getVirtualFile());
+    }
+    createStrutsFileSet(files);
+
+    final StrutsModel model = StrutsManager.getInstance(getProject()).getCombinedModel(myModule);
+    assertNotNull(model);
+    return model;
+  }
+
+  private static String createStrutsXml(final int fileIndex) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n")
+      .append("<!DOCTYPE struts PUBLIC\n")
+      .append("    \"-//Apache Software Foundation//DTD Struts Configuration 2.0//EN\"\n")
+      .append("    \"http://struts.apache.org/dtds/struts-2.0.dtd\">\n")
+      .append("<struts>\n")
+      .append("  <package name=\"perf").append(fileIndex).append("\" namespace=\"/ns").append(fileIndex).append("\">\n");
+
+    for (int i = fileIndex * ACTIONS_PER_FILE; i < (fileIndex + 1) * ACTIONS_PER_FILE; i++) {
+      final String name = i % WILDCARD_EVERY == 0 ? "wild" + i + "_*" : "action" + i;
+      builder.append("    <action name=\"").append(name)
+        .append("\" class=\"perf.PerfAction").append(i % ACTION_CLASSES).append("\"/>\n");
+    }
+
+    builder.append("  </package>\n")
+      .append("</struts>\n");
+    return builder.toString();
+  }
+}
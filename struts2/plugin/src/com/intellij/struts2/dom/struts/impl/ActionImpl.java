@@ -43,7 +43,7 @@ public abstract class ActionImpl implements Action {
   @Override
   public boolean isWildcardMapping() {
     final String name = getNameValue();
-    return name != null && name.indexOf('*') != -1;
+    return name != null && ActionUtil.isWildcardPath(name);
   }
 
   public boolean matchesPath(@NotNull final String path) {
@@ -54,20 +54,46 @@ final class ActionUtil {
    */
   static boolean matchesPath(@NotNull @NonNls final String actionPath,
                              @NotNull @NonNls final String checkPath) {
-    // strip everything behind "!"
-    final int bangIdx = checkPath.indexOf('!');
-    final String strippedCheckPath = bangIdx == -1 ? checkPath : checkPath.substring(0, bangIdx);
+    final String strippedCheckPath = stripBangNotation(checkPath);
 
     // do we have any wildcard-markers in our path? no --> exact compare
-    if (actionPath.indexOf('*') == -1) {
+    if (!isWildcardPath(actionPath)) {
       return Comparing.equal(strippedCheckPath, actionPath);
     }
 
+    final Pattern pattern = compileWildcardPath(actionPath);
+    return pattern != null && pattern.matcher(strippedCheckPath).matches();
+  }
+
+  /**
+   * Strips everything behind "!" (bang notation).
+   *
+   * @param checkPath Path to check.
+   * @return Path without method name.
+   */
+  @NotNull
+  static String stripBangNotation(@NotNull @NonNls final String checkPath) {
+    final int bangIdx = checkPath.indexOf('!');
+    return bangIdx == -1 ? checkPath : checkPath.substring(0, bangIdx);
+  }
+
+  static boolean isWildcardPath(@NotNull @NonNls final String actionPath) {
+    return actionPath.indexOf('*') != -1;
+  }
+
+  /**
+   * Compiles the Action's wildcard path, '*' matches any characters except '/'.
+   *
+   * @param actionPath Path of Action containing wildcard(s).
+   * @return {@code null} if path is not a valid pattern.
+   */
+  @Nullable
+  static Pattern compileWildcardPath(@NotNull @NonNls final String actionPath) {
     try {
-      return Pattern.matches(StringUtil.replace(actionPath, "*", "[^/]*"), strippedCheckPath);
+      return Pattern.compile(StringUtil.replace(actionPath, "*", "[^/]*"));
     }
     catch (PatternSyntaxException e) {
-      return false;
+      return null;
     }
   }
 
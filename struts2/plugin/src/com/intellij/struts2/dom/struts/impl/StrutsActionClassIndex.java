@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.impl;
+
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Comparing;
+import com.intellij.psi.PsiClass;
+import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.util.SmartList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Actions of a model by qualified name of their resolved Action class (see {@link Action#searchActionClass()}).
+ * <p>
+ * Resolving Action classes is expensive, so packages are processed concurrently when building.
+ */
+public final class StrutsActionClassIndex {
+
+  private final Map<String, List<ActionClass>> myActions = new HashMap<>();
+
+  private StrutsActionClassIndex() {
+  }
+
+  @NotNull
+  public static StrutsActionClassIndex build(@NotNull final List<StrutsPackage> strutsPackages) {
+    final List<PackageActionClasses> packageActionClasses = new ArrayList<>(strutsPackages.size());
+    for (final StrutsPackage strutsPackage : strutsPackages) {
+      packageActionClasses.add(new PackageActionClasses(strutsPackage));
+    }
+
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+      packageActionClasses, ProgressManager.getInstance().getProgressIndicator(), packageActions -> {
+        packageActions.resolve();
+        return true;
+      });
+
+    // merged in model order
+    final StrutsActionClassIndex index = new StrutsActionClassIndex();
+    for (final PackageActionClasses packageActions : packageActionClasses) {
+      for (final ActionClass actionClass : packageActions.myActionClasses) {
+        index.myActions.computeIfAbsent(actionClass.myQualifiedName, name -> new SmartList<>()).add(actionClass);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * @param clazz Action class.
+   * @return Actions using the given class.
+   */
+  @NotNull
+  public List<Action> findActionsByClass(@NotNull final PsiClass clazz) {
+    final List<ActionClass> actionClasses = getActionClasses(clazz);
+    if (actionClasses == null) {
+      return new SmartList<>();
+    }
+
+    final List<Action> actionResultList = new SmartList<>();
+    for (final ActionClass actionClass : actionClasses) {
+      if (Comparing.equal(clazz, actionClass.myClass)) {
+        actionResultList.add(actionClass.myAction);
+      }
+    }
+    return actionResultList;
+  }
+
+  public boolean isActionClass(@NotNull final PsiClass clazz) {
+    final List<ActionClass> actionClasses = getActionClasses(clazz);
+    if (actionClasses == null) {
+      return false;
+    }
+
+    for (final ActionClass actionClass : actionClasses) {
+      if (Comparing.equal(clazz, actionClass.myClass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<ActionClass> getActionClasses(final PsiClass clazz) {
+    final String qualifiedName = clazz.getQualifiedName();
+    return qualifiedName == null ? null : myActions.get(qualifiedName);
+  }
+
+  private static final class PackageActionClasses {
+    private final StrutsPackage myStrutsPackage;
+    private final List<ActionClass> myActionClasses = new ArrayList<>();
+
+    private PackageActionClasses(final StrutsPackage strutsPackage) {
+      myStrutsPackage = strutsPackage;
+    }
+
+    private void resolve() {
+      for (final Action action : myStrutsPackage.getActions()) {
+        ProgressManager.checkCanceled();
+
+        final PsiClass actionClass = action.searchActionClass();
+        final String qualifiedName = actionClass == null ? null : actionClass.getQualifiedName();
+        if (qualifiedName != null) {
+          myActionClasses.add(new ActionClass(qualifiedName, actionClass, action));
+        }
+      }
+    }
+  }
+
+  private static final class ActionClass {
+    private final String myQualifiedName;
+    private final PsiClass myClass;
+    private final Action myAction;
+
+    private ActionClass(final String qualifiedName, final PsiClass clazz, final Action action) {
+      myQualifiedName = qualifiedName;
+      myClass = clazz;
+      myAction = action;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.impl;
+
+import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.util.Processor;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Actions of a model by namespace: exact names are looked up directly, wildcard mappings are matched by their compiled
+ * patterns. Built once per modification of the model's files instead of matching each Action on every lookup.
+ * <p>
+ * Results are returned in the order of the Actions in the model.
+ */
+public final class StrutsActionIndex {
+
+  private final List<Action> myActions = new ArrayList<>();
+  private final NamespaceActions myAllNamespaces = new NamespaceActions();
+  private final Map<String, NamespaceActions> myNamespaces = new HashMap<>();
+
+  private StrutsActionIndex() {
+  }
+
+  @NotNull
+  public static StrutsActionIndex build(@NotNull final List<StrutsPackage> strutsPackages) {
+    final StrutsActionIndex index = new StrutsActionIndex();
+    for (final StrutsPackage strutsPackage : strutsPackages) {
+      final NamespaceActions namespaceActions =
+        index.myNamespaces.computeIfAbsent(strutsPackage.searchNamespace(), namespace -> new NamespaceActions());
+
+      for (final Action action : strutsPackage.getActions()) {
+        final IndexedAction indexedAction = index.createIndexedAction(action);
+        index.myActions.add(action);
+        index.myAllNamespaces.add(indexedAction);
+        namespaceActions.add(indexedAction);
+      }
+    }
+    return index;
+  }
+
+  private IndexedAction createIndexedAction(final Action action) {
+    final String path = action.getName().getRawText();
+    if (path == null || !ActionUtil.isWildcardPath(path)) {
+      return new IndexedAction(myActions.size(), action, path, null);
+    }
+    return new IndexedAction(myActions.size(), action, null, ActionUtil.compileWildcardPath(path));
+  }
+
+  /**
+   * @param path      Path to check (see {@link Action#matchesPath(String)}).
+   * @param namespace Namespace, {@code null} for all namespaces.
+   * @return Matching Actions.
+   */
+  @NotNull
+  public List<Action> findActionsByName(@NotNull @NonNls final String path,
+                                        @Nullable @NonNls final String namespace) {
+    final NamespaceActions namespaceActions = getNamespaceActions(namespace);
+    if (namespaceActions == null) {
+      return new SmartList<>();
+    }
+
+    final String strippedPath = ActionUtil.stripBangNotation(path);
+    final List<IndexedAction> exact = namespaceActions.myExactPaths.get(strippedPath);
+    final List<IndexedAction> matches = exact != null ? new ArrayList<>(exact) : new ArrayList<>();
+    for (final IndexedAction wildcardAction : namespaceActions.myWildcards) {
+      if (wildcardAction.myPattern.matcher(strippedPath).matches()) {
+        matches.add(wildcardAction);
+      }
+    }
+
+    if (exact != null && matches.size() > exact.size()) {
+      matches.sort(Comparator.comparingInt(indexedAction -> indexedAction.myOrdinal));
+    }
+    return ContainerUtil.map(matches, indexedAction -> indexedAction.myAction);
+  }
+
+  /**
+   * @param namespace Namespace, {@code null} for all namespaces.
+   * @return Actions of the namespace.
+   */
+  @NotNull
+  public List<Action> getActions(@Nullable @NonNls final String namespace) {
+    final NamespaceActions namespaceActions = getNamespaceActions(namespace);
+    if (namespaceActions == null) {
+      return new SmartList<>();
+    }
+    return ContainerUtil.map(namespaceActions.myActions, indexedAction -> indexedAction.myAction);
+  }
+
+  public boolean processActions(@NotNull final Processor<Action> processor) {
+    return ContainerUtil.process(myActions, processor);
+  }
+
+  @Nullable
+  private NamespaceActions getNamespaceActions(@Nullable final String namespace) {
+    return namespace == null ? myAllNamespaces : myNamespaces.get(namespace);
+  }
+
+  private static final class NamespaceActions {
+    private final List<IndexedAction> myActions = new ArrayList<>();
+    private final Map<String, List<IndexedAction>> myExactPaths = new HashMap<>();
+    private final List<IndexedAction> myWildcards = new ArrayList<>();
+
+    private void add(final IndexedAction indexedAction) {
+      myActions.add(indexedAction);
+      if (indexedAction.myExactPath != null) {
+        myExactPaths.computeIfAbsent(indexedAction.myExactPath, path -> new SmartList<>()).add(indexedAction);
+      }
+      else if (indexedAction.myPattern != null) {
+        myWildcards.add(indexedAction);
+      }
+    }
+  }
+
+  private static final class IndexedAction {
+    private final int myOrdinal;
+    private final Action myAction;
+    @Nullable
+    private final String myExactPath;
+    @Nullable
+    private final Pattern myPattern;
+
+    private IndexedAction(final int ordinal,
+                          final Action action,
+                          @Nullable final String exactPath,
+                          @Nullable final Pattern pattern) {
+      myOrdinal = ordinal;
+      myAction = action;
+      myExactPath = exactPath;
+      myPattern = pattern;
+    }
+  }
+}
@@ -15,20 +15,25 @@
 
 package com.intellij.struts2.dom.struts.model;
 
-import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Condition;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.struts2.dom.struts.StrutsRoot;
 import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.impl.StrutsActionClassIndex;
+import com.intellij.struts2.dom.struts.impl.StrutsActionIndex;
 import com.intellij.struts2.dom.struts.strutspackage.Interceptor;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorOrStackBase;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorStack;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
 import com.intellij.util.NotNullFunction;
 import com.intellij.util.Processor;
-import com.intellij.util.SmartList;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.xml.DomFileElement;
 import com.intellij.util.xml.model.impl.DomModelImpl;
@@ -52,9 +57,24 @@ class StrutsModelImpl extends DomModelImpl<StrutsRoot> implements StrutsModel {
   private static final Function<StrutsRoot, Collection<? extends StrutsPackage>> STRUTS_PACKAGE_COLLECTOR =
     strutsRoot -> strutsRoot.getPackages();
 
+  private final CachedValue<StrutsActionIndex> myActionIndex;
+  private final CachedValue<StrutsActionClassIndex> myActionClassIndex;
+
   StrutsModelImpl(@NotNull final DomFileElement<StrutsRoot> strutsRootDomFileElement,
                   @NotNull final Set<XmlFile> xmlFiles) {
     super(strutsRootDomFileElement, xmlFiles);
+
+    // any change of the model's files may change names and namespaces of actions
+    final Object[] dependencies = ArrayUtil.toObjectArray(xmlFiles);
+    final CachedValuesManager cachedValuesManager =
+      CachedValuesManager.getManager(strutsRootDomFileElement.getFile().getProject());
+    myActionIndex = cachedValuesManager.createCachedValue(
+      () -> CachedValueProvider.Result.create(StrutsActionIndex.build(getStrutsPackages()), dependencies), false);
+
+    // action classes are resolved by references which may depend on any PSI, not only on Java structure
+    myActionClassIndex = cachedValuesManager.createCachedValue(
+      () -> CachedValueProvider.Result.create(StrutsActionClassIndex.build(getStrutsPackages()),
+                                              PsiModificationTracker.MODIFICATION_COUNT), false);
   }
 
   @NotNull
@@ -82,55 +102,24 @@ class StrutsModelImpl extends DomModelImpl<StrutsRoot> implements StrutsModel {
   @NotNull
   public List<Action> findActionsByName(@NotNull @NonNls final String name,
                                         @Nullable @NonNls final String namespace) {
-    return ContainerUtil.findAll(getActionsForNamespace(namespace), action -> action.matchesPath(name));
+    return myActionIndex.getValue().findActionsByName(name, namespace);
   }
 
   @NotNull
   public List<Action> findActionsByClass(@NotNull final PsiClass clazz) {
-    return findActionsByClassInner(clazz, false);
-  }
-
-  private List<Action> findActionsByClassInner(final PsiClass clazz,
-                                               final boolean skipOnFirst) {
-    final List<Action> actionResultList = new SmartList<>();
-
-    for (final StrutsPackage strutsPackage : getStrutsPackages()) {
-      for (final Action action : strutsPackage.getActions()) {
-        final PsiClass actionClassValue = action.searchActionClass();
-        if (Comparing.equal(clazz, actionClassValue)) {
-          actionResultList.add(action);
-          if (skipOnFirst) {
-            return actionResultList;
-          }
-        }
-      }
-    }
-
-    return actionResultList;
+    return myActionClassIndex.getValue().findActionsByClass(clazz);
   }
 
   @Override
   public boolean isActionClass(@NotNull final PsiClass clazz) {
-    return !findActionsByClassInner(clazz, true).isEmpty();
+    return myActionClassIndex.getValue().isActionClass(clazz);
   }
 
   public List<Action> getActionsForNamespace(@Nullable @NonNls final String namespace) {
-    final List<Action> actionResultList = new SmartList<>();
-
-    for (final StrutsPackage strutsPackage : getStrutsPackages()) {
-      if (namespace == null ||
-          Comparing.equal(namespace, strutsPackage.searchNamespace())) {
-        actionResultList.addAll(strutsPackage.getActions());
-      }
-    }
-    return actionResultList;
+    return myActionIndex.getValue().getActions(namespace);
   }
 
   public boolean processActions(final Processor<Action> processor) {
-    for (final StrutsPackage strutsPackage : getStrutsPackages()) {
-      final List<Action> actions = strutsPackage.getActions();
-      if (!ContainerUtil.process(actions, processor)) return false;
-    }
-    return true;
+    return myActionIndex.getValue().processActions(processor);
   }
 }